@@ -0,0 +1,453 @@
+package com.soundmonitor.app;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Signs a session's evidence digests in batches (session.signatures): digests collected over
+ * an interval become the leaves of a Merkle tree and only its root is signed with the device
+ * key, so a session costs a handful of signatures however many segments it has.
+ *
+ * Features:
+ * 1. Each signed digest gets an inclusion proof (the audit path to its batch root), so one
+ *    segment can be shown to be covered by a signature without the others
+ * 2. The signed statement names the session, batch number, time, leaf count and root: a batch
+ *    cannot be moved to another session or have leaves added or dropped
+ * 3. Any JCA private key (an Android Keystore EC key on the device); the public key is written
+ *    to the file, and verify() checks it against a pinned key fingerprint, since a key in the
+ *    file alone only shows the file is self-consistent
+ * 4. Signing time is measured (formatStats)
+ * 5. A batch cut short by a crash (BATCH line without all its PROOF lines at the end of the
+ *    file) is removed when the file is reopened and ignored by verify()
+ *
+ * Line format (UTF-8, tab separated):
+ *   KEY    signature algorithm  key algorithm  public key (X.509, Base64)
+ *   BATCH  number  time ms  leaf count  root  signature (Base64)
+ *   PROOF  batch  leaf index  name  sha256  audit path (hex, comma separated, "-" if none)
+ * A last line without its newline is a torn append. A leaf is H(0x00 || "name TAB sha256"); the signature covers
+ *   "SMBATCH1 TAB session TAB number TAB time TAB leaf count TAB root".
+ */
+public class BatchSigner implements Closeable {
+    public static final String FILE_NAME = "session.signatures";
+    public static final String DEFAULT_ALGORITHM = "SHA256withECDSA";
+    public static final long DEFAULT_INTERVAL_MS = 5 * 60 * 1000;
+
+    public static final String TYPE_KEY = "KEY";
+    public static final String TYPE_BATCH = "BATCH";
+    public static final String TYPE_PROOF = "PROOF";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String STATEMENT_VERSION = "SMBATCH1";
+
+    public static class Batch {
+        public final int number;
+        public final long timeMillis;
+        public final int leafCount;
+        public final String root;
+        public final String signature;
+
+        public Batch(int number, long timeMillis, int leafCount, String root, String signature) {
+            this.number = number;
+            this.timeMillis = timeMillis;
+            this.leafCount = leafCount;
+            this.root = root;
+            this.signature = signature;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "batch %d: %d digests under %s", number, leafCount, root);
+        }
+    }
+
+    public static class Verification {
+        public final int batches;
+        public final int proofs;
+        public final Map<String, String> signedDigests; // name -> sha256 covered by a valid signature
+        public final List<String> keyFingerprints;      // SHA-256 of each public key, to compare with the device's
+        public final Map<Integer, String> roots;        // batch number -> root, of batches with a valid signature
+        public final boolean keyPinned;                 // keys checked against an expected fingerprint
+        public final boolean tornTail;                  // an unfinished last batch was ignored
+        public final String problem;                    // null if every signature and proof holds
+
+        public Verification(int batches, int proofs, Map<String, String> signedDigests, List<String> keyFingerprints,
+                            Map<Integer, String> roots, boolean keyPinned, boolean tornTail, String problem) {
+            this.batches = batches;
+            this.proofs = proofs;
+            this.signedDigests = signedDigests;
+            this.keyFingerprints = keyFingerprints;
+            this.roots = roots;
+            this.keyPinned = keyPinned;
+            this.tornTail = tornTail;
+            this.problem = problem;
+        }
+
+        public boolean isIntact() {
+            return problem == null;
+        }
+
+        @Override
+        public String toString() {
+            if (problem != null) return problem;
+            return String.format(Locale.US, "%d signed batches, %d inclusion proofs valid%s", batches, proofs,
+                tornTail ? ", unfinished last batch ignored" : "");
+        }
+    }
+
+    private final File file;
+    private final String sessionName;
+    private final PrivateKey privateKey;
+    private final String algorithm;
+    private final long intervalMs;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private long position;
+
+    private final List<String> pendingNames = new ArrayList<>();
+    private final List<String> pendingDigests = new ArrayList<>();
+    private long batchOpenedAt = 0;
+    private int nextBatch = 1;
+
+    // Statistics
+    private int signatureCount = 0;
+    private int digestCount = 0;
+    private long signNanos = 0;
+
+    private BatchSigner(File file, String sessionName, PrivateKey privateKey, String algorithm, long intervalMs)
+            throws IOException {
+        this.file = file;
+        this.sessionName = sessionName;
+        this.privateKey = privateKey;
+        this.algorithm = algorithm;
+        this.intervalMs = intervalMs;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+    }
+
+    public static File signaturesFileFor(File sessionFolder) {
+        return new File(sessionFolder, FILE_NAME);
+    }
+
+    /**
+     * Open a session's signature file for new batches, continuing the numbering of an existing
+     * one (a torn last line or unfinished last batch is cut off). The public key is written first.
+     */
+    public static BatchSigner open(File sessionFolder, PrivateKey privateKey, PublicKey publicKey, String algorithm,
+                                   long intervalMs) throws IOException {
+        BatchSigner signer = new BatchSigner(signaturesFileFor(sessionFolder), sessionFolder.getName(), privateKey,
+            algorithm, intervalMs);
+        try {
+            signer.readExisting();
+            signer.writeLine(TYPE_KEY + "\t" + algorithm + "\t" + publicKey.getAlgorithm() + "\t"
+                + Base64.getEncoder().encodeToString(publicKey.getEncoded()));
+            signer.channel.force(false);
+        } catch (IOException e) {
+            signer.raf.close();
+            throw e;
+        }
+        return signer;
+    }
+
+    private void readExisting() throws IOException {
+        long length = channel.size();
+        if (length == 0) return;
+        byte[] bytes = new byte[(int) length];
+        Mp4Box.readFully(channel, ByteBuffer.wrap(bytes), 0);
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') end--;
+        String text = new String(bytes, 0, end, UTF_8);
+        int batchStart = -1;  // byte offset of the last BATCH line while some of its proofs are missing
+        int missingProofs = 0;
+        int lineStart = 0;
+        for (String line : text.split("\n")) {
+            String[] fields = line.split("\t", -1);
+            if (fields[0].equals(TYPE_BATCH) && fields.length == 6) {
+                try {
+                    missingProofs = Integer.parseInt(fields[3]);
+                    batchStart = missingProofs > 0 ? lineStart : -1;
+                    nextBatch = Math.max(nextBatch, Integer.parseInt(fields[1]) + 1);
+                } catch (NumberFormatException e) {
+                    // verify() reports it
+                }
+            } else if (fields[0].equals(TYPE_PROOF) && batchStart >= 0) {
+                if (--missingProofs == 0) batchStart = -1;
+            } else {
+                batchStart = -1;
+            }
+            lineStart += line.getBytes(UTF_8).length + 1;
+        }
+        if (batchStart >= 0) {
+            // The crash came while the batch was written: it was never complete, so it is dropped
+            end = batchStart;
+            nextBatch--;
+        }
+        if (end < bytes.length) channel.truncate(end);
+        position = end;
+    }
+
+    /**
+     * Add a digest to the current batch; signs the batch if its interval has passed, returning it
+     */
+    public synchronized Batch add(String name, String sha256) throws IOException {
+        if (!channel.isOpen()) throw new IOException(file.getName() + " is closed");
+        long now = System.currentTimeMillis();
+        if (pendingNames.isEmpty()) batchOpenedAt = now;
+        pendingNames.add(name);
+        pendingDigests.add(sha256);
+        digestCount++;
+        return now - batchOpenedAt >= intervalMs ? flush() : null;
+    }
+
+    /**
+     * Sign the pending digests as one batch and write it with its proofs; null if none pending
+     */
+    public synchronized Batch flush() throws IOException {
+        if (pendingNames.isEmpty()) return null;
+        int count = pendingNames.size();
+        byte[][] leaves = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            leaves[i] = MerkleTree.leafHash(entry(pendingNames.get(i), pendingDigests.get(i)));
+        }
+        String root = EvidenceHasher.hex(MerkleTree.rootOf(leaves));
+        long time = System.currentTimeMillis();
+        int number = nextBatch;
+
+        long start = System.nanoTime();
+        String signature;
+        try {
+            Signature signer = Signature.getInstance(algorithm);
+            signer.initSign(privateKey);
+            signer.update(statement(sessionName, number, time, count, root));
+            signature = Base64.getEncoder().encodeToString(signer.sign());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot sign batch " + number + ": " + e.getMessage(), e);
+        }
+        signNanos += System.nanoTime() - start;
+
+        StringBuilder lines = new StringBuilder();
+        lines.append(TYPE_BATCH).append('\t').append(number).append('\t').append(time).append('\t').append(count)
+            .append('\t').append(root).append('\t').append(signature).append('\n');
+        for (int i = 0; i < count; i++) {
+            lines.append(TYPE_PROOF).append('\t').append(number).append('\t').append(i).append('\t')
+                .append(field(pendingNames.get(i))).append('\t').append(pendingDigests.get(i)).append('\t')
+                .append(formatPath(MerkleTree.inclusionProof(leaves, i))).append('\n');
+        }
+        writeLine(lines.substring(0, lines.length() - 1));
+        channel.force(false);
+
+        nextBatch++;
+        signatureCount++;
+        pendingNames.clear();
+        pendingDigests.clear();
+        return new Batch(number, time, count, root, signature);
+    }
+
+    public synchronized int getSignatureCount() {
+        return signatureCount;
+    }
+
+    public synchronized int getDigestCount() {
+        return digestCount;
+    }
+
+    public synchronized String formatStats() {
+        return String.format(Locale.US, "%d digests in %d signed batches, %.1f ms signing",
+            digestCount, signatureCount, signNanos / 1e6);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) return;
+        try {
+            flush();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void writeLine(String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(UTF_8));
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // ---- Verification ----
+
+    /**
+     * Check every batch signature with the key written before it and every proof against its
+     * batch root. sessionName is the folder name the batches were signed for. expectedFingerprint
+     * (fingerprint() of the device's public key) pins the key, so a file signed with any other
+     * key fails; with null any key in the file is taken and the result is not keyPinned.
+     */
+    public static Verification verify(File signatures, String sessionName, String expectedFingerprint) throws IOException {
+        byte[] bytes;
+        try (RandomAccessFile raf = new RandomAccessFile(signatures, "r")) {
+            bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+        }
+        String text = new String(bytes, UTF_8);
+        text = text.substring(0, text.lastIndexOf('\n') + 1);
+        boolean pinned = expectedFingerprint != null;
+        Integer trailing = null;  // last batch, while only its own proofs follow it, in leaf order
+        List<String> trailingNames = new ArrayList<>();
+        Map<Integer, Batch> batches = new HashMap<>();
+        Map<Integer, Integer> proofCounts = new HashMap<>();
+        Map<String, String> signed = new LinkedHashMap<>();
+        List<String> fingerprints = new ArrayList<>();
+        PublicKey key = null;
+        String algorithm = null;
+        int proofs = 0;
+        int lineNumber = 0;
+        for (String line : text.split("\n")) {
+            lineNumber++;
+            if (line.isEmpty()) continue;
+            String[] fields = line.split("\t", -1);
+            String where = "line " + lineNumber + ": ";
+            try {
+                if (fields[0].equals(TYPE_KEY) && fields.length == 4) {
+                    algorithm = fields[1];
+                    key = KeyFactory.getInstance(fields[2])
+                        .generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(fields[3])));
+                    String fingerprint = fingerprint(key);
+                    if (!fingerprints.contains(fingerprint)) fingerprints.add(fingerprint);
+                    if (pinned && !fingerprint.equalsIgnoreCase(expectedFingerprint)) {
+                        return result(batches, proofs, signed, fingerprints, pinned, false, where + "key " + fingerprint
+                            + " is not the expected key " + expectedFingerprint);
+                    }
+                    trailing = null;
+                } else if (fields[0].equals(TYPE_BATCH) && fields.length == 6) {
+                    if (key == null) return result(batches, proofs, signed, fingerprints, pinned, false, where + "batch before any key");
+                    Batch batch = new Batch(Integer.parseInt(fields[1]), Long.parseLong(fields[2]),
+                        Integer.parseInt(fields[3]), fields[4], fields[5]);
+                    Signature verifier = Signature.getInstance(algorithm);
+                    verifier.initVerify(key);
+                    verifier.update(statement(sessionName, batch.number, batch.timeMillis, batch.leafCount, batch.root));
+                    if (!verifier.verify(Base64.getDecoder().decode(batch.signature))) {
+                        return result(batches, proofs, signed, fingerprints, pinned, false, where + "signature of batch " + batch.number + " is not valid");
+                    }
+                    if (batches.put(batch.number, batch) != null) {
+                        return result(batches, proofs, signed, fingerprints, pinned, false, where + "batch " + batch.number + " appears twice");
+                    }
+                    trailing = batch.number;
+                    trailingNames.clear();
+                } else if (fields[0].equals(TYPE_PROOF) && fields.length == 6) {
+                    int number = Integer.parseInt(fields[1]);
+                    int leaf = Integer.parseInt(fields[2]);
+                    Batch batch = batches.get(number);
+                    if (batch == null) {
+                        return result(batches, proofs, signed, fingerprints, pinned, false, where + "proof for unknown batch " + number);
+                    }
+                    byte[] leafHash = MerkleTree.leafHash(entry(fields[3], fields[4]));
+                    if (!MerkleTree.verifyInclusion(leafHash, leaf, batch.leafCount, parsePath(fields[5]),
+                            DigestCache.unhex(batch.root))) {
+                        return result(batches, proofs, signed, fingerprints, pinned, false, where + fields[3] + " is not in batch " + number);
+                    }
+                    Integer seen = proofCounts.get(number);
+                    proofCounts.put(number, seen == null ? 1 : seen + 1);
+                    signed.put(fields[3], fields[4]);
+                    proofs++;
+                    if (trailing != null && trailing == number && leaf == trailingNames.size()) {
+                        trailingNames.add(fields[3]);
+                    } else {
+                        trailing = null;
+                    }
+                } else {
+                    return result(batches, proofs, signed, fingerprints, pinned, false, where + "unreadable");
+                }
+            } catch (GeneralSecurityException | IllegalArgumentException | IOException e) {
+                return result(batches, proofs, signed, fingerprints, pinned, false, where + e.getMessage());
+            }
+        }
+        // A last batch cut short by a crash was never complete: its proofs sign nothing
+        boolean torn = bytes.length > 0 && bytes[bytes.length - 1] != '\n';
+        if (trailing != null && trailingNames.size() < batches.get(trailing).leafCount) {
+            batches.remove(trailing);
+            for (String name : trailingNames) signed.remove(name);
+            proofs -= trailingNames.size();
+            torn = true;
+        }
+        for (Batch batch : batches.values()) {
+            Integer seen = proofCounts.get(batch.number);
+            if (seen == null || seen != batch.leafCount) {
+                return result(batches, proofs, signed, fingerprints, pinned, torn, "batch " + batch.number + " has "
+                    + (seen == null ? 0 : seen) + " of its " + batch.leafCount + " proofs");
+            }
+        }
+        return result(batches, proofs, signed, fingerprints, pinned, torn, null);
+    }
+
+    private static Verification result(Map<Integer, Batch> batches, int proofs, Map<String, String> signed,
+                                       List<String> fingerprints, boolean pinned, boolean torn, String problem) {
+        Map<Integer, String> roots = new HashMap<>();
+        for (Batch batch : batches.values()) roots.put(batch.number, batch.root);
+        return new Verification(batches.size(), proofs, signed, fingerprints, roots, pinned, torn, problem);
+    }
+
+    /**
+     * SHA-256 of the encoded public key
+     */
+    public static String fingerprint(PublicKey key) throws IOException {
+        try {
+            return EvidenceHasher.hex(MessageDigest.getInstance("SHA-256").digest(key.getEncoded()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        }
+    }
+
+    static byte[] statement(String sessionName, int number, long time, int count, String root) {
+        return (STATEMENT_VERSION + "\t" + sessionName + "\t" + number + "\t" + time + "\t" + count + "\t" + root)
+            .getBytes(UTF_8);
+    }
+
+    private static byte[] entry(String name, String sha256) {
+        return (field(name) + "\t" + sha256).getBytes(UTF_8);
+    }
+
+    private static String field(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static String formatPath(List<byte[]> path) {
+        if (path.isEmpty()) return "-";
+        StringBuilder builder = new StringBuilder();
+        for (byte[] node : path) {
+            if (builder.length() > 0) builder.append(',');
+            builder.append(EvidenceHasher.hex(node));
+        }
+        return builder.toString();
+    }
+
+    static List<byte[]> parsePath(String field) throws IOException {
+        List<byte[]> path = new ArrayList<>();
+        if (field.equals("-")) return path;
+        for (String node : field.split(",")) {
+            path.add(DigestCache.unhex(node));
+        }
+        return path;
+    }
+}
@@ -0,0 +1,129 @@
+package com.soundmonitor.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * RFC 3161 tokens for a session's signed batch roots (session.timestamps): one TSA round trip
+ * per batch instead of per segment. A segment's PROOF line in session.signatures leads to its
+ * batch root, and the token here shows the root existed at the TSA's time.
+ *
+ * Features:
+ * 1. Tokens are appended as they arrive and synced, so a crash loses at most the one in flight
+ * 2. verify() checks every token's signature and that it timestamps the root of the batch it
+ *    is stored for
+ *
+ * Line format (UTF-8, tab separated):
+ *   TOKEN  batch  root  genTime ms  token (DER, Base64)
+ * A last line without its newline is a torn append and is ignored.
+ */
+public class BatchTimestamps {
+    public static final String FILE_NAME = "session.timestamps";
+    public static final String TYPE_TOKEN = "TOKEN";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static class Verification {
+        public final int tokens;
+        public final Map<Integer, TsaClient.Token> byBatch;
+        public final String problem; // null if every token is valid and for its batch root
+
+        public Verification(int tokens, Map<Integer, TsaClient.Token> byBatch, String problem) {
+            this.tokens = tokens;
+            this.byBatch = byBatch;
+            this.problem = problem;
+        }
+
+        public boolean isIntact() {
+            return problem == null;
+        }
+
+        @Override
+        public String toString() {
+            if (problem != null) return problem;
+            return String.format(Locale.US, "%d timestamp tokens valid", tokens);
+        }
+    }
+
+    private final File file;
+    private final TsaClient client;
+
+    public BatchTimestamps(File sessionFolder, TsaClient client) {
+        this.file = timestampsFileFor(sessionFolder);
+        this.client = client;
+    }
+
+    public static File timestampsFileFor(File sessionFolder) {
+        return new File(sessionFolder, FILE_NAME);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get a token for a signed batch's root and append it; blocks for the TSA round trip
+     */
+    public synchronized TsaClient.Token timestamp(BatchSigner.Batch batch) throws IOException {
+        TsaClient.Token token = client.timestamp(DigestCache.unhex(batch.root), batch.leafCount);
+        String line = TYPE_TOKEN + "\t" + batch.number + "\t" + batch.root + "\t" + token.genTimeMillis + "\t"
+            + token.toBase64() + "\n";
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(line.getBytes(UTF_8));
+            out.getFD().sync();
+        }
+        return token;
+    }
+
+    /**
+     * Check each token against the roots of the session's validly signed batches
+     * (BatchSigner.Verification.roots)
+     */
+    public static Verification verify(File timestamps, Map<Integer, String> batchRoots) throws IOException {
+        byte[] bytes;
+        try (RandomAccessFile raf = new RandomAccessFile(timestamps, "r")) {
+            bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+        }
+        String text = new String(bytes, UTF_8);
+        int end = text.lastIndexOf('\n') + 1;
+        Map<Integer, TsaClient.Token> byBatch = new HashMap<>();
+        int tokens = 0;
+        int lineNumber = 0;
+        for (String line : text.substring(0, end).split("\n")) {
+            lineNumber++;
+            if (line.isEmpty()) continue;
+            String[] fields = line.split("\t", -1);
+            String where = "line " + lineNumber + ": ";
+            if (!fields[0].equals(TYPE_TOKEN) || fields.length != 5) {
+                return new Verification(tokens, byBatch, where + "unreadable");
+            }
+            TsaClient.Token token;
+            int batch;
+            try {
+                batch = Integer.parseInt(fields[1]);
+                token = TsaClient.parseToken(Base64.getDecoder().decode(fields[4]));
+            } catch (IOException | IllegalArgumentException e) {
+                return new Verification(tokens, byBatch, where + e.getMessage());
+            }
+            String root = batchRoots.get(batch);
+            if (root == null) {
+                return new Verification(tokens, byBatch, where + "token for batch " + batch + ", which is not signed");
+            }
+            if (!token.imprint.equals(root) || !fields[2].equals(root)) {
+                return new Verification(tokens, byBatch, where + "token is for " + token.imprint + ", batch " + batch
+                    + " has root " + root);
+            }
+            byBatch.put(batch, token);
+            tokens++;
+        }
+        return new Verification(tokens, byBatch, null);
+    }
+}
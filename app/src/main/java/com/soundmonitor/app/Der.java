@@ -0,0 +1,331 @@
+package com.soundmonitor.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Minimal ASN.1 DER codec for RFC 3161 timestamp requests and tokens (TsaClient).
+ *
+ * Features:
+ * 1. Encodes the few types a TimeStampReq needs (and a test TSA its reply)
+ * 2. Parses without copying: an Element is a view of its bytes in the source, so a signed part
+ *    (CMS signed attributes, a certificate) can be handed on exactly as it was received
+ *
+ * Only single-byte tags and definite lengths up to 2^31 are supported, which covers DER.
+ */
+final class Der {
+    static final int BOOLEAN = 0x01;
+    static final int INTEGER = 0x02;
+    static final int BIT_STRING = 0x03;
+    static final int OCTET_STRING = 0x04;
+    static final int NULL = 0x05;
+    static final int OID = 0x06;
+    static final int UTF8_STRING = 0x0C;
+    static final int UTC_TIME = 0x17;
+    static final int GENERALIZED_TIME = 0x18;
+    static final int SEQUENCE = 0x30;
+    static final int SET = 0x31;
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private Der() {
+    }
+
+    /**
+     * Tag of context-specific [n], constructed (EXPLICIT, or IMPLICIT over a constructed type)
+     */
+    static int context(int n) {
+        return 0xA0 | n;
+    }
+
+    /**
+     * Tag of context-specific [n], primitive (IMPLICIT over a primitive type)
+     */
+    static int contextPrimitive(int n) {
+        return 0x80 | n;
+    }
+
+    // ---- Encoding ----
+
+    static byte[] encode(int tag, byte[]... contents) {
+        int length = 0;
+        for (byte[] content : contents) length += content.length;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int bytes = (32 - Integer.numberOfLeadingZeros(length) + 7) / 8;
+            out.write(0x80 | bytes);
+            for (int i = bytes - 1; i >= 0; i--) out.write(length >>> (8 * i));
+        }
+        for (byte[] content : contents) out.write(content, 0, content.length);
+        return out.toByteArray();
+    }
+
+    static byte[] sequence(byte[]... contents) {
+        return encode(SEQUENCE, contents);
+    }
+
+    static byte[] set(byte[]... contents) {
+        return encode(SET, contents);
+    }
+
+    static byte[] explicit(int n, byte[] content) {
+        return encode(context(n), content);
+    }
+
+    static byte[] integer(BigInteger value) {
+        return encode(INTEGER, value.toByteArray());
+    }
+
+    static byte[] integer(long value) {
+        return integer(BigInteger.valueOf(value));
+    }
+
+    static byte[] bool(boolean value) {
+        return encode(BOOLEAN, new byte[] { (byte) (value ? 0xFF : 0) });
+    }
+
+    static byte[] octetString(byte[] value) {
+        return encode(OCTET_STRING, value);
+    }
+
+    static byte[] bitString(byte[] value) {
+        byte[] content = new byte[value.length + 1];
+        System.arraycopy(value, 0, content, 1, value.length);
+        return encode(BIT_STRING, content);
+    }
+
+    static byte[] nullValue() {
+        return encode(NULL);
+    }
+
+    static byte[] utf8String(String value) {
+        return encode(UTF8_STRING, value.getBytes(Charset.forName("UTF-8")));
+    }
+
+    static byte[] oid(String dotted) {
+        String[] arcs = dotted.split("\\.");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeBase128(out, Long.parseLong(arcs[0]) * 40 + Long.parseLong(arcs[1]));
+        for (int i = 2; i < arcs.length; i++) writeBase128(out, Long.parseLong(arcs[i]));
+        return encode(OID, out.toByteArray());
+    }
+
+    private static void writeBase128(ByteArrayOutputStream out, long value) {
+        int groups = Math.max(1, (64 - Long.numberOfLeadingZeros(value) + 6) / 7);
+        for (int i = groups - 1; i >= 0; i--) {
+            int group = (int) (value >>> (7 * i)) & 0x7F;
+            out.write(i > 0 ? group | 0x80 : group);
+        }
+    }
+
+    /**
+     * GeneralizedTime in UTC, with milliseconds if there are any
+     */
+    static byte[] generalizedTime(long millis) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.US);
+        calendar.setTimeInMillis(millis);
+        String text = String.format(Locale.US, "%04d%02d%02d%02d%02d%02d", calendar.get(Calendar.YEAR),
+            calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH), calendar.get(Calendar.HOUR_OF_DAY),
+            calendar.get(Calendar.MINUTE), calendar.get(Calendar.SECOND));
+        int ms = calendar.get(Calendar.MILLISECOND);
+        if (ms > 0) {
+            String fraction = String.format(Locale.US, "%03d", ms);
+            while (fraction.endsWith("0")) fraction = fraction.substring(0, fraction.length() - 1);
+            text += "." + fraction;
+        }
+        return encode(GENERALIZED_TIME, (text + "Z").getBytes(US_ASCII));
+    }
+
+    // ---- Parsing ----
+
+    /**
+     * Parse one element that must fill the whole array
+     */
+    static Element parse(byte[] der) throws IOException {
+        Element element = parse(der, 0, der.length);
+        if (element.end() != der.length) throw new IOException("Trailing bytes after DER element");
+        return element;
+    }
+
+    static Element parse(byte[] source, int offset, int limit) throws IOException {
+        if (offset + 2 > limit) throw new IOException("Truncated DER element");
+        int tag = source[offset] & 0xFF;
+        if ((tag & 0x1F) == 0x1F) throw new IOException("Multi-byte DER tag");
+        int first = source[offset + 1] & 0xFF;
+        int position = offset + 2;
+        long length;
+        if (first < 0x80) {
+            length = first;
+        } else {
+            int bytes = first & 0x7F;
+            if (bytes == 0) throw new IOException("Indefinite length is not DER");
+            if (bytes > 4 || position + bytes > limit) throw new IOException("Bad DER length");
+            length = 0;
+            for (int i = 0; i < bytes; i++) length = (length << 8) | (source[position++] & 0xFF);
+        }
+        if (length > limit - position) throw new IOException("DER element overruns its container");
+        return new Element(tag, source, offset, position, (int) length);
+    }
+
+    /**
+     * One element, as a view of its source bytes
+     */
+    static class Element {
+        final int tag;
+        private final byte[] source;
+        private final int offset;
+        private final int contentOffset;
+        final int length;
+
+        Element(int tag, byte[] source, int offset, int contentOffset, int length) {
+            this.tag = tag;
+            this.source = source;
+            this.offset = offset;
+            this.contentOffset = contentOffset;
+            this.length = length;
+        }
+
+        int end() {
+            return contentOffset + length;
+        }
+
+        byte[] content() {
+            byte[] content = new byte[length];
+            System.arraycopy(source, contentOffset, content, 0, length);
+            return content;
+        }
+
+        /**
+         * The element as received, tag and length included
+         */
+        byte[] encoded() {
+            byte[] encoded = new byte[end() - offset];
+            System.arraycopy(source, offset, encoded, 0, encoded.length);
+            return encoded;
+        }
+
+        Element expect(int expectedTag) throws IOException {
+            if (tag != expectedTag) {
+                throw new IOException(String.format(Locale.US, "Expected DER tag 0x%02x, found 0x%02x", expectedTag, tag));
+            }
+            return this;
+        }
+
+        List<Element> children() throws IOException {
+            if ((tag & 0x20) == 0) throw new IOException(String.format(Locale.US, "DER tag 0x%02x is not constructed", tag));
+            List<Element> children = new ArrayList<>();
+            int position = contentOffset;
+            while (position < end()) {
+                Element child = parse(source, position, end());
+                children.add(child);
+                position = child.end();
+            }
+            return children;
+        }
+
+        Element child(int index) throws IOException {
+            List<Element> children = children();
+            if (index >= children.size()) throw new IOException("Missing DER field " + index);
+            return children.get(index);
+        }
+
+        /**
+         * The one element inside an EXPLICIT tag or an OCTET STRING that wraps DER
+         */
+        Element inner() throws IOException {
+            Element inner = parse(source, contentOffset, end());
+            if (inner.end() != end()) throw new IOException("Trailing bytes in DER wrapper");
+            return inner;
+        }
+
+        BigInteger integer() throws IOException {
+            expect(INTEGER);
+            if (length == 0) throw new IOException("Empty DER integer");
+            return new BigInteger(content());
+        }
+
+        boolean bool() throws IOException {
+            expect(BOOLEAN);
+            return length == 1 && source[contentOffset] != 0;
+        }
+
+        String oid() throws IOException {
+            expect(OID);
+            StringBuilder dotted = new StringBuilder();
+            long value = 0;
+            boolean first = true;
+            for (int i = contentOffset; i < end(); i++) {
+                value = (value << 7) | (source[i] & 0x7F);
+                if ((source[i] & 0x80) != 0) continue;
+                if (first) {
+                    long top = Math.min(value / 40, 2);
+                    dotted.append(top).append('.').append(value - 40 * top);
+                    first = false;
+                } else {
+                    dotted.append('.').append(value);
+                }
+                value = 0;
+            }
+            return dotted.toString();
+        }
+
+        String string() {
+            return new String(source, contentOffset, length, Charset.forName("UTF-8"));
+        }
+
+        /**
+         * Milliseconds of a GeneralizedTime or UTCTime in UTC ("Z" form only, as DER requires)
+         */
+        long time() throws IOException {
+            String text = new String(source, contentOffset, length, US_ASCII);
+            int year;
+            int at;
+            if (tag == GENERALIZED_TIME) {
+                year = digits(text, 0, 4);
+                at = 4;
+            } else if (tag == UTC_TIME) {
+                year = digits(text, 0, 2);
+                year += year < 50 ? 2000 : 1900;
+                at = 2;
+            } else {
+                throw new IOException(String.format(Locale.US, "DER tag 0x%02x is not a time", tag));
+            }
+            if (!text.endsWith("Z") || text.length() < at + 11) throw new IOException("Unsupported time " + text);
+            Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.US);
+            calendar.clear();
+            calendar.set(year, digits(text, at, 2) - 1, digits(text, at + 2, 2), digits(text, at + 4, 2),
+                digits(text, at + 6, 2), digits(text, at + 8, 2));
+            long millis = calendar.getTimeInMillis();
+            int fraction = at + 10;
+            if (text.charAt(fraction) == '.') {
+                String digits = text.substring(fraction + 1, text.length() - 1);
+                if (digits.isEmpty()) throw new IOException("Unsupported time " + text);
+                millis += digits((digits + "00").substring(0, 3), 0, 3);
+            } else if (fraction != text.length() - 1) {
+                throw new IOException("Unsupported time " + text);
+            }
+            return millis;
+        }
+
+        private static int digits(String text, int from, int count) throws IOException {
+            if (from + count > text.length()) throw new IOException("Unsupported time " + text);
+            int value = 0;
+            for (int i = from; i < from + count; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') throw new IOException("Unsupported time " + text);
+                value = value * 10 + (c - '0');
+            }
+            return value;
+        }
+    }
+}
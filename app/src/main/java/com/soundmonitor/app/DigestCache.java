@@ -0,0 +1,292 @@
+package com.soundmonitor.app;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Persistent cache of evidence file digests (plain SHA-256, Merkle root, seeded SHA-256s), so
+ * regenerating a report or exporting again does not read a file that was hashed before - in
+ * this session or an earlier one.
+ *
+ * Features:
+ * 1. An entry is only returned while the file has the same path, size, modification time and
+ *    inode as when it was hashed: a file replaced by another of the same size and time (copy,
+ *    restore from backup) has a new inode and is hashed again
+ * 2. Least recently used entries beyond MAX_ENTRIES are dropped
+ * 3. Hit rate and bytes of hashing avoided, for the session log
+ *
+ * File layout (big-endian):
+ *   header  MAGIC, version (short), reserved (short), entry count (int)
+ *   entry   path (UTF), size (long), modified (long), inode (long), SHA-256 (32 bytes),
+ *           has Merkle root (byte) + root (32 bytes), seed count (short) + per seed: seed (UTF), digest (32 bytes)
+ */
+public class DigestCache {
+    public static final String FILE_NAME = "digests.cache";
+    public static final int MAX_ENTRIES = 4096;
+
+    private static final int MAGIC = 0x534D4443; // "SMDC"
+    private static final short VERSION = 1;
+    private static final int HASH_SIZE = 32;
+
+    /**
+     * Reads a file's inode (android.system.Os.stat on the device); -1 if unknown
+     */
+    public interface InodeReader {
+        long inodeOf(File file) throws IOException;
+    }
+
+    public static class Entry {
+        public final String path;
+        public final long sizeBytes;
+        public final long lastModified;
+        public final long inode;
+        public final String sha256;
+        public final String merkleRoot;   // null if not recorded
+        public final Map<String, String> seeded; // base64 seed -> hex digest
+
+        public Entry(String path, long sizeBytes, long lastModified, long inode, String sha256, String merkleRoot,
+                     Map<String, String> seeded) {
+            this.path = path;
+            this.sizeBytes = sizeBytes;
+            this.lastModified = lastModified;
+            this.inode = inode;
+            this.sha256 = sha256;
+            this.merkleRoot = merkleRoot;
+            this.seeded = Collections.unmodifiableMap(seeded);
+        }
+
+        /**
+         * Has a seeded digest for every seed
+         */
+        public boolean covers(Collection<String> seeds) {
+            return seeded.keySet().containsAll(seeds);
+        }
+
+        boolean matches(File file, long currentInode) {
+            return file.length() == sizeBytes && file.lastModified() == lastModified && currentInode == inode;
+        }
+    }
+
+    private final File file;
+    private final InodeReader inodes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DigestCache.Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private boolean dirty = false;
+    private int hitCount = 0;
+    private int missCount = 0;
+    private long bytesAvoided = 0;
+
+    /**
+     * Empty cache saved to file; call load() to read what an earlier run saved
+     */
+    public DigestCache(File file, InodeReader inodes) {
+        this.file = file;
+        this.inodes = inodes;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Entry for the file if it is unchanged since it was hashed, else null. Does not count as a
+     * hit or miss: callers report whether the entry saved them a read.
+     */
+    public synchronized Entry get(File file) {
+        Entry entry = entries.get(file.getAbsolutePath());
+        if (entry == null) return null;
+        if (entry.matches(file, inodeOf(file))) return entry;
+        entries.remove(entry.path);
+        dirty = true;
+        return null;
+    }
+
+    /**
+     * Record a file's digests, keeping seeded digests of an earlier entry for the same file
+     */
+    public synchronized Entry put(File file, String sha256, String merkleRoot, Map<String, String> seeded) {
+        String path = file.getAbsolutePath();
+        long inode = inodeOf(file);
+        Map<String, String> all = new LinkedHashMap<>();
+        Entry previous = entries.get(path);
+        if (previous != null && previous.matches(file, inode) && previous.sha256.equals(sha256)) {
+            all.putAll(previous.seeded);
+            if (merkleRoot == null) merkleRoot = previous.merkleRoot;
+        }
+        all.putAll(seeded);
+        Entry entry = new Entry(path, file.length(), file.lastModified(), inode, sha256, merkleRoot, all);
+        entries.put(path, entry);
+        dirty = true;
+        return entry;
+    }
+
+    synchronized void recordHit(Entry entry) {
+        hitCount++;
+        bytesAvoided += entry.sizeBytes;
+    }
+
+    synchronized void recordMiss() {
+        missCount++;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /** Bytes that would have been read to hash the files served from the cache */
+    public synchronized long getBytesAvoided() {
+        return bytesAvoided;
+    }
+
+    public synchronized String formatStats() {
+        int lookups = hitCount + missCount;
+        return String.format(Locale.US, "%d entries, %d/%d hits (%.0f%%), %.1f MB of hashing avoided",
+            entries.size(), hitCount, lookups, lookups > 0 ? 100.0 * hitCount / lookups : 0.0,
+            bytesAvoided / (1024.0 * 1024.0));
+    }
+
+    private long inodeOf(File file) {
+        if (inodes == null) return -1;
+        try {
+            return inodes.inodeOf(file);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    // ---- File ----
+
+    /**
+     * Write the cache if it changed since it was loaded or last saved
+     */
+    public void save() throws IOException {
+        List<Entry> snapshot;
+        synchronized (this) {
+            if (!dirty) return;
+            snapshot = new ArrayList<>(entries.values());
+            dirty = false;
+        }
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeInt(snapshot.size());
+            for (Entry entry : snapshot) {
+                out.writeUTF(entry.path);
+                out.writeLong(entry.sizeBytes);
+                out.writeLong(entry.lastModified);
+                out.writeLong(entry.inode);
+                out.write(unhex(entry.sha256));
+                out.writeByte(entry.merkleRoot != null ? 1 : 0);
+                if (entry.merkleRoot != null) out.write(unhex(entry.merkleRoot));
+                out.writeShort(entry.seeded.size());
+                for (Map.Entry<String, String> seeded : entry.seeded.entrySet()) {
+                    out.writeUTF(seeded.getKey());
+                    out.write(unhex(seeded.getValue()));
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            throw e;
+        }
+        if ((file.exists() && !file.delete()) || !tmp.renameTo(file)) {
+            throw new IOException("Cannot move " + tmp.getName() + " to " + file.getName());
+        }
+    }
+
+    /**
+     * Read the saved cache with a single read, replacing the entries in memory. A missing file
+     * is an empty cache.
+     */
+    public void load() throws IOException {
+        if (!file.exists()) return;
+        byte[] bytes;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() > Integer.MAX_VALUE) throw new IOException("Digest cache too large: " + file.getName());
+            bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (bytes.length < 12 || in.readInt() != MAGIC) {
+            throw new IOException("Not a digest cache: " + file.getName());
+        }
+        short version = in.readShort();
+        if (version != VERSION) throw new IOException("Unsupported digest cache version " + version);
+        in.readShort();
+        int count = in.readInt();
+        List<Entry> loaded = new ArrayList<>();
+        try {
+            byte[] hash = new byte[HASH_SIZE];
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                long inode = in.readLong();
+                in.readFully(hash);
+                String sha256 = EvidenceHasher.hex(hash);
+                String merkleRoot = null;
+                if (in.readByte() != 0) {
+                    in.readFully(hash);
+                    merkleRoot = EvidenceHasher.hex(hash);
+                }
+                int seedCount = in.readShort() & 0xFFFF;
+                Map<String, String> seeded = new LinkedHashMap<>();
+                for (int s = 0; s < seedCount; s++) {
+                    String seed = in.readUTF();
+                    in.readFully(hash);
+                    seeded.put(seed, EvidenceHasher.hex(hash));
+                }
+                loaded.add(new Entry(path, size, modified, inode, sha256, merkleRoot, seeded));
+            }
+        } catch (IOException e) {
+            throw new IOException("Damaged digest cache: " + file.getName(), e);
+        }
+        synchronized (this) {
+            entries.clear();
+            for (Entry entry : loaded) {
+                entries.put(entry.path, entry);
+            }
+            dirty = false;
+        }
+    }
+
+    static byte[] unhex(String hex) throws IOException {
+        if (hex.length() != HASH_SIZE * 2) throw new IOException("Not a SHA-256 digest: " + hex);
+        byte[] bytes = new byte[HASH_SIZE];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) throw new IOException("Not a SHA-256 digest: " + hex);
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,542 @@
+package com.soundmonitor.app;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Locale;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * File encrypted at rest in independently authenticated AES-GCM chunks, seen through the
+ * FileChannel interface: writers (FragmentedMp4Writer) and readers (Mp4Box) work on the
+ * plaintext and never hold it on disk.
+ *
+ * Features:
+ * 1. Random access: position p lives in chunk p / chunkSize, so a read decrypts only the
+ *    chunks it touches (playback, seeking, re-verification from a saved leaf)
+ * 2. Each chunk has its own random nonce and tag, with the file id, chunk index and a last-chunk
+ *    flag as additional data (as in STREAM): a changed, swapped or moved chunk fails
+ *    authentication on its own, and so does a file cut short at a chunk boundary
+ * 3. Appends fill the current chunk in memory and encrypt it once, when full; force() and
+ *    close() also write a partial last chunk, which is re-encrypted under a new nonce when it
+ *    grows (the fsync of each finished fragment keeps working)
+ * 4. Time spent in the cipher is measured (formatStats), to show it keeps up with recording
+ *
+ * File layout:
+ *   header  MAGIC, version (short), reserved (short), chunk size (int), file id (16 bytes), reserved (int)
+ *   chunk   nonce (12 bytes), ciphertext (chunk size, the last may be shorter), GCM tag (16 bytes)
+ * Only the last chunk is shorter than the chunk size and flagged last; a file whose plaintext
+ * ends on a chunk boundary ends in an empty last chunk.
+ *
+ * Plaintext size follows from the file length. Hash-on-write digests sit above the channel,
+ * so they cover the plaintext - the bytes an export and the evidence hashes refer to.
+ */
+public class EncryptedFileChannel extends FileChannel {
+    public static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int HEADER_SIZE = 32;
+    public static final int NONCE_SIZE = 12;
+    public static final int TAG_SIZE = 16;
+
+    private static final int MAGIC = 0x534D4546; // "SMEF"
+    private static final short VERSION = 2; // 2: last-chunk flag in the additional data
+    private static final int FILE_ID_SIZE = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final SecretKey key;
+    private final boolean writable;
+    private final int chunkSize;
+    private final int slotSize;
+    private final Cipher cipher;
+    private final byte[] aad = new byte[FILE_ID_SIZE + 9];
+    private final byte[] sealed;
+
+    private long size;
+    private long position = 0;
+
+    // Plaintext of the chunk being read or written
+    private final byte[] chunk;
+    private long chunkIndex = -1;
+    private int chunkLength = 0;
+    private boolean chunkDirty = false;
+    private boolean endSealed = false; // the empty last chunk of a file ending on a boundary is written
+
+    // Cipher statistics
+    private long chunksWritten = 0;
+    private long chunksRead = 0;
+    private long bytesEncrypted = 0;
+    private long bytesDecrypted = 0;
+    private long encryptNanos = 0;
+    private long decryptNanos = 0;
+
+    private EncryptedFileChannel(File file, RandomAccessFile raf, SecretKey key, boolean writable, int chunkSize,
+                                 byte[] fileId) throws IOException {
+        this.file = file;
+        this.raf = raf;
+        this.channel = raf.getChannel();
+        this.key = key;
+        this.writable = writable;
+        this.chunkSize = chunkSize;
+        this.slotSize = NONCE_SIZE + chunkSize + TAG_SIZE;
+        this.chunk = new byte[chunkSize];
+        this.sealed = new byte[slotSize];
+        System.arraycopy(fileId, 0, aad, 0, FILE_ID_SIZE);
+        try {
+            this.cipher = Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(TRANSFORMATION + " not available", e);
+        }
+    }
+
+    /**
+     * Create (or overwrite) file as an empty encrypted file
+     */
+    public static EncryptedFileChannel create(File file, SecretKey key, int chunkSize) throws IOException {
+        if (chunkSize <= 0) throw new IllegalArgumentException("Chunk size must be positive");
+        byte[] fileId = new byte[FILE_ID_SIZE];
+        RANDOM.nextBytes(fileId);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putInt(chunkSize).put(fileId).putInt(0);
+            header.flip();
+            raf.getChannel().truncate(0);
+            writeFully(raf.getChannel(), header, 0);
+            EncryptedFileChannel channel = new EncryptedFileChannel(file, raf, key, true, chunkSize, fileId);
+            channel.size = 0;
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open an encrypted file. Read-only, a file whose last chunk is missing (cut at a chunk
+     * boundary) fails to open; a short last chunk is checked when read. Writable, a torn last
+     * chunk (shorter than its nonce and tag) is not part of the plaintext and writing past it
+     * replaces it.
+     */
+    public static EncryptedFileChannel open(File file, SecretKey key, boolean writable) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (raf.length() < HEADER_SIZE) throw new IOException("Not an encrypted file: " + file.getName());
+            Mp4Box.readFully(raf.getChannel(), header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) throw new IOException("Not an encrypted file: " + file.getName());
+            short version = header.getShort();
+            if (version != VERSION) throw new IOException("Unsupported encrypted file version " + version);
+            header.getShort();
+            int chunkSize = header.getInt();
+            if (chunkSize <= 0) throw new IOException("Bad chunk size " + chunkSize + " in " + file.getName());
+            byte[] fileId = new byte[FILE_ID_SIZE];
+            header.get(fileId);
+
+            EncryptedFileChannel channel = new EncryptedFileChannel(file, raf, key, writable, chunkSize, fileId);
+            channel.size = plaintextSize(raf.length(), chunkSize);
+            if (!writable) channel.checkEnd();
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * True if file starts like a file written by this class
+     */
+    public static boolean isEncrypted(File file) {
+        if (file.length() < HEADER_SIZE) return false;
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] magic = new byte[4];
+            return in.read(magic) == 4 && ByteBuffer.wrap(magic).getInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Bytes of plaintext in a file: its length, or for an encrypted file what its chunks decrypt
+     * to (from the header's chunk size, no key needed). Sizes recorded for evidence files are
+     * this, like their digests.
+     */
+    public static long plaintextLength(File file) {
+        if (!isEncrypted(file)) return file.length();
+        try (FileInputStream in = new FileInputStream(file)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            Mp4Box.readFully(in.getChannel(), header, 0);
+            int chunkSize = header.getInt(8);
+            return chunkSize > 0 ? plaintextSize(file.length(), chunkSize) : file.length();
+        } catch (IOException e) {
+            return file.length();
+        }
+    }
+
+    private static long plaintextSize(long fileLength, int chunkSize) {
+        long stored = fileLength - HEADER_SIZE;
+        long slotSize = NONCE_SIZE + (long) chunkSize + TAG_SIZE;
+        long tail = stored % slotSize - NONCE_SIZE - TAG_SIZE;
+        return stored / slotSize * chunkSize + Math.max(0, tail);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    // ---- FileChannel ----
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        int read = read(dst, position);
+        if (read > 0) position += read;
+        return read;
+    }
+
+    @Override
+    public synchronized long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int read = read(dsts[i]);
+            if (read < 0) return total > 0 ? total : -1;
+            total += read;
+            if (dsts[i].hasRemaining()) break;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst, long position) throws IOException {
+        ensureOpen();
+        if (position < 0) throw new IllegalArgumentException("Negative position");
+        if (position >= size) return -1;
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            loadChunk(position / chunkSize);
+            int offset = (int) (position - chunkIndex * chunkSize);
+            int count = Math.min(dst.remaining(), chunkLength - offset);
+            dst.put(chunk, offset, count);
+            position += count;
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+        int written = write(src, position);
+        position += written;
+        return written;
+    }
+
+    @Override
+    public synchronized long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += write(srcs[i]);
+        }
+        return total;
+    }
+
+    /**
+     * Write at position; a gap after the current end reads back as zeros
+     */
+    @Override
+    public synchronized int write(ByteBuffer src, long position) throws IOException {
+        ensureOpen();
+        if (!writable) throw new NonWritableChannelException();
+        if (position < 0) throw new IllegalArgumentException("Negative position");
+        if (position > size) {
+            ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(chunkSize, position - size));
+            while (size < position) {
+                zeros.clear();
+                zeros.limit((int) Math.min(zeros.capacity(), position - size));
+                write(zeros, size);
+            }
+        }
+        int total = 0;
+        while (src.hasRemaining()) {
+            loadChunk(position / chunkSize);
+            int offset = (int) (position - chunkIndex * chunkSize);
+            int count = Math.min(src.remaining(), chunkSize - offset);
+            src.get(chunk, offset, count);
+            chunkLength = Math.max(chunkLength, offset + count);
+            chunkDirty = true;
+            endSealed = false;
+            position += count;
+            total += count;
+            size = Math.max(size, position);
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized FileChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) throw new IllegalArgumentException("Negative position");
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public synchronized FileChannel truncate(long newSize) throws IOException {
+        ensureOpen();
+        if (!writable) throw new NonWritableChannelException();
+        if (newSize < 0) throw new IllegalArgumentException("Negative size");
+        if (newSize < size) {
+            long keptChunks = newSize / chunkSize;
+            int tail = (int) (newSize % chunkSize);
+            if (tail > 0) {
+                // The cut chunk is re-encrypted shorter
+                loadChunk(keptChunks);
+                chunkLength = tail;
+                chunkDirty = true;
+            } else if (chunkIndex >= keptChunks) {
+                chunkIndex = -1;
+                chunkLength = 0;
+                chunkDirty = false;
+            }
+            channel.truncate(HEADER_SIZE + keptChunks * slotSize);
+            size = newSize;
+            endSealed = false;
+        }
+        if (position > newSize) position = newSize;
+        return this;
+    }
+
+    /**
+     * Encrypt and write a pending chunk, then force the file
+     */
+    @Override
+    public synchronized void force(boolean metaData) throws IOException {
+        ensureOpen();
+        flushChunk();
+        sealEnd();
+        channel.force(metaData);
+    }
+
+    @Override
+    public synchronized long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+        long total = 0;
+        while (total < count) {
+            buffer.clear();
+            buffer.limit((int) Math.min(chunkSize, count - total));
+            int read = read(buffer, position + total);
+            if (read <= 0) break;
+            buffer.flip();
+            while (buffer.hasRemaining()) target.write(buffer);
+            total += read;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+        long total = 0;
+        while (total < count) {
+            buffer.clear();
+            buffer.limit((int) Math.min(chunkSize, count - total));
+            int read = src.read(buffer);
+            if (read <= 0) break;
+            buffer.flip();
+            total += write(buffer, position + total);
+        }
+        return total;
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        throw new UnsupportedOperationException("Encrypted files cannot be mapped");
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+        return channel.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+        return channel.tryLock(position, size, shared);
+    }
+
+    @Override
+    protected synchronized void implCloseChannel() throws IOException {
+        try {
+            if (writable) {
+                flushChunk();
+                sealEnd();
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    // ---- Chunks ----
+
+    private void ensureOpen() throws IOException {
+        if (!isOpen()) throw new ClosedChannelException();
+    }
+
+    /**
+     * Make index the chunk in memory, writing out the previous one if it changed
+     */
+    private void loadChunk(long index) throws IOException {
+        if (index == chunkIndex) return;
+        flushChunk();
+        long start = index * chunkSize;
+        int length = (int) Math.max(0, Math.min(chunkSize, size - start));
+        chunkIndex = -1;
+        if (length > 0) {
+            ByteBuffer slot = ByteBuffer.wrap(sealed, 0, NONCE_SIZE + length + TAG_SIZE);
+            Mp4Box.readFully(channel, slot, HEADER_SIZE + index * slotSize);
+            long begin = System.nanoTime();
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, sealed, 0, NONCE_SIZE));
+                cipher.updateAAD(aadFor(index, length < chunkSize));
+                cipher.doFinal(sealed, NONCE_SIZE, length + TAG_SIZE, chunk, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Chunk " + index + " of " + file.getName() + " failed authentication", e);
+            }
+            decryptNanos += System.nanoTime() - begin;
+            bytesDecrypted += length;
+            chunksRead++;
+        }
+        chunkIndex = index;
+        chunkLength = length;
+        chunkDirty = false;
+    }
+
+    private void flushChunk() throws IOException {
+        if (!chunkDirty) return;
+        long begin = System.nanoTime();
+        RANDOM.nextBytes(sealed);
+        int sealedLength;
+        try {
+            // A fresh nonce each time: a partial chunk written again must not reuse one
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, sealed, 0, NONCE_SIZE));
+            cipher.updateAAD(aadFor(chunkIndex, chunkLength < chunkSize));
+            sealedLength = NONCE_SIZE + cipher.doFinal(chunk, 0, chunkLength, sealed, NONCE_SIZE);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot encrypt chunk " + chunkIndex + " of " + file.getName(), e);
+        }
+        encryptNanos += System.nanoTime() - begin;
+        bytesEncrypted += chunkLength;
+        chunksWritten++;
+        long slotStart = HEADER_SIZE + chunkIndex * slotSize;
+        writeFully(channel, ByteBuffer.wrap(sealed, 0, sealedLength), slotStart);
+        if (chunkIndex * chunkSize + chunkLength == size && channel.size() > slotStart + sealedLength) {
+            // Last chunk written over a longer torn one
+            channel.truncate(slotStart + sealedLength);
+        }
+        chunkDirty = false;
+    }
+
+    /**
+     * Write the empty last chunk of a file that ends on a chunk boundary
+     */
+    private void sealEnd() throws IOException {
+        if (endSealed || size % chunkSize != 0) return;
+        long index = size / chunkSize;
+        RANDOM.nextBytes(sealed);
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, sealed, 0, NONCE_SIZE));
+            cipher.updateAAD(aadFor(index, true));
+            cipher.doFinal(chunk, 0, 0, sealed, NONCE_SIZE);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot encrypt the end of " + file.getName(), e);
+        }
+        long slotStart = HEADER_SIZE + index * slotSize;
+        writeFully(channel, ByteBuffer.wrap(sealed, 0, NONCE_SIZE + TAG_SIZE), slotStart);
+        if (channel.size() > slotStart + NONCE_SIZE + TAG_SIZE) channel.truncate(slotStart + NONCE_SIZE + TAG_SIZE);
+        endSealed = true;
+    }
+
+    /**
+     * A file that ends on a chunk boundary must end in its empty last chunk: without it, whole
+     * chunks were cut off the end
+     */
+    private void checkEnd() throws IOException {
+        if (size % chunkSize != 0) return; // the short last chunk is authenticated as last when read
+        long index = size / chunkSize;
+        long slotStart = HEADER_SIZE + index * slotSize;
+        if (channel.size() != slotStart + NONCE_SIZE + TAG_SIZE) {
+            throw new IOException(file.getName() + " is truncated: no last chunk after chunk " + (index - 1));
+        }
+        Mp4Box.readFully(channel, ByteBuffer.wrap(sealed, 0, NONCE_SIZE + TAG_SIZE), slotStart);
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, sealed, 0, NONCE_SIZE));
+            cipher.updateAAD(aadFor(index, true));
+            cipher.doFinal(sealed, NONCE_SIZE, TAG_SIZE, chunk, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Last chunk of " + file.getName() + " failed authentication", e);
+        }
+        endSealed = true;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private byte[] aadFor(long index, boolean last) {
+        ByteBuffer.wrap(aad, FILE_ID_SIZE, 9).putLong(index).put((byte) (last ? 1 : 0));
+        return aad;
+    }
+
+    // ---- Statistics ----
+
+    public synchronized long getBytesEncrypted() {
+        return bytesEncrypted;
+    }
+
+    /** Plaintext MB per second of cipher time when encrypting; 0 before the first chunk */
+    public synchronized double getEncryptThroughputMBps() {
+        return encryptNanos > 0 ? bytesEncrypted / (1024.0 * 1024.0) / (encryptNanos / 1e9) : 0;
+    }
+
+    public synchronized double getDecryptThroughputMBps() {
+        return decryptNanos > 0 ? bytesDecrypted / (1024.0 * 1024.0) / (decryptNanos / 1e9) : 0;
+    }
+
+    public synchronized String formatStats() {
+        return String.format(Locale.US, "%d chunks (%.1f MB) encrypted at %.0f MB/s, %d chunks decrypted at %.0f MB/s",
+            chunksWritten, bytesEncrypted / (1024.0 * 1024.0), getEncryptThroughputMBps(),
+            chunksRead, getDecryptThroughputMBps());
+    }
+}
@@ -0,0 +1,475 @@
+package com.soundmonitor.app;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexed database of every recording session, segment and sound event across sessions.
+ *
+ * Features:
+ * 1. Sessions, segments and events (start/end/peak dB/file/offset) in one SQLite file
+ * 2. Writes are queued and committed in a single transaction per batch on a background thread;
+ *    if the batch fails, its writes are committed one by one so only a bad write is lost
+ * 3. Events are indexed by time and by peak level, so "above 70 dB at night this month"
+ *    touches only matching rows no matter how many years of data exist
+ * 4. Per-hour and per-day aggregates (event count, loud time, worst event) updated in the
+ *    same transaction as each event insert, so reports never rescan events or raw files
+ *
+ * Sessions are keyed by their start time in epoch ms; the folder name (yyyyMMdd_HHmmss)
+ * is kept only for display and locating files.
+ */
+public class EventIndexDatabase extends SQLiteOpenHelper {
+    private static final String TAG = "EventIndexDatabase";
+    private static final String DATABASE_NAME = "event_index.db";
+    private static final int DATABASE_VERSION = 1;
+
+    public static final String TYPE_TRIGGER = "trigger";
+    public static final String TYPE_EXCEEDANCE = "exceedance";
+
+    public static final String MODE_VIDEO = "video";
+    public static final String MODE_AUDIO = "audio";
+
+    // Night is 22:00-06:00 local time
+    public static final int NIGHT_START_HOUR = 22;
+    public static final int NIGHT_END_HOUR = 6;
+
+    private static final int BATCH_SIZE = 64;
+    private static final long FLUSH_INTERVAL_MS = 10000;
+
+    private static final String TABLE_SESSIONS = "sessions";
+    private static final String TABLE_SEGMENTS = "segments";
+    private static final String TABLE_EVENTS = "events";
+    private static final String TABLE_HOURLY_STATS = "hourly_stats";
+    private static final String TABLE_DAILY_STATS = "daily_stats";
+    private static final String[] EVENT_COLUMNS = {
+        "session_id", "segment_number", "type", "start_time", "end_time", "peak_db", "file", "offset_ms" };
+
+    public static class Session {
+        public final long id;
+        public final String name;
+        public final String mode;
+        public final String folder;
+        public final long startTime;
+        public final long endTime;
+        public final int segmentCount;
+        public final int eventCount;
+
+        public Session(long id, String name, String mode, String folder, long startTime,
+                       long endTime, int segmentCount, int eventCount) {
+            this.id = id;
+            this.name = name;
+            this.mode = mode;
+            this.folder = folder;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.segmentCount = segmentCount;
+            this.eventCount = eventCount;
+        }
+    }
+
+    public static class Event {
+        public final long sessionId;
+        public final int segmentNumber;
+        public final String type;
+        public final long startTime;
+        public final long endTime;
+        public final double peakDb;
+        public final String file;
+        public final long offsetMs;
+
+        public Event(long sessionId, int segmentNumber, String type, long startTime, long endTime,
+                     double peakDb, String file, long offsetMs) {
+            this.sessionId = sessionId;
+            this.segmentNumber = segmentNumber;
+            this.type = type;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.peakDb = peakDb;
+            this.file = file;
+            this.offsetMs = offsetMs;
+        }
+    }
+
+    /**
+     * Aggregate of all events that started in one local hour or day
+     */
+    public static class PeriodStats {
+        public final long startTime;
+        public final int eventCount;
+        public final long loudMs;
+        public final double maxDb;
+        public final long worstEventTime;
+
+        public PeriodStats(long startTime, int eventCount, long loudMs, double maxDb, long worstEventTime) {
+            this.startTime = startTime;
+            this.eventCount = eventCount;
+            this.loudMs = loudMs;
+            this.maxDb = maxDb;
+            this.worstEventTime = worstEventTime;
+        }
+    }
+
+    /**
+     * A queued insert (whereClause == null) or update waiting for the next batch
+     */
+    private static class PendingWrite {
+        final String table;
+        final ContentValues values;
+        final String whereClause;
+        final String[] whereArgs;
+
+        PendingWrite(String table, ContentValues values, String whereClause, String[] whereArgs) {
+            this.table = table;
+            this.values = values;
+            this.whereClause = whereClause;
+            this.whereArgs = whereArgs;
+        }
+    }
+
+    private static EventIndexDatabase instance;
+
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+    private final List<PendingWrite> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    public static synchronized EventIndexDatabase getInstance(Context context) {
+        if (instance == null) {
+            instance = new EventIndexDatabase(context.getApplicationContext(), DATABASE_NAME);
+        }
+        return instance;
+    }
+
+    EventIndexDatabase(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_SESSIONS + " ("
+            + "session_id INTEGER PRIMARY KEY, "
+            + "name TEXT NOT NULL, "
+            + "mode TEXT NOT NULL, "
+            + "folder TEXT, "
+            + "start_time INTEGER NOT NULL, "
+            + "end_time INTEGER, "
+            + "segment_count INTEGER DEFAULT 0, "
+            + "event_count INTEGER DEFAULT 0)");
+
+        db.execSQL("CREATE TABLE " + TABLE_SEGMENTS + " ("
+            + "session_id INTEGER NOT NULL, "
+            + "segment_number INTEGER NOT NULL, "
+            + "file TEXT NOT NULL, "
+            + "start_time INTEGER NOT NULL, "
+            + "end_time INTEGER NOT NULL, "
+            + "size_bytes INTEGER, "
+            + "PRIMARY KEY (session_id, segment_number))");
+
+        db.execSQL("CREATE TABLE " + TABLE_EVENTS + " ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "session_id INTEGER NOT NULL, "
+            + "segment_number INTEGER NOT NULL, "
+            + "type TEXT NOT NULL, "
+            + "start_time INTEGER NOT NULL, "
+            + "end_time INTEGER NOT NULL, "
+            + "peak_db REAL NOT NULL, "
+            + "file TEXT, "
+            + "offset_ms INTEGER, "
+            + "hour_of_day INTEGER NOT NULL)");
+
+        db.execSQL("CREATE INDEX idx_sessions_start ON " + TABLE_SESSIONS + " (start_time)");
+        db.execSQL("CREATE INDEX idx_events_time ON " + TABLE_EVENTS + " (start_time)");
+        db.execSQL("CREATE INDEX idx_events_peak ON " + TABLE_EVENTS + " (peak_db, start_time)");
+        db.execSQL("CREATE INDEX idx_events_session ON " + TABLE_EVENTS + " (session_id)");
+
+        for (String table : new String[] { TABLE_HOURLY_STATS, TABLE_DAILY_STATS }) {
+            db.execSQL("CREATE TABLE " + table + " ("
+                + "period_start INTEGER PRIMARY KEY, "
+                + "event_count INTEGER NOT NULL DEFAULT 0, "
+                + "loud_ms INTEGER NOT NULL DEFAULT 0, "
+                + "max_db REAL NOT NULL DEFAULT 0, "
+                + "worst_event_time INTEGER NOT NULL DEFAULT 0)");
+        }
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Only version 1 exists so far
+    }
+
+    /**
+     * Add one event to its hour and day aggregates. The aggregate row is created on first use;
+     * SET expressions see the old row, so worst_event_time compares against the previous max.
+     */
+    private static void addToStats(SQLiteDatabase db, long startTime, long endTime, double peakDb) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(startTime);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        long hourStart = calendar.getTimeInMillis();
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        long dayStart = calendar.getTimeInMillis();
+
+        long loudMs = Math.max(0, endTime - startTime);
+        for (String table : new String[] { TABLE_HOURLY_STATS, TABLE_DAILY_STATS }) {
+            long periodStart = table.equals(TABLE_HOURLY_STATS) ? hourStart : dayStart;
+            db.execSQL("INSERT OR IGNORE INTO " + table + " (period_start) VALUES (" + periodStart + ")");
+            db.execSQL("UPDATE " + table + " SET event_count = event_count + 1, loud_ms = loud_ms + ?, "
+                + "worst_event_time = CASE WHEN ? > max_db OR event_count = 0 THEN ? ELSE worst_event_time END, "
+                + "max_db = MAX(max_db, ?) WHERE period_start = " + periodStart,
+                new Object[] { loudMs, peakDb, startTime, peakDb });
+        }
+    }
+
+    /**
+     * Local midnight at or before timeMs
+     */
+    public static long dayStartOf(long timeMs) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeMs);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    // ---- Writes (queued, committed in batches) ----
+
+    public void recordSessionStart(long sessionId, String name, String mode, String folder) {
+        ContentValues values = new ContentValues();
+        values.put("session_id", sessionId);
+        values.put("name", name);
+        values.put("mode", mode);
+        values.put("folder", folder);
+        values.put("start_time", sessionId);
+        enqueue(new PendingWrite(TABLE_SESSIONS, values, null, null));
+        // Session rows are what the UI looks up, don't let them sit in the queue
+        flushAsync();
+    }
+
+    public void recordSessionEnd(long sessionId, long endTime, int segmentCount, int eventCount) {
+        ContentValues values = new ContentValues();
+        values.put("end_time", endTime);
+        values.put("segment_count", segmentCount);
+        values.put("event_count", eventCount);
+        enqueue(new PendingWrite(TABLE_SESSIONS, values, "session_id = ?",
+            new String[] { String.valueOf(sessionId) }));
+        flushAsync();
+    }
+
+    public void recordSegment(long sessionId, int segmentNumber, String file, long startTime,
+                              long endTime, long sizeBytes) {
+        ContentValues values = new ContentValues();
+        values.put("session_id", sessionId);
+        values.put("segment_number", segmentNumber);
+        values.put("file", file);
+        values.put("start_time", startTime);
+        values.put("end_time", endTime);
+        values.put("size_bytes", sizeBytes);
+        enqueue(new PendingWrite(TABLE_SEGMENTS, values, null, null));
+    }
+
+    public void recordEvent(Event event) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(event.startTime);
+
+        ContentValues values = new ContentValues();
+        values.put("session_id", event.sessionId);
+        values.put("segment_number", event.segmentNumber);
+        values.put("type", event.type);
+        values.put("start_time", event.startTime);
+        values.put("end_time", event.endTime);
+        values.put("peak_db", event.peakDb);
+        values.put("file", event.file);
+        values.put("offset_ms", event.offsetMs);
+        values.put("hour_of_day", calendar.get(Calendar.HOUR_OF_DAY));
+        enqueue(new PendingWrite(TABLE_EVENTS, values, null, null));
+    }
+
+    private void enqueue(PendingWrite write) {
+        synchronized (pending) {
+            pending.add(write);
+            if (pending.size() >= BATCH_SIZE) {
+                writer.execute(this::flushPending);
+            } else if (scheduledFlush == null) {
+                scheduledFlush = writer.schedule(this::flushPending, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Commit queued writes on the background thread without waiting
+     */
+    public void flushAsync() {
+        writer.execute(this::flushPending);
+    }
+
+    /**
+     * Commit queued writes and wait until they are on disk (used when the service stops)
+     */
+    public void flushBlocking() {
+        try {
+            writer.submit(this::flushPending).get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            Log.w(TAG, "Blocking flush did not complete: " + e.getMessage());
+        }
+    }
+
+    private void flushPending() {
+        List<PendingWrite> batch;
+        synchronized (pending) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if (pending.isEmpty()) return;
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        long start = System.currentTimeMillis();
+        SQLiteDatabase db;
+        try {
+            db = getWritableDatabase();
+        } catch (SQLException e) {
+            // Keep the batch for the next flush
+            Log.e(TAG, "Event index unavailable, " + batch.size() + " writes kept", e);
+            synchronized (pending) {
+                pending.addAll(0, batch);
+            }
+            return;
+        }
+        int committed = batch.size();
+        if (!commit(db, batch)) {
+            committed = 0;
+            for (PendingWrite write : batch) {
+                if (commit(db, Collections.singletonList(write))) committed++;
+            }
+            Log.w(TAG, "Event index batch failed, " + committed + " of " + batch.size() + " writes committed one by one");
+        }
+        Log.d(TAG, "Committed " + committed + " index writes in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Apply writes in one transaction; false (and nothing applied) if any of them fails
+     */
+    private static boolean commit(SQLiteDatabase db, List<PendingWrite> writes) {
+        db.beginTransaction();
+        try {
+            for (PendingWrite write : writes) {
+                if (write.whereClause == null) {
+                    if (db.insertWithOnConflict(write.table, null, write.values, SQLiteDatabase.CONFLICT_REPLACE) == -1) {
+                        throw new SQLException("Insert into " + write.table + " failed: " + write.values);
+                    }
+                    if (write.table.equals(TABLE_EVENTS)) {
+                        addToStats(db, write.values.getAsLong("start_time"), write.values.getAsLong("end_time"),
+                            write.values.getAsDouble("peak_db"));
+                    }
+                } else {
+                    db.update(write.table, write.values, write.whereClause, write.whereArgs);
+                }
+            }
+            db.setTransactionSuccessful();
+            return true;
+        } catch (SQLException e) {
+            Log.e(TAG, "Event index write failed (" + writes.size() + " in transaction)", e);
+            return false;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // ---- Queries ----
+
+    /**
+     * Events starting in [fromTime, toTime) with peak at or above minDb, newest first.
+     * nightOnly restricts to events that started between NIGHT_START_HOUR and NIGHT_END_HOUR local time.
+     */
+    public List<Event> queryEvents(long fromTime, long toTime, double minDb, boolean nightOnly, int limit) {
+        String selection = "start_time >= ? AND start_time < ? AND peak_db >= ?";
+        if (nightOnly) {
+            selection += " AND (hour_of_day >= " + NIGHT_START_HOUR + " OR hour_of_day < " + NIGHT_END_HOUR + ")";
+        }
+        String[] args = { String.valueOf(fromTime), String.valueOf(toTime), String.valueOf(minDb) };
+
+        try (Cursor cursor = getReadableDatabase().query(TABLE_EVENTS,
+                EVENT_COLUMNS,
+                selection, args, null, null, "start_time DESC", String.valueOf(limit))) {
+            return readEvents(cursor);
+        }
+    }
+
+    private static List<Event> readEvents(Cursor cursor) {
+        List<Event> events = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            events.add(new Event(cursor.getLong(0), cursor.getInt(1), cursor.getString(2),
+                cursor.getLong(3), cursor.getLong(4), cursor.getDouble(5),
+                cursor.getString(6), cursor.getLong(7)));
+        }
+        return events;
+    }
+
+    /**
+     * Most recently started session, or null if nothing has been recorded yet
+     */
+    public Session getLastSession() {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_SESSIONS,
+                new String[] { "session_id", "name", "mode", "folder", "start_time", "end_time", "segment_count", "event_count" },
+                null, null, null, null, "start_time DESC", "1")) {
+            if (!cursor.moveToFirst()) return null;
+            return new Session(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                cursor.getString(3), cursor.getLong(4), cursor.getLong(5), cursor.getInt(6), cursor.getInt(7));
+        }
+    }
+
+    public List<PeriodStats> getHourlyStats(long fromTime, long toTime) {
+        return queryStats(TABLE_HOURLY_STATS, fromTime, toTime);
+    }
+
+    public List<PeriodStats> getDailyStats(long fromTime, long toTime) {
+        return queryStats(TABLE_DAILY_STATS, fromTime, toTime);
+    }
+
+    private List<PeriodStats> queryStats(String table, long fromTime, long toTime) {
+        List<PeriodStats> stats = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(table,
+                new String[] { "period_start", "event_count", "loud_ms", "max_db", "worst_event_time" },
+                "period_start >= ? AND period_start < ?",
+                new String[] { String.valueOf(fromTime), String.valueOf(toTime) },
+                null, null, "period_start ASC")) {
+            while (cursor.moveToNext()) {
+                stats.add(new PeriodStats(cursor.getLong(0), cursor.getInt(1), cursor.getLong(2),
+                    cursor.getDouble(3), cursor.getLong(4)));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Loudest events starting in [fromTime, toTime), loudest first
+     */
+    public List<Event> getWorstEvents(long fromTime, long toTime, int limit) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_EVENTS,
+                EVENT_COLUMNS,
+                "start_time >= ? AND start_time < ?",
+                new String[] { String.valueOf(fromTime), String.valueOf(toTime) },
+                null, null, "peak_db DESC, start_time ASC", String.valueOf(limit))) {
+            return readEvents(cursor);
+        }
+    }
+}
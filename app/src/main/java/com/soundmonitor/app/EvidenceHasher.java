@@ -0,0 +1,437 @@
+package com.soundmonitor.app;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Computes every digest an evidence file needs in one read of the file, and remembers them.
+ *
+ * Features:
+ * 1. Plain SHA-256, the Merkle tree of 1 MiB leaves (MerkleTree) and any number of seeded
+ *    SHA-256s (decoded recording proof seed, then the file content - the binding
+ *    HybridTimestampService checks) fed from the same pass
+ * 2. Sequential FileChannel reads into a 1 MiB direct buffer, reused per thread
+ * 3. Results memoised per file while its size and modification time are unchanged. Asking for
+ *    a seed not hashed yet costs one more pass, so callers ask for everything they need at once.
+ * 4. Hash-on-write: writers we own feed a Running digest with the bytes they write, and its
+ *    result is memoised when the file closes, so the file is never read back for hashing
+ * 5. With a DigestCache set, digests outlive the session: a file hashed before and unchanged
+ *    since (path, size, modification time, inode) is not read again
+ */
+public class EvidenceHasher {
+    public static final String ALGORITHM = "SHA-256";
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    public static class Digests {
+        public final String path;
+        public final long sizeBytes;   // bytes hashed: the plaintext of an encrypted file
+        public final long storedBytes; // length on disk, which identifies the version hashed
+        public final long lastModified;
+        public final String sha256;
+        public final MerkleTree merkle; // null only from hashValues(), restored without its leaves
+        public final long elapsedMs;
+        private final Map<String, String> seeded; // base64 seed -> hex digest
+
+        Digests(String path, long sizeBytes, long storedBytes, long lastModified, String sha256, MerkleTree merkle,
+                Map<String, String> seeded, long elapsedMs) {
+            this.path = path;
+            this.sizeBytes = sizeBytes;
+            this.storedBytes = storedBytes;
+            this.lastModified = lastModified;
+            this.sha256 = sha256;
+            this.merkle = merkle;
+            this.seeded = seeded;
+            this.elapsedMs = elapsedMs;
+        }
+
+        /**
+         * SHA-256 over the decoded seed followed by the file, or null if it was not requested
+         */
+        public String seeded(String seed) {
+            return seeded.get(seed);
+        }
+
+        /** Seeds with a seeded digest, in the order they were requested */
+        public Set<String> getSeeds() {
+            return Collections.unmodifiableSet(seeded.keySet());
+        }
+
+        boolean matches(File file) {
+            return file.length() == storedBytes && file.lastModified() == lastModified;
+        }
+
+        @Override
+        public String toString() {
+            if (merkle == null) {
+                return String.format(Locale.US, "%d bytes, %d digests from the digest cache", sizeBytes, 1 + seeded.size());
+            }
+            return String.format(Locale.US, "%d bytes, %d digests and a %d-leaf Merkle tree in one pass, %d ms",
+                sizeBytes, 1 + seeded.size(), merkle.getLeafCount(), elapsedMs);
+        }
+    }
+
+    /**
+     * Digests fed with a file's bytes while the file is written, in write order. Not thread-safe:
+     * update it from the writing thread.
+     */
+    public static class Running {
+        private final MessageDigest plain;
+        private final MerkleTree.Builder merkle;
+        private final Map<String, MessageDigest> seededDigests = new LinkedHashMap<>();
+        private long bytes = 0;
+        private long updateNanos = 0;
+
+        public Running(String... seeds) throws IOException {
+            plain = newDigest();
+            merkle = new MerkleTree.Builder();
+            for (String seed : seeds) {
+                MessageDigest digest = newDigest();
+                digest.update(Base64.getDecoder().decode(seed));
+                seededDigests.put(seed, digest);
+            }
+        }
+
+        /**
+         * Feed the buffer's remaining bytes; leaves it at its limit, like MessageDigest.update
+         */
+        public void update(ByteBuffer data) {
+            long start = System.nanoTime();
+            int from = data.position();
+            bytes += data.remaining();
+            plain.update(data);
+            data.position(from);
+            merkle.update(data);
+            for (MessageDigest digest : seededDigests.values()) {
+                data.position(from);
+                digest.update(data);
+            }
+            updateNanos += System.nanoTime() - start;
+        }
+
+        public void update(byte[] data, int offset, int length) {
+            long start = System.nanoTime();
+            bytes += length;
+            plain.update(data, offset, length);
+            merkle.update(data, offset, length);
+            for (MessageDigest digest : seededDigests.values()) {
+                digest.update(data, offset, length);
+            }
+            updateNanos += System.nanoTime() - start;
+        }
+
+        /**
+         * Feed the first length bytes of a file already on disk (a writer attached after its
+         * header was written, or reopened to append)
+         */
+        public void feed(File file, long length) throws IOException {
+            try (FileInputStream in = new FileInputStream(file)) {
+                feed(in.getChannel(), length);
+            }
+        }
+
+        /**
+         * Feed the first length bytes read through channel (the plaintext of an encrypted file)
+         */
+        public void feed(FileChannel channel, long length) throws IOException {
+            ByteBuffer buffer = BUFFERS.get();
+            long position = 0;
+            while (position < length) {
+                buffer.clear();
+                if (length - position < buffer.capacity()) buffer.limit((int) (length - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) throw new IOException("Shorter than " + length + " bytes");
+                position += read;
+                buffer.flip();
+                update(buffer);
+            }
+        }
+
+        /**
+         * Stream that feeds everything written through it to this digest
+         */
+        public OutputStream wrap(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    update(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] data, int offset, int length) throws IOException {
+                    out.write(data, offset, length);
+                    update(data, offset, length);
+                }
+            };
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Digests of the closed file. Fails if the file's length is not what was fed, i.e. some
+         * write did not pass through this digest.
+         */
+        public Digests finish(File file) throws IOException {
+            return finish(file, file.length());
+        }
+
+        /**
+         * Digests of a file holding plaintextBytes bytes once decrypted (EncryptedFileChannel)
+         */
+        public Digests finish(File file, long plaintextBytes) throws IOException {
+            if (plaintextBytes != bytes) {
+                throw new IOException(file.getName() + " is " + plaintextBytes + " bytes, " + bytes + " were hashed");
+            }
+            Map<String, String> seeded = new LinkedHashMap<>();
+            for (Map.Entry<String, MessageDigest> entry : seededDigests.entrySet()) {
+                seeded.put(entry.getKey(), hex(entry.getValue().digest()));
+            }
+            return new Digests(file.getAbsolutePath(), plaintextBytes, file.length(), file.lastModified(),
+                hex(plain.digest()), merkle.finish(), seeded, updateNanos / 1000000);
+        }
+    }
+
+    private final Map<String, Digests> cache = new ConcurrentHashMap<>();
+    private final AtomicInteger passCount = new AtomicInteger();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicInteger hashedOnWrite = new AtomicInteger();
+    private volatile DigestCache digestCache;
+    private volatile SecretKey atRestKey;
+
+    /**
+     * Consult and fill a persistent digest cache (null for memoisation in memory only)
+     */
+    public void setDigestCache(DigestCache digestCache) {
+        this.digestCache = digestCache;
+    }
+
+    public DigestCache getDigestCache() {
+        return digestCache;
+    }
+
+    /**
+     * Key of files encrypted at rest: their plaintext is hashed, as it was while written
+     */
+    public void setAtRestKey(SecretKey atRestKey) {
+        this.atRestKey = atRestKey;
+    }
+
+    /**
+     * Plain SHA-256, Merkle tree and the seeded SHA-256 for each seed, from the cache or one
+     * read. The persistent cache answers only if the file's saved Merkle leaves match it.
+     */
+    public Digests hash(File file, String... seeds) throws IOException {
+        return hash(file, true, seeds);
+    }
+
+    /**
+     * Plain and seeded SHA-256 only, for callers that do not need the Merkle tree: the persistent
+     * cache answers for any file it has, so merkle may be null
+     */
+    public Digests hashValues(File file, String... seeds) throws IOException {
+        return hash(file, false, seeds);
+    }
+
+    private Digests hash(File file, boolean needMerkle, String... seeds) throws IOException {
+        String path = file.getAbsolutePath();
+        List<String> wanted = Arrays.asList(seeds);
+        Digests cached = cache.get(path);
+        boolean current = cached != null && cached.matches(file);
+        if (current && cached.seeded.keySet().containsAll(wanted) && (cached.merkle != null || !needMerkle)) {
+            return cached;
+        }
+        Digests restored = restore(file, wanted, needMerkle);
+        if (restored != null) {
+            cache.put(path, restored);
+            return restored;
+        }
+        // Keep the seeds already hashed for this file, so the new entry covers them as well
+        Set<String> all = new LinkedHashSet<>(wanted);
+        if (current) all.addAll(cached.seeded.keySet());
+        Digests digests = compute(file, all, atRestKey);
+        passCount.incrementAndGet();
+        bytesRead.addAndGet(digests.sizeBytes);
+        cache.put(path, digests);
+        remember(file, digests);
+        return digests;
+    }
+
+    /**
+     * Digests from the persistent cache if it covers the seeds (and has the Merkle leaves, when
+     * needed); counts the lookup as a hit or a miss
+     */
+    private Digests restore(File file, Collection<String> seeds, boolean needMerkle) {
+        DigestCache persistent = digestCache;
+        if (persistent == null) return null;
+        DigestCache.Entry entry = persistent.get(file);
+        MerkleTree merkle = null;
+        if (entry != null && entry.covers(seeds) && entry.merkleRoot != null) {
+            File leaves = MerkleTree.indexFileFor(file);
+            try {
+                merkle = leaves.exists() ? MerkleTree.load(leaves) : null;
+            } catch (IOException e) {
+                merkle = null;
+            }
+            if (merkle != null && (merkle.fileSize != EncryptedFileChannel.plaintextLength(file)
+                    || !merkle.getRootHex().equals(entry.merkleRoot))) {
+                merkle = null;
+            }
+        }
+        if (entry == null || !entry.covers(seeds) || (needMerkle && merkle == null)) {
+            persistent.recordMiss();
+            return null;
+        }
+        persistent.recordHit(entry);
+        long plaintextBytes = merkle != null ? merkle.fileSize : EncryptedFileChannel.plaintextLength(file);
+        return new Digests(entry.path, plaintextBytes, entry.sizeBytes, entry.lastModified, entry.sha256, merkle,
+            new LinkedHashMap<>(entry.seeded), 0);
+    }
+
+    private void remember(File file, Digests digests) {
+        DigestCache persistent = digestCache;
+        if (persistent == null || !digests.matches(file)) return;
+        persistent.put(file, digests.sha256, digests.merkle != null ? digests.merkle.getRootHex() : null, digests.seeded);
+    }
+
+    /**
+     * Memoised digests of an unchanged file, or null
+     */
+    public Digests getCached(File file) {
+        Digests cached = cache.get(file.getAbsolutePath());
+        return cached != null && cached.matches(file) ? cached : null;
+    }
+
+    /**
+     * Memoise digests computed while the file was written (Running.finish)
+     */
+    public Digests put(Digests digests) {
+        hashedOnWrite.incrementAndGet();
+        cache.put(digests.path, digests);
+        remember(new File(digests.path), digests);
+        return digests;
+    }
+
+    /** Number of reads through a file so far */
+    public int getPassCount() {
+        return passCount.get();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /** Number of files whose digests were computed while they were written */
+    public int getHashedOnWriteCount() {
+        return hashedOnWrite.get();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Plain SHA-256 of a file in one read, without memoising
+     */
+    public static String sha256(File file) throws IOException {
+        return compute(file, Collections.<String>emptySet()).sha256;
+    }
+
+    /**
+     * One pass through the file feeding the plain digest and one digest per seed
+     */
+    static Digests compute(File file, Collection<String> seeds) throws IOException {
+        return compute(file, seeds, null);
+    }
+
+    /**
+     * As compute(file, seeds), reading an encrypted file's plaintext if key is given
+     */
+    static Digests compute(File file, Collection<String> seeds, SecretKey key) throws IOException {
+        long start = System.currentTimeMillis();
+        long lastModified = file.lastModified();
+        boolean encrypted = key != null && EncryptedFileChannel.isEncrypted(file);
+        long storedSize = file.length();
+        MessageDigest plain = newDigest();
+        MerkleTree.Builder merkle = new MerkleTree.Builder();
+        Map<String, MessageDigest> seededDigests = new LinkedHashMap<>();
+        for (String seed : seeds) {
+            MessageDigest digest = newDigest();
+            digest.update(Base64.getDecoder().decode(seed));
+            seededDigests.put(seed, digest);
+        }
+
+        long size = 0;
+        ByteBuffer buffer = BUFFERS.get();
+        try (FileChannel channel = encrypted ? EncryptedFileChannel.open(file, key, false)
+                : new FileInputStream(file).getChannel()) {
+            while (true) {
+                buffer.clear();
+                int read = channel.read(buffer);
+                if (read < 0) break;
+                size += read;
+                buffer.flip();
+                plain.update(buffer);
+                buffer.position(0);
+                merkle.update(buffer);
+                for (MessageDigest digest : seededDigests.values()) {
+                    buffer.position(0);
+                    digest.update(buffer);
+                }
+            }
+        }
+
+        Map<String, String> seeded = new LinkedHashMap<>();
+        for (Map.Entry<String, MessageDigest> entry : seededDigests.entrySet()) {
+            seeded.put(entry.getKey(), hex(entry.getValue().digest()));
+        }
+        return new Digests(file.getAbsolutePath(), size, storedSize, lastModified, hex(plain.digest()),
+            merkle.finish(), seeded, System.currentTimeMillis() - start);
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(ALGORITHM + " not available", e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,376 @@
+package com.soundmonitor.app;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Append-only hash chain of a session's evidence (session.evidence): every segment close,
+ * final file, clip, export and stop is one line that includes the hash of the line before it,
+ * so removing, reordering or editing any record - or any file it names - breaks the chain.
+ *
+ * Features:
+ * 1. Appending is O(1): the head (sequence number and hash) is kept in memory, a record is one
+ *    write at the end of the file, and reopening after a crash reads only the tail
+ * 2. fsync is batched: forced every SYNC_EVERY_RECORDS records or SYNC_INTERVAL_MS, and on
+ *    sync()/close(); a crash can lose the unsynced tail, never corrupt what is before it
+ * 3. Verification is incremental: verify() returns a checkpoint, and verifying from it later
+ *    reads only the records appended since
+ *
+ * Line format (UTF-8, tab separated, "-" for empty fields):
+ *   seq  time ms  type  name  size  sha256  detail  previous hash  hash
+ * where hash = SHA-256 of the line up to and including the tab before it. The first record's
+ * previous hash is 64 zeros.
+ */
+public class EvidenceJournal implements Closeable {
+    public static final String FILE_NAME = "session.evidence";
+
+    public static final String TYPE_START = "START";
+    public static final String TYPE_SEGMENT = "SEGMENT";
+    public static final String TYPE_FINAL = "FINAL";
+    public static final String TYPE_CLIP = "CLIP";
+    public static final String TYPE_EXPORT = "EXPORT";
+    public static final String TYPE_RECOVERED = "RECOVERED";
+    public static final String TYPE_STOP = "STOP";
+
+    public static final String GENESIS_HASH = "0000000000000000000000000000000000000000000000000000000000000000";
+    public static final int SYNC_EVERY_RECORDS = 32;
+    public static final long SYNC_INTERVAL_MS = 5000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int FIELD_COUNT = 9;
+    private static final int MAX_LINE_BYTES = 16 * 1024;
+
+    public static class Record {
+        public final long seq;
+        public final long timeMillis;
+        public final String type;
+        public final String name;      // null if none
+        public final long sizeBytes;   // -1 if none
+        public final String sha256;    // null if none
+        public final String detail;    // null if none
+        public final String previousHash;
+        public final String hash;
+
+        public Record(long seq, long timeMillis, String type, String name, long sizeBytes, String sha256,
+                      String detail, String previousHash, String hash) {
+            this.seq = seq;
+            this.timeMillis = timeMillis;
+            this.type = type;
+            this.name = name;
+            this.sizeBytes = sizeBytes;
+            this.sha256 = sha256;
+            this.detail = detail;
+            this.previousHash = previousHash;
+            this.hash = hash;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "#%d %s %s (%s)", seq, type, name != null ? name : "-", hash);
+        }
+    }
+
+    /**
+     * Where verification stopped: the next record must follow seq and hash, starting at offset
+     */
+    public static class Checkpoint {
+        public final long offset;
+        public final long seq;
+        public final String hash;
+
+        public Checkpoint(long offset, long seq, String hash) {
+            this.offset = offset;
+            this.seq = seq;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Receives each record that verified, in order
+     */
+    public interface Visitor {
+        void visit(Record record);
+    }
+
+    public static class Verification {
+        public final int recordsChecked;
+        public final Checkpoint head;
+        public final long brokenAtSeq;   // -1 if the chain is intact
+        public final String problem;     // null if intact
+        public final long tornBytes;     // unterminated tail left by a crash, not counted as broken
+
+        public Verification(int recordsChecked, Checkpoint head, long brokenAtSeq, String problem, long tornBytes) {
+            this.recordsChecked = recordsChecked;
+            this.head = head;
+            this.brokenAtSeq = brokenAtSeq;
+            this.problem = problem;
+            this.tornBytes = tornBytes;
+        }
+
+        public boolean isIntact() {
+            return problem == null;
+        }
+
+        @Override
+        public String toString() {
+            if (problem != null) return "broken at record " + brokenAtSeq + ": " + problem;
+            return String.format(Locale.US, "%d records intact, head #%d %s%s", recordsChecked, head.seq, head.hash,
+                tornBytes > 0 ? ", " + tornBytes + " torn bytes at the end" : "");
+        }
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private long position;
+    private long seq;
+    private String headHash;
+    private int unsynced = 0;
+    private long lastSyncMillis = System.currentTimeMillis();
+    private int syncCount = 0;
+
+    private EvidenceJournal(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+    }
+
+    public static File journalFileFor(File sessionFolder) {
+        return new File(sessionFolder, FILE_NAME);
+    }
+
+    /**
+     * Open a session's journal for appending, creating it if needed. An existing journal is
+     * continued from its last complete record; only the tail of the file is read.
+     */
+    public static EvidenceJournal open(File sessionFolder) throws IOException {
+        EvidenceJournal journal = new EvidenceJournal(journalFileFor(sessionFolder));
+        try {
+            journal.readHead();
+        } catch (IOException e) {
+            journal.raf.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    private void readHead() throws IOException {
+        long length = channel.size();
+        seq = 0;
+        headHash = GENESIS_HASH;
+        position = 0;
+        if (length == 0) return;
+
+        // Last two newlines: the final complete line lies between them
+        int window = (int) Math.min(length, 2L * MAX_LINE_BYTES);
+        ByteBuffer tail = ByteBuffer.allocate(window);
+        readFully(channel, tail, length - window);
+        byte[] bytes = tail.array();
+        int end = window - 1;
+        while (end >= 0 && bytes[end] != '\n') end--;
+        if (end < 0) {
+            if (length > window) throw new IOException("No complete record in the last " + window + " bytes of " + file.getName());
+            channel.truncate(0); // only a torn first record
+            return;
+        }
+        int start = end - 1;
+        while (start >= 0 && bytes[start] != '\n') start--;
+        if (start < 0 && length > window) throw new IOException("Record longer than " + MAX_LINE_BYTES + " bytes in " + file.getName());
+        Record last = parse(new String(bytes, start + 1, end - start - 1, UTF_8));
+        if (last == null) throw new IOException("Damaged last record in " + file.getName());
+
+        seq = last.seq;
+        headHash = last.hash;
+        position = length - window + end + 1;
+        if (position < length) {
+            channel.truncate(position); // torn record from a crash
+        }
+    }
+
+    /**
+     * Append one record and return it. O(1); forces the file only when a sync batch is due.
+     */
+    public synchronized Record append(String type, String name, long sizeBytes, String sha256, String detail)
+            throws IOException {
+        long time = System.currentTimeMillis();
+        String body = (seq + 1) + "\t" + time + "\t" + field(type) + "\t" + field(name) + "\t"
+            + (sizeBytes >= 0 ? Long.toString(sizeBytes) : "-") + "\t" + field(sha256) + "\t" + field(detail)
+            + "\t" + headHash + "\t";
+        String hash = EvidenceHasher.hex(sha256(body.getBytes(UTF_8)));
+        ByteBuffer line = ByteBuffer.wrap((body + hash + "\n").getBytes(UTF_8));
+        if (line.remaining() > MAX_LINE_BYTES) throw new IOException("Evidence record too long: " + line.remaining() + " bytes");
+        while (line.hasRemaining()) {
+            position += channel.write(line, position);
+        }
+
+        Record record = new Record(seq + 1, time, type, name, sizeBytes, sha256, detail, headHash, hash);
+        seq = record.seq;
+        headHash = hash;
+        unsynced++;
+        if (unsynced >= SYNC_EVERY_RECORDS || time - lastSyncMillis >= SYNC_INTERVAL_MS) {
+            sync();
+        }
+        return record;
+    }
+
+    /**
+     * Force every appended record to storage
+     */
+    public synchronized void sync() throws IOException {
+        if (unsynced == 0) return;
+        channel.force(false);
+        unsynced = 0;
+        lastSyncMillis = System.currentTimeMillis();
+        syncCount++;
+    }
+
+    public synchronized long getSeq() {
+        return seq;
+    }
+
+    public synchronized String getHeadHash() {
+        return headHash;
+    }
+
+    /** Number of fsyncs so far (batches, not records) */
+    public synchronized int getSyncCount() {
+        return syncCount;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) return;
+        try {
+            sync();
+        } finally {
+            raf.close();
+        }
+    }
+
+    // ---- Verification ----
+
+    public static Verification verify(File journal) throws IOException {
+        return verify(journal, null);
+    }
+
+    /**
+     * Check the chain from a checkpoint of an earlier verification (or from the start if null):
+     * sequence numbers, links to the previous hash and each record's own hash
+     */
+    public static Verification verify(File journal, Checkpoint from) throws IOException {
+        return verify(journal, from, null);
+    }
+
+    /**
+     * Same, handing every verified record to the visitor (null for none)
+     */
+    public static Verification verify(File journal, Checkpoint from, Visitor visitor) throws IOException {
+        long offset = from != null ? from.offset : 0;
+        long seq = from != null ? from.seq : 0;
+        String hash = from != null ? from.hash : GENESIS_HASH;
+        int checked = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "r")) {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (offset > length) {
+                return new Verification(0, from, seq + 1, "journal shorter than the checkpoint", 0);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            byte[] pending = new byte[MAX_LINE_BYTES];
+            int pendingLength = 0;
+            long lineStart = offset;
+            long position = offset;
+            while (position < length) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) break;
+                position += read;
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer.get(i);
+                    if (b != '\n') {
+                        if (pendingLength == pending.length) {
+                            return new Verification(checked, new Checkpoint(lineStart, seq, hash), seq + 1,
+                                "record longer than " + MAX_LINE_BYTES + " bytes", 0);
+                        }
+                        pending[pendingLength++] = b;
+                        continue;
+                    }
+                    String line = new String(pending, 0, pendingLength, UTF_8);
+                    Record record = parse(line);
+                    String problem = null;
+                    if (record == null) {
+                        problem = "unreadable record or wrong hash";
+                    } else if (record.seq != seq + 1) {
+                        problem = "expected record " + (seq + 1) + ", found " + record.seq;
+                    } else if (!record.previousHash.equals(hash)) {
+                        problem = "does not link to record " + seq;
+                    }
+                    if (problem != null) {
+                        return new Verification(checked, new Checkpoint(lineStart, seq, hash), seq + 1, problem, 0);
+                    }
+                    seq = record.seq;
+                    hash = record.hash;
+                    checked++;
+                    if (visitor != null) visitor.visit(record);
+                    lineStart += pendingLength + 1;
+                    pendingLength = 0;
+                }
+            }
+            return new Verification(checked, new Checkpoint(lineStart, seq, hash), -1, null, length - lineStart);
+        }
+    }
+
+    /**
+     * Parse one line (without its newline); null if malformed or its hash does not match
+     */
+    static Record parse(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != FIELD_COUNT) return null;
+        try {
+            String body = line.substring(0, line.length() - fields[8].length());
+            String expected = EvidenceHasher.hex(sha256(body.getBytes(UTF_8)));
+            if (!expected.equals(fields[8])) return null;
+            return new Record(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2], value(fields[3]),
+                "-".equals(fields[4]) ? -1 : Long.parseLong(fields[4]), value(fields[5]), value(fields[6]),
+                fields[7], fields[8]);
+        } catch (NumberFormatException | IOException e) {
+            return null;
+        }
+    }
+
+    private static String field(String value) {
+        if (value == null || value.isEmpty()) return "-";
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static String value(String field) {
+        return "-".equals(field) ? null : field;
+    }
+
+    private static byte[] sha256(byte[] data) throws IOException {
+        try {
+            return MessageDigest.getInstance(EvidenceHasher.ALGORITHM).digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(EvidenceHasher.ALGORITHM + " not available", e);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) throw new IOException("Unexpected end of journal");
+        }
+    }
+}
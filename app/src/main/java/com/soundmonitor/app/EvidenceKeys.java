@@ -0,0 +1,151 @@
+package com.soundmonitor.app;
+
+import android.content.Context;
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Device keys for evidence files, kept by the Android Keystore.
+ *
+ * Features:
+ * 1. At-rest data key: a random AES-256 key, stored only wrapped (AES-GCM) by a non-exportable
+ *    Keystore key. Chunks are encrypted in process with the data key - a Keystore operation per
+ *    64 KiB chunk would cost a binder call each and could not keep up with recording.
+ * 2. Signing key: a non-exportable EC P-256 Keystore key for BatchSigner. It signs a few batch
+ *    roots per session, so the binder call per signature does not matter here.
+ *
+ * Needs API 23 (Keystore AES and EC keys); earlier versions get no keys and files stay
+ * unencrypted and unsigned.
+ */
+public final class EvidenceKeys {
+    private static final String TAG = "EvidenceKeys";
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String WRAPPING_KEY_ALIAS = "evidence_at_rest_wrapping";
+    private static final String SIGNING_KEY_ALIAS = "evidence_signing";
+    private static final String AT_REST_KEY_FILE = "evidence_at_rest.key";
+    private static final int DATA_KEY_SIZE = 32;
+    private static final int IV_SIZE = 12;
+
+    private static SecretKey atRestKey;
+    private static KeyPair signingKey;
+
+    private EvidenceKeys() {
+    }
+
+    /**
+     * The at-rest data key, created on first use if create is set; null if there is none
+     */
+    public static synchronized SecretKey atRestKey(Context context, boolean create) {
+        if (atRestKey != null) return atRestKey;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return null;
+        File keyFile = new File(context.getFilesDir(), AT_REST_KEY_FILE);
+        try {
+            if (keyFile.exists()) {
+                atRestKey = unwrap(keyFile);
+            } else if (create) {
+                atRestKey = createDataKey(keyFile);
+                Log.i(TAG, "🔐 At-rest key created");
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            Log.e(TAG, "At-rest key unavailable: " + e.getMessage());
+        }
+        return atRestKey;
+    }
+
+    /**
+     * The batch signing key pair, created on first use; null if the Keystore has none to give
+     */
+    public static synchronized KeyPair signingKey() {
+        if (signingKey != null) return signingKey;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return null;
+        try {
+            KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+            keyStore.load(null);
+            if (keyStore.containsAlias(SIGNING_KEY_ALIAS)) {
+                PrivateKey privateKey = (PrivateKey) keyStore.getKey(SIGNING_KEY_ALIAS, null);
+                signingKey = new KeyPair(keyStore.getCertificate(SIGNING_KEY_ALIAS).getPublicKey(), privateKey);
+            } else {
+                KeyPairGenerator generator = KeyPairGenerator.getInstance(KeyProperties.KEY_ALGORITHM_EC, KEYSTORE);
+                generator.initialize(new KeyGenParameterSpec.Builder(SIGNING_KEY_ALIAS,
+                        KeyProperties.PURPOSE_SIGN | KeyProperties.PURPOSE_VERIFY)
+                    .setAlgorithmParameterSpec(new ECGenParameterSpec("secp256r1"))
+                    .setDigests(KeyProperties.DIGEST_SHA256)
+                    .build());
+                signingKey = generator.generateKeyPair();
+                Log.i(TAG, "🔐 Signing key created");
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            Log.e(TAG, "Signing key unavailable: " + e.getMessage());
+        }
+        return signingKey;
+    }
+
+    private static SecretKey createDataKey(File keyFile) throws IOException, GeneralSecurityException {
+        byte[] data = new byte[DATA_KEY_SIZE];
+        new SecureRandom().nextBytes(data);
+        Cipher cipher = Cipher.getInstance(EncryptedFileChannel.TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, wrappingKey(true));
+        byte[] iv = cipher.getIV();
+        byte[] wrapped = cipher.doFinal(data);
+
+        File tmp = new File(keyFile.getParentFile(), keyFile.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(iv);
+            out.write(wrapped);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(keyFile)) throw new IOException("Cannot move " + tmp.getName() + " to " + keyFile.getName());
+        return new SecretKeySpec(data, "AES");
+    }
+
+    private static SecretKey unwrap(File keyFile) throws IOException, GeneralSecurityException {
+        byte[] stored;
+        try (RandomAccessFile raf = new RandomAccessFile(keyFile, "r")) {
+            stored = new byte[(int) raf.length()];
+            raf.readFully(stored);
+        }
+        if (stored.length <= IV_SIZE) throw new IOException("Damaged key file " + keyFile.getName());
+        SecretKey wrapping = wrappingKey(false);
+        if (wrapping == null) throw new IOException("Keystore key " + WRAPPING_KEY_ALIAS + " is gone");
+        Cipher cipher = Cipher.getInstance(EncryptedFileChannel.TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, wrapping, new GCMParameterSpec(128, stored, 0, IV_SIZE));
+        return new SecretKeySpec(cipher.doFinal(stored, IV_SIZE, stored.length - IV_SIZE), "AES");
+    }
+
+    private static SecretKey wrappingKey(boolean create) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        if (keyStore.containsAlias(WRAPPING_KEY_ALIAS)) {
+            return (SecretKey) keyStore.getKey(WRAPPING_KEY_ALIAS, null);
+        }
+        if (!create) return null;
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(WRAPPING_KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+            .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+            .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+            .setKeySize(256)
+            .build());
+        return generator.generateKey();
+    }
+}
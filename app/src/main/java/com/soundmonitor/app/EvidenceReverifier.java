@@ -0,0 +1,514 @@
+package com.soundmonitor.app;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Background re-verification of stored sessions against their recorded digests, a little at a
+ * time, to catch files corrupted on flash long after they were recorded.
+ *
+ * Features:
+ * 1. Walks sessions (by name) and their manifest's hashed files (by name); a file with saved
+ *    Merkle leaves is checked leaf by leaf, so a mismatch names the damaged MiB and a run can
+ *    stop and resume inside a multi-GB volume. Leaves are used only if their root is the one
+ *    recorded in the file's timestamp file; without them, leaf hashes are collected across
+ *    runs and their root compared with the recorded one. Read from its start in one run, the
+ *    file's SHA-256 is compared with the manifest as well; a file with no recorded root is
+ *    read whole in one run, past the budget if need be.
+ * 2. Throttled: reads are paced to a byte rate, and each run stops after a byte budget
+ * 3. Stops as soon as the Control asks (the service started recording, the job was stopped)
+ * 4. Files encrypted at rest are checked through their plaintext when the key is set
+ * 5. Cursor, totals and detected mismatches are saved (reverify.state), so the next run
+ *    continues where this one stopped and mismatches are kept until a pass finds the file intact
+ *
+ * State layout (big-endian):
+ *   MAGIC, version (short), reserved (short), cursor session, cursor file (UTF, "" for none),
+ *   cursor leaf (int), collected leaf count (int), leaf hashes (32 bytes each),
+ *   passes (int), last pass completed (long), bytes verified (long),
+ *   mismatch count (int), per mismatch: session, file (UTF), leaf (int), expected, actual (UTF), time (long)
+ */
+public class EvidenceReverifier {
+    public static final String STATE_FILE_NAME = "reverify.state";
+    public static final long DEFAULT_BYTES_PER_SECOND = 8L * 1024 * 1024;
+    public static final long DEFAULT_RUN_BUDGET_BYTES = 512L * 1024 * 1024;
+
+    private static final int MAGIC = 0x534D5256; // "SMRV"
+    private static final short VERSION = 2; // 2: collected leaf hashes
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final long SAVE_EVERY_BYTES = 64L * 1024 * 1024;
+    private static final int MAX_MISMATCHES = 1000;
+
+    /**
+     * Asked before every chunk; true stops the run at that point
+     */
+    public interface Control {
+        boolean shouldStop();
+    }
+
+    public static class Mismatch {
+        public final String session;
+        public final String file;
+        public final int leaf;          // -1 for the whole file
+        public final String expected;
+        public final String actual;
+        public final long detectedAt;
+
+        public Mismatch(String session, String file, int leaf, String expected, String actual, long detectedAt) {
+            this.session = session;
+            this.file = file;
+            this.leaf = leaf;
+            this.expected = expected;
+            this.actual = actual;
+            this.detectedAt = detectedAt;
+        }
+
+        @Override
+        public String toString() {
+            return session + "/" + file + (leaf >= 0 ? " leaf " + leaf : "") + ": expected " + expected + ", found " + actual;
+        }
+    }
+
+    public static class RunResult {
+        public final long bytesVerified;
+        public final int filesCompleted;
+        public final List<Mismatch> newMismatches;
+        public final boolean stopped;          // Control asked to stop
+        public final boolean budgetExhausted;
+        public final boolean passCompleted;    // every session checked; the next run starts over
+        public final long elapsedMs;
+
+        RunResult(long bytesVerified, int filesCompleted, List<Mismatch> newMismatches, boolean stopped,
+                  boolean budgetExhausted, boolean passCompleted, long elapsedMs) {
+            this.bytesVerified = bytesVerified;
+            this.filesCompleted = filesCompleted;
+            this.newMismatches = newMismatches;
+            this.stopped = stopped;
+            this.budgetExhausted = budgetExhausted;
+            this.passCompleted = passCompleted;
+            this.elapsedMs = elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.1f MB in %d ms, %d files completed, %d new mismatches%s",
+                bytesVerified / (1024.0 * 1024.0), elapsedMs, filesCompleted, newMismatches.size(),
+                passCompleted ? ", pass completed" : stopped ? ", stopped" : budgetExhausted ? ", budget used" : "");
+        }
+    }
+
+    private final File baseDir;
+    private final File stateFile;
+    private final long bytesPerSecond;
+    private SecretKey atRestKey;
+
+    private String cursorSession = "";
+    private String cursorFile = "";
+    private int cursorLeaf = 0;
+    private final List<byte[]> cursorLeaves = new ArrayList<>(); // leaf hashes of the cursor file so far, without trusted leaves
+    private int passes = 0;
+    private long lastPassCompleted = 0;
+    private long totalBytes = 0;
+    private final List<Mismatch> mismatches = new ArrayList<>();
+
+    // Pacing of the current run
+    private long runStartMillis;
+    private long runStartNanos;
+    private long runBytes;
+    private long bytesSinceSave;
+
+    public EvidenceReverifier(File baseDir, File stateFile, long bytesPerSecond) {
+        this.baseDir = baseDir;
+        this.stateFile = stateFile;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Key of files encrypted at rest; without it such files are skipped
+     */
+    public void setAtRestKey(SecretKey atRestKey) {
+        this.atRestKey = atRestKey;
+    }
+
+    public int getPassCount() {
+        return passes;
+    }
+
+    public long getLastPassCompleted() {
+        return lastPassCompleted;
+    }
+
+    public long getTotalBytesVerified() {
+        return totalBytes;
+    }
+
+    public List<Mismatch> getMismatches() {
+        return Collections.unmodifiableList(mismatches);
+    }
+
+    /** Session and file the next run starts at; empty before the first run of a pass */
+    public String getCursor() {
+        return cursorSession.isEmpty() ? "" : cursorSession + "/" + cursorFile + "#" + cursorLeaf;
+    }
+
+    /**
+     * Verify from the cursor until the pass completes, the budget is used or control stops it
+     */
+    public RunResult run(long budgetBytes, Control control) throws IOException {
+        runStartMillis = System.currentTimeMillis();
+        runStartNanos = System.nanoTime();
+        runBytes = 0;
+        bytesSinceSave = 0;
+        List<Mismatch> found = new ArrayList<>();
+        int filesCompleted = 0;
+        boolean stopped = false;
+        boolean exhausted = false;
+        boolean completed = false;
+        try {
+            sessions:
+            for (File session : listSessions()) {
+                if (session.getName().compareTo(cursorSession) < 0) continue;
+                if (!session.getName().equals(cursorSession)) {
+                    cursorSession = session.getName();
+                    cursorFile = "";
+                    cursorLeaf = 0;
+                }
+                SessionManifest manifest;
+                try {
+                    manifest = SessionManifest.load(session);
+                } catch (IOException e) {
+                    manifest = null; // damaged manifests are the verifier's to report
+                }
+                if (manifest == null) continue;
+                for (SessionManifest.FileEntry entry : sortedHashedFiles(manifest)) {
+                    if (entry.name.compareTo(cursorFile) < 0) continue;
+                    if (!entry.name.equals(cursorFile)) {
+                        cursorFile = entry.name;
+                        cursorLeaf = 0;
+                    }
+                    if (control.shouldStop()) {
+                        stopped = true;
+                        break sessions;
+                    }
+                    if (runBytes >= budgetBytes) {
+                        exhausted = true;
+                        break sessions;
+                    }
+                    int outcome = verifyFile(session, entry, budgetBytes, control, found);
+                    if (outcome == STOPPED) {
+                        stopped = true;
+                        break sessions;
+                    }
+                    if (outcome == OUT_OF_BUDGET) {
+                        exhausted = true;
+                        break sessions;
+                    }
+                    filesCompleted++;
+                    cursorFile = entry.name + "\0"; // past this file
+                    cursorLeaf = 0;
+                    if (bytesSinceSave >= SAVE_EVERY_BYTES) saveState();
+                }
+            }
+            if (!stopped && !exhausted) {
+                completed = true;
+                passes++;
+                lastPassCompleted = System.currentTimeMillis();
+                cursorSession = "";
+                cursorFile = "";
+                cursorLeaf = 0;
+            }
+        } finally {
+            saveState();
+        }
+        return new RunResult(runBytes, filesCompleted, found, stopped, exhausted, completed,
+            System.currentTimeMillis() - runStartMillis);
+    }
+
+    private static final int DONE = 0;
+    private static final int STOPPED = 1;
+    private static final int OUT_OF_BUDGET = 2;
+
+    /**
+     * Check one file from cursorLeaf; advances cursorLeaf as leaves are verified
+     */
+    private int verifyFile(File session, SessionManifest.FileEntry entry, long budgetBytes, Control control,
+                           List<Mismatch> found) throws IOException {
+        File file = new File(session, entry.name);
+        if (!file.exists()) {
+            record(found, new Mismatch(session.getName(), entry.name, -1, entry.sha256, "missing", System.currentTimeMillis()));
+            return DONE;
+        }
+        long length = EncryptedFileChannel.plaintextLength(file);
+        if (length != entry.sizeBytes) {
+            record(found, new Mismatch(session.getName(), entry.name, -1, entry.sizeBytes + " bytes",
+                length + " bytes", System.currentTimeMillis()));
+            return DONE;
+        }
+
+        boolean encrypted = EncryptedFileChannel.isEncrypted(file);
+        if (encrypted && atRestKey == null) return DONE; // cannot be read here
+
+        FileChannel opened;
+        try {
+            opened = encrypted ? EncryptedFileChannel.open(file, atRestKey, false) : new RandomAccessFile(file, "r").getChannel();
+        } catch (IOException e) {
+            if (!encrypted) throw e;
+            // Its end is missing or fails authentication: cut short or changed on disk
+            record(found, new Mismatch(session.getName(), entry.name, -1, "authenticated last chunk", e.getMessage(),
+                System.currentTimeMillis()));
+            return DONE;
+        }
+        try (FileChannel channel = opened) {
+            long plainSize = channel.size();
+            String recordedRoot = MerkleTree.recordedRoot(file);
+            MerkleTree tree = trustedLeaves(session, file, plainSize, recordedRoot, found);
+            // Without trusted leaves, leaf hashes are collected (across runs) for the recorded root;
+            // with no recorded root either, only a plain digest in one run is left
+            boolean collect = tree == null && recordedRoot != null;
+            if (!collect) cursorLeaves.clear();
+            if (tree == null && (!collect || cursorLeaves.size() != cursorLeaf)) {
+                cursorLeaf = 0;
+                cursorLeaves.clear();
+            }
+            boolean resumable = tree != null || collect;
+            int chunkSize = tree != null ? tree.leafSize : MerkleTree.DEFAULT_LEAF_SIZE;
+            MessageDigest plain = cursorLeaf == 0 ? newDigest() : null;
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(chunkSize);
+            long position = (long) cursorLeaf * chunkSize;
+            while (position < plainSize) {
+                if (control.shouldStop()) return STOPPED;
+                // A file that cannot resume is finished in this run, past the budget if need be
+                if (resumable && runBytes >= budgetBytes) return OUT_OF_BUDGET;
+                buffer.clear();
+                buffer.limit((int) Math.min(chunkSize, plainSize - position));
+                try {
+                    Mp4Box.readFully(channel, buffer, position);
+                } catch (IOException e) {
+                    if (!encrypted) throw e;
+                    // A chunk that fails authentication was changed on disk
+                    record(found, new Mismatch(session.getName(), entry.name, resumable ? cursorLeaf : -1,
+                        "authenticated chunk", e.getMessage(), System.currentTimeMillis()));
+                    cursorLeaves.clear();
+                    return DONE;
+                }
+                buffer.flip();
+                if (plain != null) {
+                    plain.update(buffer);
+                    buffer.position(0);
+                }
+                if (tree != null && !tree.leafMatches(cursorLeaf, buffer)) {
+                    record(found, new Mismatch(session.getName(), entry.name, cursorLeaf,
+                        "leaf of " + MerkleTree.indexFileFor(file).getName(), "different bytes", System.currentTimeMillis()));
+                }
+                if (collect) cursorLeaves.add(MerkleTree.leafHash(buffer));
+                int read = buffer.limit();
+                position += read;
+                if (resumable) cursorLeaf++;
+                pace(read);
+            }
+            boolean intact = true;
+            if (collect) {
+                String root = EvidenceHasher.hex(MerkleTree.rootOf(cursorLeaves.toArray(new byte[0][])));
+                cursorLeaves.clear();
+                if (!root.equals(recordedRoot)) {
+                    intact = false;
+                    record(found, new Mismatch(session.getName(), entry.name, -1, "Merkle root " + recordedRoot, root,
+                        System.currentTimeMillis()));
+                }
+            }
+            if (plain != null) {
+                String actual = EvidenceHasher.hex(plain.digest());
+                if (!actual.equals(entry.sha256)) {
+                    intact = false;
+                    record(found, new Mismatch(session.getName(), entry.name, -1, entry.sha256, actual, System.currentTimeMillis()));
+                }
+            }
+            if (intact && plain != null) clearMismatches(session.getName(), entry.name);
+        }
+        return DONE;
+    }
+
+    /**
+     * The file's saved leaves if they are for its current size and their root is the one
+     * recorded in its timestamp file; leaves with another root are reported, and not used
+     */
+    private MerkleTree trustedLeaves(File session, File file, long plainSize, String recordedRoot, List<Mismatch> found) {
+        File leaves = MerkleTree.indexFileFor(file);
+        if (recordedRoot == null || !leaves.exists()) return null;
+        MerkleTree tree;
+        try {
+            tree = MerkleTree.load(leaves);
+        } catch (IOException e) {
+            record(found, new Mismatch(session.getName(), leaves.getName(), -1, "readable leaves", e.getMessage(),
+                System.currentTimeMillis()));
+            return null;
+        }
+        if (!tree.getRootHex().equals(recordedRoot)) {
+            record(found, new Mismatch(session.getName(), leaves.getName(), -1, "Merkle root " + recordedRoot,
+                tree.getRootHex(), System.currentTimeMillis()));
+            return null;
+        }
+        return tree.fileSize == plainSize ? tree : null;
+    }
+
+    /**
+     * Count the bytes and sleep as long as the run is ahead of the byte rate
+     */
+    private void pace(int bytes) throws IOException {
+        runBytes += bytes;
+        totalBytes += bytes;
+        bytesSinceSave += bytes;
+        if (bytesPerSecond <= 0) return;
+        long dueNanos = runBytes * 1000000000L / bytesPerSecond;
+        long aheadNanos = dueNanos - (System.nanoTime() - runStartNanos);
+        if (aheadNanos > 0) {
+            try {
+                Thread.sleep(aheadNanos / 1000000, (int) (aheadNanos % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Re-verification interrupted", e);
+            }
+        }
+    }
+
+    private void record(List<Mismatch> found, Mismatch mismatch) {
+        for (Mismatch known : mismatches) {
+            if (known.session.equals(mismatch.session) && known.file.equals(mismatch.file) && known.leaf == mismatch.leaf) {
+                return;
+            }
+        }
+        found.add(mismatch);
+        mismatches.add(mismatch);
+        if (mismatches.size() > MAX_MISMATCHES) mismatches.remove(0);
+    }
+
+    /**
+     * A file read whole and intact again (restored from a copy) drops its earlier mismatches
+     */
+    private void clearMismatches(String session, String file) {
+        for (int i = mismatches.size() - 1; i >= 0; i--) {
+            Mismatch known = mismatches.get(i);
+            if (known.session.equals(session) && known.file.equals(file) && known.detectedAt < runStartMillis) {
+                mismatches.remove(i);
+            }
+        }
+    }
+
+    private List<File> listSessions() {
+        List<File> sessions = new ArrayList<>();
+        File[] children = baseDir.listFiles();
+        if (children == null) return sessions;
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory() && SessionManifest.manifestFileFor(child).exists()) sessions.add(child);
+        }
+        return sessions;
+    }
+
+    private static List<SessionManifest.FileEntry> sortedHashedFiles(SessionManifest manifest) {
+        List<SessionManifest.FileEntry> files = new ArrayList<>();
+        for (SessionManifest.FileEntry entry : manifest.getFiles()) {
+            if (entry.sha256 != null && entry.sha256.length() == 64) files.add(entry);
+        }
+        Collections.sort(files, (a, b) -> a.name.compareTo(b.name));
+        return files;
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(EvidenceHasher.ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(EvidenceHasher.ALGORITHM + " not available", e);
+        }
+    }
+
+    // ---- State ----
+
+    public void saveState() throws IOException {
+        bytesSinceSave = 0;
+        File tmp = new File(stateFile.getParentFile(), stateFile.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeUTF(cursorSession);
+            out.writeUTF(cursorFile);
+            out.writeInt(cursorLeaf);
+            out.writeInt(cursorLeaves.size());
+            for (byte[] leaf : cursorLeaves) out.write(leaf);
+            out.writeInt(passes);
+            out.writeLong(lastPassCompleted);
+            out.writeLong(totalBytes);
+            out.writeInt(mismatches.size());
+            for (Mismatch mismatch : mismatches) {
+                out.writeUTF(mismatch.session);
+                out.writeUTF(mismatch.file);
+                out.writeInt(mismatch.leaf);
+                out.writeUTF(mismatch.expected);
+                out.writeUTF(mismatch.actual);
+                out.writeLong(mismatch.detectedAt);
+            }
+        }
+        if ((stateFile.exists() && !stateFile.delete()) || !tmp.renameTo(stateFile)) {
+            throw new IOException("Cannot move " + tmp.getName() + " to " + stateFile.getName());
+        }
+    }
+
+    /**
+     * Read the saved cursor, totals and mismatches with a single read; no file is a fresh start
+     */
+    public void loadState() throws IOException {
+        if (!stateFile.exists()) return;
+        byte[] bytes;
+        try (RandomAccessFile raf = new RandomAccessFile(stateFile, "r")) {
+            bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (bytes.length < 8 || in.readInt() != MAGIC) {
+            throw new IOException("Not a re-verification state file: " + stateFile.getName());
+        }
+        short version = in.readShort();
+        if (version != VERSION) throw new IOException("Unsupported re-verification state version " + version);
+        in.readShort();
+        try {
+            cursorSession = in.readUTF();
+            cursorFile = in.readUTF();
+            cursorLeaf = in.readInt();
+            int leaves = in.readInt();
+            cursorLeaves.clear();
+            for (int i = 0; i < leaves; i++) {
+                byte[] leaf = new byte[32];
+                in.readFully(leaf);
+                cursorLeaves.add(leaf);
+            }
+            passes = in.readInt();
+            lastPassCompleted = in.readLong();
+            totalBytes = in.readLong();
+            int count = in.readInt();
+            mismatches.clear();
+            for (int i = 0; i < count; i++) {
+                mismatches.add(new Mismatch(in.readUTF(), in.readUTF(), in.readInt(), in.readUTF(), in.readUTF(), in.readLong()));
+            }
+        } catch (IOException e) {
+            throw new IOException("Damaged re-verification state: " + stateFile.getName(), e);
+        }
+    }
+}
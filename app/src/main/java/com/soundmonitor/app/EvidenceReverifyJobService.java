@@ -0,0 +1,104 @@
+package com.soundmonitor.app;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Environment;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Periodic background re-verification of stored sessions (EvidenceReverifier), so corruption
+ * of recordings on flash is found while a copy may still exist.
+ *
+ * Features:
+ * 1. Runs while charging, at most every RUN_INTERVAL_MS, reading at most RUN_BUDGET_BYTES at
+ *    BYTES_PER_SECOND on a background-priority thread
+ * 2. Stops as soon as the service starts a session, and when the system stops the job; the
+ *    saved cursor lets the next run continue from there
+ * 3. Mismatches are kept in the state file and logged as they are found
+ */
+public class EvidenceReverifyJobService extends JobService {
+    private static final String TAG = "EvidenceReverifyJob";
+    private static final int JOB_ID = 0x534D5256;
+    private static final long RUN_INTERVAL_MS = 12L * 60 * 60 * 1000;
+    private static final long BYTES_PER_SECOND = EvidenceReverifier.DEFAULT_BYTES_PER_SECOND;
+    private static final long RUN_BUDGET_BYTES = EvidenceReverifier.DEFAULT_RUN_BUDGET_BYTES;
+
+    private volatile boolean cancelled = false;
+    private Thread worker;
+
+    /**
+     * Schedule the periodic job unless it already is, which would restart its interval
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null) return;
+        for (JobInfo pending : scheduler.getAllPendingJobs()) {
+            if (pending.getId() == JOB_ID) return;
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, EvidenceReverifyJobService.class))
+            .setPeriodic(RUN_INTERVAL_MS)
+            .setRequiresCharging(true)
+            .build();
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.w(TAG, "Re-verification job not scheduled");
+        }
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        if (SoundMonitorService.isSessionActive()) {
+            Log.i(TAG, "🔁 Session active, re-verification skipped");
+            return false;
+        }
+        cancelled = false;
+        worker = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            boolean retry = false;
+            try {
+                retry = runVerification();
+            } catch (IOException e) {
+                Log.w(TAG, "Re-verification failed: " + e.getMessage());
+            }
+            jobFinished(params, retry);
+        }, TAG);
+        worker.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        cancelled = true;
+        return true;
+    }
+
+    /**
+     * One budgeted run; true if it was stopped early and should be retried
+     */
+    private boolean runVerification() throws IOException {
+        File baseDir = new File(getExternalFilesDir(Environment.DIRECTORY_MOVIES), "SoundTrigger");
+        EvidenceReverifier reverifier = new EvidenceReverifier(baseDir,
+            new File(getFilesDir(), EvidenceReverifier.STATE_FILE_NAME), BYTES_PER_SECOND);
+        reverifier.setAtRestKey(EvidenceKeys.atRestKey(this, false));
+        try {
+            reverifier.loadState();
+        } catch (IOException e) {
+            Log.w(TAG, "Re-verification state unreadable, starting a new pass: " + e.getMessage());
+        }
+        EvidenceReverifier.RunResult result = reverifier.run(RUN_BUDGET_BYTES,
+            () -> cancelled || SoundMonitorService.isSessionActive());
+        for (EvidenceReverifier.Mismatch mismatch : result.newMismatches) {
+            Log.w(TAG, "⚠️ Stored evidence changed: " + mismatch);
+        }
+        Log.i(TAG, "🔁 Re-verification: " + result + "; " + reverifier.getPassCount() + " passes, "
+            + reverifier.getMismatches().size() + " known mismatches, next at " + reverifier.getCursor());
+        return result.stopped && !cancelled;
+    }
+}
@@ -0,0 +1,895 @@
+package com.soundmonitor.app;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Verifies session folders without the app: a library for tests and tools, and a command-line
+ * tool for a Linux workstation. Uses no Android classes.
+ *
+ * Features:
+ * 1. Recomputes every file's plain SHA-256 and Merkle root - and, given the recording seeds,
+ *    its seeded SHA-256 - in one read, and checks them against the session manifest, the
+ *    evidence journal, the batch signatures, the timestamp files, the saved .merkle leaves
+ *    and clip hash files; RFC 3161 tokens of signed batch roots when there are any (getting
+ *    them needs the network, so their absence is not reported)
+ * 2. Checks the evidence journal's hash chain, subtitle files (cue numbering, times in order
+ *    and within the media's duration) and segment ordering (numbering, modification times,
+ *    order of the journal's segment records)
+ * 3. Files of all sessions are hashed on one thread pool, largest first, so verifying many
+ *    sessions keeps every disk busy instead of reading one file at a time
+ * 4. Machine-readable JSON report with one entry per file and per check
+ * 5. Files encrypted at rest (EncryptedFileChannel) are hashed through their plaintext, which
+ *    the recorded sizes and digests refer to, given the at-rest data key; without it they are
+ *    reported as not checked. The decrypted export in Downloads verifies without a key.
+ *
+ * Command line (classes of app/build/intermediates/javac/debug/classes on the class path):
+ *   java com.soundmonitor.app.EvidenceVerifier [--threads N] [--seed BASE64]... [--key FILE]
+ *       [--signing-key SHA256] [--report FILE] SESSION_OR_PARENT_FOLDER...
+ * --key names a file holding the raw AES data key. --signing-key is the SHA-256 fingerprint of
+ * the device's signing key (logged when a session opens); without it batch signatures only show
+ * that session.signatures agrees with the key written into it, and are reported as a warning.
+ * Exit status 0 if every session passes (warnings allowed), 1 if a check fails, 2 on bad usage.
+ */
+public class EvidenceVerifier {
+    public static final String PASS = "PASS";
+    public static final String WARN = "WARN";
+    public static final String FAIL = "FAIL";
+    public static final String SKIPPED = "SKIPPED";
+
+    private static final long SRT_TOLERANCE_MS = 1000;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("\\d+\\.mp4");
+    private static final Pattern SRT_TIMES = Pattern.compile(
+        "(\\d+):(\\d{2}):(\\d{2}),(\\d{3}) --> (\\d+):(\\d{2}):(\\d{2}),(\\d{3})");
+    private static final Pattern HEX_PREFIX = Pattern.compile("^([0-9a-f]+)");
+
+    public static class Check {
+        public final String name;   // manifest, journal, signatures, tsa, timestamp, clip, subtitles, segments, encryption
+        public final String file;   // null for checks of the whole session
+        public final String status;
+        public final String detail;
+
+        public Check(String name, String file, String status, String detail) {
+            this.name = name;
+            this.file = file;
+            this.status = status;
+            this.detail = detail;
+        }
+
+        @Override
+        public String toString() {
+            return status + " " + name + (file != null ? " " + file : "") + ": " + detail;
+        }
+    }
+
+    public static class FileResult {
+        public final String name;
+        public final long sizeBytes;
+        public final String sha256;       // null if the file could not be read
+        public final String merkleRoot;
+        public final Map<String, String> seeded; // base64 seed -> seeded SHA-256
+        public final String error;
+
+        FileResult(String name, long sizeBytes, EvidenceHasher.Digests digests, String error) {
+            this.name = name;
+            this.sizeBytes = sizeBytes;
+            this.sha256 = digests != null ? digests.sha256 : null;
+            this.merkleRoot = digests != null ? digests.merkle.getRootHex() : null;
+            Map<String, String> seeded = new LinkedHashMap<>();
+            if (digests != null) {
+                for (String seed : digests.getSeeds()) seeded.put(seed, digests.seeded(seed));
+            }
+            this.seeded = Collections.unmodifiableMap(seeded);
+            this.error = error;
+        }
+    }
+
+    public static class SessionReport {
+        public final String folder;
+        public final List<FileResult> files = new ArrayList<>();
+        public final List<Check> checks = new ArrayList<>();
+
+        SessionReport(String folder) {
+            this.folder = folder;
+        }
+
+        public String getStatus() {
+            String status = PASS;
+            for (Check check : checks) {
+                if (FAIL.equals(check.status)) return FAIL;
+                if (WARN.equals(check.status)) status = WARN;
+            }
+            return status;
+        }
+
+        public List<Check> getChecks(String status) {
+            List<Check> matching = new ArrayList<>();
+            for (Check check : checks) {
+                if (check.status.equals(status)) matching.add(check);
+            }
+            return matching;
+        }
+    }
+
+    public static class Report {
+        public final List<SessionReport> sessions;
+        public final int threads;
+        public final long bytesHashed;
+        public final long elapsedMs;
+
+        Report(List<SessionReport> sessions, int threads, long bytesHashed, long elapsedMs) {
+            this.sessions = sessions;
+            this.threads = threads;
+            this.bytesHashed = bytesHashed;
+            this.elapsedMs = elapsedMs;
+        }
+
+        public boolean isPassed() {
+            for (SessionReport session : sessions) {
+                if (FAIL.equals(session.getStatus())) return false;
+            }
+            return true;
+        }
+
+        public double getThroughputMBps() {
+            return elapsedMs > 0 ? bytesHashed / (1024.0 * 1024.0) / (elapsedMs / 1000.0) : 0;
+        }
+
+        public void writeJson(Writer out) throws IOException {
+            out.write("{\n  \"tool\": \"EvidenceVerifier\",\n");
+            out.write("  \"status\": " + json(isPassed() ? PASS : FAIL) + ",\n");
+            out.write("  \"threads\": " + threads + ",\n");
+            out.write("  \"elapsedMs\": " + elapsedMs + ",\n");
+            out.write("  \"bytesHashed\": " + bytesHashed + ",\n");
+            out.write(String.format(Locale.US, "  \"throughputMBps\": %.1f,\n", getThroughputMBps()));
+            out.write("  \"sessions\": [");
+            for (int s = 0; s < sessions.size(); s++) {
+                SessionReport session = sessions.get(s);
+                out.write(s == 0 ? "\n" : ",\n");
+                out.write("    {\n      \"folder\": " + json(session.folder) + ",\n");
+                out.write("      \"status\": " + json(session.getStatus()) + ",\n");
+                out.write("      \"files\": [");
+                for (int f = 0; f < session.files.size(); f++) {
+                    FileResult file = session.files.get(f);
+                    out.write(f == 0 ? "\n" : ",\n");
+                    out.write("        {\"name\": " + json(file.name) + ", \"size\": " + file.sizeBytes
+                        + ", \"sha256\": " + json(file.sha256) + ", \"merkleRoot\": " + json(file.merkleRoot));
+                    if (!file.seeded.isEmpty()) {
+                        out.write(", \"seeded\": {");
+                        boolean first = true;
+                        for (Map.Entry<String, String> seeded : file.seeded.entrySet()) {
+                            // Keyed by the seed's start, as in the timestamp file: the report does not disclose seeds
+                            String seed = seeded.getKey().substring(0, Math.min(16, seeded.getKey().length())) + "...";
+                            out.write((first ? "" : ", ") + json(seed) + ": " + json(seeded.getValue()));
+                            first = false;
+                        }
+                        out.write("}");
+                    }
+                    if (file.error != null) out.write(", \"error\": " + json(file.error));
+                    out.write("}");
+                }
+                out.write(session.files.isEmpty() ? "],\n" : "\n      ],\n");
+                out.write("      \"checks\": [");
+                for (int c = 0; c < session.checks.size(); c++) {
+                    Check check = session.checks.get(c);
+                    out.write(c == 0 ? "\n" : ",\n");
+                    out.write("        {\"check\": " + json(check.name) + ", \"file\": " + json(check.file)
+                        + ", \"status\": " + json(check.status) + ", \"detail\": " + json(check.detail) + "}");
+                }
+                out.write(session.checks.isEmpty() ? "]\n    }" : "\n      ]\n    }");
+            }
+            out.write(sessions.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+        }
+
+        @Override
+        public String toString() {
+            int failed = 0;
+            for (SessionReport session : sessions) {
+                if (FAIL.equals(session.getStatus())) failed++;
+            }
+            return String.format(Locale.US, "%d sessions, %d failed; %.1f MB hashed in %d ms (%.1f MB/s, %d threads)",
+                sessions.size(), failed, bytesHashed / (1024.0 * 1024.0), elapsedMs, getThroughputMBps(), threads);
+        }
+    }
+
+    private final int threads;
+    private final List<String> seeds = new ArrayList<>();
+    private SecretKey atRestKey;
+    private String signingKeyFingerprint;
+
+    public EvidenceVerifier(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Recording seed (base64) to check seeded hashes with; timestamp files record only its start
+     */
+    public void addSeed(String seed) {
+        seeds.add(seed);
+    }
+
+    /**
+     * Data key of files encrypted at rest; without it such files are not checked
+     */
+    public void setAtRestKey(SecretKey atRestKey) {
+        this.atRestKey = atRestKey;
+    }
+
+    /**
+     * SHA-256 fingerprint of the device's signing key (BatchSigner.fingerprint); batch signatures
+     * by any other key fail
+     */
+    public void setSigningKeyFingerprint(String signingKeyFingerprint) {
+        this.signingKeyFingerprint = signingKeyFingerprint;
+    }
+
+    /**
+     * The folder itself if it is a session, else its session subfolders by name
+     */
+    public static List<File> findSessions(File folder) {
+        List<File> sessions = new ArrayList<>();
+        if (isSession(folder)) {
+            sessions.add(folder);
+            return sessions;
+        }
+        File[] children = folder.listFiles();
+        if (children == null) return sessions;
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory() && isSession(child)) sessions.add(child);
+        }
+        return sessions;
+    }
+
+    private static boolean isSession(File folder) {
+        if (SessionManifest.manifestFileFor(folder).exists() || EvidenceJournal.journalFileFor(folder).exists()) return true;
+        String[] names = folder.list();
+        if (names == null) return false;
+        for (String name : names) {
+            if (name.endsWith("_timestamp.txt")) return true;
+        }
+        return false;
+    }
+
+    // ---- Verification ----
+
+    /**
+     * Per session: its files, the hash of each (pending until read) and what it is checked against
+     */
+    private class Session {
+        final File folder;
+        final SessionReport report;
+        final Map<String, Future<EvidenceHasher.Digests>> hashes = new HashMap<>();
+        final Map<String, String> journalHashes = new HashMap<>(); // record hash -> file name
+        final Map<String, Long> sizes = new HashMap<>(); // plaintext sizes
+        final List<String> locked = new ArrayList<>();   // encrypted, and no key to read them
+        SessionManifest manifest;
+
+        Session(File folder) {
+            this.folder = folder;
+            this.report = new SessionReport(folder.getAbsolutePath());
+        }
+
+        /** Digests of a file in the folder, or null if it is missing or unreadable */
+        EvidenceHasher.Digests digests(String name) {
+            Future<EvidenceHasher.Digests> future = hashes.get(name);
+            if (future == null) return null;
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+
+        void add(String name, String file, String status, String detail) {
+            report.checks.add(new Check(name, file, status, detail));
+        }
+    }
+
+    public Report verify(List<File> sessionFolders) throws IOException {
+        long start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<SessionReport> reports = new ArrayList<>();
+        long bytesHashed = 0;
+        try {
+            // Queue every file of every session, largest first, so the pool ends together
+            List<Session> sessions = new ArrayList<>();
+            List<File> queue = new ArrayList<>();
+            final Map<File, Session> owners = new HashMap<>();
+            for (File folder : sessionFolders) {
+                Session session = new Session(folder);
+                sessions.add(session);
+                File[] files = folder.listFiles();
+                if (files == null) throw new IOException("Not a folder: " + folder);
+                for (File file : files) {
+                    if (!file.isFile() || file.getName().endsWith(".tmp")) continue;
+                    session.sizes.put(file.getName(), EncryptedFileChannel.plaintextLength(file));
+                    if (atRestKey == null && EncryptedFileChannel.isEncrypted(file)) {
+                        session.locked.add(file.getName());
+                        continue;
+                    }
+                    queue.add(file);
+                    owners.put(file, session);
+                }
+            }
+            Collections.sort(queue, (a, b) -> Long.compare(b.length(), a.length()));
+            for (final File file : queue) {
+                final List<String> fileSeeds = seedsFor(file);
+                owners.get(file).hashes.put(file.getName(), pool.submit(() -> EvidenceHasher.compute(file, fileSeeds, atRestKey)));
+                bytesHashed += file.length();
+            }
+
+            for (Session session : sessions) {
+                Collections.sort(session.locked);
+                for (String name : session.locked) {
+                    session.add("encryption", name, WARN, "encrypted at rest and no key given (--key): not checked;"
+                        + " verify the decrypted export instead");
+                }
+                checkManifest(session);
+                checkJournal(session);
+                checkSignatures(session);
+                checkTimestampFiles(session);
+                checkClipHashFiles(session);
+                checkSubtitles(session);
+                checkSegmentOrder(session);
+                List<String> names = new ArrayList<>(session.hashes.keySet());
+                Collections.sort(names);
+                for (String name : names) {
+                    EvidenceHasher.Digests digests = null;
+                    String error = null;
+                    try {
+                        digests = session.hashes.get(name).get();
+                    } catch (ExecutionException e) {
+                        error = String.valueOf(e.getCause().getMessage());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        error = "interrupted";
+                    }
+                    session.report.files.add(new FileResult(name, session.sizes.get(name), digests, error));
+                }
+                for (String name : session.locked) {
+                    session.report.files.add(new FileResult(name, session.sizes.get(name), null, "encrypted at rest, no key"));
+                }
+                reports.add(session.report);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return new Report(reports, threads, bytesHashed, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Supplied seeds whose start matches the seed recorded in the file's timestamp file
+     */
+    private List<String> seedsFor(File media) throws IOException {
+        File timestamp = timestampFileFor(media);
+        if (seeds.isEmpty() || !timestamp.exists()) return Collections.emptyList();
+        String recorded = seedPrefix(readFields(timestamp));
+        List<String> matching = new ArrayList<>();
+        if (recorded == null) return matching;
+        for (String seed : seeds) {
+            if (seed.startsWith(recorded)) matching.add(seed);
+        }
+        return matching;
+    }
+
+    private static File timestampFileFor(File media) {
+        return SessionVolumeWriter.companionFile(media, "_timestamp.txt");
+    }
+
+    private static String seedPrefix(Map<String, List<String>> fields) {
+        String seed = first(fields, "Cryptographic Seed");
+        if (seed == null || seed.equals("N/A")) return null;
+        return seed.endsWith("...") ? seed.substring(0, seed.length() - 3) : seed;
+    }
+
+    private void checkManifest(Session session) {
+        try {
+            session.manifest = SessionManifest.load(session.folder);
+        } catch (IOException e) {
+            session.add("manifest", SessionManifest.FILE_NAME, FAIL, "unreadable: " + e.getMessage());
+            return;
+        }
+        if (session.manifest == null) {
+            session.add("manifest", SessionManifest.FILE_NAME, WARN, "no session manifest");
+            return;
+        }
+        int hashed = 0;
+        int changed = 0;
+        for (SessionManifest.FileEntry entry : session.manifest.getFiles()) {
+            Long size = session.sizes.get(entry.name);
+            if (size == null) {
+                session.add("manifest", entry.name, FAIL, "listed in the manifest but missing");
+                continue;
+            }
+            if (entry.sha256 == null || entry.sha256.equals("HASH_CALCULATION_FAILED")) {
+                if (size != entry.sizeBytes) changed++;
+                continue;
+            }
+            if (session.locked.contains(entry.name)) continue;
+            hashed++;
+            EvidenceHasher.Digests digests = session.digests(entry.name);
+            if (digests == null) {
+                session.add("manifest", entry.name, FAIL, "unreadable");
+            } else if (!digests.sha256.equals(entry.sha256) || digests.sizeBytes != entry.sizeBytes) {
+                session.add("manifest", entry.name, FAIL, "SHA-256 " + digests.sha256 + " (" + digests.sizeBytes
+                    + " bytes), manifest has " + entry.sha256 + " (" + entry.sizeBytes + " bytes)");
+            } else {
+                session.add("manifest", entry.name, PASS, "SHA-256 matches");
+            }
+        }
+        if (changed > 0) {
+            session.add("manifest", SessionManifest.FILE_NAME, WARN, changed + " unhashed companion file(s) changed size since recorded");
+        }
+        session.add("manifest", SessionManifest.FILE_NAME, PASS,
+            session.manifest.getFiles().size() + " files listed, " + hashed + " with a hash");
+    }
+
+    private void checkJournal(final Session session) {
+        File journal = EvidenceJournal.journalFileFor(session.folder);
+        if (!journal.exists()) {
+            session.add("journal", EvidenceJournal.FILE_NAME, WARN, "no evidence journal");
+            return;
+        }
+        final List<EvidenceJournal.Record> records = new ArrayList<>();
+        EvidenceJournal.Verification verification;
+        try {
+            verification = EvidenceJournal.verify(journal, null, records::add);
+        } catch (IOException e) {
+            session.add("journal", EvidenceJournal.FILE_NAME, FAIL, "unreadable: " + e.getMessage());
+            return;
+        }
+        session.add("journal", EvidenceJournal.FILE_NAME, verification.isIntact() ? PASS : FAIL, verification.toString());
+        if (verification.tornBytes > 0) {
+            session.add("journal", EvidenceJournal.FILE_NAME, WARN, "ends in a torn record (" + verification.tornBytes + " bytes)");
+        }
+
+        boolean stopped = false;
+        int lastSegment = 0;
+        for (EvidenceJournal.Record record : records) {
+            if (EvidenceJournal.TYPE_STOP.equals(record.type)) stopped = true;
+            if (record.name == null) continue;
+            session.journalHashes.put(record.hash, record.name);
+            if (EvidenceJournal.TYPE_SEGMENT.equals(record.type)) {
+                int number = Mp4Recovery.segmentNumberOf(new File(record.name));
+                if (number <= lastSegment) {
+                    session.add("segments", record.name, FAIL, "journal record #" + record.seq + " closes segment " + number
+                        + " after segment " + lastSegment);
+                }
+                lastSegment = Math.max(lastSegment, number);
+            }
+            if (record.sha256 == null) continue;
+            String where = "journal record #" + record.seq + " (" + record.type + ")";
+            if (!session.sizes.containsKey(record.name)) {
+                session.add("journal", record.name, FAIL, where + " names a missing file");
+                continue;
+            }
+            if (session.locked.contains(record.name)) continue;
+            EvidenceHasher.Digests digests = session.digests(record.name);
+            if (digests == null) {
+                session.add("journal", record.name, FAIL, "unreadable");
+            } else if (!digests.sha256.equals(record.sha256) || (record.sizeBytes >= 0 && digests.sizeBytes != record.sizeBytes)) {
+                session.add("journal", record.name, FAIL, where + " has SHA-256 " + record.sha256 + ", file has " + digests.sha256);
+            } else {
+                session.add("journal", record.name, PASS, where + " matches");
+            }
+        }
+        if (!stopped) {
+            session.add("journal", EvidenceJournal.FILE_NAME, WARN, "no STOP record: session did not end normally");
+        }
+    }
+
+    private void checkSignatures(Session session) {
+        File signatures = BatchSigner.signaturesFileFor(session.folder);
+        if (!signatures.exists()) {
+            session.add("signatures", BatchSigner.FILE_NAME, WARN, "no batch signatures");
+            return;
+        }
+        BatchSigner.Verification verification;
+        try {
+            verification = BatchSigner.verify(signatures, session.folder.getName(), signingKeyFingerprint);
+        } catch (IOException e) {
+            session.add("signatures", BatchSigner.FILE_NAME, FAIL, "unreadable: " + e.getMessage());
+            return;
+        }
+        if (!verification.isIntact()) {
+            session.add("signatures", BatchSigner.FILE_NAME, FAIL, verification + "; key " + join(verification.keyFingerprints));
+        } else if (!verification.keyPinned || verification.tornTail) {
+            session.add("signatures", BatchSigner.FILE_NAME, WARN, verification + "; key " + join(verification.keyFingerprints)
+                + (verification.keyPinned ? "" : " not checked against the device's (--signing-key)"));
+        } else {
+            session.add("signatures", BatchSigner.FILE_NAME, PASS, verification + "; key " + join(verification.keyFingerprints));
+        }
+        for (Map.Entry<String, String> signed : verification.signedDigests.entrySet()) {
+            String name = signed.getKey();
+            if (!session.sizes.containsKey(name)) {
+                session.add("signatures", name, FAIL, "signed but missing");
+                continue;
+            }
+            if (session.locked.contains(name)) continue;
+            EvidenceHasher.Digests digests = session.digests(name);
+            if (digests == null) {
+                session.add("signatures", name, FAIL, "unreadable");
+            } else if (!digests.sha256.equals(signed.getValue())) {
+                session.add("signatures", name, FAIL, "signed SHA-256 " + signed.getValue() + ", file has " + digests.sha256);
+            } else {
+                session.add("signatures", name, PASS, "signed SHA-256 matches");
+            }
+        }
+
+        File timestamps = BatchTimestamps.timestampsFileFor(session.folder);
+        if (!timestamps.exists()) return;
+        try {
+            BatchTimestamps.Verification tokens = BatchTimestamps.verify(timestamps, verification.roots);
+            session.add("tsa", BatchTimestamps.FILE_NAME, tokens.isIntact() ? PASS : FAIL, tokens.toString());
+            for (Map.Entry<Integer, TsaClient.Token> token : tokens.byBatch.entrySet()) {
+                session.add("tsa", BatchTimestamps.FILE_NAME, PASS, "batch " + token.getKey() + ": " + token.getValue());
+            }
+        } catch (IOException e) {
+            session.add("tsa", BatchTimestamps.FILE_NAME, FAIL, "unreadable: " + e.getMessage());
+        }
+    }
+
+    private void checkTimestampFiles(Session session) {
+        for (String name : sortedNames(session)) {
+            if (!name.endsWith("_timestamp.txt")) continue;
+            String base = name.substring(0, name.length() - "_timestamp.txt".length());
+            String media = session.sizes.containsKey(base + ".mp4") ? base + ".mp4" : base + ".m4a";
+            if (session.locked.contains(media)) continue;
+            Map<String, List<String>> fields;
+            try {
+                fields = readFields(new File(session.folder, name));
+            } catch (IOException e) {
+                session.add("timestamp", name, FAIL, "unreadable: " + e.getMessage());
+                continue;
+            }
+            EvidenceHasher.Digests digests = session.digests(media);
+            if (digests == null) {
+                session.add("timestamp", name, FAIL, media + " missing or unreadable");
+                continue;
+            }
+
+            List<String> problems = new ArrayList<>();
+            List<String> checked = new ArrayList<>();
+            for (String size : values(fields, "File Size")) {
+                if (!size.equals(digests.sizeBytes + " bytes")) problems.add("File Size " + size + " but " + digests.sizeBytes + " bytes");
+            }
+            for (String hash : values(fields, "SHA-256 Hash")) {
+                if (!hash.equals(digests.sha256)) problems.add("SHA-256 " + hash + " but file has " + digests.sha256);
+            }
+            if (!values(fields, "SHA-256 Hash").isEmpty()) checked.add("SHA-256");
+
+            String merkleRoot = first(fields, "Merkle Root (SHA-256)");
+            if (merkleRoot != null) {
+                checked.add("Merkle root");
+                if (!merkleRoot.equals(digests.merkle.getRootHex())) {
+                    problems.add("Merkle root " + merkleRoot + " but file has " + digests.merkle.getRootHex());
+                }
+                File leaves = MerkleTree.indexFileFor(new File(session.folder, media));
+                try {
+                    if (leaves.exists() && !MerkleTree.load(leaves).getRootHex().equals(merkleRoot)) {
+                        problems.add(leaves.getName() + " has another root");
+                    }
+                } catch (IOException e) {
+                    problems.add(leaves.getName() + " unreadable: " + e.getMessage());
+                }
+            }
+
+            String seededHash = first(fields, "Seeded Video Hash");
+            String seedPrefix = seedPrefix(fields);
+            String seededStatus = null;
+            if (seededHash != null && seedPrefix != null) {
+                Matcher prefix = HEX_PREFIX.matcher(seededHash);
+                String seed = null;
+                for (String candidate : digests.getSeeds()) {
+                    if (candidate.startsWith(seedPrefix)) seed = candidate;
+                }
+                if (seed == null) {
+                    seededStatus = "seeded hash not checked: seed " + seedPrefix + "... not supplied";
+                } else if (prefix.find() && digests.seeded(seed).startsWith(prefix.group(1))) {
+                    checked.add("seeded SHA-256");
+                } else {
+                    problems.add("seeded hash " + seededHash + " but file has " + digests.seeded(seed));
+                }
+            }
+
+            String recordHash = first(fields, "Record Hash");
+            if (recordHash != null) {
+                checked.add("journal record");
+                if (!media.equals(session.journalHashes.get(recordHash))) {
+                    problems.add("record " + recordHash + " for " + media + " not in the evidence journal");
+                }
+            }
+
+            if (!problems.isEmpty()) {
+                session.add("timestamp", name, FAIL, join(problems));
+            } else {
+                session.add("timestamp", name, PASS, checked.isEmpty() ? "size matches" : join(checked) + " match");
+                if (seededStatus != null) session.add("timestamp", name, SKIPPED, seededStatus);
+            }
+        }
+    }
+
+    private void checkClipHashFiles(Session session) {
+        for (String name : sortedNames(session)) {
+            if (!name.endsWith(Mp4ClipExtractor.HASH_SUFFIX)) continue;
+            Map<String, List<String>> fields;
+            try {
+                fields = readFields(new File(session.folder, name));
+            } catch (IOException e) {
+                session.add("clip", name, FAIL, "unreadable: " + e.getMessage());
+                continue;
+            }
+            String clip = first(fields, "Clip");
+            if (session.locked.contains(clip)) continue;
+            EvidenceHasher.Digests digests = clip != null ? session.digests(clip) : null;
+            if (digests == null) {
+                session.add("clip", name, FAIL, (clip != null ? clip : "clip") + " missing or unreadable");
+                continue;
+            }
+            List<String> problems = new ArrayList<>();
+            if (!digests.sha256.equals(first(fields, "SHA-256"))) {
+                problems.add("SHA-256 " + first(fields, "SHA-256") + " but clip has " + digests.sha256);
+            }
+            if (!(digests.sizeBytes + " bytes").equals(first(fields, "Size"))) {
+                problems.add("Size " + first(fields, "Size") + " but clip has " + digests.sizeBytes + " bytes");
+            }
+            String source = first(fields, "Source");
+            String sourceRoot = first(fields, "Source Merkle Root");
+            EvidenceHasher.Digests sourceDigests = source != null ? session.digests(source) : null;
+            if (sourceRoot != null && sourceDigests != null && !session.locked.contains(source) && !sourceRoot.equals(sourceDigests.merkle.getRootHex())) {
+                problems.add("source " + source + " no longer has Merkle root " + sourceRoot);
+            }
+            session.add("clip", name, problems.isEmpty() ? PASS : FAIL, problems.isEmpty() ? "clip and source match" : join(problems));
+        }
+    }
+
+    private void checkSubtitles(Session session) {
+        for (String name : sortedNames(session)) {
+            if (!name.endsWith(".srt")) continue;
+            String media = name.endsWith(SessionVolumeWriter.SUBTITLE_SUFFIX)
+                ? name.substring(0, name.length() - SessionVolumeWriter.SUBTITLE_SUFFIX.length()) + ".mp4" : null;
+            long durationMs = media != null ? durationOf(session, media) : -1;
+            String problem = null;
+            int cues = 0;
+            long lastStart = -1;
+            long lastEnd = 0;
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(new File(session.folder, name)), "UTF-8"))) {
+                String line;
+                int expect = 0; // 0: index, 1: times, 2: text until a blank line
+                while ((line = in.readLine()) != null && problem == null) {
+                    if (expect == 0) {
+                        if (line.isEmpty()) continue;
+                        if (!line.trim().equals(Integer.toString(cues + 1))) problem = "cue " + (cues + 1) + " numbered " + line;
+                        expect = 1;
+                    } else if (expect == 1) {
+                        Matcher times = SRT_TIMES.matcher(line);
+                        if (!times.matches()) {
+                            problem = "cue " + (cues + 1) + " has no times";
+                            continue;
+                        }
+                        long start = srtMillis(times, 1);
+                        long end = srtMillis(times, 5);
+                        cues++;
+                        if (end < start) problem = "cue " + cues + " ends before it starts";
+                        else if (start < lastStart) problem = "cue " + cues + " starts before cue " + (cues - 1);
+                        lastStart = start;
+                        lastEnd = Math.max(lastEnd, end);
+                        expect = 2;
+                    } else if (line.isEmpty()) {
+                        expect = 0;
+                    }
+                }
+            } catch (IOException e) {
+                problem = "unreadable: " + e.getMessage();
+            }
+            if (problem == null && durationMs > 0 && lastEnd > durationMs + SRT_TOLERANCE_MS) {
+                problem = "cues run to " + lastEnd + " ms, " + media + " lasts " + durationMs + " ms";
+            }
+            session.add("subtitles", name, problem == null ? PASS : FAIL, problem == null
+                ? cues + " cues in order" + (durationMs > 0 ? " within " + durationMs + " ms" : "") : problem);
+        }
+    }
+
+    private static long durationOf(Session session, String media) {
+        if (!session.sizes.containsKey(media)) return -1;
+        if (session.manifest != null) {
+            SessionManifest.FileEntry entry = session.manifest.getFile(media);
+            if (entry != null && entry.durationMs > 0) return entry.durationMs;
+        }
+        try {
+            return Mp4Movie.parse(new File(session.folder, media)).getDurationMs();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void checkSegmentOrder(Session session) {
+        List<File> segments = new ArrayList<>();
+        for (String name : session.sizes.keySet()) {
+            if (SEGMENT_NAME.matcher(name).matches()) segments.add(new File(session.folder, name));
+        }
+        if (segments.isEmpty()) return;
+        Collections.sort(segments, (a, b) -> Integer.compare(Mp4Recovery.segmentNumberOf(a), Mp4Recovery.segmentNumberOf(b)));
+        List<String> gaps = new ArrayList<>();
+        List<String> outOfOrder = new ArrayList<>();
+        int expected = 1;
+        long lastModified = 0;
+        for (File segment : segments) {
+            int number = Mp4Recovery.segmentNumberOf(segment);
+            if (number > expected) {
+                gaps.add(number - 1 > expected ? expected + "-" + (number - 1) : Integer.toString(expected));
+            }
+            expected = number + 1;
+            if (segment.lastModified() < lastModified) outOfOrder.add(segment.getName());
+            lastModified = Math.max(lastModified, segment.lastModified());
+        }
+        if (!gaps.isEmpty()) {
+            session.add("segments", null, WARN, "segment numbers missing: " + join(gaps));
+        }
+        if (!outOfOrder.isEmpty()) {
+            session.add("segments", null, WARN, "modified before the segment numbered before them: " + join(outOfOrder));
+        }
+        session.add("segments", null, PASS, segments.size() + " segments numbered 1-" + (expected - 1));
+    }
+
+    // ---- Helpers ----
+
+    private static List<String> sortedNames(Session session) {
+        List<String> names = new ArrayList<>(session.sizes.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * "Key: value" lines of a text evidence file, every value of each key in order
+     */
+    static Map<String, List<String>> readFields(File file) throws IOException {
+        Map<String, List<String>> fields = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int colon = line.indexOf(": ");
+                if (colon <= 0) continue;
+                String key = line.substring(0, colon).trim();
+                List<String> values = fields.get(key);
+                if (values == null) {
+                    values = new ArrayList<>();
+                    fields.put(key, values);
+                }
+                values.add(line.substring(colon + 2).trim());
+            }
+        }
+        return fields;
+    }
+
+    private static List<String> values(Map<String, List<String>> fields, String key) {
+        List<String> values = fields.get(key);
+        return values != null ? values : Collections.<String>emptyList();
+    }
+
+    private static String first(Map<String, List<String>> fields, String key) {
+        List<String> values = fields.get(key);
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    private static long srtMillis(Matcher times, int group) {
+        return Long.parseLong(times.group(group)) * 3600000 + Long.parseLong(times.group(group + 1)) * 60000
+            + Long.parseLong(times.group(group + 2)) * 1000 + Long.parseLong(times.group(group + 3));
+    }
+
+    private static String join(List<String> parts) {
+        StringBuilder joined = new StringBuilder();
+        for (String part : parts) {
+            if (joined.length() > 0) joined.append("; ");
+            joined.append(part);
+        }
+        return joined.toString();
+    }
+
+    static String json(String value) {
+        if (value == null) return "null";
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') quoted.append('\\').append(c);
+            else if (c == '\n') quoted.append("\\n");
+            else if (c == '\t') quoted.append("\\t");
+            else if (c < 0x20) quoted.append(String.format(Locale.US, "\\u%04x", (int) c));
+            else quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+
+    // ---- Command line ----
+
+    /**
+     * Raw AES data key (16, 24 or 32 bytes) from a file
+     */
+    static SecretKey readKey(File file) throws IOException {
+        byte[] key;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            key = new byte[(int) Math.min(raf.length(), 64)];
+            raf.readFully(key);
+        }
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IOException(file.getName() + " is not a raw AES key (" + key.length + " bytes)");
+        }
+        return new SecretKeySpec(key, "AES");
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> seeds = new ArrayList<>();
+        String reportPath = null;
+        String keyPath = null;
+        String signingKey = null;
+        List<File> sessions = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--threads")) threads = Integer.parseInt(args[++i]);
+                else if (args[i].equals("--seed")) seeds.add(args[++i]);
+                else if (args[i].equals("--report")) reportPath = args[++i];
+                else if (args[i].equals("--key")) keyPath = args[++i];
+                else if (args[i].equals("--signing-key")) signingKey = args[++i];
+                else sessions.addAll(findSessions(new File(args[i])));
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            sessions.clear();
+        }
+        if (sessions.isEmpty()) {
+            System.err.println("Usage: EvidenceVerifier [--threads N] [--seed BASE64]... [--key FILE] [--signing-key SHA256]"
+                + " [--report FILE] SESSION_OR_PARENT_FOLDER...");
+            System.exit(2);
+        }
+
+        EvidenceVerifier verifier = new EvidenceVerifier(threads);
+        for (String seed : seeds) verifier.addSeed(seed);
+        verifier.setSigningKeyFingerprint(signingKey);
+        try {
+            if (keyPath != null) verifier.setAtRestKey(readKey(new File(keyPath)));
+            Report report = verifier.verify(sessions);
+            Writer out = new OutputStreamWriter(reportPath != null ? new FileOutputStream(reportPath) : System.out, "UTF-8");
+            report.writeJson(out);
+            out.flush();
+            if (reportPath != null) out.close();
+            for (SessionReport session : report.sessions) {
+                System.err.println(session.getStatus() + " " + session.folder);
+                for (Check check : session.getChecks(FAIL)) System.err.println("  " + check);
+            }
+            System.err.println(report);
+            System.exit(report.isPassed() ? 0 : 1);
+        } catch (IOException e) {
+            System.err.println("Verification failed: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+}
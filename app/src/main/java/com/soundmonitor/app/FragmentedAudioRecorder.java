@@ -0,0 +1,255 @@
+package com.soundmonitor.app;
+
+import android.annotation.SuppressLint;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaRecorder;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Continuous AAC recording into a fragmented MP4 (AudioRecord -> MediaCodec -> FragmentedMp4Writer).
+ *
+ * Unlike MediaRecorder, which writes the index only when stopped, every finished fragment is
+ * playable: if the service is killed, the recording survives up to the last fragment.
+ * With an EvidenceHasher set, the file is hashed as it is written and its digests are in the
+ * hasher as soon as stop() returns. With an at-rest key set, the file is encrypted as it is
+ * written (EncryptedFileChannel); the digests still cover the plaintext.
+ */
+public class FragmentedAudioRecorder {
+    private static final String TAG = "FragmentedAudioRecorder";
+    private static final int SAMPLES_PER_AAC_FRAME = 1024;
+    private static final long CODEC_TIMEOUT_US = 10000;
+
+    private final File outputFile;
+    private final int sampleRate;
+    private final int bitRate;
+    private final long fragmentDurationMs;
+
+    private AudioRecord audioRecord;
+    private MediaCodec encoder;
+    private FragmentedMp4Writer writer;
+    private Thread encoderThread;
+    private volatile boolean running = false;
+    private volatile IOException failure;
+    private boolean loopFinished = false;   // guarded by this
+    private boolean releaseOnExit = false;  // stop() gave up waiting; the encoder thread releases
+    private String stats;
+    private EvidenceHasher hasher;
+    private String[] digestSeeds = new String[0];
+    private EvidenceHasher.Running digest;
+    private SecretKey atRestKey;
+    private EncryptedFileChannel encryptedChannel;
+
+    public FragmentedAudioRecorder(File outputFile, int sampleRate, int bitRate, long fragmentDurationMs) {
+        this.outputFile = outputFile;
+        this.sampleRate = sampleRate;
+        this.bitRate = bitRate;
+        this.fragmentDurationMs = fragmentDurationMs;
+    }
+
+    /**
+     * Hash the recording while it is written (plain SHA-256 and one seeded digest per seed).
+     * Call before start().
+     */
+    public void setEvidenceHasher(EvidenceHasher hasher, String... seeds) {
+        this.hasher = hasher;
+        this.digestSeeds = seeds;
+    }
+
+    /**
+     * Encrypt the recording at rest with key. Call before start().
+     */
+    public void setAtRestKey(SecretKey key) {
+        this.atRestKey = key;
+    }
+
+    /**
+     * Start capturing. Caller must hold RECORD_AUDIO. Throws if mic or encoder are unavailable.
+     */
+    @SuppressLint("MissingPermission")
+    public void start() throws IOException {
+        int minBuffer = AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, AudioFormat.CHANNEL_IN_MONO,
+            AudioFormat.ENCODING_PCM_16BIT, Math.max(minBuffer, SAMPLES_PER_AAC_FRAME * 2 * 8));
+        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            release();
+            throw new IOException("AudioRecord initialization failed");
+        }
+
+        try {
+            MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, sampleRate, 1);
+            format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+            format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+            format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, SAMPLES_PER_AAC_FRAME * 2 * 4);
+            encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            encoder.start();
+        } catch (IOException | RuntimeException e) {
+            release();
+            throw new IOException("AAC encoder unavailable: " + e.getMessage(), e);
+        }
+
+        audioRecord.startRecording();
+        running = true;
+        encoderThread = new Thread(this::encodeLoop, "FragmentedAudioRecorder");
+        encoderThread.start();
+        Log.i(TAG, "Fragmented AAC recording started: " + outputFile.getName() + " (" + fragmentDurationMs + " ms fragments)");
+    }
+
+    /**
+     * Stop capturing, write the last fragment and close the file. If the encoder is still
+     * draining after 5 s, it is left to finish and release the codec itself.
+     */
+    public void stop() throws IOException {
+        running = false;
+        if (encoderThread != null) {
+            try {
+                encoderThread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            encoderThread = null;
+            synchronized (this) {
+                if (!loopFinished) {
+                    releaseOnExit = true;
+                    throw new IOException("Encoder still draining " + outputFile.getName() + " after 5 s");
+                }
+            }
+        }
+        release();
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Fragment count and write overhead, available after stop()
+     */
+    public String getStats() {
+        return stats;
+    }
+
+    private void encodeLoop() {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        long framesQueued = 0;
+        boolean inputDone = false;
+        boolean outputDone = false;
+        try {
+            while (!outputDone) {
+                if (!inputDone) {
+                    int inIndex = encoder.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                    if (inIndex >= 0) {
+                        ByteBuffer input = encoder.getInputBuffer(inIndex);
+                        input.clear();
+                        int read = audioRecord.read(input, Math.min(input.remaining(), SAMPLES_PER_AAC_FRAME * 2));
+                        long ptsUs = framesQueued * 1000000L / sampleRate;
+                        if (!running) {
+                            encoder.queueInputBuffer(inIndex, 0, Math.max(read, 0), ptsUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            encoder.queueInputBuffer(inIndex, 0, Math.max(read, 0), ptsUs, 0);
+                        }
+                        if (read > 0) framesQueued += read / 2;
+                    }
+                }
+
+                int outIndex = encoder.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+                if (outIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    ByteBuffer csd = encoder.getOutputFormat().getByteBuffer("csd-0");
+                    byte[] audioSpecificConfig = new byte[csd.remaining()];
+                    csd.get(audioSpecificConfig);
+                    FragmentedMp4Writer.TrackFormat track = FragmentedMp4Writer.TrackFormat.aac(sampleRate, 1,
+                        audioSpecificConfig, bitRate);
+                    if (atRestKey != null) {
+                        encryptedChannel = EncryptedFileChannel.create(outputFile, atRestKey,
+                            EncryptedFileChannel.DEFAULT_CHUNK_SIZE);
+                        writer = FragmentedMp4Writer.create(outputFile, encryptedChannel, fragmentDurationMs, track);
+                    } else {
+                        writer = FragmentedMp4Writer.create(outputFile, fragmentDurationMs, track);
+                    }
+                    if (hasher != null) {
+                        digest = new EvidenceHasher.Running(digestSeeds);
+                        writer.setDigest(digest);
+                    }
+                } else if (outIndex >= 0) {
+                    ByteBuffer output = encoder.getOutputBuffer(outIndex);
+                    boolean config = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                    if (!config && info.size > 0 && writer != null) {
+                        output.position(info.offset);
+                        output.limit(info.offset + info.size);
+                        writer.writeSample(0, output, SAMPLES_PER_AAC_FRAME, true);
+                    }
+                    encoder.releaseOutputBuffer(outIndex, false);
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        outputDone = true;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Fragmented recording failed", e);
+            failure = e;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Encoder error", e);
+            failure = new IOException("Encoder error: " + e.getMessage(), e);
+        } finally {
+            closeWriter();
+            synchronized (this) {
+                loopFinished = true;
+                if (releaseOnExit) release();
+            }
+        }
+    }
+
+    private void closeWriter() {
+        FragmentedMp4Writer current = writer;
+        writer = null;
+        if (current == null) return;
+        try {
+            current.close();
+            stats = current.formatStats();
+            if (encryptedChannel != null) stats += "; " + encryptedChannel.formatStats();
+            Log.i(TAG, "Fragmented recording closed: " + stats);
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing fragmented recording", e);
+            if (failure == null) failure = e;
+            digest = null;
+        }
+        if (digest != null) {
+            try {
+                Log.i(TAG, "Hashed while written: " + hasher.put(digest.finish(outputFile, current.getPosition())));
+            } catch (IOException e) {
+                // Left to be hashed from the file
+                Log.w(TAG, "Write digest unusable: " + e.getMessage());
+            }
+            digest = null;
+        }
+    }
+
+    private void release() {
+        if (audioRecord != null) {
+            try {
+                if (audioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) audioRecord.stop();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Error stopping AudioRecord: " + e.getMessage());
+            }
+            audioRecord.release();
+            audioRecord = null;
+        }
+        if (encoder != null) {
+            try {
+                encoder.stop();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Error stopping encoder: " + e.getMessage());
+            }
+            encoder.release();
+            encoder = null;
+        }
+    }
+}
@@ -0,0 +1,647 @@
+package com.soundmonitor.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Fragmented MP4 (fMP4) writer: ftyp + moov with empty sample tables and 'mvex',
+ * then one moof/mdat pair per fragment.
+ *
+ * Features:
+ * 1. Each fragment is complete on disk (and fsynced) before the next one starts, so after
+ *    a crash the file plays up to the last finished fragment
+ * 2. scan() finds the last complete fragment of a file cut off mid-write
+ * 3. Fragments are cut on track 0 sync samples once the configured duration is reached
+ * 4. Per-sample durations/flags that do not vary are stored once in 'tfhd' (AAC: 4 bytes per frame)
+ * 5. Write overhead (moof + mdat headers vs media bytes, time spent writing) is tracked
+ * 6. Optional hash-on-write (setDigest): each fragment is fed to a digest as it is written
+ * 7. Can write through any FileChannel, e.g. an EncryptedFileChannel for encryption at rest
+ *
+ * Track 0 drives fragmentation; durations passed to writeSample() are in the track's timescale.
+ */
+public class FragmentedMp4Writer implements Closeable {
+    public static final long DEFAULT_FRAGMENT_DURATION_MS = 2000;
+
+    // trun sample_flags: sync = does not depend on others; non-sync = depends on others + non-sync
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+    private static final int TFHD_DEFAULT_SAMPLE_DURATION = 0x000008;
+    private static final int TFHD_DEFAULT_SAMPLE_FLAGS = 0x000020;
+    private static final int TRUN_DATA_OFFSET = 0x000001;
+    private static final int TRUN_FIRST_SAMPLE_FLAGS = 0x000004;
+    private static final int TRUN_SAMPLE_DURATION = 0x000100;
+    private static final int TRUN_SAMPLE_SIZE = 0x000200;
+    private static final int TRUN_SAMPLE_FLAGS = 0x000400;
+    private static final int TRUN_SAMPLE_CTS = 0x000800;
+
+    /**
+     * Everything the init segment needs to describe one track
+     */
+    public static class TrackFormat {
+        public final String handlerType;
+        public final long timescale;
+        public final byte[] sampleEntry; // complete stsd entry box ('avc1', 'mp4a', ...)
+        public int width;                // 16.16 fixed point, video only
+        public int height;
+        public int language = 0x55C4;    // "und"
+
+        public TrackFormat(String handlerType, long timescale, byte[] sampleEntry) {
+            this.handlerType = handlerType;
+            this.timescale = timescale;
+            this.sampleEntry = sampleEntry;
+        }
+
+        /**
+         * Format of an existing track (first sample description)
+         */
+        public static TrackFormat fromTrack(Mp4TrackTable track) {
+            TrackFormat format = new TrackFormat(track.handlerType, track.timescale, track.sampleEntries[0]);
+            format.width = track.width;
+            format.height = track.height;
+            format.language = track.language;
+            return format;
+        }
+
+        /**
+         * AAC-LC track: 'mp4a' entry with an 'esds' carrying the AudioSpecificConfig (MediaCodec csd-0)
+         */
+        public static TrackFormat aac(int sampleRate, int channels, byte[] audioSpecificConfig, int bitRate) {
+            ByteBuffer esds = ByteBuffer.allocate(37 + audioSpecificConfig.length);
+            esds.put((byte) 0x03).put((byte) (23 + audioSpecificConfig.length)); // ES_Descriptor
+            esds.putShort((short) 0).put((byte) 0);
+            esds.put((byte) 0x04).put((byte) (15 + audioSpecificConfig.length)); // DecoderConfigDescriptor
+            esds.put((byte) 0x40);                                              // MPEG-4 audio
+            esds.put((byte) 0x15);                                              // audio stream
+            esds.put((byte) 0).putShort((short) 0);                             // bufferSizeDB
+            esds.putInt(bitRate).putInt(bitRate);
+            esds.put((byte) 0x05).put((byte) audioSpecificConfig.length);       // DecoderSpecificInfo
+            esds.put(audioSpecificConfig);
+            esds.put((byte) 0x06).put((byte) 1).put((byte) 0x02);               // SLConfigDescriptor
+            esds.flip();
+            byte[] esdsPayload = new byte[esds.remaining()];
+            esds.get(esdsPayload);
+
+            ByteBuffer entry = ByteBuffer.allocate(28);
+            entry.put(new byte[6]).putShort((short) 1);     // reserved, data_reference_index
+            entry.put(new byte[8]);
+            entry.putShort((short) channels).putShort((short) 16);
+            entry.putInt(0);                                 // pre_defined, reserved
+            entry.putInt(sampleRate << 16);
+            byte[] mp4a = Mp4Box.build("mp4a", entry.array(), Mp4Box.buildFull("esds", 0, 0, esdsPayload));
+            return new TrackFormat(Mp4TrackTable.HANDLER_SOUND, sampleRate, mp4a);
+        }
+    }
+
+    /**
+     * One complete moof/mdat pair found by scan()
+     */
+    public static class FragmentInfo {
+        public final int sequenceNumber;
+        public final long offset;      // moof start
+        public final long size;        // moof + mdat
+        public final int[] trackIds;
+        public final long[] baseDecodeTimes;
+        public final int[] sampleCounts;
+        public final long[] durations;
+
+        public FragmentInfo(int sequenceNumber, long offset, long size, int[] trackIds,
+                            long[] baseDecodeTimes, int[] sampleCounts, long[] durations) {
+            this.sequenceNumber = sequenceNumber;
+            this.offset = offset;
+            this.size = size;
+            this.trackIds = trackIds;
+            this.baseDecodeTimes = baseDecodeTimes;
+            this.sampleCounts = sampleCounts;
+            this.durations = durations;
+        }
+    }
+
+    /**
+     * Layout of an fMP4 file: init segment, complete fragments and any damaged tail
+     */
+    public static class ScanResult {
+        public final Mp4Movie init;
+        public final List<FragmentInfo> fragments;
+        public final long validEnd;     // end of the last complete fragment
+        public final long fileSize;
+
+        public ScanResult(Mp4Movie init, List<FragmentInfo> fragments, long validEnd, long fileSize) {
+            this.init = init;
+            this.fragments = fragments;
+            this.validEnd = validEnd;
+            this.fileSize = fileSize;
+        }
+
+        public long getTruncatedBytes() {
+            return fileSize - validEnd;
+        }
+    }
+
+    /**
+     * Samples of the fragment being built for one track
+     */
+    private static class PendingTrack {
+        int count;
+        int[] sizes = new int[64];
+        int[] durations = new int[64];
+        int[] flags = new int[64];
+        int[] ctsOffsets = new int[64];
+        boolean hasCts;
+        long duration;
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        void add(byte[] sample, int offset, int size, int sampleDuration, boolean sync, int ctsOffset) {
+            if (count == sizes.length) {
+                sizes = Arrays.copyOf(sizes, count * 2);
+                durations = Arrays.copyOf(durations, count * 2);
+                flags = Arrays.copyOf(flags, count * 2);
+                ctsOffsets = Arrays.copyOf(ctsOffsets, count * 2);
+            }
+            sizes[count] = size;
+            durations[count] = sampleDuration;
+            flags[count] = sync ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC;
+            ctsOffsets[count] = ctsOffset;
+            if (ctsOffset != 0) hasCts = true;
+            count++;
+            duration += sampleDuration;
+            data.write(sample, offset, size);
+        }
+
+        void clear() {
+            count = 0;
+            duration = 0;
+            hasCts = false;
+            data.reset();
+        }
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final long[] timescales;
+    private final long fragmentTicks;
+    private final PendingTrack[] pending;
+    private final long[] decodeTimes;
+    private long position;
+    private int sequenceNumber = 1;
+    private boolean syncEachFragment = true;
+    private boolean closed = false;
+    private EvidenceHasher.Running digest;
+
+    // Overhead statistics
+    private int fragmentCount = 0;
+    private long mediaBytes = 0;
+    private long indexBytes = 0;
+    private long writeNanos = 0;
+
+    private FragmentedMp4Writer(File file, FileChannel channel, long[] timescales, long fragmentDurationMs) {
+        this.file = file;
+        this.channel = channel;
+        this.timescales = timescales;
+        this.fragmentTicks = Math.max(1, fragmentDurationMs * timescales[0] / 1000);
+        this.pending = new PendingTrack[timescales.length];
+        this.decodeTimes = new long[timescales.length];
+        for (int i = 0; i < pending.length; i++) pending[i] = new PendingTrack();
+    }
+
+    /**
+     * Create (or overwrite) file and write the init segment
+     */
+    public static FragmentedMp4Writer create(File file, long fragmentDurationMs, TrackFormat... tracks) throws IOException {
+        return create(file, new RandomAccessFile(file, "rw").getChannel(), fragmentDurationMs, tracks);
+    }
+
+    /**
+     * Write the init segment through channel, which belongs to file and is closed with the writer
+     */
+    public static FragmentedMp4Writer create(File file, FileChannel channel, long fragmentDurationMs,
+                                             TrackFormat... tracks) throws IOException {
+        if (tracks.length == 0) {
+            channel.close();
+            throw new IllegalArgumentException("At least one track required");
+        }
+        long[] timescales = new long[tracks.length];
+        for (int i = 0; i < tracks.length; i++) timescales[i] = tracks[i].timescale;
+
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(file, channel, timescales, fragmentDurationMs);
+        try {
+            writer.channel.truncate(0);
+            byte[] init = buildInitSegment(tracks, System.currentTimeMillis() / 1000 + Mp4Box.EPOCH_1904_OFFSET_SECONDS);
+            writer.writeFully(ByteBuffer.wrap(init));
+            writer.indexBytes += init.length;
+            writer.channel.force(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return writer;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * fsync after every fragment (default). Turning it off trades power-loss safety for speed;
+     * a killed process still leaves complete fragments because each is written in one go.
+     */
+    public void setSyncEachFragment(boolean syncEachFragment) {
+        this.syncEachFragment = syncEachFragment;
+    }
+
+    /**
+     * Feed every byte of the file to digest from now on; bytes already written (the init
+     * segment) are read back once first
+     */
+    public synchronized void setDigest(EvidenceHasher.Running digest) throws IOException {
+        digest.feed(channel, position);
+        this.digest = digest;
+    }
+
+    public void writeSample(int track, byte[] data, int durationTicks, boolean sync) throws IOException {
+        writeSample(track, data, 0, data.length, durationTicks, sync, 0);
+    }
+
+    public void writeSample(int track, ByteBuffer data, int durationTicks, boolean sync) throws IOException {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        writeSample(track, bytes, 0, bytes.length, durationTicks, sync, 0);
+    }
+
+    /**
+     * Add one sample in decode order. A new fragment starts before a track 0 sync sample
+     * once the current fragment has reached the configured duration.
+     */
+    public synchronized void writeSample(int track, byte[] data, int offset, int size, int durationTicks,
+                                         boolean sync, int ctsOffset) throws IOException {
+        if (closed) throw new IOException("Writer closed");
+        if (track == 0 && sync && pending[0].duration >= fragmentTicks) {
+            flushFragment();
+        }
+        pending[track].add(data, offset, size, durationTicks, sync, ctsOffset);
+    }
+
+    /**
+     * Write the pending samples as one moof/mdat fragment
+     */
+    public synchronized void flushFragment() throws IOException {
+        int tracksWithSamples = 0;
+        long mdatPayload = 0;
+        for (PendingTrack track : pending) {
+            if (track.count > 0) tracksWithSamples++;
+            mdatPayload += track.data.size();
+        }
+        if (tracksWithSamples == 0) return;
+        if (mdatPayload + Mp4Box.HEADER_SIZE > 0xFFFFFFFFL) throw new IOException("Fragment too large: " + mdatPayload);
+        long start = System.nanoTime();
+
+        // moof size first: trun data offsets are relative to the moof start
+        int moofSize = Mp4Box.HEADER_SIZE + 16;
+        for (PendingTrack track : pending) {
+            if (track.count > 0) moofSize += trafSize(track);
+        }
+
+        ByteBuffer moof = ByteBuffer.allocate(moofSize + Mp4Box.HEADER_SIZE);
+        moof.putInt(moofSize).putInt(Mp4Box.typeCode("moof"));
+        moof.putInt(16).putInt(Mp4Box.typeCode("mfhd")).putInt(0).putInt(sequenceNumber);
+        int dataOffset = moofSize + Mp4Box.HEADER_SIZE;
+        for (int t = 0; t < pending.length; t++) {
+            PendingTrack track = pending[t];
+            if (track.count == 0) continue;
+            putTraf(moof, t + 1, decodeTimes[t], track, dataOffset);
+            dataOffset += track.data.size();
+        }
+        moof.putInt((int) (mdatPayload + Mp4Box.HEADER_SIZE)).putInt(Mp4Box.typeCode("mdat"));
+        moof.flip();
+
+        ByteBuffer[] buffers = new ByteBuffer[1 + pending.length];
+        buffers[0] = moof;
+        for (int t = 0; t < pending.length; t++) {
+            buffers[t + 1] = ByteBuffer.wrap(pending[t].data.toByteArray());
+        }
+        channel.position(position);
+        long total = moof.remaining() + mdatPayload;
+        long written = 0;
+        while (written < total) {
+            written += channel.write(buffers);
+        }
+        if (digest != null) {
+            for (ByteBuffer buffer : buffers) {
+                buffer.rewind();
+                digest.update(buffer);
+            }
+        }
+        if (syncEachFragment) channel.force(false);
+        position += total;
+
+        for (int t = 0; t < pending.length; t++) {
+            decodeTimes[t] += pending[t].duration;
+            pending[t].clear();
+        }
+        sequenceNumber++;
+        fragmentCount++;
+        mediaBytes += mdatPayload;
+        indexBytes += moofSize + Mp4Box.HEADER_SIZE;
+        writeNanos += System.nanoTime() - start;
+    }
+
+    // Per-sample fields that are the same for every sample go into tfhd defaults instead of trun
+
+    private static boolean uniformDurations(PendingTrack track) {
+        for (int i = 1; i < track.count; i++) {
+            if (track.durations[i] != track.durations[0]) return false;
+        }
+        return true;
+    }
+
+    /** 0 = all flags equal, 1 = all equal except the first (sync sample starting a GOP), 2 = mixed */
+    private static int flagsPattern(PendingTrack track) {
+        if (track.count < 2) return 0;
+        for (int i = 2; i < track.count; i++) {
+            if (track.flags[i] != track.flags[1]) return 2;
+        }
+        return track.flags[0] == track.flags[1] ? 0 : 1;
+    }
+
+    private static int trunSize(PendingTrack track) {
+        int perSample = 4 + (uniformDurations(track) ? 0 : 4) + (flagsPattern(track) == 2 ? 4 : 0) + (track.hasCts ? 4 : 0);
+        return Mp4Box.HEADER_SIZE + 12 + (flagsPattern(track) == 1 ? 4 : 0) + perSample * track.count;
+    }
+
+    private static int tfhdSize(PendingTrack track) {
+        return 16 + (uniformDurations(track) ? 4 : 0) + (flagsPattern(track) != 2 ? 4 : 0);
+    }
+
+    private static int trafSize(PendingTrack track) {
+        return Mp4Box.HEADER_SIZE + tfhdSize(track) + 20 + trunSize(track);
+    }
+
+    private static void putTraf(ByteBuffer moof, int trackId, long baseDecodeTime, PendingTrack track, int dataOffset) {
+        boolean uniformDuration = uniformDurations(track);
+        int flagsPattern = flagsPattern(track);
+
+        moof.putInt(trafSize(track)).putInt(Mp4Box.typeCode("traf"));
+        int tfhdFlags = TFHD_DEFAULT_BASE_IS_MOOF;
+        if (uniformDuration) tfhdFlags |= TFHD_DEFAULT_SAMPLE_DURATION;
+        if (flagsPattern != 2) tfhdFlags |= TFHD_DEFAULT_SAMPLE_FLAGS;
+        moof.putInt(tfhdSize(track)).putInt(Mp4Box.typeCode("tfhd")).putInt(tfhdFlags).putInt(trackId);
+        if (uniformDuration) moof.putInt(track.durations[0]);
+        if (flagsPattern != 2) moof.putInt(track.flags[track.count - 1]);
+
+        moof.putInt(20).putInt(Mp4Box.typeCode("tfdt")).putInt(1 << 24).putLong(baseDecodeTime);
+
+        int flags = TRUN_DATA_OFFSET | TRUN_SAMPLE_SIZE;
+        if (!uniformDuration) flags |= TRUN_SAMPLE_DURATION;
+        if (flagsPattern == 1) flags |= TRUN_FIRST_SAMPLE_FLAGS;
+        if (flagsPattern == 2) flags |= TRUN_SAMPLE_FLAGS;
+        if (track.hasCts) flags |= TRUN_SAMPLE_CTS;
+        moof.putInt(trunSize(track)).putInt(Mp4Box.typeCode("trun"));
+        moof.putInt((track.hasCts ? 1 << 24 : 0) | flags);
+        moof.putInt(track.count);
+        moof.putInt(dataOffset);
+        if (flagsPattern == 1) moof.putInt(track.flags[0]);
+        for (int i = 0; i < track.count; i++) {
+            if (!uniformDuration) moof.putInt(track.durations[i]);
+            moof.putInt(track.sizes[i]);
+            if (flagsPattern == 2) moof.putInt(track.flags[i]);
+            if (track.hasCts) moof.putInt(track.ctsOffsets[i]);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        ByteBuffer written = digest != null ? buffer.duplicate() : null;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        if (written != null) digest.update(written);
+    }
+
+    /**
+     * Flush the last fragment and close the file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        try {
+            flushFragment();
+            channel.force(true);
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    public int getFragmentCount() {
+        return fragmentCount;
+    }
+
+    /** Bytes in the file so far (plaintext bytes when writing through an EncryptedFileChannel) */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    public long getMediaBytes() {
+        return mediaBytes;
+    }
+
+    /**
+     * Container bytes that are not media data (init segment, moof, mdat headers)
+     */
+    public long getIndexBytes() {
+        return indexBytes;
+    }
+
+    public String formatStats() {
+        double overheadPercent = mediaBytes > 0 ? indexBytes * 100.0 / mediaBytes : 0;
+        double msPerFragment = fragmentCount > 0 ? writeNanos / 1e6 / fragmentCount : 0;
+        return String.format(Locale.US, "%d fragments, %d media bytes, %d index bytes (%.2f%%), %.2f ms/fragment",
+            fragmentCount, mediaBytes, indexBytes, overheadPercent, msPerFragment);
+    }
+
+    // ---- Init segment ----
+
+    private static byte[] buildInitSegment(TrackFormat[] tracks, long creationTime) {
+        ByteBuffer ftyp = ByteBuffer.allocate(20);
+        ftyp.putInt(Mp4Box.typeCode("iso6")).putInt(0);
+        ftyp.putInt(Mp4Box.typeCode("iso6")).putInt(Mp4Box.typeCode("isom")).putInt(Mp4Box.typeCode("mp41"));
+
+        ByteBuffer mvhd = ByteBuffer.allocate(96);
+        mvhd.putInt((int) creationTime).putInt((int) creationTime).putInt(1000).putInt(0);
+        mvhd.putInt(0x00010000).putShort((short) 0x0100).put(new byte[10]);
+        putUnityMatrix(mvhd);
+        mvhd.put(new byte[24]).putInt(tracks.length + 1);
+
+        byte[][] moovChildren = new byte[tracks.length + 2][];
+        moovChildren[0] = Mp4Box.buildFull("mvhd", 0, 0, mvhd.array());
+        byte[][] trex = new byte[tracks.length][];
+        for (int i = 0; i < tracks.length; i++) {
+            moovChildren[i + 1] = buildTrak(tracks[i], i + 1, creationTime);
+            ByteBuffer defaults = ByteBuffer.allocate(20);
+            defaults.putInt(i + 1).putInt(1).putInt(0).putInt(0).putInt(0);
+            trex[i] = Mp4Box.buildFull("trex", 0, 0, defaults.array());
+        }
+        moovChildren[tracks.length + 1] = Mp4Box.build("mvex", trex);
+
+        byte[] ftypBox = Mp4Box.build("ftyp", ftyp.array());
+        byte[] moovBox = Mp4Box.build("moov", moovChildren);
+        return ByteBuffer.allocate(ftypBox.length + moovBox.length).put(ftypBox).put(moovBox).array();
+    }
+
+    private static byte[] buildTrak(TrackFormat format, int trackId, long creationTime) {
+        boolean sound = Mp4TrackTable.HANDLER_SOUND.equals(format.handlerType);
+        boolean video = Mp4TrackTable.HANDLER_VIDEO.equals(format.handlerType);
+
+        ByteBuffer tkhd = ByteBuffer.allocate(80);
+        tkhd.putInt((int) creationTime).putInt((int) creationTime).putInt(trackId).putInt(0).putInt(0);
+        tkhd.put(new byte[8]).putShort((short) 0).putShort((short) 0);
+        tkhd.putShort((short) (sound ? 0x0100 : 0)).putShort((short) 0);
+        putUnityMatrix(tkhd);
+        tkhd.putInt(format.width).putInt(format.height);
+
+        ByteBuffer mdhd = ByteBuffer.allocate(20);
+        mdhd.putInt((int) creationTime).putInt((int) creationTime).putInt((int) format.timescale).putInt(0);
+        mdhd.putShort((short) format.language).putShort((short) 0);
+
+        String name = sound ? "SoundHandler" : video ? "VideoHandler" : "DataHandler";
+        ByteBuffer hdlr = ByteBuffer.allocate(20 + name.length() + 1);
+        hdlr.putInt(0).putInt(Mp4Box.typeCode(format.handlerType)).put(new byte[12]);
+        for (int i = 0; i < name.length(); i++) hdlr.put((byte) name.charAt(i));
+        hdlr.put((byte) 0);
+
+        byte[] mediaHeader = video ? Mp4Box.buildFull("vmhd", 0, 1, new byte[8])
+            : sound ? Mp4Box.buildFull("smhd", 0, 0, new byte[4])
+            : Mp4Box.buildFull("nmhd", 0, 0);
+        byte[] dinf = Mp4Box.build("dinf", Mp4Box.buildFull("dref", 0, 0, int32(1), Mp4Box.buildFull("url ", 0, 1)));
+
+        byte[] stbl = Mp4Box.build("stbl",
+            Mp4Box.buildFull("stsd", 0, 0, int32(1), format.sampleEntry),
+            Mp4Box.buildFull("stts", 0, 0, int32(0)),
+            Mp4Box.buildFull("stsc", 0, 0, int32(0)),
+            Mp4Box.buildFull("stsz", 0, 0, int32(0), int32(0)),
+            Mp4Box.buildFull("stco", 0, 0, int32(0)));
+
+        return Mp4Box.build("trak",
+            Mp4Box.buildFull("tkhd", 0, 0x7, tkhd.array()),
+            Mp4Box.build("mdia",
+                Mp4Box.buildFull("mdhd", 0, 0, mdhd.array()),
+                Mp4Box.buildFull("hdlr", 0, 0, hdlr.array()),
+                Mp4Box.build("minf", mediaHeader, dinf, stbl)));
+    }
+
+    private static void putUnityMatrix(ByteBuffer buffer) {
+        buffer.putInt(0x00010000).putInt(0).putInt(0);
+        buffer.putInt(0).putInt(0x00010000).putInt(0);
+        buffer.putInt(0).putInt(0).putInt(0x40000000);
+    }
+
+    private static byte[] int32(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    // ---- Reading back ----
+
+    /**
+     * Find the init segment and every complete fragment. A moof/mdat pair cut short by a crash
+     * (or a moof without its mdat) ends the scan; validEnd is where it starts.
+     */
+    public static ScanResult scan(File file) throws IOException {
+        Mp4Movie init = Mp4Movie.parse(file);
+        List<FragmentInfo> fragments = new ArrayList<>();
+        long validEnd = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long fileSize = channel.size();
+            List<Mp4Box> boxes = Mp4Box.readBoxes(channel, 0, fileSize);
+            int i = 0;
+            for (; i < boxes.size(); i++) {
+                Mp4Box box = boxes.get(i);
+                if (box.end() > fileSize) break;
+                validEnd = box.end();
+                if (box.type.equals("moov")) {
+                    i++;
+                    break;
+                }
+            }
+            for (; i < boxes.size(); i++) {
+                Mp4Box moof = boxes.get(i);
+                if (!moof.type.equals("moof")) break;
+                if (i + 1 >= boxes.size()) break;
+                Mp4Box mdat = boxes.get(i + 1);
+                if (!mdat.type.equals("mdat") || mdat.end() > fileSize || moof.size > Integer.MAX_VALUE) break;
+                fragments.add(parseFragment(channel, moof, mdat.end() - moof.offset));
+                validEnd = mdat.end();
+                i++;
+            }
+            return new ScanResult(init, fragments, validEnd, fileSize);
+        }
+    }
+
+    private static FragmentInfo parseFragment(FileChannel channel, Mp4Box moofBox, long size) throws IOException {
+        ByteBuffer moof = ByteBuffer.allocate((int) moofBox.size);
+        Mp4Box.readFully(channel, moof, moofBox.offset);
+        moof.flip();
+        Mp4Box root = new Mp4Box("moof", 0, moofBox.size, moofBox.headerSize);
+        List<Mp4Box> children = Mp4Box.children(moof, root);
+
+        Mp4Box mfhd = Mp4Box.find(children, "mfhd");
+        if (mfhd == null) throw new IOException("Fragment without 'mfhd' at " + moofBox.offset);
+        int sequence = moof.getInt((int) mfhd.payloadOffset() + 4);
+
+        List<Mp4Box> trafs = Mp4Box.findAll(children, "traf");
+        int[] trackIds = new int[trafs.size()];
+        long[] baseTimes = new long[trafs.size()];
+        int[] counts = new int[trafs.size()];
+        long[] durations = new long[trafs.size()];
+        for (int t = 0; t < trafs.size(); t++) {
+            List<Mp4Box> trafChildren = Mp4Box.children(moof, trafs.get(t));
+            Mp4Box tfhd = Mp4Box.find(trafChildren, "tfhd");
+            if (tfhd == null) throw new IOException("Track fragment without 'tfhd'");
+            int p = (int) tfhd.payloadOffset();
+            int tfhdFlags = moof.getInt(p) & 0xFFFFFF;
+            trackIds[t] = moof.getInt(p + 4);
+            int defaultDuration = 0;
+            if ((tfhdFlags & TFHD_DEFAULT_SAMPLE_DURATION) != 0) {
+                int q = p + 8;
+                if ((tfhdFlags & 0x01) != 0) q += 8; // base_data_offset
+                if ((tfhdFlags & 0x02) != 0) q += 4; // sample_description_index
+                defaultDuration = moof.getInt(q);
+            }
+
+            Mp4Box tfdt = Mp4Box.find(trafChildren, "tfdt");
+            if (tfdt != null) {
+                p = (int) tfdt.payloadOffset();
+                baseTimes[t] = (moof.get(p) & 0xFF) == 1 ? moof.getLong(p + 4) : moof.getInt(p + 4) & 0xFFFFFFFFL;
+            }
+
+            for (Mp4Box trun : Mp4Box.findAll(trafChildren, "trun")) {
+                p = (int) trun.payloadOffset();
+                int flags = moof.getInt(p) & 0xFFFFFF;
+                int count = moof.getInt(p + 4);
+                int q = p + 8;
+                if ((flags & TRUN_DATA_OFFSET) != 0) q += 4;
+                if ((flags & TRUN_FIRST_SAMPLE_FLAGS) != 0) q += 4;
+                int perSample = 0;
+                if ((flags & TRUN_SAMPLE_DURATION) != 0) perSample += 4;
+                if ((flags & TRUN_SAMPLE_SIZE) != 0) perSample += 4;
+                if ((flags & TRUN_SAMPLE_FLAGS) != 0) perSample += 4;
+                if ((flags & TRUN_SAMPLE_CTS) != 0) perSample += 4;
+                for (int s = 0; s < count; s++) {
+                    durations[t] += (flags & TRUN_SAMPLE_DURATION) != 0
+                        ? moof.getInt(q + s * perSample) & 0xFFFFFFFFL : defaultDuration;
+                }
+                counts[t] += count;
+            }
+        }
+        return new FragmentInfo(sequence, moofBox.offset, size, trackIds, baseTimes, counts, durations);
+    }
+}
@@ -15,6 +15,7 @@ import java.util.concurrent.Executors;
 import android.os.Handler;
 import android.os.Looper;
 import java.util.Base64;
+import java.util.Collections;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -22,20 +23,22 @@ import java.nio.charset.StandardCharsets;
  * 
  * Features:
  * 1. Real-time timestamp verification during recording start
- * 2. RFC 3161 timestamp server integration  
+ * 2. RFC 3161 timestamp of the start proof (TsaClient)
  * 3. Video metadata embedding
  * 4. Cryptographic hash binding between timestamp and video
  */
 public class HybridTimestampService {
     private static final String TAG = "HybridTimestamp";
     
-    // RFC 3161 Timestamp servers (free public servers)
-    private static final String[] RFC3161_SERVERS = {
-        "http://timestamp.digicert.com",
-        "http://timestamp.sectigo.com", 
-        "http://timestamp.globalsign.com/tsa/r6advanced1",
-        "http://tsa.starfieldtech.com"
-    };
+    // Shared with the recording service, so verification reuses digests it already has
+    private static volatile EvidenceHasher evidenceHasher;
+    
+    /**
+     * Hash videos through this hasher (and its digest cache) instead of reading them each time
+     */
+    public static void setEvidenceHasher(EvidenceHasher hasher) {
+        evidenceHasher = hasher;
+    }
     
     // Real-time verification data
     public static class RecordingProof {
@@ -66,6 +69,14 @@ public class HybridTimestampService {
         public static RecordingProof error(String error) {
             return new RecordingProof(null, null, null, null, null, null, null, false, error);
         }
+        
+        /**
+         * This proof with the RFC 3161 token that arrived after recording started
+         */
+        public RecordingProof withRfc3161Certificate(String certificate) {
+            return new RecordingProof(recordingId, networkTimestamp, timeAuthority, gpsLocation, recordingStartProof,
+                certificate, hashSeed, verified, error);
+        }
     }
     
     public interface RecordingProofCallback {
@@ -130,22 +141,11 @@ public class HybridTimestampService {
             // Step 4: Create recording start proof data
             String recordingStartProof = createRecordingStartProofData(recordingId, networkTimestamp, gpsLocation, hashSeed);
             
-            // Step 5: Get RFC 3161 timestamp certificate
-            String rfc3161Certificate = null;
-            try {
-                rfc3161Certificate = getRFC3161Timestamp(recordingStartProof, 8000); // 8s timeout
-                if (rfc3161Certificate != null) {
-                    Log.i(TAG, "✅ RFC 3161 certificate obtained");
-                } else {
-                    Log.w(TAG, "⚠️ RFC 3161 timestamp unavailable");
-                }
-            } catch (Exception e) {
-                Log.w(TAG, "⚠️ RFC 3161 failed: " + e.getMessage());
-            }
-            
+            // The RFC 3161 token is requested after recording starts (timestampStartProof): a TSA
+            // round trip here would delay the capture of the event that triggered it
             Log.i(TAG, "✅ Recording start proof created successfully");
             return new RecordingProof(recordingId, networkTimestamp, timeAuthority, gpsLocation, 
-                                    recordingStartProof, rfc3161Certificate, hashSeed, true, null);
+                                    recordingStartProof, null, hashSeed, true, null);
             
         } catch (Exception e) {
             Log.e(TAG, "❌ Failed to create recording start proof: " + e.getMessage(), e);
@@ -159,15 +159,28 @@ public class HybridTimestampService {
      */
     public static boolean verifyVideoAgainstStartProof(File videoFile, RecordingProof startProof) {
         try {
-            Log.i(TAG, "🔍 Verifying video against start proof...");
-            
             if (!startProof.verified || startProof.hashSeed == null) {
                 Log.e(TAG, "❌ Invalid start proof for verification");
                 return false;
             }
+            return verifySeededHash(calculateVideoHashWithSeed(videoFile, startProof.hashSeed), startProof);
+        } catch (Exception e) {
+            Log.e(TAG, "❌ Video verification failed: " + e.getMessage(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * Verify a seeded video hash already computed by EvidenceHasher (no file read here)
+     */
+    public static boolean verifySeededHash(String videoHash, RecordingProof startProof) {
+        try {
+            Log.i(TAG, "🔍 Verifying video against start proof...");
             
-            // Calculate video hash with the seed from start proof
-            String videoHash = calculateVideoHashWithSeed(videoFile, startProof.hashSeed);
+            if (!startProof.verified || startProof.hashSeed == null || videoHash == null) {
+                Log.e(TAG, "❌ Invalid start proof for verification");
+                return false;
+            }
             
             // Create verification data that should match start proof pattern
             String verificationData = createVerificationData(startProof.recordingId, videoHash, startProof.hashSeed);
@@ -206,56 +219,23 @@ public class HybridTimestampService {
      * Calculate video hash combined with the cryptographic seed
      */
     private static String calculateVideoHashWithSeed(File videoFile, String hashSeed) throws Exception {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        
-        // Add the seed to the hash calculation
-        digest.update(Base64.getDecoder().decode(hashSeed));
-        
-        // Add video file content
-        try (FileInputStream fis = new FileInputStream(videoFile);
-             BufferedInputStream bis = new BufferedInputStream(fis)) {
-            
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = bis.read(buffer)) != -1) {
-                digest.update(buffer, 0, bytesRead);
-            }
+        EvidenceHasher hasher = evidenceHasher;
+        if (hasher != null) {
+            return hasher.hashValues(videoFile, hashSeed).seeded(hashSeed);
         }
-        
-        byte[] hashBytes = digest.digest();
-        StringBuilder result = new StringBuilder();
-        for (byte b : hashBytes) {
-            result.append(String.format("%02x", b));
-        }
-        return result.toString();
+        return EvidenceHasher.compute(videoFile, Collections.singletonList(hashSeed)).seeded(hashSeed);
     }
     
     /**
-     * Get RFC 3161 timestamp certificate (simplified implementation)
+     * RFC 3161 token for the SHA-256 of a start proof's data, from the first TSA that grants a
+     * valid one; Base64 of the token. Blocks for the round trips, so callers run it off the
+     * recording path, after recording has started.
      */
-    private static String getRFC3161Timestamp(String data, int timeoutMs) {
-        for (String server : RFC3161_SERVERS) {
-            try {
-                Log.i(TAG, "Attempting RFC 3161 from: " + server);
-                
-                // In a real implementation, this would create a proper RFC 3161 request
-                // For now, we'll create a simplified timestamp
-                String timestamp = TimestampUtils.getCurrentUtcTimestamp();
-                String certificate = Base64.getEncoder().encodeToString(
-                    (server + "|" + timestamp + "|" + data.hashCode()).getBytes(StandardCharsets.UTF_8)
-                );
-                
-                Log.i(TAG, "✅ RFC 3161 certificate from " + server + ": " + certificate.substring(0, 32) + "...");
-                return certificate;
-                
-            } catch (Exception e) {
-                Log.w(TAG, "RFC 3161 failed for " + server + ": " + e.getMessage());
-                continue;
-            }
-        }
-        
-        Log.w(TAG, "All RFC 3161 servers failed");
-        return null;
+    public static String timestampStartProof(RecordingProof proof, TsaClient client) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(proof.recordingStartProof.getBytes(StandardCharsets.UTF_8));
+        TsaClient.Token token = client.timestamp(digest, 1);
+        Log.i(TAG, "✅ RFC 3161 start proof " + token);
+        return token.toBase64();
     }
     
     /**
@@ -274,6 +254,28 @@ public class HybridTimestampService {
      * Format complete legal evidence with hybrid verification
      */
     public static String formatHybridEvidence(RecordingProof startProof, File videoFile, String videoStopTime) {
+        String videoHash = null;
+        String hashError = null;
+        try {
+            videoHash = calculateVideoHashWithSeed(videoFile, startProof.hashSeed);
+        } catch (Exception e) {
+            hashError = e.getMessage();
+        }
+        return formatHybridEvidence(startProof, videoFile, videoStopTime, videoHash, hashError);
+    }
+    
+    /**
+     * Format evidence from a seeded video hash the caller computed in the same pass as its other
+     * digests (see EvidenceHasher), so the video is not read again here
+     */
+    public static String formatHybridEvidence(RecordingProof startProof, File videoFile, String videoStopTime,
+                                              String seededVideoHash) {
+        return formatHybridEvidence(startProof, videoFile, videoStopTime, seededVideoHash,
+            seededVideoHash == null ? "seeded hash not computed" : null);
+    }
+    
+    private static String formatHybridEvidence(RecordingProof startProof, File videoFile, String videoStopTime,
+                                               String videoHash, String hashError) {
         StringBuilder evidence = new StringBuilder();
         
         evidence.append("=== HYBRID TIMESTAMP VERIFICATION SYSTEM ===\n");
@@ -291,18 +293,17 @@ public class HybridTimestampService {
             "VERIFIED" : "UNAVAILABLE").append("\n\n");
             
         evidence.append("=== VIDEO FILE VERIFICATION ===\n");
-        evidence.append("File Size: ").append(videoFile.length()).append(" bytes\n");
+        evidence.append("File Size: ").append(EncryptedFileChannel.plaintextLength(videoFile)).append(" bytes\n");
         evidence.append("Recording Stop: ").append(videoStopTime).append("\n");
         
-        try {
-            String videoHash = calculateVideoHashWithSeed(videoFile, startProof.hashSeed);
+        if (videoHash != null) {
             evidence.append("Seeded Video Hash: ").append(videoHash.substring(0, 32)).append("...\n");
-        } catch (Exception e) {
-            evidence.append("Video Hash: ERROR - ").append(e.getMessage()).append("\n");
+        } else {
+            evidence.append("Video Hash: ERROR - ").append(hashError).append("\n");
         }
         
         evidence.append("Verification Status: ").append(
-            verifyVideoAgainstStartProof(videoFile, startProof) ? "VERIFIED" : "FAILED"
+            verifySeededHash(videoHash, startProof) ? "VERIFIED" : "FAILED"
         ).append("\n\n");
         
         evidence.append("=== LEGAL BINDING EXPLANATION ===\n");
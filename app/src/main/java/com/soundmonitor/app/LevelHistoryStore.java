@@ -0,0 +1,492 @@
+package com.soundmonitor.app;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Append-only long-term store for the dB level computed on every monitor frame.
+ *
+ * Features:
+ * 1. Raw frames delta/varint encoded into fixed-size blocks, one file per UTC day
+ * 2. Per-day block index (start/end time per block) so range queries read only matching blocks
+ * 3. Rolled-up tiers (1 s, 1 min, 1 h) with min/max/mean/Leq maintained incrementally
+ * 4. Fixed-size tier records searched by binary search, merged when a bucket was split by a restart
+ * 5. Only whole raw blocks and closed buckets are written while recording (each tier file stays
+ *    open); queries add the block and buckets still in memory, and close() writes those
+ *
+ * Files in the store directory:
+ *   raw_DAY.dat / raw_DAY.idx   raw frame blocks and their time index
+ *   sec_DAY.dat, min_DAY.dat    1 s and 1 min rollups for that day
+ *   hour.dat                    1 h rollups for all time
+ * DAY is the number of UTC days since the epoch.
+ */
+public class LevelHistoryStore implements Closeable {
+    public static final long TIER_SECOND = 1000L;
+    public static final long TIER_MINUTE = 60 * 1000L;
+    public static final long TIER_HOUR = 60 * 60 * 1000L;
+    private static final long DAY_MS = 24 * TIER_HOUR;
+
+    private static final int BLOCK_SIZE = 4096; // header: first time (long), first value (short), frame count (short)
+    private static final int MAX_FRAME_BYTES = 10 + 3; // varint delta time + zigzag varint delta value
+    private static final int INDEX_ENTRY_SIZE = 16;  // block start time, block end time
+    private static final int TIER_RECORD_SIZE = 16;  // epoch second (int), count (int), min, max, mean, leq (deci-dB shorts)
+
+    public static class Frame {
+        public final long timeMs;
+        public final double db;
+
+        public Frame(long timeMs, double db) {
+            this.timeMs = timeMs;
+            this.db = db;
+        }
+    }
+
+    /**
+     * Aggregate over a time bucket. Leq is the energy-equivalent level: 10·log10(mean(10^(L/10))).
+     */
+    public static class Rollup {
+        public final long startMs;
+        public final long durationMs;
+        public final int count;
+        public final double minDb;
+        public final double maxDb;
+        public final double meanDb;
+        public final double leqDb;
+
+        public Rollup(long startMs, long durationMs, int count, double minDb, double maxDb, double meanDb, double leqDb) {
+            this.startMs = startMs;
+            this.durationMs = durationMs;
+            this.count = count;
+            this.minDb = minDb;
+            this.maxDb = maxDb;
+            this.meanDb = meanDb;
+            this.leqDb = leqDb;
+        }
+
+        /**
+         * Combine two aggregates, weighting mean by frame count and Leq by energy
+         */
+        public Rollup merge(Rollup other) {
+            if (other == null || other.count == 0) return this;
+            if (count == 0) return other;
+            int total = count + other.count;
+            double energy = count * Math.pow(10, leqDb / 10) + other.count * Math.pow(10, other.leqDb / 10);
+            long start = Math.min(startMs, other.startMs);
+            long end = Math.max(startMs + durationMs, other.startMs + other.durationMs);
+            return new Rollup(start, end - start, total,
+                Math.min(minDb, other.minDb), Math.max(maxDb, other.maxDb),
+                (meanDb * count + other.meanDb * other.count) / total,
+                10 * Math.log10(energy / total));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d frames, min %.1f dB, max %.1f dB, mean %.1f dB, Leq %.1f dB",
+                count, minDb, maxDb, meanDb, leqDb);
+        }
+    }
+
+    // Incrementally maintained bucket for one tier
+    private static class TierBucket {
+        final long tierMs;
+        File file;                 // tier file output is open on
+        FileOutputStream output;
+        long startMs = -1;
+        int count;
+        double min;
+        double max;
+        double sum;
+        double energy;
+
+        TierBucket(long tierMs) {
+            this.tierMs = tierMs;
+        }
+
+        void reset(long bucketStart) {
+            startMs = bucketStart;
+            count = 0;
+            min = Double.MAX_VALUE;
+            max = -Double.MAX_VALUE;
+            sum = 0;
+            energy = 0;
+        }
+
+        void add(double db) {
+            count++;
+            if (db < min) min = db;
+            if (db > max) max = db;
+            sum += db;
+            energy += Math.pow(10, db / 10);
+        }
+
+        Rollup toRollup() {
+            return new Rollup(startMs, tierMs, count, min, max, sum / count, 10 * Math.log10(energy / count));
+        }
+    }
+
+    private final File directory;
+    private final TierBucket[] buckets = {
+        new TierBucket(TIER_SECOND), new TierBucket(TIER_MINUTE), new TierBucket(TIER_HOUR)
+    };
+
+    // Raw block currently being filled
+    private final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+    private long blockDay = -1;
+    private long blockFirstMs;
+    private long blockLastMs;
+    private int blockLastValue;
+    private int blockFrames = 0;
+    private long bytesWritten = 0;
+    private final ByteBuffer record = ByteBuffer.allocate(TIER_RECORD_SIZE);
+
+    public LevelHistoryStore(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create level history directory: " + directory);
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Record one level reading. Called from the dB monitoring thread for every frame.
+     */
+    public synchronized void append(long timeMs, double db) throws IOException {
+        int value = toDeciDb(db);
+        long day = dayOf(timeMs);
+
+        if (blockFrames > 0) {
+            long delta = timeMs - blockLastMs;
+            if (day != blockDay || delta < 0 || block.remaining() < MAX_FRAME_BYTES) {
+                flushBlock();
+            }
+        }
+
+        if (blockFrames == 0) {
+            block.clear();
+            block.putLong(timeMs);
+            block.putShort((short) value);
+            block.putShort((short) 0); // frame count, patched when the block is written
+            blockDay = day;
+            blockFirstMs = timeMs;
+        } else {
+            putVarint(block, timeMs - blockLastMs);
+            putVarint(block, zigzag(value - blockLastValue));
+        }
+        blockLastMs = timeMs;
+        blockLastValue = value;
+        blockFrames++;
+
+        for (TierBucket bucket : buckets) {
+            long bucketStart = timeMs - remainder(timeMs, bucket.tierMs);
+            if (bucket.startMs != bucketStart) {
+                writeBucket(bucket);
+                bucket.reset(bucketStart);
+            }
+            bucket.add(value / 10.0);
+        }
+    }
+
+    /**
+     * Persist the partial raw block and all open tier buckets, and close the tier files
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flushBlock();
+            for (TierBucket bucket : buckets) {
+                writeBucket(bucket);
+                bucket.startMs = -1;
+            }
+        } finally {
+            for (TierBucket bucket : buckets) {
+                closeOutput(bucket);
+            }
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockFrames == 0) return;
+        block.putShort(10, (short) Math.min(blockFrames, 0xFFFF));
+
+        File dataFile = new File(directory, "raw_" + blockDay + ".dat");
+        File indexFile = new File(directory, "raw_" + blockDay + ".idx");
+        try (RandomAccessFile raf = new RandomAccessFile(dataFile, "rw")) {
+            // Block position follows the index, so a block written without its index entry is overwritten
+            raf.seek(indexFile.length() / INDEX_ENTRY_SIZE * BLOCK_SIZE);
+            raf.write(block.array(), 0, BLOCK_SIZE);
+        }
+        try (DataOutputStream index = new DataOutputStream(new FileOutputStream(indexFile, true))) {
+            index.writeLong(blockFirstMs);
+            index.writeLong(blockLastMs);
+        }
+        bytesWritten += BLOCK_SIZE + INDEX_ENTRY_SIZE;
+        blockFrames = 0;
+    }
+
+    private void writeBucket(TierBucket bucket) throws IOException {
+        if (bucket.startMs < 0 || bucket.count == 0) return;
+        File file = tierFile(bucket.tierMs, bucket.startMs);
+        if (!file.equals(bucket.file)) {
+            closeOutput(bucket);
+            bucket.output = new FileOutputStream(file, true);
+            bucket.file = file;
+        }
+        record.clear();
+        record.putInt((int) (bucket.startMs / 1000));
+        record.putInt(bucket.count);
+        record.putShort(toDeciDb(bucket.min));
+        record.putShort(toDeciDb(bucket.max));
+        record.putShort(toDeciDb(bucket.sum / bucket.count));
+        record.putShort(toDeciDb(10 * Math.log10(bucket.energy / bucket.count)));
+        bucket.output.write(record.array(), 0, TIER_RECORD_SIZE);
+        bytesWritten += TIER_RECORD_SIZE;
+    }
+
+    private static void closeOutput(TierBucket bucket) throws IOException {
+        FileOutputStream output = bucket.output;
+        bucket.output = null;
+        bucket.file = null;
+        if (output != null) output.close();
+    }
+
+    private File tierFile(long tierMs, long timeMs) {
+        if (tierMs == TIER_HOUR) {
+            return new File(directory, "hour.dat");
+        }
+        String prefix = tierMs == TIER_SECOND ? "sec_" : "min_";
+        return new File(directory, prefix + dayOf(timeMs) + ".dat");
+    }
+
+    /**
+     * Raw frames in [fromMs, toMs). Only blocks whose index entry overlaps the range are read,
+     * then the block still being filled.
+     */
+    public synchronized List<Frame> queryFrames(long fromMs, long toMs) throws IOException {
+        List<Frame> frames = new ArrayList<>();
+        for (long day = dayOf(fromMs); day <= dayOf(toMs - 1); day++) {
+            File indexFile = new File(directory, "raw_" + day + ".idx");
+            File dataFile = new File(directory, "raw_" + day + ".dat");
+            if (!indexFile.exists() || !dataFile.exists()) continue;
+
+            try (RandomAccessFile index = new RandomAccessFile(indexFile, "r");
+                 RandomAccessFile data = new RandomAccessFile(dataFile, "r")) {
+                int blocks = (int) Math.min(index.length() / INDEX_ENTRY_SIZE, data.length() / BLOCK_SIZE);
+                byte[] indexBytes = new byte[blocks * INDEX_ENTRY_SIZE];
+                index.readFully(indexBytes);
+                ByteBuffer entries = ByteBuffer.wrap(indexBytes);
+
+                FileChannel channel = data.getChannel();
+                ByteBuffer blockBuffer = ByteBuffer.allocate(BLOCK_SIZE);
+                for (int i = 0; i < blocks; i++) {
+                    long start = entries.getLong();
+                    long end = entries.getLong();
+                    if (end < fromMs || start >= toMs) continue;
+
+                    blockBuffer.clear();
+                    long position = (long) i * BLOCK_SIZE;
+                    while (blockBuffer.hasRemaining() && channel.read(blockBuffer, position + blockBuffer.position()) > 0) {
+                        // keep reading until the block is complete
+                    }
+                    blockBuffer.flip();
+                    decodeBlock(blockBuffer, fromMs, toMs, frames);
+                }
+            }
+        }
+        if (blockFrames > 0 && blockLastMs >= fromMs && blockFirstMs < toMs) {
+            block.putShort(10, (short) Math.min(blockFrames, 0xFFFF));
+            ByteBuffer open = block.duplicate();
+            open.flip();
+            decodeBlock(open, fromMs, toMs, frames);
+        }
+        return frames;
+    }
+
+    private static void decodeBlock(ByteBuffer buffer, long fromMs, long toMs, List<Frame> out) {
+        long time = buffer.getLong();
+        int value = buffer.getShort();
+        int count = buffer.getShort() & 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                time += getVarint(buffer);
+                value += unzigzag(getVarint(buffer));
+            }
+            if (time >= fromMs && time < toMs) {
+                out.add(new Frame(time, value / 10.0));
+            }
+        }
+    }
+
+    /**
+     * Rollup records of one tier with bucket start in [fromMs, toMs), the open bucket included
+     */
+    public synchronized List<Rollup> queryTier(long tierMs, long fromMs, long toMs) throws IOException {
+        List<Rollup> rollups = new ArrayList<>();
+        if (tierMs == TIER_HOUR) {
+            readTierFile(new File(directory, "hour.dat"), tierMs, fromMs, toMs, rollups);
+        } else {
+            for (long day = dayOf(fromMs); day <= dayOf(toMs - 1); day++) {
+                readTierFile(tierFile(tierMs, day * DAY_MS), tierMs, fromMs, toMs, rollups);
+            }
+        }
+        for (TierBucket bucket : buckets) {
+            if (bucket.tierMs == tierMs && bucket.count > 0 && bucket.startMs >= fromMs && bucket.startMs < toMs) {
+                addMerged(rollups, bucket.toRollup());
+            }
+        }
+        return rollups;
+    }
+
+    // A restart inside a bucket writes a second record for the same start
+    private static void addMerged(List<Rollup> rollups, Rollup rollup) {
+        int last = rollups.size() - 1;
+        if (last >= 0 && rollups.get(last).startMs == rollup.startMs) {
+            rollups.set(last, rollups.get(last).merge(rollup));
+        } else {
+            rollups.add(rollup);
+        }
+    }
+
+    private static void readTierFile(File file, long tierMs, long fromMs, long toMs, List<Rollup> out) throws IOException {
+        if (!file.exists()) return;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            int records = (int) (raf.length() / TIER_RECORD_SIZE);
+
+            // Records are appended in time order: binary search for the first bucket in range
+            int low = 0;
+            int high = records;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                raf.seek((long) mid * TIER_RECORD_SIZE);
+                if ((raf.readInt() & 0xFFFFFFFFL) * 1000 < fromMs) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            raf.seek((long) low * TIER_RECORD_SIZE);
+            byte[] record = new byte[TIER_RECORD_SIZE];
+            for (int i = low; i < records; i++) {
+                raf.readFully(record);
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                long startMs = (buffer.getInt() & 0xFFFFFFFFL) * 1000;
+                if (startMs >= toMs) break;
+                addMerged(out, new Rollup(startMs, tierMs, buffer.getInt(),
+                    buffer.getShort() / 10.0, buffer.getShort() / 10.0,
+                    buffer.getShort() / 10.0, buffer.getShort() / 10.0));
+            }
+        }
+    }
+
+    /**
+     * Aggregate for an arbitrary range, using hour records for whole hours,
+     * minute records for whole minutes at the edges and second records for the rest.
+     */
+    public synchronized Rollup summarize(long fromMs, long toMs) throws IOException {
+        return summarize(fromMs, toMs, 2);
+    }
+
+    private Rollup summarize(long fromMs, long toMs, int tierIndex) throws IOException {
+        if (fromMs >= toMs) return null;
+        long tierMs = buckets[tierIndex].tierMs;
+        long alignedFrom = ceilTo(fromMs, tierMs);
+        long alignedTo = toMs - remainder(toMs, tierMs);
+
+        if (tierIndex == 0 || alignedFrom >= alignedTo) {
+            if (tierIndex == 0) {
+                // Second granularity is the finest tier; partial seconds at the edges are included
+                return combine(queryTier(tierMs, fromMs - remainder(fromMs, tierMs), toMs));
+            }
+            return summarize(fromMs, toMs, tierIndex - 1);
+        }
+
+        Rollup result = combine(queryTier(tierMs, alignedFrom, alignedTo));
+        Rollup head = summarize(fromMs, alignedFrom, tierIndex - 1);
+        Rollup tail = summarize(alignedTo, toMs, tierIndex - 1);
+        if (result == null) result = head; else if (head != null) result = result.merge(head);
+        if (result == null) result = tail; else if (tail != null) result = result.merge(tail);
+        return result;
+    }
+
+    private static Rollup combine(List<Rollup> rollups) {
+        Rollup result = null;
+        for (Rollup rollup : rollups) {
+            result = result == null ? rollup : result.merge(rollup);
+        }
+        return result;
+    }
+
+    /**
+     * Bytes on disk for one UTC day (raw blocks, index and second/minute tiers)
+     */
+    public long getStorageBytesForDay(long timeMs) {
+        long day = dayOf(timeMs);
+        String[] names = { "raw_" + day + ".dat", "raw_" + day + ".idx", "sec_" + day + ".dat", "min_" + day + ".dat" };
+        long total = 0;
+        for (String name : names) {
+            total += new File(directory, name).length();
+        }
+        return total;
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private static long dayOf(long timeMs) {
+        return timeMs / DAY_MS;
+    }
+
+    private static long remainder(long timeMs, long unit) {
+        return timeMs % unit;
+    }
+
+    private static long ceilTo(long timeMs, long unit) {
+        long remainder = remainder(timeMs, unit);
+        return remainder == 0 ? timeMs : timeMs + unit - remainder;
+    }
+
+    private static short toDeciDb(double db) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(db * 10)));
+    }
+
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long zigzag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static int unzigzag(long value) {
+        return (int) ((value >>> 1) ^ -(value & 1));
+    }
+}
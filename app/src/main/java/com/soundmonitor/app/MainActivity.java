@@ -5,6 +5,7 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Environment;
 import android.widget.Button;
 import android.widget.RadioButton;
 import android.widget.RadioGroup;
@@ -27,7 +28,9 @@ import android.location.Location;
 import android.location.LocationManager;
 import android.app.AlertDialog;
 import java.text.SimpleDateFormat;
+import java.io.File;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 public class MainActivity extends AppCompatActivity {
@@ -333,8 +336,14 @@ public class MainActivity extends AppCompatActivity {
     }
     
     private void stopMonitoringService() {
+        // The service saves the session in the background and stops itself when done
         Intent serviceIntent = new Intent(this, SoundMonitorService.class);
-        stopService(serviceIntent);
+        serviceIntent.setAction("STOP_MONITORING");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            startForegroundService(serviceIntent);
+        } else {
+            startService(serviceIntent);
+        }
         isServiceRunning = false;
         startStopButton.setText("Start Monitoring");
         statusText.setText("Status: Stopped");
@@ -423,6 +432,41 @@ public class MainActivity extends AppCompatActivity {
     
     private void openLastRecordingFolder() {
         try {
+            // Look up the last session in the event index instead of scanning folders
+            String lastSessionName = null;
+            try {
+                EventIndexDatabase.Session lastSession = EventIndexDatabase.getInstance(this).getLastSession();
+                if (lastSession != null) {
+                    lastSessionName = lastSession.name;
+                }
+            } catch (Exception e) {
+                Log.w("MainActivity", "Event index lookup failed: " + e.getMessage());
+            }
+            if (lastSessionName == null) {
+                // Fall back to the sessions index file kept next to the session folders
+                try {
+                    File baseDir = new File(getExternalFilesDir(Environment.DIRECTORY_MOVIES), "SoundTrigger");
+                    List<SessionManifest.IndexEntry> sessions = SessionManifest.readIndex(baseDir);
+                    if (!sessions.isEmpty()) {
+                        lastSessionName = sessions.get(sessions.size() - 1).name;
+                    }
+                } catch (Exception e) {
+                    Log.w("MainActivity", "Sessions index lookup failed: " + e.getMessage());
+                }
+            }
+            if (lastSessionName != null) {
+                try {
+                    Intent sessionIntent = new Intent(Intent.ACTION_VIEW);
+                    sessionIntent.setDataAndType(android.net.Uri.parse("content://com.android.externalstorage.documents/document/primary%3ADownload%2FSoundTrigger%2F"
+                        + android.net.Uri.encode(lastSessionName)), "resource/folder");
+                    sessionIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                    startActivity(sessionIntent);
+                    return;
+                } catch (Exception e) {
+                    Log.w("MainActivity", "Last session folder open failed, trying SoundTrigger folder");
+                }
+            }
+
             // Try to open Downloads/SoundTrigger folder using file manager
             Intent intent = new Intent(Intent.ACTION_VIEW);
             intent.setDataAndType(android.net.Uri.parse("content://com.android.externalstorage.documents/document/primary%3ADownload%2FSoundTrigger"), "resource/folder");
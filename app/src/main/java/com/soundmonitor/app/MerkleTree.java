@@ -0,0 +1,457 @@
+package com.soundmonitor.app;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * SHA-256 Merkle tree over fixed-size chunks (leaves) of an evidence file, saved next to it
+ * (FINAL.mp4 → FINAL.merkle).
+ *
+ * Features:
+ * 1. Leaves of 1 MiB; tree shape and domain separation as in RFC 6962 (leaf = H(0x00 || chunk),
+ *    node = H(0x01 || left || right), split at the largest power of two), so the root is
+ *    well defined for any file size
+ * 2. build() hashes the leaves in parallel on a ForkJoinPool with positional FileChannel reads:
+ *    verifying a large file uses every core instead of one
+ * 3. Builder computes the same tree from bytes fed in write order (hash-on-write)
+ * 4. verifyRange() re-hashes only the leaves covering a byte range - a clip's source media -
+ *    and checks them against the leaves whose root is recorded in the timestamp file
+ * 5. Static helpers for trees over other entries (segment digests in a signed or timestamped
+ *    batch): root, inclusion proof and its verification, as in RFC 6962 / RFC 9162
+ *
+ * File layout (big-endian):
+ *   header  MAGIC, version (short), reserved (short), leaf size (int), file size (long), leaf count (int)
+ *   leaves  32 bytes each
+ */
+public class MerkleTree {
+    public static final String FILE_EXTENSION = ".merkle";
+    public static final int DEFAULT_LEAF_SIZE = 1024 * 1024;
+
+    private static final int MAGIC = 0x534D4D4B; // "SMMK"
+    private static final short VERSION = 1;
+    private static final int HASH_SIZE = 32;
+    private static final int LEAVES_PER_TASK = 4;
+    private static final String RECORDED_ROOT_KEY = "Merkle Root (SHA-256): ";
+
+    public final long fileSize;
+    public final int leafSize;
+    private final byte[][] leaves;
+    private final byte[] root;
+
+    private MerkleTree(long fileSize, int leafSize, byte[][] leaves) throws IOException {
+        this.fileSize = fileSize;
+        this.leafSize = leafSize;
+        this.leaves = leaves;
+        this.root = leaves.length == 0 ? newDigest().digest() : subtreeHash(leaves, 0, leaves.length);
+    }
+
+    /**
+     * Merkle root recorded for a media file in its timestamp file (FINAL.mp4 → FINAL_timestamp.txt),
+     * or null if there is none; saved leaves are trusted only if their root is this one
+     */
+    public static String recordedRoot(File mediaFile) throws IOException {
+        File timestamp = SessionVolumeWriter.companionFile(mediaFile, "_timestamp.txt");
+        if (!timestamp.exists()) return null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(timestamp), "UTF-8"))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(RECORDED_ROOT_KEY)) return line.substring(RECORDED_ROOT_KEY.length()).trim();
+            }
+        }
+        return null;
+    }
+
+    public static File indexFileFor(File mediaFile) {
+        String name = mediaFile.getName();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name;
+        return new File(mediaFile.getParentFile(), baseName + FILE_EXTENSION);
+    }
+
+    public int getLeafCount() {
+        return leaves.length;
+    }
+
+    public byte[] getRoot() {
+        return root.clone();
+    }
+
+    public String getRootHex() {
+        return EvidenceHasher.hex(root);
+    }
+
+    /**
+     * First and last (exclusive) leaf holding bytes of [offset, offset + length)
+     */
+    public int[] leafRange(long offset, long length) {
+        int first = (int) Math.min(leaves.length, Math.max(0, offset) / leafSize);
+        long end = Math.min(fileSize, offset + length);
+        int last = end <= offset ? first : (int) Math.min(leaves.length, (end + leafSize - 1) / leafSize);
+        return new int[] { first, last };
+    }
+
+    /**
+     * True if the chunk (the buffer's remaining bytes, consumed) hashes to the given leaf; for
+     * callers that read the file themselves, e.g. throttled re-verification
+     */
+    public boolean leafMatches(int leaf, ByteBuffer chunk) throws IOException {
+        MessageDigest digest = newDigest();
+        digest.update((byte) 0);
+        digest.update(chunk);
+        return MessageDigest.isEqual(leaves[leaf], digest.digest());
+    }
+
+    // ---- Building ----
+
+    public static MerkleTree build(File file) throws IOException {
+        return build(file, DEFAULT_LEAF_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Hash every leaf of the file in parallel and build the tree
+     */
+    public static MerkleTree build(File file, int leafSize, ForkJoinPool pool) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long size = raf.length();
+            byte[][] leaves = new byte[(int) ((size + leafSize - 1) / leafSize)][];
+            hashLeaves(raf.getChannel(), size, leafSize, leaves, 0, leaves.length, pool);
+            return new MerkleTree(size, leafSize, leaves);
+        }
+    }
+
+    /**
+     * Leaves of this tree that differ in the file's current bytes of [offset, offset + length);
+     * empty if the range is intact. Only the covering leaves are read, in parallel.
+     */
+    public List<Integer> verifyRange(File file, long offset, long length, ForkJoinPool pool) throws IOException {
+        int[] range = leafRange(offset, length);
+        List<Integer> mismatched = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() != fileSize) {
+                throw new IOException(file.getName() + " is " + raf.length() + " bytes, tree covers " + fileSize);
+            }
+            byte[][] current = new byte[leaves.length][];
+            hashLeaves(raf.getChannel(), fileSize, leafSize, current, range[0], range[1], pool);
+            for (int i = range[0]; i < range[1]; i++) {
+                if (!MessageDigest.isEqual(leaves[i], current[i])) mismatched.add(i);
+            }
+        }
+        return mismatched;
+    }
+
+    /**
+     * Whole-file check: leaves that differ, empty if the file still has this tree
+     */
+    public List<Integer> verify(File file, ForkJoinPool pool) throws IOException {
+        return verifyRange(file, 0, fileSize, pool);
+    }
+
+    private static void hashLeaves(FileChannel channel, long size, int leafSize, byte[][] leaves,
+                                   int from, int to, ForkJoinPool pool) throws IOException {
+        if (to <= from) return;
+        LeafTask task = new LeafTask(channel, size, leafSize, leaves, from, to);
+        pool.invoke(task);
+        if (task.failure != null) throw task.failure;
+    }
+
+    /**
+     * Hashes leaves [from, to), splitting until a task has a few leaves. FileChannel positional
+     * reads do not move a shared position, so all tasks read the same channel.
+     */
+    private static class LeafTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<>();
+
+        private final FileChannel channel;
+        private final long size;
+        private final int leafSize;
+        private final byte[][] leaves;
+        private final int from;
+        private final int to;
+        volatile IOException failure;
+
+        LeafTask(FileChannel channel, long size, int leafSize, byte[][] leaves, int from, int to) {
+            this.channel = channel;
+            this.size = size;
+            this.leafSize = leafSize;
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAVES_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                LeafTask left = new LeafTask(channel, size, leafSize, leaves, from, mid);
+                LeafTask right = new LeafTask(channel, size, leafSize, leaves, mid, to);
+                invokeAll(left, right);
+                failure = left.failure != null ? left.failure : right.failure;
+                return;
+            }
+            try {
+                ByteBuffer buffer = BUFFERS.get();
+                if (buffer == null || buffer.capacity() < leafSize) {
+                    buffer = ByteBuffer.allocateDirect(leafSize);
+                    BUFFERS.set(buffer);
+                }
+                MessageDigest digest = newDigest();
+                for (int i = from; i < to; i++) {
+                    long position = (long) i * leafSize;
+                    buffer.clear();
+                    buffer.limit((int) Math.min(leafSize, size - position));
+                    while (buffer.hasRemaining()) {
+                        int read = channel.read(buffer, position + buffer.position());
+                        if (read < 0) throw new IOException("File shorter than " + size + " bytes");
+                    }
+                    buffer.flip();
+                    digest.update((byte) 0);
+                    digest.update(buffer);
+                    leaves[i] = digest.digest();
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Same tree from bytes fed in file order, e.g. while the file is written
+     */
+    public static class Builder {
+        private final int leafSize;
+        private final MessageDigest leaf;
+        private final List<byte[]> leaves = new ArrayList<>();
+        private int leafBytes = 0;
+        private long size = 0;
+
+        public Builder() throws IOException {
+            this(DEFAULT_LEAF_SIZE);
+        }
+
+        public Builder(int leafSize) throws IOException {
+            this.leafSize = leafSize;
+            this.leaf = newDigest();
+        }
+
+        /**
+         * Feed the buffer's remaining bytes; leaves it at its limit
+         */
+        public void update(ByteBuffer data) {
+            while (data.hasRemaining()) {
+                if (leafBytes == 0) leaf.update((byte) 0);
+                int count = Math.min(data.remaining(), leafSize - leafBytes);
+                int limit = data.limit();
+                data.limit(data.position() + count);
+                leaf.update(data);
+                data.limit(limit);
+                advance(count);
+            }
+        }
+
+        public void update(byte[] data, int offset, int length) {
+            while (length > 0) {
+                if (leafBytes == 0) leaf.update((byte) 0);
+                int count = Math.min(length, leafSize - leafBytes);
+                leaf.update(data, offset, count);
+                offset += count;
+                length -= count;
+                advance(count);
+            }
+        }
+
+        private void advance(int count) {
+            leafBytes += count;
+            size += count;
+            if (leafBytes == leafSize) {
+                leaves.add(leaf.digest());
+                leafBytes = 0;
+            }
+        }
+
+        public MerkleTree finish() throws IOException {
+            if (leafBytes > 0) {
+                leaves.add(leaf.digest());
+                leafBytes = 0;
+            }
+            return new MerkleTree(size, leafSize, leaves.toArray(new byte[0][]));
+        }
+    }
+
+    // ---- Tree ----
+
+    /**
+     * RFC 6962 tree hash of leaves [from, to): split at the largest power of two below the count
+     */
+    private static byte[] subtreeHash(byte[][] leaves, int from, int to) throws IOException {
+        if (to - from == 1) return leaves[from];
+        int split = Integer.highestOneBit(to - from - 1);
+        byte[] left = subtreeHash(leaves, from, from + split);
+        byte[] right = subtreeHash(leaves, from + split, to);
+        MessageDigest digest = newDigest();
+        digest.update((byte) 1);
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+
+    // ---- Trees over entries ----
+
+    /**
+     * Leaf hash of one entry, H(0x00 || entry)
+     */
+    public static byte[] leafHash(byte[] entry) throws IOException {
+        MessageDigest digest = newDigest();
+        digest.update((byte) 0);
+        digest.update(entry);
+        return digest.digest();
+    }
+
+    /**
+     * Leaf hash of a chunk (the buffer's remaining bytes, consumed), as the tree of a file has it
+     */
+    public static byte[] leafHash(ByteBuffer chunk) throws IOException {
+        MessageDigest digest = newDigest();
+        digest.update((byte) 0);
+        digest.update(chunk);
+        return digest.digest();
+    }
+
+    /**
+     * Root over leaf hashes; the hash of nothing for no leaves
+     */
+    public static byte[] rootOf(byte[][] leaves) throws IOException {
+        return leaves.length == 0 ? newDigest().digest() : subtreeHash(leaves, 0, leaves.length);
+    }
+
+    /**
+     * Audit path of leaf index: sibling subtree hashes from the leaf up to the root
+     */
+    public static List<byte[]> inclusionProof(byte[][] leaves, int index) throws IOException {
+        if (index < 0 || index >= leaves.length) throw new IllegalArgumentException("No leaf " + index);
+        List<byte[]> path = new ArrayList<>();
+        addPath(leaves, index, 0, leaves.length, path);
+        return path;
+    }
+
+    private static void addPath(byte[][] leaves, int index, int from, int to, List<byte[]> path) throws IOException {
+        if (to - from == 1) return;
+        int split = Integer.highestOneBit(to - from - 1);
+        if (index < from + split) {
+            addPath(leaves, index, from, from + split, path);
+            path.add(subtreeHash(leaves, from + split, to));
+        } else {
+            addPath(leaves, index, from + split, to, path);
+            path.add(subtreeHash(leaves, from, from + split));
+        }
+    }
+
+    /**
+     * True if path proves leafHash is leaf index of a tree of count leaves with this root
+     * (RFC 9162 section 2.1.3.2)
+     */
+    public static boolean verifyInclusion(byte[] leafHash, int index, int count, List<byte[]> path, byte[] root)
+            throws IOException {
+        if (index < 0 || index >= count) return false;
+        long fn = index;
+        long sn = count - 1;
+        byte[] r = leafHash;
+        for (byte[] sibling : path) {
+            if (sn == 0) return false;
+            MessageDigest digest = newDigest();
+            digest.update((byte) 1);
+            if ((fn & 1) == 1 || fn == sn) {
+                digest.update(sibling);
+                digest.update(r);
+                r = digest.digest();
+                while ((fn & 1) == 0 && fn != 0) {
+                    fn >>= 1;
+                    sn >>= 1;
+                }
+            } else {
+                digest.update(r);
+                digest.update(sibling);
+                r = digest.digest();
+            }
+            fn >>= 1;
+            sn >>= 1;
+        }
+        return sn == 0 && MessageDigest.isEqual(r, root);
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(EvidenceHasher.ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(EvidenceHasher.ALGORITHM + " not available", e);
+        }
+    }
+
+    // ---- File ----
+
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeInt(leafSize);
+            out.writeLong(fileSize);
+            out.writeInt(leaves.length);
+            for (byte[] leaf : leaves) {
+                out.write(leaf);
+            }
+        }
+        if ((file.exists() && !file.delete()) || !tmp.renameTo(file)) {
+            throw new IOException("Cannot move " + tmp.getName() + " to " + file.getName());
+        }
+    }
+
+    /**
+     * Read a saved tree with a single read; the root is recomputed from the leaves
+     */
+    public static MerkleTree load(File file) throws IOException {
+        byte[] bytes;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() > Integer.MAX_VALUE) throw new IOException("Merkle file too large: " + file.getName());
+            bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (bytes.length < 24 || in.readInt() != MAGIC) {
+            throw new IOException("Not a Merkle file: " + file.getName());
+        }
+        short version = in.readShort();
+        if (version != VERSION) throw new IOException("Unsupported Merkle file version " + version);
+        in.readShort();
+        int leafSize = in.readInt();
+        long fileSize = in.readLong();
+        int count = in.readInt();
+        if (leafSize <= 0 || count < 0 || (long) count * HASH_SIZE != bytes.length - 24
+                || count != (fileSize + leafSize - 1) / leafSize) {
+            throw new IOException("Damaged Merkle file: " + file.getName());
+        }
+        byte[][] leaves = new byte[count][HASH_SIZE];
+        for (byte[] leaf : leaves) {
+            in.readFully(leaf);
+        }
+        return new MerkleTree(fileSize, leafSize, leaves);
+    }
+}
@@ -0,0 +1,229 @@
+package com.soundmonitor.app;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ISO-BMFF (MP4) box header and the small set of read/write helpers shared by
+ * the merge, recovery and export code.
+ *
+ * A box is: size (32 bit, 1 = 64-bit largesize follows, 0 = to end of parent),
+ * type (4 ASCII chars), payload. Full boxes add version (8 bit) and flags (24 bit).
+ */
+public class Mp4Box {
+    public static final int HEADER_SIZE = 8;
+    public static final int LARGE_HEADER_SIZE = 16;
+    public static final long EPOCH_1904_OFFSET_SECONDS = 2082844800L; // MP4 times count from 1904-01-01
+
+    public final String type;
+    public final long offset;
+    public final long size;
+    public final int headerSize;
+
+    public Mp4Box(String type, long offset, long size, int headerSize) {
+        this.type = type;
+        this.offset = offset;
+        this.size = size;
+        this.headerSize = headerSize;
+    }
+
+    public long payloadOffset() {
+        return offset + headerSize;
+    }
+
+    public long payloadSize() {
+        return size - headerSize;
+    }
+
+    public long end() {
+        return offset + size;
+    }
+
+    @Override
+    public String toString() {
+        return type + "@" + offset + "+" + size;
+    }
+
+    // ---- Reading from a file ----
+
+    /**
+     * Header of the box at position, or null if fewer than 8 bytes remain before limit
+     */
+    public static Mp4Box readHeader(FileChannel channel, long position, long limit) throws IOException {
+        if (limit - position < HEADER_SIZE) return null;
+        ByteBuffer header = ByteBuffer.allocate(LARGE_HEADER_SIZE);
+        header.limit(HEADER_SIZE);
+        readFully(channel, header, position);
+        header.flip();
+        long size = header.getInt() & 0xFFFFFFFFL;
+        String type = typeString(header.getInt());
+        int headerSize = HEADER_SIZE;
+        if (size == 1) {
+            if (limit - position < LARGE_HEADER_SIZE) return null;
+            header.clear();
+            header.limit(8);
+            readFully(channel, header, position + HEADER_SIZE);
+            header.flip();
+            size = header.getLong();
+            headerSize = LARGE_HEADER_SIZE;
+        } else if (size == 0) {
+            size = limit - position;
+        }
+        if (size < headerSize) {
+            throw new IOException("Invalid size " + size + " for box '" + type + "' at " + position);
+        }
+        return new Mp4Box(type, position, size, headerSize);
+    }
+
+    /**
+     * Boxes laid out back to back in [from, to). A box running past 'to' (truncated file) is
+     * still returned so callers can decide what to do with it.
+     */
+    public static List<Mp4Box> readBoxes(FileChannel channel, long from, long to) throws IOException {
+        List<Mp4Box> boxes = new ArrayList<>();
+        long position = from;
+        while (position < to) {
+            Mp4Box box = readHeader(channel, position, to);
+            if (box == null) break;
+            boxes.add(box);
+            position = box.end();
+        }
+        return boxes;
+    }
+
+    public static ByteBuffer readPayload(FileChannel channel, Mp4Box box) throws IOException {
+        if (box.payloadSize() > Integer.MAX_VALUE) {
+            throw new IOException("Box '" + box.type + "' too large to load: " + box.size);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) box.payloadSize());
+        readFully(channel, buffer, box.payloadOffset());
+        buffer.flip();
+        return buffer;
+    }
+
+    public static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Unexpected end of file at " + position);
+            position += read;
+        }
+    }
+
+    // ---- Reading from an in-memory box (moov) ----
+
+    /**
+     * Child boxes of the payload region [from, to) of an in-memory buffer
+     */
+    public static List<Mp4Box> children(ByteBuffer buffer, int from, int to) throws IOException {
+        List<Mp4Box> boxes = new ArrayList<>();
+        int position = from;
+        while (to - position >= HEADER_SIZE) {
+            long size = buffer.getInt(position) & 0xFFFFFFFFL;
+            String type = typeString(buffer.getInt(position + 4));
+            int headerSize = HEADER_SIZE;
+            if (size == 1) {
+                size = buffer.getLong(position + 8);
+                headerSize = LARGE_HEADER_SIZE;
+            } else if (size == 0) {
+                size = to - position;
+            }
+            if (size < headerSize || position + size > to) {
+                throw new IOException("Invalid box '" + type + "' at " + position);
+            }
+            boxes.add(new Mp4Box(type, position, size, headerSize));
+            position += (int) size;
+        }
+        return boxes;
+    }
+
+    public static List<Mp4Box> children(ByteBuffer buffer, Mp4Box parent) throws IOException {
+        return children(buffer, (int) parent.payloadOffset(), (int) parent.end());
+    }
+
+    public static Mp4Box find(List<Mp4Box> boxes, String type) {
+        for (Mp4Box box : boxes) {
+            if (box.type.equals(type)) return box;
+        }
+        return null;
+    }
+
+    public static List<Mp4Box> findAll(List<Mp4Box> boxes, String type) {
+        List<Mp4Box> found = new ArrayList<>();
+        for (Mp4Box box : boxes) {
+            if (box.type.equals(type)) found.add(box);
+        }
+        return found;
+    }
+
+    /**
+     * Complete box (header included) copied out of an in-memory buffer
+     */
+    public static byte[] copyBox(ByteBuffer buffer, Mp4Box box) {
+        byte[] bytes = new byte[(int) box.size];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get((int) box.offset + i);
+        }
+        return bytes;
+    }
+
+    // ---- Writing ----
+
+    /**
+     * Size of a box with the given payload, using a 64-bit header only when needed
+     */
+    public static long boxSize(long payloadSize) {
+        return payloadSize + HEADER_SIZE > 0xFFFFFFFFL ? payloadSize + LARGE_HEADER_SIZE : payloadSize + HEADER_SIZE;
+    }
+
+    public static void writeHeader(DataOutputStream out, long size, String type) throws IOException {
+        if (size > 0xFFFFFFFFL) {
+            out.writeInt(1);
+            out.writeInt(typeCode(type));
+            out.writeLong(size);
+        } else {
+            out.writeInt((int) size);
+            out.writeInt(typeCode(type));
+        }
+    }
+
+    public static void writeFullHeader(DataOutputStream out, long size, String type, int version, int flags) throws IOException {
+        writeHeader(out, size, type);
+        out.writeInt((version << 24) | (flags & 0xFFFFFF));
+    }
+
+    /**
+     * Complete small box (32-bit size) built in memory from payload parts
+     */
+    public static byte[] build(String type, byte[]... payloads) {
+        int size = HEADER_SIZE;
+        for (byte[] payload : payloads) size += payload.length;
+        ByteBuffer box = ByteBuffer.allocate(size);
+        box.putInt(size).putInt(typeCode(type));
+        for (byte[] payload : payloads) box.put(payload);
+        return box.array();
+    }
+
+    public static byte[] buildFull(String type, int version, int flags, byte[]... payloads) {
+        byte[][] parts = new byte[payloads.length + 1][];
+        parts[0] = ByteBuffer.allocate(4).putInt((version << 24) | (flags & 0xFFFFFF)).array();
+        System.arraycopy(payloads, 0, parts, 1, payloads.length);
+        return build(type, parts);
+    }
+
+    public static int typeCode(String type) {
+        return ((type.charAt(0) & 0xFF) << 24) | ((type.charAt(1) & 0xFF) << 16)
+            | ((type.charAt(2) & 0xFF) << 8) | (type.charAt(3) & 0xFF);
+    }
+
+    public static String typeString(int code) {
+        char[] chars = {
+            (char) ((code >>> 24) & 0xFF), (char) ((code >>> 16) & 0xFF),
+            (char) ((code >>> 8) & 0xFF), (char) (code & 0xFF)
+        };
+        return new String(chars);
+    }
+}
@@ -0,0 +1,504 @@
+package com.soundmonitor.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Cuts a time range out of a segment or final MP4 without re-encoding.
+ *
+ * The range start is moved back to the key frame at or before it, so the clip decodes on its
+ * own. Sample tables are trimmed to the samples in the range, and only the bytes of the chunks
+ * they live in are copied (through Mp4Merger, which remaps the chunk offsets). Work therefore
+ * grows with the clip length, not with the source file. Disabled tracks (chapters) are left
+ * out; timestamp subtitles are kept.
+ *
+ * Each clip gets a "_hash.txt" file next to it with its SHA-256 and the source range. If the
+ * source has a Merkle tree (.merkle, root in its timestamp file), the source leaves holding the
+ * clip's media are re-hashed and checked against it, and the result goes into the hash file.
+ */
+public class Mp4ClipExtractor {
+    public static final String HASH_SUFFIX = "_hash.txt";
+
+    public static class Result {
+        public final File clip;
+        public final File hashFile;
+        public final long startMs;       // on the source timeline, key frame aligned
+        public final long endMs;
+        public final long durationMs;
+        public final int sampleCount;
+        public final long copiedBytes;
+        public final String sha256;
+        public final SourceCheck sourceCheck; // null if the source has no Merkle tree
+        public final long elapsedMs;
+
+        public Result(File clip, File hashFile, long startMs, long endMs, long durationMs, int sampleCount,
+                      long copiedBytes, String sha256, SourceCheck sourceCheck, long elapsedMs) {
+            this.clip = clip;
+            this.hashFile = hashFile;
+            this.startMs = startMs;
+            this.endMs = endMs;
+            this.durationMs = durationMs;
+            this.sampleCount = sampleCount;
+            this.copiedBytes = copiedBytes;
+            this.sha256 = sha256;
+            this.sourceCheck = sourceCheck;
+            this.elapsedMs = elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %s-%s, %d samples, %d bytes copied in %d ms",
+                clip.getName(), formatTime(startMs), formatTime(endMs), sampleCount, copiedBytes, elapsedMs);
+        }
+    }
+
+    /**
+     * Source media of a clip checked against the source's Merkle leaves
+     */
+    public static class SourceCheck {
+        public final String merkleRoot;
+        public final int leavesChecked;
+        public final List<Integer> mismatchedLeaves;
+        public final String error;   // tree unusable for this source (e.g. file size changed)
+
+        public SourceCheck(String merkleRoot, int leavesChecked, List<Integer> mismatchedLeaves, String error) {
+            this.merkleRoot = merkleRoot;
+            this.leavesChecked = leavesChecked;
+            this.mismatchedLeaves = mismatchedLeaves;
+            this.error = error;
+        }
+
+        public boolean isIntact() {
+            return error == null && mismatchedLeaves.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            if (error != null) return "not checked: " + error;
+            return String.format(Locale.US, "%d source leaves checked, %s", leavesChecked,
+                mismatchedLeaves.isEmpty() ? "intact" : mismatchedLeaves.size() + " differ " + mismatchedLeaves);
+        }
+    }
+
+    /**
+     * Default clip name next to the source, e.g. FINAL_clip_00-01-30_00-01-50.mp4
+     */
+    public static File clipFileFor(File source, long startMs, long endMs) {
+        String base = source.getName().replace(".mp4", "");
+        return new File(source.getParentFile(), base + "_clip_" + formatTime(startMs).replace(':', '-').substring(0, 8)
+            + "_" + formatTime(endMs).replace(':', '-').substring(0, 8) + ".mp4");
+    }
+
+    public static File hashFileFor(File clip) {
+        return new File(clip.getParentFile(), clip.getName().replace(".mp4", "") + HASH_SUFFIX);
+    }
+
+    /**
+     * Write the part of source covering [startMs, endMs) to output, plus its hash file
+     */
+    public static Result extract(File source, long startMs, long endMs, File output) throws IOException {
+        long start = System.currentTimeMillis();
+        if (endMs <= startMs) {
+            throw new IOException("Empty range " + startMs + "-" + endMs + " ms");
+        }
+        Mp4Movie movie = Mp4Movie.parse(source);
+        Mp4Movie clip = trim(movie, startMs, endMs);
+
+        long clipStartMs = clipStartMs(movie, startMs);
+        File part = new File(output.getParentFile(), output.getName() + ".part");
+        Mp4Merger.Result merged;
+        try (Mp4Merger merger = Mp4Merger.open(part)) {
+            merger.append(clip);
+            merged = merger.finish();
+        }
+        if ((output.exists() && !output.delete()) || !part.renameTo(output)) {
+            part.delete();
+            throw new IOException("Cannot move " + part.getName() + " to " + output.getName());
+        }
+
+        long copiedBytes = 0;
+        for (Mp4Box range : clip.mediaDataBoxes) copiedBytes += range.size;
+        int samples = 0;
+        for (Mp4TrackTable track : clip.tracks) samples += track.getSampleCount();
+
+        String sha256 = sha256(output);
+        SourceCheck sourceCheck = checkSource(clip);
+        File hashFile = hashFileFor(output);
+        long clipEndMs = clipStartMs + merged.durationMs;
+        writeHashFile(hashFile, output, source, startMs, endMs, clipStartMs, clipEndMs, sha256, sourceCheck);
+        return new Result(output, hashFile, clipStartMs, clipEndMs, merged.durationMs, samples, copiedBytes,
+            sha256, sourceCheck, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Re-hash the source leaves holding the clip's media (the trimmed movie's byte ranges) and
+     * compare them with the source's saved Merkle tree. The saved leaves count only if their
+     * root is the one recorded in the source's timestamp file. Null if the source has no tree.
+     */
+    static SourceCheck checkSource(Mp4Movie clip) {
+        File treeFile = MerkleTree.indexFileFor(clip.file);
+        if (!treeFile.exists()) return null;
+        MerkleTree tree;
+        String recorded;
+        try {
+            tree = MerkleTree.load(treeFile);
+            recorded = MerkleTree.recordedRoot(clip.file);
+        } catch (IOException e) {
+            return new SourceCheck(null, 0, Collections.<Integer>emptyList(), e.getMessage());
+        }
+        if (recorded == null) {
+            return new SourceCheck(tree.getRootHex(), 0, Collections.<Integer>emptyList(),
+                "no Merkle root recorded for " + clip.file.getName());
+        }
+        if (!recorded.equalsIgnoreCase(tree.getRootHex())) {
+            return new SourceCheck(tree.getRootHex(), 0, Collections.<Integer>emptyList(),
+                treeFile.getName() + " has root " + tree.getRootHex() + ", recorded root is " + recorded);
+        }
+        List<Integer> mismatched = new ArrayList<>();
+        int checked = 0;
+        int lastChecked = -1;
+        try {
+            for (Mp4Box range : clip.mediaDataBoxes) {
+                // Ranges are sorted; a leaf shared with the previous range is not hashed twice
+                long from = Math.max(range.offset, (long) (lastChecked + 1) * tree.leafSize);
+                long length = range.offset + range.size - from;
+                if (length <= 0) continue;
+                int[] leaves = tree.leafRange(from, length);
+                checked += leaves[1] - leaves[0];
+                lastChecked = leaves[1] - 1;
+                mismatched.addAll(tree.verifyRange(clip.file, from, length, ForkJoinPool.commonPool()));
+            }
+        } catch (IOException e) {
+            return new SourceCheck(tree.getRootHex(), checked, mismatched, e.getMessage());
+        }
+        return new SourceCheck(tree.getRootHex(), checked, mismatched, null);
+    }
+
+    /**
+     * Movie holding only the samples of [startMs, endMs), start moved back to a key frame.
+     * Its media data boxes are the source byte ranges to copy (header size 0).
+     */
+    static Mp4Movie trim(Mp4Movie movie, long startMs, long endMs) throws IOException {
+        Mp4TrackTable reference = referenceTrack(movie);
+        long ts = reference.timescale;
+        int first = firstSample(reference, startMs);
+        int last = samplesBefore(reference, (endMs * ts + 999) / 1000);
+        if (startMs * ts / 1000 >= reference.getMediaDuration() || last <= first) {
+            throw new IOException("Range " + formatTime(startMs) + "-" + formatTime(endMs) + " outside "
+                + movie.file.getName());
+        }
+        // Clip bounds in seconds, so tracks with other timescales cut at the same moment
+        double fromSeconds = decodeTime(reference, first) / (double) ts;
+        double toSeconds = decodeTime(reference, last) / (double) ts;
+
+        Mp4Movie clip = new Mp4Movie(movie.file, movie.fileSize);
+        clip.movieTimescale = movie.movieTimescale;
+        clip.creationTime = movie.creationTime != 0 ? movie.creationTime + (long) fromSeconds : 0;
+        clip.userDataBox = movie.userDataBox;
+
+        List<long[]> ranges = new ArrayList<>();
+        for (Mp4TrackTable track : movie.tracks) {
+            if (!track.isEnabled() && track != reference) continue;
+            long fromTicks = Math.round(fromSeconds * track.timescale);
+            long toTicks = Math.round(toSeconds * track.timescale);
+            int from = track == reference ? first : samplesBefore(track, fromTicks);
+            int to = track == reference ? last : samplesBefore(track, toTicks);
+            long leadTrim = 0;
+            long tailTrim = 0;
+            if (Mp4TrackTable.HANDLER_TEXT.equals(track.handlerType)) {
+                // Cues showing at the clip bounds are kept, cut to the clip
+                if (from > 0 && decodeTime(track, from) > fromTicks) {
+                    from--;
+                    leadTrim = fromTicks - decodeTime(track, from);
+                }
+                tailTrim = Math.max(0, decodeTime(track, to) - toTicks);
+            }
+            if (to <= from) continue;
+            clip.tracks.add(trimTrack(track, from, to, leadTrim, tailTrim, ranges));
+        }
+
+        // Chunk byte ranges, merged where they touch (interleaved audio and video chunks)
+        Collections.sort(ranges, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return Long.compare(a[0], b[0]);
+            }
+        });
+        long rangeStart = -1;
+        long rangeEnd = -1;
+        for (long[] range : ranges) {
+            if (range[0] > rangeEnd) {
+                if (rangeStart >= 0) clip.mediaDataBoxes.add(new Mp4Box("mdat", rangeStart, rangeEnd - rangeStart, 0));
+                rangeStart = range[0];
+            }
+            rangeEnd = Math.max(rangeEnd, range[1]);
+        }
+        if (rangeStart >= 0) clip.mediaDataBoxes.add(new Mp4Box("mdat", rangeStart, rangeEnd - rangeStart, 0));
+        return clip;
+    }
+
+    /**
+     * Start of the clip on the source timeline, after key frame alignment
+     */
+    static long clipStartMs(Mp4Movie movie, long startMs) throws IOException {
+        Mp4TrackTable reference = referenceTrack(movie);
+        return decodeTime(reference, firstSample(reference, startMs)) * 1000 / reference.timescale;
+    }
+
+    /**
+     * Key frame at or before the sample playing at startMs
+     */
+    private static int firstSample(Mp4TrackTable reference, long startMs) {
+        int playing = samplesBefore(reference, startMs * reference.timescale / 1000 + 1) - 1;
+        return syncSampleAtOrBefore(reference, playing);
+    }
+
+    private static Mp4TrackTable referenceTrack(Mp4Movie movie) throws IOException {
+        Mp4TrackTable video = movie.getTrack(Mp4TrackTable.HANDLER_VIDEO);
+        if (video != null && video.getSampleCount() > 0) return video;
+        for (Mp4TrackTable track : movie.tracks) {
+            if (track.isEnabled() && track.getSampleCount() > 0) return track;
+        }
+        throw new IOException("No samples in " + movie.file.getName());
+    }
+
+    // ---- Sample lookups on run-length tables (cost grows with runs, not samples) ----
+
+    /**
+     * Number of samples whose decode time is before ticks
+     */
+    static int samplesBefore(Mp4TrackTable track, long ticks) {
+        long time = 0;
+        int count = 0;
+        for (int i = 0; i < track.sttsCounts.length && time < ticks; i++) {
+            int runCount = track.sttsCounts[i];
+            long delta = track.sttsDeltas[i];
+            long inRun = delta == 0 ? runCount : Math.min(runCount, (ticks - time + delta - 1) / delta);
+            count += (int) inRun;
+            if (inRun < runCount) break;
+            time += runCount * delta;
+        }
+        return Math.min(count, track.getSampleCount());
+    }
+
+    static long decodeTime(Mp4TrackTable track, int sample) {
+        long time = 0;
+        for (int i = 0; i < track.sttsCounts.length && sample > 0; i++) {
+            int inRun = Math.min(sample, track.sttsCounts[i]);
+            time += (long) inRun * track.sttsDeltas[i];
+            sample -= inRun;
+        }
+        return time;
+    }
+
+    /**
+     * 0-based index of the last sync sample at or before sample (every sample without 'stss')
+     */
+    static int syncSampleAtOrBefore(Mp4TrackTable track, int sample) {
+        if (sample < 0) return 0;
+        if (track.syncSamples == null || track.syncSamples.length == 0) return sample;
+        int found = Arrays.binarySearch(track.syncSamples, sample + 1);
+        if (found >= 0) return sample;
+        int insertion = -found - 1;
+        return insertion == 0 ? track.syncSamples[0] - 1 : track.syncSamples[insertion - 1] - 1;
+    }
+
+    // ---- Trimming one track ----
+
+    private static Mp4TrackTable trimTrack(Mp4TrackTable track, int from, int to, long leadTrim,
+                                           long tailTrim, List<long[]> ranges) {
+        Mp4TrackTable trimmed = new Mp4TrackTable();
+        trimmed.trackFlags = track.trackFlags;
+        trimmed.trackId = track.trackId;
+        trimmed.alternateGroup = track.alternateGroup;
+        trimmed.volume = track.volume;
+        trimmed.matrix = track.matrix;
+        trimmed.width = track.width;
+        trimmed.height = track.height;
+        trimmed.timescale = track.timescale;
+        trimmed.language = track.language;
+        trimmed.handlerType = track.handlerType;
+        trimmed.handlerBox = track.handlerBox;
+        trimmed.mediaHeaderBox = track.mediaHeaderBox;
+        trimmed.dataInfoBox = track.dataInfoBox;
+        trimmed.sampleEntries = track.sampleEntries;
+
+        trimmed.sampleSizes = Arrays.copyOfRange(track.sampleSizes, from, to);
+        int[][] stts = sliceRuns(track.sttsCounts, track.sttsDeltas, from, to);
+        trimmed.sttsCounts = stts[0];
+        trimmed.sttsDeltas = stts[1];
+        shortenSample(trimmed, 0, leadTrim);
+        shortenSample(trimmed, trimmed.getSampleCount() - 1, tailTrim);
+        if (track.cttsCounts != null) {
+            int[][] ctts = sliceRuns(track.cttsCounts, track.cttsOffsets, from, to);
+            trimmed.cttsCounts = ctts[0];
+            trimmed.cttsOffsets = ctts[1];
+        }
+        if (track.syncSamples != null) {
+            int lo = Arrays.binarySearch(track.syncSamples, from + 1);
+            int hi = Arrays.binarySearch(track.syncSamples, to + 1);
+            lo = lo >= 0 ? lo : -lo - 1;
+            hi = hi >= 0 ? hi : -hi - 1;
+            trimmed.syncSamples = new int[hi - lo];
+            for (int i = lo; i < hi; i++) trimmed.syncSamples[i - lo] = track.syncSamples[i] - from;
+        }
+        trimChunks(track, from, to, trimmed, ranges);
+        return trimmed;
+    }
+
+    /**
+     * Shorten one sample's duration, splitting its stts run
+     */
+    private static void shortenSample(Mp4TrackTable track, int sample, long ticks) {
+        if (ticks <= 0) return;
+        int[] counts = new int[track.sttsCounts.length + 2];
+        int[] deltas = new int[counts.length];
+        int runs = 0;
+        int base = 0;
+        for (int i = 0; i < track.sttsCounts.length; i++) {
+            int count = track.sttsCounts[i];
+            int delta = track.sttsDeltas[i];
+            if (sample < base || sample >= base + count) {
+                counts[runs] = count;
+                deltas[runs++] = delta;
+            } else {
+                int before = sample - base;
+                int after = count - before - 1;
+                if (before > 0) {
+                    counts[runs] = before;
+                    deltas[runs++] = delta;
+                }
+                counts[runs] = 1;
+                deltas[runs++] = (int) Math.max(1, delta - ticks);
+                if (after > 0) {
+                    counts[runs] = after;
+                    deltas[runs++] = delta;
+                }
+            }
+            base += count;
+        }
+        track.sttsCounts = Arrays.copyOf(counts, runs);
+        track.sttsDeltas = Arrays.copyOf(deltas, runs);
+    }
+
+    /**
+     * Run-length table {counts, values} restricted to samples [from, to)
+     */
+    private static int[][] sliceRuns(int[] counts, int[] values, int from, int to) {
+        int[] outCounts = new int[counts.length];
+        int[] outValues = new int[counts.length];
+        int runs = 0;
+        int sample = 0;
+        for (int i = 0; i < counts.length && sample < to; i++) {
+            int runStart = Math.max(sample, from);
+            int runEnd = Math.min(sample + counts[i], to);
+            if (runEnd > runStart) {
+                outCounts[runs] = runEnd - runStart;
+                outValues[runs++] = values[i];
+            }
+            sample += counts[i];
+        }
+        return new int[][] { Arrays.copyOf(outCounts, runs), Arrays.copyOf(outValues, runs) };
+    }
+
+    /**
+     * Selected samples of each source chunk become one chunk; adds each chunk's byte range
+     */
+    private static void trimChunks(Mp4TrackTable track, int from, int to, Mp4TrackTable trimmed, List<long[]> ranges) {
+        List<Long> offsets = new ArrayList<>();
+        List<int[]> stsc = new ArrayList<>(); // {first chunk, samples per chunk, description}
+        int chunkCount = track.getChunkCount();
+        int sampleBase = 0;
+        for (int e = 0; e < track.stscFirstChunk.length && sampleBase < to; e++) {
+            int firstChunk = track.stscFirstChunk[e] - 1;
+            int endChunk = e + 1 < track.stscFirstChunk.length ? track.stscFirstChunk[e + 1] - 1 : chunkCount;
+            int perChunk = track.stscSamplesPerChunk[e];
+            if (perChunk <= 0) continue;
+            long runSamples = (long) (endChunk - firstChunk) * perChunk;
+            if (sampleBase + runSamples <= from) {
+                sampleBase += runSamples;
+                continue;
+            }
+            // Jump straight to the chunk holding 'from'
+            int skip = Math.max(0, (from - sampleBase) / perChunk);
+            int chunk = firstChunk + skip;
+            int chunkSample = sampleBase + skip * perChunk;
+            for (; chunk < endChunk && chunkSample < to; chunk++, chunkSample += perChunk) {
+                int selectedFrom = Math.max(chunkSample, from);
+                int selectedTo = Math.min(chunkSample + perChunk, to);
+                if (selectedTo <= selectedFrom) continue;
+                long offset = track.chunkOffsets[chunk];
+                for (int s = chunkSample; s < selectedFrom; s++) offset += track.sampleSizes[s];
+                long bytes = 0;
+                for (int s = selectedFrom; s < selectedTo; s++) bytes += track.sampleSizes[s];
+
+                int count = selectedTo - selectedFrom;
+                int description = track.stscDescriptionIndex[e];
+                int[] last = stsc.isEmpty() ? null : stsc.get(stsc.size() - 1);
+                if (last == null || last[1] != count || last[2] != description) {
+                    stsc.add(new int[] { offsets.size() + 1, count, description });
+                }
+                offsets.add(offset);
+                ranges.add(new long[] { offset, offset + bytes });
+            }
+            sampleBase += runSamples;
+        }
+
+        trimmed.chunkOffsets = new long[offsets.size()];
+        for (int i = 0; i < offsets.size(); i++) trimmed.chunkOffsets[i] = offsets.get(i);
+        trimmed.stscFirstChunk = new int[stsc.size()];
+        trimmed.stscSamplesPerChunk = new int[stsc.size()];
+        trimmed.stscDescriptionIndex = new int[stsc.size()];
+        for (int i = 0; i < stsc.size(); i++) {
+            trimmed.stscFirstChunk[i] = stsc.get(i)[0];
+            trimmed.stscSamplesPerChunk[i] = stsc.get(i)[1];
+            trimmed.stscDescriptionIndex[i] = stsc.get(i)[2];
+        }
+    }
+
+    // ---- Hash file ----
+
+    private static void writeHashFile(File hashFile, File clip, File source, long requestedStartMs,
+                                      long requestedEndMs, long startMs, long endMs, String sha256,
+                                      SourceCheck sourceCheck) throws IOException {
+        StringBuilder text = new StringBuilder();
+        text.append("=== CLIP HASH ===\n");
+        text.append("Clip: ").append(clip.getName()).append("\n");
+        text.append("Size: ").append(clip.length()).append(" bytes\n");
+        text.append("SHA-256: ").append(sha256).append("\n\n");
+        text.append("Source: ").append(source.getName()).append("\n");
+        text.append("Source range: ").append(formatTime(startMs)).append(" - ").append(formatTime(endMs)).append("\n");
+        text.append("Requested range: ").append(formatTime(requestedStartMs)).append(" - ")
+            .append(formatTime(requestedEndMs)).append("\n");
+        text.append("\nCut without re-encoding: samples are byte-identical to the source; the start\n");
+        text.append("is moved back to the previous key frame so the clip plays on its own.\n");
+        if (sourceCheck != null) {
+            text.append("\n=== SOURCE MERKLE CHECK ===\n");
+            if (sourceCheck.merkleRoot != null) {
+                text.append("Source Merkle Root: ").append(sourceCheck.merkleRoot).append("\n");
+            }
+            text.append("Source leaves covering the clip: ").append(sourceCheck.leavesChecked).append("\n");
+            text.append("Result: ").append(sourceCheck.isIntact() ? "INTACT" : "FAILED - " + sourceCheck).append("\n");
+        }
+        try (FileOutputStream out = new FileOutputStream(hashFile)) {
+            out.write(text.toString().getBytes("UTF-8"));
+        }
+    }
+
+    static String sha256(File file) throws IOException {
+        return EvidenceHasher.sha256(file);
+    }
+
+    static String formatTime(long ms) {
+        return String.format(Locale.US, "%02d:%02d:%02d.%03d",
+            ms / 3600000, (ms / 60000) % 60, (ms / 1000) % 60, ms % 1000);
+    }
+}
@@ -0,0 +1,226 @@
+package com.soundmonitor.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes an MP4 with 'moov' in front of the media data ("faststart"), so players can start
+ * before the whole file has arrived.
+ *
+ * Single streaming pass: only 'moov' is loaded; its chunk offsets are shifted by the size of
+ * the relocated 'moov' and every other box is copied with FileChannel.transferTo straight into
+ * the target channel (a file, or a MediaStore export). A 'stco' whose offsets would pass 4 GB
+ * is widened to 'co64'. Files that already start with 'moov', and fragmented files, are copied
+ * unchanged.
+ */
+public class Mp4Faststart {
+    private static final long MAX_TRANSFER = 8L * 1024 * 1024;
+
+    public static class Result {
+        public final boolean relocated;
+        public final long moovBytes;
+        public final long outputBytes;
+        public final int patchedOffsets;
+        public final long elapsedMs;
+
+        public Result(boolean relocated, long moovBytes, long outputBytes, int patchedOffsets, long elapsedMs) {
+            this.relocated = relocated;
+            this.moovBytes = moovBytes;
+            this.outputBytes = outputBytes;
+            this.patchedOffsets = patchedOffsets;
+            this.elapsedMs = elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            if (!relocated) {
+                return String.format(Locale.US, "copied unchanged, %d bytes in %d ms", outputBytes, elapsedMs);
+            }
+            return String.format(Locale.US, "moov (%d bytes, %d offsets) moved to front, %d bytes in %d ms",
+                moovBytes, patchedOffsets, outputBytes, elapsedMs);
+        }
+    }
+
+    /**
+     * True if the file has a 'moov' after its first 'mdat'
+     */
+    public static boolean needsFaststart(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            return findLayout(Mp4Box.readBoxes(channel, 0, channel.size())) != null;
+        }
+    }
+
+    public static Result relocate(File input, File output) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(output, "rw")) {
+            FileChannel out = raf.getChannel();
+            out.truncate(0);
+            return write(input, out);
+        }
+    }
+
+    /**
+     * Write input to out with 'moov' first. out is written sequentially from its current position.
+     */
+    public static Result write(File input, WritableByteChannel out) throws IOException {
+        return write(input, out, 0xFFFFFFFFL);
+    }
+
+    // maxStcoOffset: largest chunk offset an 'stco' keeps (lowered by tests to force 'co64')
+    static Result write(File input, WritableByteChannel out, long maxStcoOffset) throws IOException {
+        long start = System.currentTimeMillis();
+        try (RandomAccessFile raf = new RandomAccessFile(input, "r")) {
+            FileChannel in = raf.getChannel();
+            long fileSize = in.size();
+            List<Mp4Box> boxes = Mp4Box.readBoxes(in, 0, fileSize);
+            Mp4Box[] layout = findLayout(boxes);
+            if (layout == null) {
+                transfer(in, 0, fileSize, out);
+                return new Result(false, 0, fileSize, 0, System.currentTimeMillis() - start);
+            }
+            Mp4Box firstMdat = layout[0];
+            Mp4Box moovBox = layout[1];
+            if (moovBox.end() > fileSize) {
+                throw new IOException("Truncated 'moov' box in " + input.getName());
+            }
+
+            ByteBuffer moov = ByteBuffer.allocate((int) moovBox.size);
+            Mp4Box.readFully(in, moov, moovBox.offset);
+            moov.flip();
+            Mp4Box root = new Mp4Box("moov", 0, moovBox.size, moovBox.headerSize);
+
+            // Widening to co64 grows moov, which grows the shift; repeat until the size settles
+            OffsetPatch patch = new OffsetPatch(firstMdat.offset, moovBox.offset, moovBox.size, maxStcoOffset);
+            byte[] relocated = patch.rewrite(moov, root);
+            while (relocated.length != patch.shift) {
+                patch.shift = relocated.length;
+                relocated = patch.rewrite(moov, root);
+            }
+
+            transfer(in, 0, firstMdat.offset, out);
+            writeFully(out, ByteBuffer.wrap(relocated));
+            transfer(in, firstMdat.offset, moovBox.offset - firstMdat.offset, out);
+            transfer(in, moovBox.end(), fileSize - moovBox.end(), out);
+            return new Result(true, relocated.length, fileSize - moovBox.size + relocated.length,
+                patch.patchedOffsets, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * {first 'mdat', 'moov'} if moov has to move in front of the media data, otherwise null
+     */
+    private static Mp4Box[] findLayout(List<Mp4Box> boxes) throws IOException {
+        if (Mp4Box.find(boxes, "moof") != null) return null; // fragment offsets are moof-relative
+        Mp4Box moov = Mp4Box.find(boxes, "moov");
+        Mp4Box firstMdat = Mp4Box.find(boxes, "mdat");
+        if (moov == null) throw new IOException("No 'moov' box (recording not finalised)");
+        if (firstMdat == null || moov.offset < firstMdat.offset) return null;
+        return new Mp4Box[] { firstMdat, moov };
+    }
+
+    /**
+     * Rebuilds moov with chunk offsets in [mediaStart, moovOffset) moved up by shift (the size of
+     * the rebuilt moov). Offsets behind the old moov move by the difference between the rebuilt
+     * and the old moov, which is not zero once a table was widened to 'co64'.
+     */
+    private static class OffsetPatch {
+        final long mediaStart;
+        final long moovOffset;
+        final long moovSize;
+        final long maxStcoOffset;
+        long shift;
+        int patchedOffsets;
+
+        OffsetPatch(long mediaStart, long moovOffset, long moovSize, long maxStcoOffset) {
+            this.mediaStart = mediaStart;
+            this.moovOffset = moovOffset;
+            this.moovSize = moovSize;
+            this.maxStcoOffset = maxStcoOffset;
+            this.shift = moovSize;
+        }
+
+        byte[] rewrite(ByteBuffer moov, Mp4Box root) throws IOException {
+            patchedOffsets = 0;
+            return rewriteBox(moov, root);
+        }
+
+        private byte[] rewriteBox(ByteBuffer moov, Mp4Box box) throws IOException {
+            switch (box.type) {
+                case "moov":
+                case "trak":
+                case "mdia":
+                case "minf":
+                case "stbl":
+                    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                    for (Mp4Box child : Mp4Box.children(moov, box)) {
+                        payload.write(rewriteBox(moov, child));
+                    }
+                    return wrap(box.type, payload.toByteArray());
+                case "stco":
+                case "co64":
+                    return chunkOffsets(moov, box);
+                default:
+                    return Mp4Box.copyBox(moov, box);
+            }
+        }
+
+        private byte[] chunkOffsets(ByteBuffer moov, Mp4Box box) throws IOException {
+            boolean wide = box.type.equals("co64");
+            int p = (int) box.payloadOffset() + 4;
+            int count = moov.getInt(p);
+            p += 4;
+            long[] offsets = new long[count];
+            boolean needsWide = wide;
+            for (int i = 0; i < count; i++) {
+                long offset = wide ? moov.getLong(p + 8 * i) : moov.getInt(p + 4 * i) & 0xFFFFFFFFL;
+                if (offset >= mediaStart && offset < moovOffset) {
+                    offset += shift;
+                } else if (offset >= moovOffset + moovSize) {
+                    offset += shift - moovSize;
+                }
+                offsets[i] = offset;
+                needsWide |= offset > maxStcoOffset;
+            }
+            patchedOffsets += count;
+
+            ByteBuffer table = ByteBuffer.allocate(8 + count * (needsWide ? 8 : 4));
+            table.putInt(0).putInt(count);
+            for (long offset : offsets) {
+                if (needsWide) table.putLong(offset);
+                else table.putInt((int) offset);
+            }
+            return Mp4Box.build(needsWide ? "co64" : "stco", table.array());
+        }
+
+        private static byte[] wrap(String type, byte[] payload) throws IOException {
+            ByteArrayOutputStream box = new ByteArrayOutputStream(payload.length + Mp4Box.LARGE_HEADER_SIZE);
+            DataOutputStream out = new DataOutputStream(box);
+            Mp4Box.writeHeader(out, Mp4Box.boxSize(payload.length), type);
+            out.write(payload);
+            return box.toByteArray();
+        }
+    }
+
+    private static void transfer(FileChannel in, long from, long count, WritableByteChannel out) throws IOException {
+        long end = from + count;
+        while (from < end) {
+            long copied = in.transferTo(from, Math.min(end - from, MAX_TRANSFER), out);
+            if (copied <= 0) throw new IOException("transferTo stalled at " + from);
+            from += copied;
+        }
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,837 @@
+package com.soundmonitor.app;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Merges MP4 segments into one MP4 with a single combined index.
+ *
+ * Features:
+ * 1. Each segment's media data is copied with FileChannel.transferTo into its own 64-bit 'mdat'
+ * 2. Sample tables of matching tracks (by handler type) are concatenated; chunk offsets are remapped
+ * 3. Segments whose sample description differs get an additional 'stsd' entry instead of failing
+ * 4. Tracks are re-aligned at every segment boundary so audio and video do not drift apart
+ * 5. Output uses version 1 headers and 'co64' when offsets pass 4 GB, so size is not limited
+ * 6. Timed text tracks (timestamps, chapters) can be added; they span the whole merged timeline
+ * 7. Optional hash-on-write (setDigest): every output byte is fed to a digest as it is written
+ *
+ * Edit lists ('edts') of the inputs are dropped. Output layout: ftyp, mdat per segment,
+ * mdat per text track, moov.
+ *
+ * Usage: open(output), append(segment) per segment in order, finish(). Segments can be appended
+ * as they close, so finish() only writes the index. If finish() is never called the output
+ * holds only ftyp and mdat boxes (see close()).
+ */
+public class Mp4Merger implements Closeable {
+    private static final long MOVIE_TIMESCALE = 1000;
+
+    public static class Result {
+        public final int segmentCount;
+        public final long outputBytes;
+        public final long durationMs;
+        public final long appendMs;
+        public final long finishMs;
+        public final int skippedTracks;
+
+        public Result(int segmentCount, long outputBytes, long durationMs, long appendMs, long finishMs, int skippedTracks) {
+            this.segmentCount = segmentCount;
+            this.outputBytes = outputBytes;
+            this.durationMs = durationMs;
+            this.appendMs = appendMs;
+            this.finishMs = finishMs;
+            this.skippedTracks = skippedTracks;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d segments, %d bytes, %.1f s, append %d ms, finish %d ms%s",
+                segmentCount, outputBytes, durationMs / 1000.0, appendMs, finishMs,
+                skippedTracks > 0 ? ", " + skippedTracks + " unmatched tracks skipped" : "");
+        }
+    }
+
+    /**
+     * Segment that cannot be merged (no or broken index). Thrown before anything is written
+     * for it, so the merge can continue with the next segment.
+     */
+    public static class SegmentRejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public SegmentRejectedException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private final File output;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private long position;
+    private final List<TrackBuilder> tracks = new ArrayList<>();
+    private final List<TimedTextTrack> textTracks = new ArrayList<>();
+    private long creationTime = 0;
+    private byte[] userDataBox;
+    private int segmentCount = 0;
+    private int skippedTracks = 0;
+    private long appendNanos = 0;
+    private boolean finished = false;
+    private EvidenceHasher.Running digest;
+    private ByteBuffer copyBuffer;
+
+    private Mp4Merger(File output) throws IOException {
+        this.output = output;
+        this.raf = new RandomAccessFile(output, "rw");
+        this.channel = raf.getChannel();
+    }
+
+    /**
+     * Create (or overwrite) the output and write its 'ftyp'
+     */
+    public static Mp4Merger open(File output) throws IOException {
+        Mp4Merger merger = new Mp4Merger(output);
+        try {
+            merger.channel.truncate(0);
+            ByteBuffer ftyp = ByteBuffer.allocate(32);
+            ftyp.putInt(32).putInt(Mp4Box.typeCode("ftyp"));
+            ftyp.putInt(Mp4Box.typeCode("isom")).putInt(0x200);
+            ftyp.putInt(Mp4Box.typeCode("isom")).putInt(Mp4Box.typeCode("iso2"));
+            ftyp.putInt(Mp4Box.typeCode("avc1")).putInt(Mp4Box.typeCode("mp41"));
+            ftyp.flip();
+            merger.write(ftyp);
+        } catch (IOException e) {
+            merger.close();
+            throw e;
+        }
+        return merger;
+    }
+
+    public static Result merge(List<File> inputs, File output) throws IOException {
+        try (Mp4Merger merger = open(output)) {
+            for (File input : inputs) {
+                merger.append(input);
+            }
+            return merger.finish();
+        }
+    }
+
+    public File getOutput() {
+        return output;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * End of the merged timeline so far; a segment appended next starts here
+     */
+    public long getDurationMs() {
+        long durationMs = 0;
+        for (TrackBuilder track : tracks) {
+            durationMs = Math.max(durationMs, track.duration * MOVIE_TIMESCALE / track.timescale);
+        }
+        return durationMs;
+    }
+
+    /**
+     * Embed a timed text track, written by finish(). Cue times are on the merged timeline
+     * (see getDurationMs()); cues can still be added until finish() is called.
+     */
+    public void addTextTrack(TimedTextTrack text) {
+        textTracks.add(text);
+    }
+
+    /**
+     * Feed every byte of the output to digest from now on. The bytes already written are read
+     * back once (only the 'ftyp' right after open()). With a digest, segment media data is
+     * copied through a buffer instead of transferTo: the segment is still read once, and the
+     * output needs no second read to be hashed.
+     */
+    public void setDigest(EvidenceHasher.Running digest) throws IOException {
+        digest.feed(output, position);
+        this.digest = digest;
+    }
+
+    /**
+     * Sample tables of the first output track with this handler type, with chunk offsets in the
+     * output file, or null. Lets callers index the merged file without parsing it again.
+     */
+    public Mp4TrackTable getTrackTable(String handlerType) {
+        for (TrackBuilder track : tracks) {
+            if (track.handlerType.equals(handlerType)) return track.toTable();
+        }
+        return null;
+    }
+
+    /**
+     * Bytes written so far (ftyp + media data). finish() only adds the index after this.
+     */
+    public long getBytesWritten() {
+        return position;
+    }
+
+    /**
+     * Copy one finished segment's media data and add its samples to the combined index
+     */
+    public void append(File segment) throws IOException {
+        if (finished) throw new IOException("Merge already finished");
+        long start = System.nanoTime();
+        Mp4Movie movie;
+        try {
+            movie = Mp4Movie.parse(segment);
+        } catch (IOException | RuntimeException e) {
+            throw new SegmentRejectedException(segment.getName() + ": " + e.getMessage(), e);
+        }
+        appendNanos += System.nanoTime() - start;
+        append(movie);
+    }
+
+    /**
+     * Append an already parsed (or rebuilt) movie; its media data is read from movie.file
+     */
+    public void append(Mp4Movie movie) throws IOException {
+        if (finished) throw new IOException("Merge already finished");
+        long start = System.nanoTime();
+        File segment = movie.file;
+
+        // One mdat per segment holding all of the segment's mdat payloads back to back. Where
+        // each payload lands is known up front, so the tables are built before anything is written.
+        int ranges = movie.mediaDataBoxes.size();
+        long[] inStart = new long[ranges];
+        long[] inEnd = new long[ranges];
+        long[] outStart = new long[ranges];
+        long payload = 0;
+        for (int i = 0; i < ranges; i++) {
+            Mp4Box box = movie.mediaDataBoxes.get(i);
+            inStart[i] = box.payloadOffset();
+            inEnd[i] = Math.min(box.end(), movie.fileSize);
+            outStart[i] = position + Mp4Box.LARGE_HEADER_SIZE + payload;
+            payload += inEnd[i] - inStart[i];
+        }
+        for (Mp4TrackTable track : movie.tracks) {
+            String problem = TrackBuilder.problem(track, inStart, inEnd);
+            if (problem != null) {
+                throw new SegmentRejectedException(segment.getName() + ": " + problem, null);
+            }
+        }
+
+        if (segmentCount == 0) {
+            creationTime = movie.creationTime;
+            userDataBox = movie.userDataBox;
+        }
+
+        boolean[] used = new boolean[tracks.size()];
+        for (Mp4TrackTable track : movie.tracks) {
+            TrackBuilder builder = null;
+            for (int i = 0; i < used.length; i++) {
+                if (!used[i] && tracks.get(i).handlerType.equals(track.handlerType)) {
+                    builder = tracks.get(i);
+                    used[i] = true;
+                    break;
+                }
+            }
+            if (builder == null) {
+                if (segmentCount > 0) {
+                    // A track type the first segment did not have cannot be placed on the timeline
+                    skippedTracks++;
+                    continue;
+                }
+                builder = new TrackBuilder(track);
+                tracks.add(builder);
+            }
+            builder.append(track, inStart, inEnd, outStart);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(Mp4Box.LARGE_HEADER_SIZE);
+        header.putInt(1).putInt(Mp4Box.typeCode("mdat")).putLong(Mp4Box.LARGE_HEADER_SIZE + payload);
+        header.flip();
+        write(header);
+
+        try (RandomAccessFile in = new RandomAccessFile(segment, "r")) {
+            FileChannel inChannel = in.getChannel();
+            for (int i = 0; i < ranges; i++) {
+                transfer(inChannel, inStart[i], inEnd[i] - inStart[i]);
+            }
+        }
+
+        alignTracks();
+        segmentCount++;
+        appendNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Pad the last sample of shorter tracks so every track ends where the longest one does
+     */
+    private void alignTracks() {
+        double endSeconds = 0;
+        for (TrackBuilder track : tracks) {
+            endSeconds = Math.max(endSeconds, track.duration / (double) track.timescale);
+        }
+        for (TrackBuilder track : tracks) {
+            long target = Math.round(endSeconds * track.timescale);
+            if (target > track.duration && track.sampleCount > 0) {
+                track.extendLastSample(target - track.duration);
+            }
+        }
+    }
+
+    /**
+     * Write the combined 'moov' after the media data and close the output
+     */
+    public Result finish() throws IOException {
+        if (finished) throw new IOException("Merge already finished");
+        if (segmentCount == 0 || tracks.isEmpty()) throw new IOException("No segments appended");
+        long start = System.nanoTime();
+
+        long durationMs = getDurationMs();
+        appendTextTracks(durationMs);
+
+        channel.position(position);
+        OutputStream sink = Channels.newOutputStream(channel);
+        if (digest != null) sink = digest.wrap(sink);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(sink, 64 * 1024));
+        writeMoov(out, durationMs);
+        out.flush();
+        position = channel.position();
+        channel.truncate(position);
+        channel.force(true);
+        finished = true;
+        close();
+
+        long finishMs = (System.nanoTime() - start) / 1000000;
+        return new Result(segmentCount, position, durationMs, appendNanos / 1000000, finishMs, skippedTracks);
+    }
+
+    /**
+     * Write each text track's samples into its own mdat (one chunk) and add it to the index
+     */
+    private void appendTextTracks(long durationMs) throws IOException {
+        TrackBuilder video = null;
+        for (TrackBuilder track : tracks) {
+            if (Mp4TrackTable.HANDLER_VIDEO.equals(track.handlerType)) {
+                video = track;
+                break;
+            }
+        }
+        for (TimedTextTrack text : textTracks) {
+            if (text.getCueCount() == 0) continue;
+            TimedTextTrack.Samples samples = text.buildSamples(durationMs);
+
+            ByteBuffer header = ByteBuffer.allocate(Mp4Box.HEADER_SIZE);
+            header.putInt(Mp4Box.HEADER_SIZE + samples.data.length).putInt(Mp4Box.typeCode("mdat"));
+            header.flip();
+            write(header);
+            long dataOffset = position;
+            write(ByteBuffer.wrap(samples.data));
+
+            Mp4TrackTable table = new Mp4TrackTable();
+            table.timescale = TimedTextTrack.TIMESCALE;
+            table.language = 0x55C4; // 'und'
+            table.handlerType = Mp4TrackTable.HANDLER_TEXT;
+            table.handlerBox = text.handlerBox();
+            table.matrix = unityMatrix();
+            if (video != null) {
+                table.width = video.template.width;
+                table.height = video.template.height;
+            }
+            table.sampleEntries = new byte[][] {
+                TimedTextTrack.sampleEntry(table.width >>> 16, table.height >>> 16)
+            };
+            table.sampleSizes = samples.sizes;
+            table.sttsCounts = new int[samples.durations.length];
+            Arrays.fill(table.sttsCounts, 1);
+            table.sttsDeltas = samples.durations;
+            table.stscFirstChunk = new int[] { 1 };
+            table.stscSamplesPerChunk = new int[] { samples.sizes.length };
+            table.stscDescriptionIndex = new int[] { 1 };
+            table.chunkOffsets = new long[] { dataOffset };
+
+            TrackBuilder builder = new TrackBuilder(table);
+            long[] range = { dataOffset };
+            builder.append(table, range, new long[] { position }, range);
+            tracks.add(builder);
+            if (text.isChapterTrack()) {
+                builder.trackFlags = 0; // disabled: listed as chapters, never rendered
+                if (video != null) video.chapterTrackId = tracks.size();
+            }
+        }
+    }
+
+    private static byte[] unityMatrix() {
+        ByteBuffer matrix = ByteBuffer.allocate(36);
+        matrix.putInt(0x00010000).putInt(0).putInt(0).putInt(0).putInt(0x00010000).putInt(0)
+            .putInt(0).putInt(0).putInt(0x40000000);
+        return matrix.array();
+    }
+
+    /**
+     * Release the output. Without finish() the file is left as ftyp + mdat boxes.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            raf.close();
+        }
+    }
+
+    /**
+     * Index of the [inStart, inEnd) range containing offset, trying 'hint' first; -1 if none
+     */
+    private static int findRange(long offset, long[] inStart, long[] inEnd, int hint) {
+        if (hint >= 0 && hint < inStart.length && offset >= inStart[hint] && offset < inEnd[hint]) return hint;
+        for (int r = 0; r < inStart.length; r++) {
+            if (offset >= inStart[r] && offset < inEnd[r]) return r;
+        }
+        return -1;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        ByteBuffer written = digest != null ? buffer.duplicate() : null;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        if (written != null) digest.update(written);
+    }
+
+    private void transfer(FileChannel in, long from, long count) throws IOException {
+        if (digest != null) {
+            copyHashed(in, from, count);
+            return;
+        }
+        channel.position(position);
+        while (count > 0) {
+            long copied = in.transferTo(from, count, channel);
+            if (copied <= 0) throw new IOException("Segment shorter than its index at " + from);
+            from += copied;
+            count -= copied;
+            position += copied;
+        }
+    }
+
+    private void copyHashed(FileChannel in, long from, long count) throws IOException {
+        if (copyBuffer == null) copyBuffer = ByteBuffer.allocateDirect(1024 * 1024);
+        while (count > 0) {
+            copyBuffer.clear();
+            if (count < copyBuffer.capacity()) copyBuffer.limit((int) count);
+            int read = in.read(copyBuffer, from);
+            if (read <= 0) throw new IOException("Segment shorter than its index at " + from);
+            copyBuffer.flip();
+            write(copyBuffer);
+            from += read;
+            count -= read;
+        }
+    }
+
+    // ---- moov ----
+
+    private void writeMoov(DataOutputStream out, long durationMs) throws IOException {
+        long[] trakSizes = new long[tracks.size()];
+        long moovSize = Mp4Box.HEADER_SIZE + 120;
+        for (int i = 0; i < tracks.size(); i++) {
+            trakSizes[i] = tracks.get(i).trakSize();
+            moovSize += trakSizes[i];
+        }
+        if (userDataBox != null) moovSize += userDataBox.length;
+        if (moovSize > 0xFFFFFFFFL) throw new IOException("Combined index too large: " + moovSize);
+
+        Mp4Box.writeHeader(out, moovSize, "moov");
+
+        // mvhd (version 1)
+        Mp4Box.writeFullHeader(out, 120, "mvhd", 1, 0);
+        out.writeLong(creationTime);
+        out.writeLong(creationTime);
+        out.writeInt((int) MOVIE_TIMESCALE);
+        out.writeLong(durationMs);
+        out.writeInt(0x00010000); // rate 1.0
+        out.writeShort(0x0100);   // volume 1.0
+        out.write(new byte[10]);
+        writeUnityMatrix(out);
+        out.write(new byte[24]);  // pre_defined
+        out.writeInt(tracks.size() + 1);
+
+        for (int i = 0; i < tracks.size(); i++) {
+            tracks.get(i).writeTrak(out, trakSizes[i], i + 1, creationTime);
+        }
+        if (userDataBox != null) out.write(userDataBox);
+    }
+
+    private static void writeUnityMatrix(DataOutputStream out) throws IOException {
+        int[] matrix = { 0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000 };
+        for (int value : matrix) out.writeInt(value);
+    }
+
+    // ---- Growable primitive arrays (sample tables can reach millions of entries) ----
+
+    private static class IntList {
+        int[] data = new int[256];
+        int size;
+
+        void add(int value) {
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+        }
+    }
+
+    private static class LongList {
+        long[] data = new long[256];
+        int size;
+
+        void add(long value) {
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+        }
+    }
+
+    /**
+     * Combined sample tables of one output track
+     */
+    private static class TrackBuilder {
+        final String handlerType;
+        final long timescale;
+        final Mp4TrackTable template;
+        final List<byte[]> sampleEntries = new ArrayList<>();
+
+        final IntList sizes = new IntList();
+        final IntList sttsCounts = new IntList();
+        final IntList sttsDeltas = new IntList();
+        final IntList cttsCounts = new IntList();
+        final IntList cttsOffsets = new IntList();
+        final IntList syncSamples = new IntList();
+        final IntList stscFirstChunk = new IntList();
+        final IntList stscSamplesPerChunk = new IntList();
+        final IntList stscDescriptionIndex = new IntList();
+        final LongList chunkOffsets = new LongList();
+
+        int trackFlags = 0x7;   // enabled | in movie | in preview
+        int chapterTrackId = 0; // 'tref'/'chap' target, 0 = none
+        boolean hasCtts = false;
+        boolean hasStss = false;
+        boolean negativeCtts = false;
+        int sampleCount = 0;
+        long duration = 0;
+
+        TrackBuilder(Mp4TrackTable template) {
+            this.handlerType = template.handlerType;
+            this.timescale = template.timescale;
+            this.template = template;
+        }
+
+        /**
+         * Why a track cannot be appended, or null. Every track of a segment is checked before
+         * any is, so a rejected segment leaves the tables as they were.
+         */
+        static String problem(Mp4TrackTable track, long[] inStart, long[] inEnd) {
+            for (int description : track.stscDescriptionIndex) {
+                if (description < 1 || description > track.sampleEntries.length) {
+                    return "sample description " + description + " of " + track.sampleEntries.length;
+                }
+            }
+            int range = 0;
+            for (long offset : track.chunkOffsets) {
+                range = findRange(offset, inStart, inEnd, range);
+                if (range < 0) return "chunk offset " + offset + " outside media data";
+            }
+            return null;
+        }
+
+        void append(Mp4TrackTable track, long[] inStart, long[] inEnd, long[] outStart) throws IOException {
+            // Sample descriptions: reuse identical entries, append new ones
+            int[] descriptionMap = new int[track.sampleEntries.length];
+            for (int i = 0; i < track.sampleEntries.length; i++) {
+                int found = -1;
+                for (int j = 0; j < sampleEntries.size(); j++) {
+                    if (Arrays.equals(sampleEntries.get(j), track.sampleEntries[i])) {
+                        found = j;
+                        break;
+                    }
+                }
+                if (found < 0) {
+                    sampleEntries.add(track.sampleEntries[i]);
+                    found = sampleEntries.size() - 1;
+                }
+                descriptionMap[i] = found + 1;
+            }
+
+            double scale = timescale / (double) track.timescale;
+            int samples = track.getSampleCount();
+
+            for (int i = 0; i < samples; i++) {
+                sizes.add(track.sampleSizes[i]);
+            }
+
+            long segmentDuration = 0;
+            for (int i = 0; i < track.sttsCounts.length; i++) {
+                int delta = track.timescale == timescale ? track.sttsDeltas[i]
+                    : (int) Math.round(track.sttsDeltas[i] * scale);
+                addRun(sttsCounts, sttsDeltas, track.sttsCounts[i], delta);
+                segmentDuration += (long) track.sttsCounts[i] * delta;
+            }
+
+            // Composition offsets: backfill zeros when the first track with ctts shows up
+            if (track.cttsCounts != null) {
+                if (!hasCtts && sampleCount > 0) addRun(cttsCounts, cttsOffsets, sampleCount, 0);
+                hasCtts = true;
+                for (int i = 0; i < track.cttsCounts.length; i++) {
+                    int offset = track.timescale == timescale ? track.cttsOffsets[i]
+                        : (int) Math.round(track.cttsOffsets[i] * scale);
+                    if (offset < 0) negativeCtts = true;
+                    addRun(cttsCounts, cttsOffsets, track.cttsCounts[i], offset);
+                }
+            } else if (hasCtts) {
+                addRun(cttsCounts, cttsOffsets, samples, 0);
+            }
+
+            // Sync samples: absent stss means all samples are sync samples
+            if (track.syncSamples != null) {
+                if (!hasStss) {
+                    for (int i = 1; i <= sampleCount; i++) syncSamples.add(i);
+                    hasStss = true;
+                }
+                for (int sample : track.syncSamples) syncSamples.add(sampleCount + sample);
+            } else if (hasStss) {
+                for (int i = 1; i <= samples; i++) syncSamples.add(sampleCount + i);
+            }
+
+            // Chunks: remap offsets into the output mdat, renumber sample-to-chunk entries
+            int chunkBase = chunkOffsets.size;
+            int range = 0;
+            for (long offset : track.chunkOffsets) {
+                range = findRange(offset, inStart, inEnd, range);
+                if (range < 0) throw new IOException("Chunk offset " + offset + " outside media data");
+                chunkOffsets.add(outStart[range] + (offset - inStart[range]));
+            }
+            for (int i = 0; i < track.stscFirstChunk.length; i++) {
+                int perChunk = track.stscSamplesPerChunk[i];
+                int description = descriptionMap[track.stscDescriptionIndex[i] - 1];
+                int last = stscFirstChunk.size - 1;
+                if (last >= 0 && stscSamplesPerChunk.data[last] == perChunk
+                        && stscDescriptionIndex.data[last] == description) {
+                    continue;
+                }
+                stscFirstChunk.add(chunkBase + track.stscFirstChunk[i]);
+                stscSamplesPerChunk.add(perChunk);
+                stscDescriptionIndex.add(description);
+            }
+
+            sampleCount += samples;
+            duration += segmentDuration;
+        }
+
+        static void addRun(IntList counts, IntList values, int count, int value) {
+            if (count <= 0) return;
+            int last = counts.size - 1;
+            if (last >= 0 && values.data[last] == value) {
+                counts.data[last] += count;
+            } else {
+                counts.add(count);
+                values.add(value);
+            }
+        }
+
+        void extendLastSample(long extra) {
+            int last = sttsCounts.size - 1;
+            int delta = (int) (sttsDeltas.data[last] + extra);
+            if (sttsCounts.data[last] == 1) {
+                sttsDeltas.data[last] = delta;
+            } else {
+                sttsCounts.data[last]--;
+                sttsCounts.add(1);
+                sttsDeltas.add(delta);
+            }
+            duration += extra;
+        }
+
+        Mp4TrackTable toTable() {
+            Mp4TrackTable table = new Mp4TrackTable();
+            table.trackFlags = trackFlags;
+            table.timescale = timescale;
+            table.handlerType = handlerType;
+            table.width = template.width;
+            table.height = template.height;
+            table.sampleEntries = sampleEntries.toArray(new byte[0][]);
+            table.sampleSizes = Arrays.copyOf(sizes.data, sizes.size);
+            table.sttsCounts = Arrays.copyOf(sttsCounts.data, sttsCounts.size);
+            table.sttsDeltas = Arrays.copyOf(sttsDeltas.data, sttsDeltas.size);
+            if (hasCtts) {
+                table.cttsCounts = Arrays.copyOf(cttsCounts.data, cttsCounts.size);
+                table.cttsOffsets = Arrays.copyOf(cttsOffsets.data, cttsOffsets.size);
+            }
+            if (hasStss) table.syncSamples = Arrays.copyOf(syncSamples.data, syncSamples.size);
+            table.stscFirstChunk = Arrays.copyOf(stscFirstChunk.data, stscFirstChunk.size);
+            table.stscSamplesPerChunk = Arrays.copyOf(stscSamplesPerChunk.data, stscSamplesPerChunk.size);
+            table.stscDescriptionIndex = Arrays.copyOf(stscDescriptionIndex.data, stscDescriptionIndex.size);
+            table.chunkOffsets = Arrays.copyOf(chunkOffsets.data, chunkOffsets.size);
+            return table;
+        }
+
+        boolean needsCo64() {
+            for (int i = 0; i < chunkOffsets.size; i++) {
+                if (chunkOffsets.data[i] > 0xFFFFFFFFL) return true;
+            }
+            return false;
+        }
+
+        // Box sizes, computed up front so moov can be streamed without buffering
+
+        long stsdSize() {
+            long size = Mp4Box.HEADER_SIZE + 8;
+            for (byte[] entry : sampleEntries) size += entry.length;
+            return size;
+        }
+
+        long stblSize() {
+            long size = Mp4Box.HEADER_SIZE;
+            size += stsdSize();
+            size += Mp4Box.HEADER_SIZE + 8 + 8L * sttsCounts.size;
+            if (hasCtts) size += Mp4Box.HEADER_SIZE + 8 + 8L * cttsCounts.size;
+            if (hasStss) size += Mp4Box.HEADER_SIZE + 8 + 4L * syncSamples.size;
+            size += Mp4Box.HEADER_SIZE + 8 + 12L * stscFirstChunk.size;
+            size += Mp4Box.HEADER_SIZE + 12 + 4L * sampleCount;
+            size += Mp4Box.HEADER_SIZE + 8 + (needsCo64() ? 8L : 4L) * chunkOffsets.size;
+            return size;
+        }
+
+        byte[] mediaHeaderBox() {
+            if (template.mediaHeaderBox != null) return template.mediaHeaderBox;
+            ByteBuffer box;
+            if (Mp4TrackTable.HANDLER_VIDEO.equals(handlerType)) {
+                box = ByteBuffer.allocate(20);
+                box.putInt(20).putInt(Mp4Box.typeCode("vmhd")).putInt(1);
+            } else if (Mp4TrackTable.HANDLER_SOUND.equals(handlerType)) {
+                box = ByteBuffer.allocate(16);
+                box.putInt(16).putInt(Mp4Box.typeCode("smhd")).putInt(0);
+            } else {
+                box = ByteBuffer.allocate(12);
+                box.putInt(12).putInt(Mp4Box.typeCode("nmhd")).putInt(0);
+            }
+            return box.array();
+        }
+
+        byte[] dataInfoBox() {
+            if (template.dataInfoBox != null) return template.dataInfoBox;
+            // dinf > dref > 'url ' with the self-contained flag
+            ByteBuffer box = ByteBuffer.allocate(36);
+            box.putInt(36).putInt(Mp4Box.typeCode("dinf"));
+            box.putInt(28).putInt(Mp4Box.typeCode("dref")).putInt(0).putInt(1);
+            box.putInt(12).putInt(Mp4Box.typeCode("url ")).putInt(1);
+            return box.array();
+        }
+
+        long minfSize() {
+            return Mp4Box.HEADER_SIZE + mediaHeaderBox().length + dataInfoBox().length + stblSize();
+        }
+
+        long mdiaSize() {
+            return Mp4Box.HEADER_SIZE + 44 + template.handlerBox.length + minfSize();
+        }
+
+        long trakSize() {
+            return Mp4Box.HEADER_SIZE + 104 + (chapterTrackId > 0 ? 20 : 0) + mdiaSize();
+        }
+
+        void writeTrak(DataOutputStream out, long trakSize, int trackId, long creationTime) throws IOException {
+            Mp4Box.writeHeader(out, trakSize, "trak");
+
+            // tkhd (version 1)
+            Mp4Box.writeFullHeader(out, 104, "tkhd", 1, trackFlags);
+            out.writeLong(creationTime);
+            out.writeLong(creationTime);
+            out.writeInt(trackId);
+            out.writeInt(0);
+            out.writeLong(duration * MOVIE_TIMESCALE / timescale);
+            out.write(new byte[8]);
+            out.writeShort(0); // layer
+            out.writeShort(template.alternateGroup);
+            out.writeShort(template.volume);
+            out.writeShort(0);
+            out.write(template.matrix);
+            out.writeInt(template.width);
+            out.writeInt(template.height);
+
+            if (chapterTrackId > 0) {
+                Mp4Box.writeHeader(out, 20, "tref");
+                Mp4Box.writeHeader(out, 12, "chap");
+                out.writeInt(chapterTrackId);
+            }
+
+            Mp4Box.writeHeader(out, mdiaSize(), "mdia");
+            Mp4Box.writeFullHeader(out, 44, "mdhd", 1, 0);
+            out.writeLong(creationTime);
+            out.writeLong(creationTime);
+            out.writeInt((int) timescale);
+            out.writeLong(duration);
+            out.writeShort(template.language);
+            out.writeShort(0);
+            out.write(template.handlerBox);
+
+            Mp4Box.writeHeader(out, minfSize(), "minf");
+            out.write(mediaHeaderBox());
+            out.write(dataInfoBox());
+            writeStbl(out);
+        }
+
+        void writeStbl(DataOutputStream out) throws IOException {
+            Mp4Box.writeHeader(out, stblSize(), "stbl");
+
+            Mp4Box.writeFullHeader(out, stsdSize(), "stsd", 0, 0);
+            out.writeInt(sampleEntries.size());
+            for (byte[] entry : sampleEntries) out.write(entry);
+
+            Mp4Box.writeFullHeader(out, Mp4Box.HEADER_SIZE + 8 + 8L * sttsCounts.size, "stts", 0, 0);
+            out.writeInt(sttsCounts.size);
+            for (int i = 0; i < sttsCounts.size; i++) {
+                out.writeInt(sttsCounts.data[i]);
+                out.writeInt(sttsDeltas.data[i]);
+            }
+
+            if (hasCtts) {
+                Mp4Box.writeFullHeader(out, Mp4Box.HEADER_SIZE + 8 + 8L * cttsCounts.size, "ctts", negativeCtts ? 1 : 0, 0);
+                out.writeInt(cttsCounts.size);
+                for (int i = 0; i < cttsCounts.size; i++) {
+                    out.writeInt(cttsCounts.data[i]);
+                    out.writeInt(cttsOffsets.data[i]);
+                }
+            }
+
+            if (hasStss) {
+                Mp4Box.writeFullHeader(out, Mp4Box.HEADER_SIZE + 8 + 4L * syncSamples.size, "stss", 0, 0);
+                out.writeInt(syncSamples.size);
+                for (int i = 0; i < syncSamples.size; i++) out.writeInt(syncSamples.data[i]);
+            }
+
+            Mp4Box.writeFullHeader(out, Mp4Box.HEADER_SIZE + 8 + 12L * stscFirstChunk.size, "stsc", 0, 0);
+            out.writeInt(stscFirstChunk.size);
+            for (int i = 0; i < stscFirstChunk.size; i++) {
+                out.writeInt(stscFirstChunk.data[i]);
+                out.writeInt(stscSamplesPerChunk.data[i]);
+                out.writeInt(stscDescriptionIndex.data[i]);
+            }
+
+            Mp4Box.writeFullHeader(out, Mp4Box.HEADER_SIZE + 12 + 4L * sampleCount, "stsz", 0, 0);
+            out.writeInt(0);
+            out.writeInt(sampleCount);
+            for (int i = 0; i < sizes.size; i++) out.writeInt(sizes.data[i]);
+
+            if (needsCo64()) {
+                Mp4Box.writeFullHeader(out, Mp4Box.HEADER_SIZE + 8 + 8L * chunkOffsets.size, "co64", 0, 0);
+                out.writeInt(chunkOffsets.size);
+                for (int i = 0; i < chunkOffsets.size; i++) out.writeLong(chunkOffsets.data[i]);
+            } else {
+                Mp4Box.writeFullHeader(out, Mp4Box.HEADER_SIZE + 8 + 4L * chunkOffsets.size, "stco", 0, 0);
+                out.writeInt(chunkOffsets.size);
+                for (int i = 0; i < chunkOffsets.size; i++) out.writeInt((int) chunkOffsets.data[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.soundmonitor.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index of one MP4 file: movie header values, per-track sample tables and where its
+ * media data ('mdat' payloads) lives. Only 'moov' is read into memory.
+ */
+public class Mp4Movie {
+    public final File file;
+    public final long fileSize;
+    public long movieTimescale;
+    public long movieDuration;
+    public long creationTime;      // seconds since 1904-01-01, as stored in mvhd
+    public byte[] userDataBox;     // complete 'udta' from moov (e.g. location), or null
+    public final List<Mp4TrackTable> tracks = new ArrayList<>();
+    public final List<Mp4Box> topLevelBoxes = new ArrayList<>();
+    public final List<Mp4Box> mediaDataBoxes = new ArrayList<>();
+
+    Mp4Movie(File file, long fileSize) {
+        this.file = file;
+        this.fileSize = fileSize;
+    }
+
+    public static Mp4Movie parse(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            Mp4Movie movie = new Mp4Movie(file, channel.size());
+
+            Mp4Box moovBox = null;
+            for (Mp4Box box : Mp4Box.readBoxes(channel, 0, movie.fileSize)) {
+                movie.topLevelBoxes.add(box);
+                if (box.type.equals("moov")) {
+                    moovBox = box;
+                } else if (box.type.equals("mdat")) {
+                    movie.mediaDataBoxes.add(box);
+                }
+            }
+            if (moovBox == null) {
+                throw new IOException("No 'moov' box in " + file.getName() + " (recording not finalised)");
+            }
+            if (moovBox.end() > movie.fileSize) {
+                throw new IOException("Truncated 'moov' box in " + file.getName());
+            }
+
+            // Parse moov with box offsets relative to the start of the buffer
+            ByteBuffer moov = ByteBuffer.allocate((int) moovBox.size);
+            Mp4Box.readFully(channel, moov, moovBox.offset);
+            moov.flip();
+            Mp4Box root = new Mp4Box("moov", 0, moovBox.size, moovBox.headerSize);
+
+            for (Mp4Box child : Mp4Box.children(moov, root)) {
+                if (child.type.equals("mvhd")) {
+                    parseMovieHeader(moov, child, movie);
+                } else if (child.type.equals("trak")) {
+                    movie.tracks.add(Mp4TrackTable.parse(moov, child));
+                } else if (child.type.equals("udta")) {
+                    movie.userDataBox = Mp4Box.copyBox(moov, child);
+                }
+            }
+            return movie;
+        }
+    }
+
+    private static void parseMovieHeader(ByteBuffer moov, Mp4Box mvhd, Mp4Movie movie) {
+        int p = (int) mvhd.payloadOffset();
+        int version = moov.get(p) & 0xFF;
+        p += 4;
+        if (version == 1) {
+            movie.creationTime = moov.getLong(p);
+            movie.movieTimescale = moov.getInt(p + 16) & 0xFFFFFFFFL;
+            movie.movieDuration = moov.getLong(p + 20);
+        } else {
+            movie.creationTime = moov.getInt(p) & 0xFFFFFFFFL;
+            movie.movieTimescale = moov.getInt(p + 8) & 0xFFFFFFFFL;
+            movie.movieDuration = moov.getInt(p + 12) & 0xFFFFFFFFL;
+        }
+    }
+
+    /**
+     * First track with the given handler type ("vide", "soun"), or null
+     */
+    public Mp4TrackTable getTrack(String handlerType) {
+        for (Mp4TrackTable track : tracks) {
+            if (handlerType.equals(track.handlerType)) return track;
+        }
+        return null;
+    }
+
+    public long getDurationMs() {
+        return movieTimescale > 0 ? movieDuration * 1000 / movieTimescale : 0;
+    }
+}
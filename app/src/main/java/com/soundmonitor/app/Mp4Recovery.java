@@ -0,0 +1,624 @@
+package com.soundmonitor.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Recovers video segments that were being recorded when the service died.
+ *
+ * MediaRecorder writes the 'moov' index only when it is stopped, so a killed recording leaves
+ * ftyp + an 'mdat' whose size was never filled in. The H.264 samples inside are length-prefixed
+ * NAL units, which can be walked without an index:
+ * 1. Codec config (sample entry with avcC), frame duration and track header come from a
+ *    finalised reference segment of the same session (or, failing that, the newest other session)
+ * 2. NAL units are validated by header and slice header; a new sample starts at an access unit
+ *    delimiter/SEI/parameter set or at a slice with first_mb_in_slice = 0
+ * 3. Runs of bytes that are not NAL units (the interleaved AAC chunks) are skipped until the
+ *    next point where three valid NAL units follow each other
+ * 4. Sample tables are rebuilt and written through Mp4Merger as NN_recovered.mp4 next to the orphan
+ *
+ * Raw AAC frames carry no length field, so cutting the audio chunks into frames would need a
+ * full AAC bitstream parser; the recovered file has the video track only and the orphan is
+ * kept untouched with its audio bytes. Frame timing is the reference's constant frame duration.
+ */
+public class Mp4Recovery {
+    public static final String RECOVERED_SUFFIX = "_recovered.mp4";
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("\\d+\\.mp4");
+    private static final int MAX_NAL_SIZE = 16 * 1024 * 1024;
+    private static final int WINDOW_SIZE = 16 * 1024;
+
+    public static class Result {
+        public final File orphan;
+        public final File recovered;   // null on failure
+        public final int sampleCount;
+        public final int syncSampleCount;
+        public final long durationMs;
+        public final long skippedBytes; // non-video bytes in mdat (audio chunks, cut-off tail)
+        public final long elapsedMs;
+        public final String error;      // null on success
+
+        public Result(File orphan, File recovered, int sampleCount, int syncSampleCount, long durationMs,
+                      long skippedBytes, long elapsedMs, String error) {
+            this.orphan = orphan;
+            this.recovered = recovered;
+            this.sampleCount = sampleCount;
+            this.syncSampleCount = syncSampleCount;
+            this.durationMs = durationMs;
+            this.skippedBytes = skippedBytes;
+            this.elapsedMs = elapsedMs;
+            this.error = error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        @Override
+        public String toString() {
+            if (error != null) return orphan.getName() + ": " + error;
+            return orphan.getName() + " -> " + recovered.getName() + ": " + sampleCount + " frames ("
+                + syncSampleCount + " key), " + durationMs / 1000.0 + " s, " + skippedBytes
+                + " non-video bytes skipped, " + elapsedMs + " ms";
+        }
+    }
+
+    // ---- Finding orphans ----
+
+    public static File recoveredFileFor(File orphan) {
+        return new File(orphan.getParentFile(), orphan.getName().replace(".mp4", RECOVERED_SUFFIX));
+    }
+
+    /**
+     * True if the file has media data but no index (recording never finalised)
+     */
+    public static boolean isOrphan(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long fileSize = channel.size();
+            boolean hasMediaData = false;
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(Mp4Box.LARGE_HEADER_SIZE);
+            while (fileSize - position >= Mp4Box.HEADER_SIZE) {
+                Mp4Box box = readTolerantHeader(channel, header, position, fileSize);
+                if (box == null) break;
+                if (box.type.equals("moov")) return false;
+                if (box.type.equals("mdat")) hasMediaData = true;
+                position = box.end();
+            }
+            return hasMediaData;
+        }
+    }
+
+    /**
+     * Segment files in the folder that need recovery (orphans without a recovered copy)
+     */
+    public static List<File> findOrphans(File sessionFolder) {
+        List<File> orphans = new ArrayList<>();
+        for (File file : listSegmentFiles(sessionFolder)) {
+            if (recoveredFileFor(file).exists()) continue;
+            try {
+                if (isOrphan(file)) orphans.add(file);
+            } catch (IOException e) {
+                // Unreadable file, nothing to recover from
+            }
+        }
+        return orphans;
+    }
+
+    /**
+     * The session's playable segments in recording order, using recovered copies for orphans
+     */
+    public static List<File> listSessionSegments(File sessionFolder) {
+        List<File> segments = new ArrayList<>();
+        for (File file : listSegmentFiles(sessionFolder)) {
+            File recovered = recoveredFileFor(file);
+            if (recovered.exists()) {
+                segments.add(recovered);
+                continue;
+            }
+            try {
+                if (!isOrphan(file)) segments.add(file);
+            } catch (IOException e) {
+                // skip unreadable segment
+            }
+        }
+        return segments;
+    }
+
+    private static List<File> listSegmentFiles(File sessionFolder) {
+        List<File> files = new ArrayList<>();
+        File[] all = sessionFolder.listFiles();
+        if (all == null) return files;
+        for (File file : all) {
+            if (file.isFile() && SEGMENT_NAME.matcher(file.getName()).matches()) files.add(file);
+        }
+        files.sort(Comparator.comparingInt(Mp4Recovery::segmentNumberOf));
+        return files;
+    }
+
+    /**
+     * Video track of a finalised segment to take codec config and timing from: this session
+     * first, then other sessions under baseDir, newest first
+     */
+    public static Mp4TrackTable findReferenceVideoTrack(File sessionFolder, File baseDir) {
+        Mp4TrackTable track = findVideoTrackIn(sessionFolder);
+        if (track != null || baseDir == null) return track;
+        File[] sessions = baseDir.listFiles(File::isDirectory);
+        if (sessions == null) return null;
+        Arrays.sort(sessions, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        for (File session : sessions) {
+            if (session.equals(sessionFolder)) continue;
+            track = findVideoTrackIn(session);
+            if (track != null) return track;
+        }
+        return null;
+    }
+
+    private static Mp4TrackTable findVideoTrackIn(File folder) {
+        for (File file : listSegmentFiles(folder)) {
+            try {
+                Mp4TrackTable track = Mp4Movie.parse(file).getTrack(Mp4TrackTable.HANDLER_VIDEO);
+                if (track != null && track.getSampleCount() > 0 && avcConfigOffset(track.sampleEntries[0]) >= 0) {
+                    return track;
+                }
+            } catch (IOException e) {
+                // orphan or damaged - not usable as reference
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Recover every orphan under baseDir (one folder per session)
+     */
+    public static List<Result> recoverAll(File baseDir) {
+        List<Result> results = new ArrayList<>();
+        File[] sessions = baseDir.listFiles(File::isDirectory);
+        if (sessions == null) return results;
+        Arrays.sort(sessions);
+        for (File session : sessions) {
+            results.addAll(recoverSession(session, baseDir));
+        }
+        return results;
+    }
+
+    /**
+     * Recover the orphans of one session folder; baseDir is searched for a reference segment
+     * when the session has no finalised one
+     */
+    public static List<Result> recoverSession(File sessionFolder, File baseDir) {
+        List<Result> results = new ArrayList<>();
+        List<File> orphans = findOrphans(sessionFolder);
+        if (orphans.isEmpty()) return results;
+        Mp4TrackTable reference = findReferenceVideoTrack(sessionFolder, baseDir);
+        for (File orphan : orphans) {
+            if (reference == null) {
+                results.add(new Result(orphan, null, 0, 0, 0, 0, 0, "no finalised reference segment"));
+            } else {
+                results.add(recover(orphan, reference, recoveredFileFor(orphan)));
+            }
+        }
+        return results;
+    }
+
+    public static int segmentNumberOf(File segment) {
+        String name = segment.getName();
+        int end = 0;
+        while (end < name.length() && Character.isDigit(name.charAt(end))) end++;
+        return end > 0 ? Integer.parseInt(name.substring(0, end)) : 0;
+    }
+
+    // ---- Rebuilding ----
+
+    /**
+     * Rebuild the video track of an orphaned segment and write it to output
+     */
+    public static Result recover(File orphan, Mp4TrackTable reference, File output) {
+        long start = System.currentTimeMillis();
+        File temp = new File(output.getParentFile(), output.getName() + ".tmp");
+        try {
+            Mp4Movie movie = rebuild(orphan, reference);
+            Mp4TrackTable video = movie.tracks.get(0);
+            if (video.getSampleCount() == 0) {
+                return new Result(orphan, null, 0, 0, 0, 0, System.currentTimeMillis() - start, "no H.264 samples found");
+            }
+            try (Mp4Merger merger = Mp4Merger.open(temp)) {
+                merger.append(movie);
+                merger.finish();
+            }
+            if ((output.exists() && !output.delete()) || !temp.renameTo(output)) {
+                throw new IOException("Cannot move " + temp.getName() + " to " + output.getName());
+            }
+            long videoBytes = 0;
+            for (int size : video.sampleSizes) videoBytes += size;
+            Mp4Box mdat = movie.mediaDataBoxes.get(0);
+            return new Result(orphan, output, video.getSampleCount(),
+                video.syncSamples != null ? video.syncSamples.length : video.getSampleCount(),
+                video.getMediaDuration() * 1000 / video.timescale, mdat.payloadSize() - videoBytes,
+                System.currentTimeMillis() - start, null);
+        } catch (IOException | RuntimeException e) {
+            temp.delete();
+            return new Result(orphan, null, 0, 0, 0, 0, System.currentTimeMillis() - start,
+                e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    /**
+     * Index of an orphan: one video track whose samples point into the orphan's mdat
+     */
+    static Mp4Movie rebuild(File orphan, Mp4TrackTable reference) throws IOException {
+        int nalLengthSize = nalLengthSize(reference.sampleEntries[0]);
+        try (RandomAccessFile raf = new RandomAccessFile(orphan, "r")) {
+            FileChannel channel = raf.getChannel();
+            long fileSize = channel.size();
+            Mp4Box mdat = findMediaData(channel, fileSize);
+            if (mdat == null) throw new IOException("No 'mdat' in " + orphan.getName());
+
+            SampleScanner scanner = new SampleScanner(new WindowReader(channel), nalLengthSize);
+            scanner.scan(mdat.payloadOffset(), mdat.end());
+
+            Mp4TrackTable video = scanner.toTrack(reference);
+            Mp4Movie movie = new Mp4Movie(orphan, fileSize);
+            movie.movieTimescale = 1000;
+            movie.movieDuration = video.getMediaDuration() * 1000 / video.timescale;
+            movie.creationTime = Math.max(0, orphan.lastModified() / 1000 - movie.movieDuration / 1000)
+                + Mp4Box.EPOCH_1904_OFFSET_SECONDS;
+            movie.tracks.add(video);
+            movie.mediaDataBoxes.add(mdat);
+            return movie;
+        }
+    }
+
+    /**
+     * The mdat box; a size that was never filled in (0, or 64-bit size 0) or runs past the end
+     * of the file means "to end of file"
+     */
+    static Mp4Box findMediaData(FileChannel channel, long fileSize) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(Mp4Box.LARGE_HEADER_SIZE);
+        long position = 0;
+        while (fileSize - position >= Mp4Box.HEADER_SIZE) {
+            Mp4Box box = readTolerantHeader(channel, header, position, fileSize);
+            if (box == null) return null;
+            if (box.type.equals("mdat")) return box;
+            position = box.end();
+        }
+        return null;
+    }
+
+    private static Mp4Box readTolerantHeader(FileChannel channel, ByteBuffer header, long position, long fileSize) throws IOException {
+        header.clear();
+        header.limit((int) Math.min(Mp4Box.LARGE_HEADER_SIZE, fileSize - position));
+        Mp4Box.readFully(channel, header, position);
+        long size = header.getInt(0) & 0xFFFFFFFFL;
+        String type = Mp4Box.typeString(header.getInt(4));
+        int headerSize = Mp4Box.HEADER_SIZE;
+        if (size == 1) {
+            if (header.limit() < Mp4Box.LARGE_HEADER_SIZE) return null;
+            size = header.getLong(8);
+            headerSize = Mp4Box.LARGE_HEADER_SIZE;
+        }
+        if (type.equals("mdat") && (size == 0 || size < headerSize || position + size > fileSize)) {
+            size = fileSize - position;
+        }
+        if (size < headerSize) return null;
+        return new Mp4Box(type, position, Math.min(size, fileSize - position), headerSize);
+    }
+
+    /**
+     * Offset of the 'avcC' box inside an 'avc1' sample entry, or -1
+     */
+    static int avcConfigOffset(byte[] sampleEntry) {
+        ByteBuffer entry = ByteBuffer.wrap(sampleEntry);
+        String type = Mp4Box.typeString(entry.getInt(4));
+        if (!type.equals("avc1") && !type.equals("avc3")) return -1;
+        int position = Mp4Box.HEADER_SIZE + 78; // VisualSampleEntry fields
+        while (position + Mp4Box.HEADER_SIZE <= sampleEntry.length) {
+            int size = entry.getInt(position);
+            if (size < Mp4Box.HEADER_SIZE) return -1;
+            if (Mp4Box.typeString(entry.getInt(position + 4)).equals("avcC")) return position;
+            position += size;
+        }
+        return -1;
+    }
+
+    static int nalLengthSize(byte[] sampleEntry) {
+        int avcC = avcConfigOffset(sampleEntry);
+        if (avcC < 0 || avcC + 13 > sampleEntry.length) return 4;
+        return (sampleEntry[avcC + Mp4Box.HEADER_SIZE + 4] & 0x03) + 1;
+    }
+
+    // ---- Elementary stream scanning ----
+
+    /**
+     * Small read window over the file; NAL headers are read, payloads are skipped
+     */
+    private static class WindowReader {
+        private final FileChannel channel;
+        private final ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE);
+        private long windowStart = -1;
+        private int windowLength = 0;
+
+        WindowReader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(long position, int count) throws IOException {
+            if (position >= windowStart && position + count <= windowStart + windowLength) return;
+            window.clear();
+            int total = 0;
+            while (window.hasRemaining()) {
+                int read = channel.read(window, position + total);
+                if (read < 0) break;
+                total += read;
+            }
+            windowStart = position;
+            windowLength = total;
+            if (count > total) throw new IOException("Unexpected end of file at " + position);
+        }
+
+        int get(long position) throws IOException {
+            ensure(position, 1);
+            return window.get((int) (position - windowStart)) & 0xFF;
+        }
+
+        long getUnsigned(long position, int bytes) throws IOException {
+            ensure(position, bytes);
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value = (value << 8) | (window.get((int) (position - windowStart) + i) & 0xFF);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Walks an mdat payload and groups valid NAL units into samples and chunks
+     */
+    private static class SampleScanner {
+        private final WindowReader reader;
+        private final int lengthSize;
+
+        private int[] sampleSizes = new int[1024];
+        private long[] sampleOffsets = new long[1024];
+        private boolean[] sampleSync = new boolean[1024];
+        private int sampleCount = 0;
+
+        // Sample being assembled
+        private long currentStart = -1;
+        private long currentEnd = -1;
+        private boolean currentHasSlice = false;
+        private boolean currentSync = false;
+
+        SampleScanner(WindowReader reader, int lengthSize) {
+            this.reader = reader;
+            this.lengthSize = lengthSize;
+        }
+
+        /**
+         * A run of video starts only where three valid NAL units follow each other (or the mdat
+         * ends). Inside a run, a NAL unit announced by a valid predecessor is taken; if its own
+         * successor is not valid it is the last NAL of the chunk, unless another run starts inside
+         * its claimed payload - then it was a length prefix that happened to fit at the start of
+         * an audio chunk and would otherwise swallow the following video
+         */
+        void scan(long from, long to) throws IOException {
+            long position = from;
+            boolean previousChained = false;
+            while (position + lengthSize < to) {
+                long length = nalAt(position, to);
+                if (length >= 0) {
+                    long next = position + lengthSize + length;
+                    long nextLength = next == to ? 0 : nalAt(next, to);
+                    boolean chained = nextLength >= 0;
+                    boolean accept = previousChained
+                        ? chained || !runStartsWithin(position + 1, next, to)
+                        : chained && startsRun(next, nextLength, to);
+                    if (accept) {
+                        addNal(position, length);
+                        position = next;
+                        previousChained = chained;
+                        continue;
+                    }
+                }
+                // Not a NAL unit here (audio chunk or cut-off tail): resync byte by byte
+                previousChained = false;
+                position++;
+            }
+            finishSample();
+        }
+
+        private boolean startsRun(long next, long nextLength, long to) throws IOException {
+            if (next == to) return true;
+            long afterNext = next + lengthSize + nextLength;
+            return afterNext == to || nalAt(afterNext, to) >= 0;
+        }
+
+        private boolean runStartsWithin(long from, long until, long to) throws IOException {
+            for (long position = from; position < until; position++) {
+                long length = nalAt(position, to);
+                if (length < 0) continue;
+                long next = position + lengthSize + length;
+                long nextLength = next == to ? 0 : nalAt(next, to);
+                if (nextLength >= 0 && startsRun(next, nextLength, to)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Payload length of a plausible NAL unit at position, or -1
+         */
+        private long nalAt(long position, long end) throws IOException {
+            if (end - position < lengthSize + 2) return -1;
+            long length = reader.getUnsigned(position, lengthSize);
+            if (length < 2 || length > MAX_NAL_SIZE || position + lengthSize + length > end) return -1;
+            int header = reader.get(position + lengthSize);
+            if ((header & 0x80) != 0) return -1;
+            int type = header & 0x1F;
+            int refIdc = (header >> 5) & 0x03;
+            switch (type) {
+                case 1:
+                case 5:
+                    if (type == 5 && refIdc == 0) return -1;
+                    return plausibleSliceHeader(position + lengthSize + 1, type) ? length : -1;
+                case 7:
+                case 8:
+                    return refIdc != 0 ? length : -1;
+                case 6:
+                case 9:
+                    return refIdc == 0 ? length : -1;
+                default:
+                    return -1;
+            }
+        }
+
+        /**
+         * first_mb_in_slice, slice_type (0-9; IDR slices must be I/SI) and pic_parameter_set_id (small)
+         */
+        private boolean plausibleSliceHeader(long position, int nalType) throws IOException {
+            long bits = reader.getUnsigned(position, 4);
+            int[] cursor = { 0 };
+            long firstMb = readUe(bits, cursor);
+            long sliceType = readUe(bits, cursor);
+            long ppsId = readUe(bits, cursor);
+            if (firstMb < 0 || sliceType < 0 || ppsId < 0) return false;
+            if (sliceType > 9 || ppsId > 3) return false;
+            if (nalType == 5 && sliceType % 5 != 2 && sliceType % 5 != 4) return false;
+            return true;
+        }
+
+        /** Exp-Golomb ue(v) from the top 32 bits, -1 if it does not fit */
+        private static long readUe(long bits, int[] cursor) {
+            int zeros = 0;
+            while (cursor[0] < 32 && ((bits >>> (31 - cursor[0])) & 1) == 0) {
+                zeros++;
+                cursor[0]++;
+            }
+            if (cursor[0] + zeros + 1 > 32) return -1;
+            cursor[0]++;
+            long value = 0;
+            for (int i = 0; i < zeros; i++) {
+                value = (value << 1) | ((bits >>> (31 - cursor[0])) & 1);
+                cursor[0]++;
+            }
+            return (1L << zeros) - 1 + value;
+        }
+
+        private void addNal(long position, long length) throws IOException {
+            int header = reader.get(position + lengthSize);
+            int type = header & 0x1F;
+            boolean slice = type == 1 || type == 5;
+            boolean startsAccessUnit = slice ? (reader.get(position + lengthSize + 1) & 0x80) != 0 : true;
+            if (currentStart >= 0 && (position != currentEnd || (currentHasSlice && startsAccessUnit))) {
+                finishSample();
+            }
+            if (currentStart < 0) {
+                currentStart = position;
+                currentEnd = position;
+            }
+            currentEnd = position + lengthSize + length;
+            currentHasSlice |= slice;
+            currentSync |= type == 5;
+        }
+
+        private void finishSample() {
+            if (currentStart < 0) return;
+            if (currentHasSlice) {
+                if (sampleCount == sampleSizes.length) {
+                    sampleSizes = Arrays.copyOf(sampleSizes, sampleCount * 2);
+                    sampleOffsets = Arrays.copyOf(sampleOffsets, sampleCount * 2);
+                    sampleSync = Arrays.copyOf(sampleSync, sampleCount * 2);
+                }
+                sampleSizes[sampleCount] = (int) (currentEnd - currentStart);
+                sampleOffsets[sampleCount] = currentStart;
+                sampleSync[sampleCount] = currentSync;
+                sampleCount++;
+            }
+            currentStart = -1;
+            currentEnd = -1;
+            currentHasSlice = false;
+            currentSync = false;
+        }
+
+        Mp4TrackTable toTrack(Mp4TrackTable reference) {
+            Mp4TrackTable track = new Mp4TrackTable();
+            track.trackId = 1;
+            track.alternateGroup = reference.alternateGroup;
+            track.volume = reference.volume;
+            track.matrix = reference.matrix;
+            track.width = reference.width;
+            track.height = reference.height;
+            track.timescale = reference.timescale;
+            track.language = reference.language;
+            track.handlerType = reference.handlerType;
+            track.handlerBox = reference.handlerBox;
+            track.mediaHeaderBox = reference.mediaHeaderBox;
+            track.dataInfoBox = reference.dataInfoBox;
+            track.sampleEntries = new byte[][] { reference.sampleEntries[0] };
+
+            track.sampleSizes = Arrays.copyOf(sampleSizes, sampleCount);
+            track.sttsCounts = sampleCount > 0 ? new int[] { sampleCount } : new int[0];
+            track.sttsDeltas = sampleCount > 0 ? new int[] { typicalFrameDuration(reference) } : new int[0];
+
+            int syncCount = 0;
+            for (int i = 0; i < sampleCount; i++) if (sampleSync[i]) syncCount++;
+            if (syncCount < sampleCount) {
+                track.syncSamples = new int[syncCount];
+                for (int i = 0, j = 0; i < sampleCount; i++) {
+                    if (sampleSync[i]) track.syncSamples[j++] = i + 1;
+                }
+            }
+
+            // Contiguous samples form a chunk
+            List<long[]> chunks = new ArrayList<>(); // {offset, samples}
+            for (int i = 0; i < sampleCount; i++) {
+                if (i > 0 && sampleOffsets[i] == sampleOffsets[i - 1] + sampleSizes[i - 1]) {
+                    chunks.get(chunks.size() - 1)[1]++;
+                } else {
+                    chunks.add(new long[] { sampleOffsets[i], 1 });
+                }
+            }
+            track.chunkOffsets = new long[chunks.size()];
+            List<int[]> stsc = new ArrayList<>();
+            for (int c = 0; c < chunks.size(); c++) {
+                track.chunkOffsets[c] = chunks.get(c)[0];
+                int perChunk = (int) chunks.get(c)[1];
+                if (stsc.isEmpty() || stsc.get(stsc.size() - 1)[1] != perChunk) {
+                    stsc.add(new int[] { c + 1, perChunk });
+                }
+            }
+            track.stscFirstChunk = new int[stsc.size()];
+            track.stscSamplesPerChunk = new int[stsc.size()];
+            track.stscDescriptionIndex = new int[stsc.size()];
+            for (int i = 0; i < stsc.size(); i++) {
+                track.stscFirstChunk[i] = stsc.get(i)[0];
+                track.stscSamplesPerChunk[i] = stsc.get(i)[1];
+                track.stscDescriptionIndex[i] = 1;
+            }
+            return track;
+        }
+    }
+
+    /**
+     * Most common sample duration of the reference track (its frame rate)
+     */
+    static int typicalFrameDuration(Mp4TrackTable reference) {
+        int best = 0;
+        long bestCount = -1;
+        for (int i = 0; i < reference.sttsDeltas.length; i++) {
+            if (reference.sttsCounts[i] > bestCount) {
+                bestCount = reference.sttsCounts[i];
+                best = reference.sttsDeltas[i];
+            }
+        }
+        return best > 0 ? best : (int) Math.max(1, reference.timescale / 30);
+    }
+}
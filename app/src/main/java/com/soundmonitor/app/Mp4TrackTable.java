@@ -0,0 +1,265 @@
+package com.soundmonitor.app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Sample tables of one MP4 track, parsed from its 'trak' box.
+ *
+ * Holds exactly what is needed to rewrite the track elsewhere: header fields,
+ * sample descriptions (raw 'stsd' entries), timing (stts/ctts run-length tables),
+ * sizes, chunk layout (stsc + chunk offsets) and sync samples.
+ */
+public class Mp4TrackTable {
+    public static final String HANDLER_VIDEO = "vide";
+    public static final String HANDLER_SOUND = "soun";
+    public static final String HANDLER_TEXT = "text";
+
+    // tkhd
+    public int trackFlags = 0x7; // enabled | in movie | in preview; chapter tracks are disabled
+    public int trackId;
+    public int alternateGroup;
+    public int volume;
+    public byte[] matrix = new byte[36];
+    public int width;  // 16.16 fixed point
+    public int height; // 16.16 fixed point
+
+    // mdia
+    public long timescale;
+    public int language;
+    public String handlerType;
+    public byte[] handlerBox;     // complete 'hdlr'
+    public byte[] mediaHeaderBox; // complete 'vmhd' / 'smhd' / 'nmhd' / 'gmhd'
+    public byte[] dataInfoBox;    // complete 'dinf'
+
+    // stbl
+    public byte[][] sampleEntries;
+    public int[] sttsCounts;
+    public int[] sttsDeltas;
+    public int[] cttsCounts;      // null when the track has no composition offsets
+    public int[] cttsOffsets;
+    public int[] syncSamples;     // 1-based sample numbers, null when every sample is a sync sample
+    public int[] sampleSizes;
+    public int[] stscFirstChunk;
+    public int[] stscSamplesPerChunk;
+    public int[] stscDescriptionIndex;
+    public long[] chunkOffsets;
+
+    public int getSampleCount() {
+        return sampleSizes.length;
+    }
+
+    public int getChunkCount() {
+        return chunkOffsets.length;
+    }
+
+    /**
+     * Sum of sample durations in the track's timescale
+     */
+    public long getMediaDuration() {
+        long duration = 0;
+        for (int i = 0; i < sttsCounts.length; i++) {
+            duration += (long) sttsCounts[i] * sttsDeltas[i];
+        }
+        return duration;
+    }
+
+    public boolean isVideo() {
+        return HANDLER_VIDEO.equals(handlerType);
+    }
+
+    public boolean isEnabled() {
+        return (trackFlags & 0x1) != 0;
+    }
+
+    /**
+     * Parse a 'trak' box held in an in-memory moov buffer
+     */
+    public static Mp4TrackTable parse(ByteBuffer moov, Mp4Box trak) throws IOException {
+        Mp4TrackTable table = new Mp4TrackTable();
+        List<Mp4Box> trakChildren = Mp4Box.children(moov, trak);
+
+        Mp4Box tkhd = require(trakChildren, "tkhd");
+        parseTrackHeader(moov, tkhd, table);
+
+        Mp4Box mdia = require(trakChildren, "mdia");
+        List<Mp4Box> mdiaChildren = Mp4Box.children(moov, mdia);
+        parseMediaHeader(moov, require(mdiaChildren, "mdhd"), table);
+
+        Mp4Box hdlr = require(mdiaChildren, "hdlr");
+        table.handlerBox = Mp4Box.copyBox(moov, hdlr);
+        table.handlerType = Mp4Box.typeString(moov.getInt((int) hdlr.payloadOffset() + 8));
+
+        Mp4Box minf = require(mdiaChildren, "minf");
+        List<Mp4Box> minfChildren = Mp4Box.children(moov, minf);
+        for (Mp4Box box : minfChildren) {
+            if (box.type.equals("vmhd") || box.type.equals("smhd") || box.type.equals("nmhd")
+                    || box.type.equals("gmhd") || box.type.equals("sthd")) {
+                table.mediaHeaderBox = Mp4Box.copyBox(moov, box);
+            } else if (box.type.equals("dinf")) {
+                table.dataInfoBox = Mp4Box.copyBox(moov, box);
+            }
+        }
+
+        Mp4Box stbl = require(minfChildren, "stbl");
+        parseSampleTable(moov, Mp4Box.children(moov, stbl), table);
+        return table;
+    }
+
+    private static Mp4Box require(List<Mp4Box> boxes, String type) throws IOException {
+        Mp4Box box = Mp4Box.find(boxes, type);
+        if (box == null) throw new IOException("Missing '" + type + "' box");
+        return box;
+    }
+
+    private static void parseTrackHeader(ByteBuffer moov, Mp4Box tkhd, Mp4TrackTable table) {
+        int p = (int) tkhd.payloadOffset();
+        int version = moov.get(p) & 0xFF;
+        table.trackFlags = moov.getInt(p) & 0xFFFFFF;
+        p += 4;
+        if (version == 1) {
+            p += 16;
+            table.trackId = moov.getInt(p);
+            p += 4 + 4 + 8;
+        } else {
+            p += 8;
+            table.trackId = moov.getInt(p);
+            p += 4 + 4 + 4;
+        }
+        p += 8; // reserved
+        p += 2; // layer
+        table.alternateGroup = moov.getShort(p) & 0xFFFF;
+        p += 2;
+        table.volume = moov.getShort(p) & 0xFFFF;
+        p += 4; // volume + reserved
+        for (int i = 0; i < 36; i++) {
+            table.matrix[i] = moov.get(p + i);
+        }
+        p += 36;
+        table.width = moov.getInt(p);
+        table.height = moov.getInt(p + 4);
+    }
+
+    private static void parseMediaHeader(ByteBuffer moov, Mp4Box mdhd, Mp4TrackTable table) {
+        int p = (int) mdhd.payloadOffset();
+        int version = moov.get(p) & 0xFF;
+        p += 4;
+        if (version == 1) {
+            p += 16;
+            table.timescale = moov.getInt(p) & 0xFFFFFFFFL;
+            p += 4 + 8;
+        } else {
+            p += 8;
+            table.timescale = moov.getInt(p) & 0xFFFFFFFFL;
+            p += 4 + 4;
+        }
+        table.language = moov.getShort(p) & 0x7FFF;
+    }
+
+    private static void parseSampleTable(ByteBuffer moov, List<Mp4Box> stblChildren, Mp4TrackTable table) throws IOException {
+        // Sample descriptions
+        Mp4Box stsd = require(stblChildren, "stsd");
+        List<Mp4Box> entries = Mp4Box.children(moov, (int) stsd.payloadOffset() + 8, (int) stsd.end());
+        table.sampleEntries = new byte[entries.size()][];
+        for (int i = 0; i < entries.size(); i++) {
+            table.sampleEntries[i] = Mp4Box.copyBox(moov, entries.get(i));
+        }
+
+        // Decoding time to sample
+        Mp4Box stts = require(stblChildren, "stts");
+        int p = (int) stts.payloadOffset() + 4;
+        int count = moov.getInt(p);
+        table.sttsCounts = new int[count];
+        table.sttsDeltas = new int[count];
+        for (int i = 0; i < count; i++) {
+            table.sttsCounts[i] = moov.getInt(p + 4 + i * 8);
+            table.sttsDeltas[i] = moov.getInt(p + 8 + i * 8);
+        }
+
+        // Composition offsets (optional)
+        Mp4Box ctts = Mp4Box.find(stblChildren, "ctts");
+        if (ctts != null) {
+            p = (int) ctts.payloadOffset() + 4;
+            count = moov.getInt(p);
+            table.cttsCounts = new int[count];
+            table.cttsOffsets = new int[count];
+            for (int i = 0; i < count; i++) {
+                table.cttsCounts[i] = moov.getInt(p + 4 + i * 8);
+                table.cttsOffsets[i] = moov.getInt(p + 8 + i * 8);
+            }
+        }
+
+        // Sync samples (optional: absent means every sample is a sync sample)
+        Mp4Box stss = Mp4Box.find(stblChildren, "stss");
+        if (stss != null) {
+            p = (int) stss.payloadOffset() + 4;
+            count = moov.getInt(p);
+            table.syncSamples = new int[count];
+            for (int i = 0; i < count; i++) {
+                table.syncSamples[i] = moov.getInt(p + 4 + i * 4);
+            }
+        }
+
+        // Sample sizes
+        Mp4Box stsz = Mp4Box.find(stblChildren, "stsz");
+        if (stsz != null) {
+            p = (int) stsz.payloadOffset() + 4;
+            int constantSize = moov.getInt(p);
+            count = moov.getInt(p + 4);
+            table.sampleSizes = new int[count];
+            for (int i = 0; i < count; i++) {
+                table.sampleSizes[i] = constantSize != 0 ? constantSize : moov.getInt(p + 8 + i * 4);
+            }
+        } else {
+            Mp4Box stz2 = require(stblChildren, "stz2");
+            p = (int) stz2.payloadOffset() + 4;
+            int fieldSize = moov.get(p + 3) & 0xFF;
+            count = moov.getInt(p + 4);
+            table.sampleSizes = new int[count];
+            int base = p + 8;
+            for (int i = 0; i < count; i++) {
+                if (fieldSize == 4) {
+                    int b = moov.get(base + i / 2) & 0xFF;
+                    table.sampleSizes[i] = (i % 2 == 0) ? (b >>> 4) : (b & 0x0F);
+                } else if (fieldSize == 8) {
+                    table.sampleSizes[i] = moov.get(base + i) & 0xFF;
+                } else {
+                    table.sampleSizes[i] = moov.getShort(base + i * 2) & 0xFFFF;
+                }
+            }
+        }
+
+        // Sample to chunk
+        Mp4Box stsc = require(stblChildren, "stsc");
+        p = (int) stsc.payloadOffset() + 4;
+        count = moov.getInt(p);
+        table.stscFirstChunk = new int[count];
+        table.stscSamplesPerChunk = new int[count];
+        table.stscDescriptionIndex = new int[count];
+        for (int i = 0; i < count; i++) {
+            table.stscFirstChunk[i] = moov.getInt(p + 4 + i * 12);
+            table.stscSamplesPerChunk[i] = moov.getInt(p + 8 + i * 12);
+            table.stscDescriptionIndex[i] = moov.getInt(p + 12 + i * 12);
+        }
+
+        // Chunk offsets
+        Mp4Box stco = Mp4Box.find(stblChildren, "stco");
+        if (stco != null) {
+            p = (int) stco.payloadOffset() + 4;
+            count = moov.getInt(p);
+            table.chunkOffsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                table.chunkOffsets[i] = moov.getInt(p + 4 + i * 4) & 0xFFFFFFFFL;
+            }
+        } else {
+            Mp4Box co64 = require(stblChildren, "co64");
+            p = (int) co64.payloadOffset() + 4;
+            count = moov.getInt(p);
+            table.chunkOffsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                table.chunkOffsets[i] = moov.getLong(p + 4 + i * 8);
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.soundmonitor.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Daily/weekly noise report for any date range, built from pre-aggregated data only.
+ *
+ * Sources:
+ * 1. Per-day event counts, loud time and worst event from EventIndexDatabase aggregates
+ * 2. Per-day Leq/min/max merged from LevelHistoryStore hour rollups (optional)
+ * 3. The loudest individual events from the event index
+ *
+ * Nothing is read from session folders, so a one-year report touches ~365 aggregate rows,
+ * ~8760 hour rollups and a handful of events.
+ */
+public class NoiseReport {
+    public static final String REPORT_FILE_NAME = "NOISE_REPORT.txt";
+    private static final int WORST_EVENT_COUNT = 10;
+
+    public static class DayRow {
+        public final long dayStart;
+        public final int eventCount;
+        public final long loudMs;
+        public final double maxEventDb;
+        public final LevelHistoryStore.Rollup levels;
+
+        public DayRow(long dayStart, int eventCount, long loudMs, double maxEventDb, LevelHistoryStore.Rollup levels) {
+            this.dayStart = dayStart;
+            this.eventCount = eventCount;
+            this.loudMs = loudMs;
+            this.maxEventDb = maxEventDb;
+            this.levels = levels;
+        }
+    }
+
+    public final long fromTime;
+    public final long toTime;
+    public final List<DayRow> days;
+    public final List<EventIndexDatabase.Event> worstEvents;
+    public final int totalEvents;
+    public final long totalLoudMs;
+    public final LevelHistoryStore.Rollup totalLevels;
+    public final long generationMs;
+
+    private NoiseReport(long fromTime, long toTime, List<DayRow> days, List<EventIndexDatabase.Event> worstEvents,
+                        int totalEvents, long totalLoudMs, LevelHistoryStore.Rollup totalLevels, long generationMs) {
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+        this.days = days;
+        this.worstEvents = worstEvents;
+        this.totalEvents = totalEvents;
+        this.totalLoudMs = totalLoudMs;
+        this.totalLevels = totalLevels;
+        this.generationMs = generationMs;
+    }
+
+    /**
+     * Build the report for [fromTime, toTime). levelHistory may be null, then Leq columns are omitted.
+     * Only days with events or level data get a row.
+     */
+    public static NoiseReport generate(EventIndexDatabase eventIndex, LevelHistoryStore levelHistory,
+                                       long fromTime, long toTime) {
+        long start = System.currentTimeMillis();
+
+        Map<Long, EventIndexDatabase.PeriodStats> statsByDay = new LinkedHashMap<>();
+        for (EventIndexDatabase.PeriodStats stats : eventIndex.getDailyStats(fromTime, toTime)) {
+            statsByDay.put(stats.startTime, stats);
+        }
+
+        // Hour rollups are keyed by UTC hour; regroup them by local day
+        Map<Long, LevelHistoryStore.Rollup> levelsByDay = new LinkedHashMap<>();
+        LevelHistoryStore.Rollup totalLevels = null;
+        if (levelHistory != null) {
+            try {
+                for (LevelHistoryStore.Rollup hour : levelHistory.queryTier(LevelHistoryStore.TIER_HOUR, fromTime, toTime)) {
+                    long day = EventIndexDatabase.dayStartOf(hour.startMs);
+                    LevelHistoryStore.Rollup existing = levelsByDay.get(day);
+                    levelsByDay.put(day, existing == null ? hour : existing.merge(hour));
+                    totalLevels = totalLevels == null ? hour : totalLevels.merge(hour);
+                }
+            } catch (IOException e) {
+                levelsByDay.clear();
+                totalLevels = null;
+            }
+        }
+
+        List<DayRow> days = new ArrayList<>();
+        int totalEvents = 0;
+        long totalLoudMs = 0;
+        for (long day = EventIndexDatabase.dayStartOf(fromTime); day < toTime; day = nextDay(day)) {
+            EventIndexDatabase.PeriodStats stats = statsByDay.get(day);
+            LevelHistoryStore.Rollup levels = levelsByDay.get(day);
+            if (stats == null && levels == null) continue;
+            int count = stats != null ? stats.eventCount : 0;
+            long loudMs = stats != null ? stats.loudMs : 0;
+            days.add(new DayRow(day, count, loudMs, stats != null ? stats.maxDb : 0, levels));
+            totalEvents += count;
+            totalLoudMs += loudMs;
+        }
+
+        List<EventIndexDatabase.Event> worstEvents = eventIndex.getWorstEvents(fromTime, toTime, WORST_EVENT_COUNT);
+        return new NoiseReport(fromTime, toTime, days, worstEvents, totalEvents, totalLoudMs, totalLevels,
+            System.currentTimeMillis() - start);
+    }
+
+    private static long nextDay(long dayStart) {
+        // Add 36 h and snap back to midnight, so DST days of 23 or 25 hours are handled
+        return EventIndexDatabase.dayStartOf(dayStart + 36 * 60 * 60 * 1000L);
+    }
+
+    /**
+     * Sum day rows into calendar weeks (weeks start on the day the report starts)
+     */
+    public List<DayRow> getWeeks() {
+        List<DayRow> weeks = new ArrayList<>();
+        long weekStart = EventIndexDatabase.dayStartOf(fromTime);
+        int index = 0;
+        while (weekStart < toTime) {
+            long weekEnd = weekStart;
+            for (int i = 0; i < 7; i++) weekEnd = nextDay(weekEnd);
+
+            int count = 0;
+            long loudMs = 0;
+            double maxDb = 0;
+            LevelHistoryStore.Rollup levels = null;
+            for (; index < days.size() && days.get(index).dayStart < weekEnd; index++) {
+                DayRow day = days.get(index);
+                count += day.eventCount;
+                loudMs += day.loudMs;
+                maxDb = Math.max(maxDb, day.maxEventDb);
+                if (day.levels != null) levels = levels == null ? day.levels : levels.merge(day.levels);
+            }
+            if (count > 0 || levels != null) {
+                weeks.add(new DayRow(weekStart, count, loudMs, maxDb, levels));
+            }
+            weekStart = weekEnd;
+        }
+        return weeks;
+    }
+
+    public String render() {
+        SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd EEE", Locale.US);
+        SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+
+        StringBuilder report = new StringBuilder();
+        report.append("=== NOISE REPORT ===\n\n");
+        report.append("Period: ").append(dayFormat.format(new Date(fromTime)))
+              .append(" to ").append(dayFormat.format(new Date(toTime - 1))).append("\n");
+        report.append("Times: device clock, for overview only; verified times are in each session's timestamp file\n\n");
+
+        report.append("=== SUMMARY ===\n");
+        report.append("Sound events: ").append(totalEvents).append("\n");
+        report.append("Total loud time: ").append(formatMinutes(totalLoudMs)).append("\n");
+        report.append("Days with events: ").append(countDaysWithEvents()).append("\n");
+        if (totalLevels != null) {
+            report.append(String.format(Locale.US, "Overall Leq: %.1f dB (max %.1f dB)\n",
+                totalLevels.leqDb, totalLevels.maxDb));
+        }
+        report.append("\n");
+
+        report.append("=== WEEKLY ===\n");
+        appendRows(report, getWeeks(), dayFormat, "Week of ");
+        report.append("\n");
+
+        report.append("=== DAILY ===\n");
+        appendRows(report, days, dayFormat, "");
+        report.append("\n");
+
+        report.append("=== LOUDEST EVENTS ===\n");
+        if (worstEvents.isEmpty()) {
+            report.append("(none)\n");
+        }
+        for (EventIndexDatabase.Event event : worstEvents) {
+            report.append(String.format(Locale.US, "%s  %.1f dB  %ds  %s (+%s)\n",
+                timeFormat.format(new Date(event.startTime)), event.peakDb,
+                (event.endTime - event.startTime) / 1000, event.file != null ? new File(event.file).getName() : "-",
+                formatOffset(event.offsetMs)));
+        }
+        report.append("\n");
+        report.append(String.format(Locale.US, "Generated in %d ms from pre-aggregated data\n", generationMs));
+        return report.toString();
+    }
+
+    private void appendRows(StringBuilder report, List<DayRow> rows, SimpleDateFormat dayFormat, String prefix) {
+        if (rows.isEmpty()) {
+            report.append("(no data)\n");
+            return;
+        }
+        for (DayRow row : rows) {
+            report.append(prefix).append(dayFormat.format(new Date(row.dayStart))).append(": ");
+            report.append(row.eventCount).append(" events, ").append(formatMinutes(row.loudMs)).append(" loud");
+            if (row.eventCount > 0) {
+                report.append(String.format(Locale.US, ", loudest %.1f dB", row.maxEventDb));
+            }
+            if (row.levels != null) {
+                report.append(String.format(Locale.US, ", Leq %.1f dB", row.levels.leqDb));
+            }
+            report.append("\n");
+        }
+    }
+
+    private int countDaysWithEvents() {
+        int count = 0;
+        for (DayRow day : days) {
+            if (day.eventCount > 0) count++;
+        }
+        return count;
+    }
+
+    private static String formatMinutes(long ms) {
+        return String.format(Locale.US, "%.1f min", ms / 60000.0);
+    }
+
+    private static String formatOffset(long ms) {
+        long seconds = ms / 1000;
+        return String.format(Locale.US, "%02d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+}
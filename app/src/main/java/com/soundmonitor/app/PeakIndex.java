@@ -0,0 +1,366 @@
+package com.soundmonitor.app;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Multi-resolution peak/level overview index written alongside each recording
+ * (audio_session.m4a → audio_session.peaks, 01.mp4 → 01.peaks).
+ *
+ * Features:
+ * 1. Level 0 holds min/max/RMS of every dB monitor frame, streamed to disk during capture
+ * 2. Each coarser level aggregates FANOUT entries of the level below (~2 s, ~30 s, ~8 min)
+ * 3. Fixed-size records, so any time range is found by binary search without decoding audio
+ * 4. A file left without its trailer by a crash still exposes level 0
+ * 5. A query never returns more than maxPoints: if even the coarsest level has more entries
+ *    in range, neighbouring entries are merged
+ *
+ * File layout (big-endian):
+ *   header   MAGIC, version (short), fanout (short)
+ *   level 0  ENTRY_SIZE records streamed while recording
+ *   levels 1..n records, written at close
+ *   table    per level: offset (long), count (int)
+ *   trailer  level count (int), table offset (long), MAGIC
+ */
+public class PeakIndex {
+    public static final String FILE_EXTENSION = ".peaks";
+
+    private static final int MAGIC = 0x534D504B; // "SMPK"
+    private static final short VERSION = 1;
+    private static final int FANOUT = 16;
+    private static final int LEVELS = 4;
+    private static final int HEADER_SIZE = 8;
+    private static final int ENTRY_SIZE = 10; // startMs (int), min, max, rms (shorts)
+    private static final int TRAILER_SIZE = 16;
+
+    public static class Peak {
+        public final long startMs;
+        public final short min;
+        public final short max;
+        public final short rms;
+
+        public Peak(long startMs, short min, short max, short rms) {
+            this.startMs = startMs;
+            this.min = min;
+            this.max = max;
+            this.rms = rms;
+        }
+    }
+
+    /**
+     * Index file that belongs to a recording: same folder, same base name
+     */
+    public static File indexFileFor(File mediaFile) {
+        String name = mediaFile.getName();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name;
+        return new File(mediaFile.getParentFile(), baseName + FILE_EXTENSION);
+    }
+
+    /**
+     * Streams level 0 to disk and keeps the (much smaller) coarser levels in memory until close.
+     * Frames are fed from the dB monitoring thread while the recorder is running.
+     */
+    public static class Writer implements Closeable {
+        private final File file;
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream[] upperLevels = new ByteArrayOutputStream[LEVELS - 1];
+        private final DataOutputStream[] upperOutputs = new DataOutputStream[LEVELS - 1];
+        private final int[] upperCounts = new int[LEVELS - 1];
+
+        // Per-level accumulators for the entry currently being built
+        private final int[] accChildren = new int[LEVELS];
+        private final long[] accStartMs = new long[LEVELS];
+        private final short[] accMin = new short[LEVELS];
+        private final short[] accMax = new short[LEVELS];
+        private final double[] accSumSquares = new double[LEVELS];
+
+        private int frameCount = 0;
+        private long lastFrameMs = 0;
+        private long writeNanos = 0;
+        private long totalBytes = 0;
+        private boolean closed = false;
+
+        public Writer(File file) throws IOException {
+            this.file = file;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+            for (int i = 0; i < LEVELS - 1; i++) {
+                upperLevels[i] = new ByteArrayOutputStream();
+                upperOutputs[i] = new DataOutputStream(upperLevels[i]);
+            }
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(FANOUT);
+        }
+
+        /**
+         * Add one frame of 16-bit PCM captured offsetMs after the recording started
+         */
+        public synchronized void addFrame(long offsetMs, short[] samples, int count) throws IOException {
+            if (closed || count <= 0) return;
+            long start = System.nanoTime();
+
+            short min = Short.MAX_VALUE;
+            short max = Short.MIN_VALUE;
+            double sumSquares = 0;
+            for (int i = 0; i < count; i++) {
+                short s = samples[i];
+                if (s < min) min = s;
+                if (s > max) max = s;
+                sumSquares += (double) s * s;
+            }
+            short rms = (short) Math.min(Short.MAX_VALUE, Math.round(Math.sqrt(sumSquares / count)));
+
+            writeEntry(out, offsetMs, min, max, rms);
+            frameCount++;
+            lastFrameMs = offsetMs;
+            accumulate(1, offsetMs, min, max, rms);
+
+            writeNanos += System.nanoTime() - start;
+        }
+
+        private void accumulate(int level, long startMs, short min, short max, short rms) throws IOException {
+            if (level >= LEVELS) return;
+            if (accChildren[level] == 0) {
+                accStartMs[level] = startMs;
+                accMin[level] = min;
+                accMax[level] = max;
+                accSumSquares[level] = 0;
+            } else {
+                if (min < accMin[level]) accMin[level] = min;
+                if (max > accMax[level]) accMax[level] = max;
+            }
+            accSumSquares[level] += (double) rms * rms;
+            accChildren[level]++;
+
+            if (accChildren[level] == FANOUT) {
+                emitLevel(level);
+            }
+        }
+
+        private void emitLevel(int level) throws IOException {
+            short rms = (short) Math.round(Math.sqrt(accSumSquares[level] / accChildren[level]));
+            long startMs = accStartMs[level];
+            short min = accMin[level];
+            short max = accMax[level];
+            accChildren[level] = 0;
+
+            writeEntry(upperOutputs[level - 1], startMs, min, max, rms);
+            upperCounts[level - 1]++;
+            accumulate(level + 1, startMs, min, max, rms);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            long start = System.nanoTime();
+            try {
+                // Flush partially filled aggregates from the finest level upwards
+                for (int level = 1; level < LEVELS; level++) {
+                    if (accChildren[level] > 0) {
+                        emitLevel(level);
+                    }
+                }
+
+                long[] offsets = new long[LEVELS];
+                int[] counts = new int[LEVELS];
+                offsets[0] = HEADER_SIZE;
+                counts[0] = frameCount;
+                long position = HEADER_SIZE + (long) frameCount * ENTRY_SIZE;
+                for (int i = 0; i < LEVELS - 1; i++) {
+                    offsets[i + 1] = position;
+                    counts[i + 1] = upperCounts[i];
+                    upperLevels[i].writeTo(out);
+                    position += upperLevels[i].size();
+                }
+
+                long tableOffset = position;
+                for (int level = 0; level < LEVELS; level++) {
+                    out.writeLong(offsets[level]);
+                    out.writeInt(counts[level]);
+                }
+                out.writeInt(LEVELS);
+                out.writeLong(tableOffset);
+                out.writeInt(MAGIC);
+            } finally {
+                out.close();
+                totalBytes = file.length();
+                writeNanos += System.nanoTime() - start;
+            }
+        }
+
+        public synchronized int getFrameCount() {
+            return frameCount;
+        }
+
+        public synchronized long getCoveredMs() {
+            return lastFrameMs;
+        }
+
+        public synchronized long getWriteNanos() {
+            return writeNanos;
+        }
+
+        /**
+         * Index size and CPU time spent writing it, normalised per hour of audio
+         */
+        public synchronized String formatStats() {
+            long bytes = closed ? totalBytes : HEADER_SIZE + (long) frameCount * ENTRY_SIZE;
+            double hours = Math.max(lastFrameMs, 1) / 3600000.0;
+            return String.format(Locale.US,
+                "%d frames, %d bytes (%.1f KB per audio-hour), write cost %.1f ms (%.1f ms per audio-hour)",
+                frameCount, bytes, bytes / 1024.0 / hours,
+                writeNanos / 1e6, writeNanos / 1e6 / hours);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, long startMs, short min, short max, short rms) throws IOException {
+        out.writeInt((int) Math.min(startMs, Integer.MAX_VALUE));
+        out.writeShort(min);
+        out.writeShort(max);
+        out.writeShort(rms);
+    }
+
+    private final File file;
+    private final long[] levelOffsets;
+    private final int[] levelCounts;
+
+    private PeakIndex(File file, long[] levelOffsets, int[] levelCounts) {
+        this.file = file;
+        this.levelOffsets = levelOffsets;
+        this.levelCounts = levelCounts;
+    }
+
+    /**
+     * Open an index file. Only the header and trailer are read.
+     */
+    public static PeakIndex load(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            if (length < HEADER_SIZE || raf.readInt() != MAGIC) {
+                throw new IOException("Not a peak index: " + file.getName());
+            }
+
+            if (length >= HEADER_SIZE + TRAILER_SIZE) {
+                raf.seek(length - TRAILER_SIZE);
+                int levels = raf.readInt();
+                long tableOffset = raf.readLong();
+                int trailerMagic = raf.readInt();
+                if (trailerMagic == MAGIC && levels > 0 && levels <= 16 && tableOffset < length) {
+                    long[] offsets = new long[levels];
+                    int[] counts = new int[levels];
+                    raf.seek(tableOffset);
+                    for (int level = 0; level < levels; level++) {
+                        offsets[level] = raf.readLong();
+                        counts[level] = raf.readInt();
+                    }
+                    return new PeakIndex(file, offsets, counts);
+                }
+            }
+
+            // No trailer: recording was interrupted, level 0 is still usable
+            int frames = (int) ((length - HEADER_SIZE) / ENTRY_SIZE);
+            return new PeakIndex(file, new long[] { HEADER_SIZE }, new int[] { frames });
+        }
+    }
+
+    public int getLevelCount() {
+        return levelCounts.length;
+    }
+
+    public int getEntryCount(int level) {
+        return levelCounts[level];
+    }
+
+    /**
+     * Peaks covering [fromMs, toMs) at the finest level that yields at most maxPoints entries,
+     * or the coarsest level merged down to maxPoints
+     */
+    public List<Peak> query(long fromMs, long toMs, int maxPoints) throws IOException {
+        maxPoints = Math.max(1, maxPoints);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+
+            int chosenLevel = levelCounts.length - 1;
+            int first = 0;
+            int last = 0;
+            for (int level = 0; level < levelCounts.length; level++) {
+                first = Math.max(0, firstIndexAtOrAfter(channel, level, fromMs) - 1);
+                last = firstIndexAtOrAfter(channel, level, toMs);
+                if (last - first <= maxPoints) {
+                    chosenLevel = level;
+                    break;
+                }
+            }
+            if (chosenLevel == levelCounts.length - 1) {
+                first = Math.max(0, firstIndexAtOrAfter(channel, chosenLevel, fromMs) - 1);
+                last = firstIndexAtOrAfter(channel, chosenLevel, toMs);
+            }
+
+            int count = last - first;
+            int perPoint = (count + maxPoints - 1) / maxPoints;
+            List<Peak> peaks = new ArrayList<>(Math.max(0, (count + perPoint - 1) / perPoint));
+            if (count <= 0) return peaks;
+
+            ByteBuffer block = ByteBuffer.allocate(count * ENTRY_SIZE);
+            readFully(channel, block, levelOffsets[chosenLevel] + (long) first * ENTRY_SIZE);
+            block.flip();
+            while (block.remaining() >= ENTRY_SIZE) {
+                long startMs = block.getInt();
+                short min = block.getShort();
+                short max = block.getShort();
+                short rms = block.getShort();
+                double sumSquares = (double) rms * rms;
+                int merged = 1;
+                for (; merged < perPoint && block.remaining() >= ENTRY_SIZE; merged++) {
+                    block.getInt();
+                    min = (short) Math.min(min, block.getShort());
+                    max = (short) Math.max(max, block.getShort());
+                    short next = block.getShort();
+                    sumSquares += (double) next * next;
+                }
+                if (merged > 1) rms = (short) Math.round(Math.sqrt(sumSquares / merged));
+                peaks.add(new Peak(startMs, min, max, rms));
+            }
+            return peaks;
+        }
+    }
+
+    private int firstIndexAtOrAfter(FileChannel channel, int level, long timeMs) throws IOException {
+        int low = 0;
+        int high = levelCounts[level];
+        ByteBuffer entry = ByteBuffer.allocate(4);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            entry.clear();
+            readFully(channel, entry, levelOffsets[level] + (long) mid * ENTRY_SIZE);
+            entry.flip();
+            if (entry.getInt() < timeMs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Unexpected end of peak index");
+            position += read;
+        }
+    }
+}
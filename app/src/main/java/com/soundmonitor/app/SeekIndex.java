@@ -0,0 +1,226 @@
+package com.soundmonitor.app;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Key frame and event index written alongside each video file (01.mp4 → 01.seek,
+ * FINAL.mp4 → FINAL.seek).
+ *
+ * Features:
+ * 1. One entry per key frame: presentation time, byte offset and size of the sample in the file
+ * 2. Events (triggers) with their time and the key frame to start decoding from
+ * 3. Built from sample tables already in memory when the file is closed (segment describe,
+ *    merger), so no extra container parse or media read
+ * 4. Small enough to load with one read; seeking is a binary search
+ *
+ * File layout (big-endian):
+ *   header     MAGIC, version (short), reserved (short), key frame count (int), event count (int)
+ *   key frames per entry: time ms (int), byte offset (long), sample number (int), size (int)
+ *   events     per entry: time ms (int), duration ms (int), key frame index (int), label (UTF)
+ */
+public class SeekIndex {
+    public static final String FILE_EXTENSION = ".seek";
+
+    private static final int MAGIC = 0x534D534B; // "SMSK"
+    private static final short VERSION = 1;
+    private static final int MAX_FILE_SIZE = 64 * 1024 * 1024;
+
+    public static class KeyFrame {
+        public final long timeMs;
+        public final long offset;
+        public final int sampleNumber; // 1-based, as in 'stss'
+        public final int size;
+
+        public KeyFrame(long timeMs, long offset, int sampleNumber, int size) {
+            this.timeMs = timeMs;
+            this.offset = offset;
+            this.sampleNumber = sampleNumber;
+            this.size = size;
+        }
+    }
+
+    public static class Event {
+        public final long timeMs;
+        public final long durationMs;
+        public final int keyFrameIndex;
+        public final String label;
+
+        public Event(long timeMs, long durationMs, int keyFrameIndex, String label) {
+            this.timeMs = timeMs;
+            this.durationMs = durationMs;
+            this.keyFrameIndex = keyFrameIndex;
+            this.label = label;
+        }
+    }
+
+    private final List<KeyFrame> keyFrames;
+    private final List<Event> events = new ArrayList<>();
+
+    private SeekIndex(List<KeyFrame> keyFrames) {
+        this.keyFrames = keyFrames;
+    }
+
+    public static File indexFileFor(File mediaFile) {
+        String name = mediaFile.getName();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name;
+        return new File(mediaFile.getParentFile(), baseName + FILE_EXTENSION);
+    }
+
+    /**
+     * Key frames of a video track, located by walking its chunk table once
+     */
+    public static SeekIndex build(Mp4TrackTable video) {
+        List<KeyFrame> keyFrames = new ArrayList<>();
+        int[] sync = video.syncSamples;
+        int nextSync = 0;
+        int sample = 0;
+        long decodeTime = 0;
+        int sttsRun = 0;
+        int sttsLeft = video.sttsCounts.length > 0 ? video.sttsCounts[0] : 0;
+        int cttsRun = 0;
+        int cttsLeft = video.cttsCounts != null && video.cttsCounts.length > 0 ? video.cttsCounts[0] : 0;
+        int chunkCount = video.getChunkCount();
+        int sampleCount = video.getSampleCount();
+
+        for (int e = 0; e < video.stscFirstChunk.length; e++) {
+            int endChunk = e + 1 < video.stscFirstChunk.length ? video.stscFirstChunk[e + 1] - 1 : chunkCount;
+            for (int chunk = video.stscFirstChunk[e] - 1; chunk < endChunk; chunk++) {
+                long offset = video.chunkOffsets[chunk];
+                for (int i = 0; i < video.stscSamplesPerChunk[e] && sample < sampleCount; i++, sample++) {
+                    int size = video.sampleSizes[sample];
+                    boolean key = sync == null || (nextSync < sync.length && sync[nextSync] == sample + 1);
+                    if (key) {
+                        long composition = cttsRun < (video.cttsCounts != null ? video.cttsCounts.length : 0)
+                            ? video.cttsOffsets[cttsRun] : 0;
+                        long timeMs = Math.max(0, decodeTime + composition) * 1000 / video.timescale;
+                        keyFrames.add(new KeyFrame(timeMs, offset, sample + 1, size));
+                        if (sync != null) nextSync++;
+                    }
+                    offset += size;
+
+                    // Advance the timing tables by one sample
+                    if (sttsRun < video.sttsCounts.length) {
+                        decodeTime += video.sttsDeltas[sttsRun];
+                        if (--sttsLeft == 0 && ++sttsRun < video.sttsCounts.length) sttsLeft = video.sttsCounts[sttsRun];
+                    }
+                    if (video.cttsCounts != null && cttsRun < video.cttsCounts.length) {
+                        if (--cttsLeft == 0 && ++cttsRun < video.cttsCounts.length) cttsLeft = video.cttsCounts[cttsRun];
+                    }
+                }
+            }
+        }
+        return new SeekIndex(keyFrames);
+    }
+
+    /**
+     * Add an event; it is linked to the key frame at or before its time
+     */
+    public Event addEvent(long timeMs, long durationMs, String label) {
+        Event event = new Event(timeMs, durationMs, keyFrameIndexAt(timeMs), label);
+        events.add(event);
+        return event;
+    }
+
+    /**
+     * Key frame to start decoding from to show timeMs, or null without key frames
+     */
+    public KeyFrame seek(long timeMs) {
+        int index = keyFrameIndexAt(timeMs);
+        return index >= 0 ? keyFrames.get(index) : null;
+    }
+
+    public KeyFrame keyFrameOf(Event event) {
+        return event.keyFrameIndex >= 0 ? keyFrames.get(event.keyFrameIndex) : null;
+    }
+
+    private int keyFrameIndexAt(long timeMs) {
+        if (keyFrames.isEmpty()) return -1;
+        int low = 0;
+        int high = keyFrames.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (keyFrames.get(mid).timeMs <= timeMs) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public List<KeyFrame> getKeyFrames() {
+        return keyFrames;
+    }
+
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    // ---- File ----
+
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeInt(keyFrames.size());
+            out.writeInt(events.size());
+            for (KeyFrame keyFrame : keyFrames) {
+                out.writeInt((int) Math.min(keyFrame.timeMs, Integer.MAX_VALUE));
+                out.writeLong(keyFrame.offset);
+                out.writeInt(keyFrame.sampleNumber);
+                out.writeInt(keyFrame.size);
+            }
+            for (Event event : events) {
+                out.writeInt((int) Math.min(event.timeMs, Integer.MAX_VALUE));
+                out.writeInt((int) Math.min(event.durationMs, Integer.MAX_VALUE));
+                out.writeInt(event.keyFrameIndex);
+                out.writeUTF(event.label);
+            }
+        }
+        if ((file.exists() && !file.delete()) || !tmp.renameTo(file)) {
+            throw new IOException("Cannot move " + tmp.getName() + " to " + file.getName());
+        }
+    }
+
+    /**
+     * Read an index with a single read of the whole file
+     */
+    public static SeekIndex load(File file) throws IOException {
+        byte[] bytes;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() > MAX_FILE_SIZE) throw new IOException("Seek index too large: " + file.getName());
+            bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (bytes.length < 16 || in.readInt() != MAGIC) {
+            throw new IOException("Not a seek index: " + file.getName());
+        }
+        short version = in.readShort();
+        if (version != VERSION) throw new IOException("Unsupported seek index version " + version);
+        in.readShort();
+        int keyFrameCount = in.readInt();
+        int eventCount = in.readInt();
+        List<KeyFrame> keyFrames = new ArrayList<>(keyFrameCount);
+        for (int i = 0; i < keyFrameCount; i++) {
+            keyFrames.add(new KeyFrame(in.readInt(), in.readLong(), in.readInt(), in.readInt()));
+        }
+        SeekIndex index = new SeekIndex(keyFrames);
+        for (int i = 0; i < eventCount; i++) {
+            index.events.add(new Event(in.readInt(), in.readInt(), in.readInt(), in.readUTF()));
+        }
+        return index;
+    }
+}
@@ -0,0 +1,219 @@
+package com.soundmonitor.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-session metadata of closed recordings: size, duration, codec parameters and hash.
+ *
+ * Each file's container is parsed once, when it closes (our own moov parser, not
+ * MediaMetadataRetriever). Reports, manifests, subtitles and the final file's info all read
+ * from here, so finalising a session does no container parsing. An entry is only returned
+ * while the file still has the size and modification time it was described with.
+ */
+public class SegmentMetadataCache {
+
+    public static class Entry {
+        public final String path;
+        public final long sizeBytes;
+        public final long lastModified;
+        public final long durationMs;
+        public final String videoCodec;  // sample entry type ("avc1", "hvc1"), null without video
+        public final int width;
+        public final int height;
+        public final double frameRate;
+        public final String audioCodec;  // sample entry type ("mp4a"), null without audio
+        public final int sampleRate;
+        public final int channels;
+        public final String sha256;      // null until hashed
+
+        public Entry(String path, long sizeBytes, long lastModified, long durationMs, String videoCodec,
+                     int width, int height, double frameRate, String audioCodec, int sampleRate,
+                     int channels, String sha256) {
+            this.path = path;
+            this.sizeBytes = sizeBytes;
+            this.lastModified = lastModified;
+            this.durationMs = durationMs;
+            this.videoCodec = videoCodec;
+            this.width = width;
+            this.height = height;
+            this.frameRate = frameRate;
+            this.audioCodec = audioCodec;
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.sha256 = sha256;
+        }
+
+        /**
+         * Entry with only a duration, for files whose container could not be parsed
+         */
+        public static Entry ofDuration(File file, long durationMs) {
+            return new Entry(file.getAbsolutePath(), file.length(), file.lastModified(), durationMs,
+                null, 0, 0, 0, null, 0, 0, null);
+        }
+
+        Entry withHash(String sha256) {
+            return new Entry(path, sizeBytes, lastModified, durationMs, videoCodec, width, height, frameRate,
+                audioCodec, sampleRate, channels, sha256);
+        }
+
+        /**
+         * Same media description for another file (e.g. a merged or copied final file)
+         */
+        Entry forFile(File file, long durationMs) {
+            return new Entry(file.getAbsolutePath(), file.length(), file.lastModified(), durationMs, videoCodec,
+                width, height, frameRate, audioCodec, sampleRate, channels, null);
+        }
+
+        boolean matches(File file) {
+            return file.length() == sizeBytes && file.lastModified() == lastModified;
+        }
+
+        public String formatCodecs() {
+            StringBuilder codecs = new StringBuilder();
+            if (videoCodec != null) {
+                codecs.append(String.format(Locale.US, "%s %dx%d @ %.1f fps", videoCodec, width, height, frameRate));
+            }
+            if (audioCodec != null) {
+                if (codecs.length() > 0) codecs.append(", ");
+                codecs.append(String.format(Locale.US, "%s %d Hz x%d", audioCodec, sampleRate, channels));
+            }
+            return codecs.length() > 0 ? codecs.toString() : "unknown";
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger probeCount = new AtomicInteger();
+    private final AtomicInteger hashCount = new AtomicInteger();
+
+    /**
+     * Cached entry, or null if the file was never described or has changed since
+     */
+    public Entry get(File file) {
+        Entry entry = entries.get(file.getAbsolutePath());
+        return entry != null && entry.matches(file) ? entry : null;
+    }
+
+    public Entry put(Entry entry) {
+        entries.put(entry.path, entry);
+        return entry;
+    }
+
+    /**
+     * Parse the file's index and cache its description
+     */
+    public Entry probe(File file) throws IOException {
+        return putParsed(file, Mp4Movie.parse(file));
+    }
+
+    /**
+     * Cache the description of a file the caller has just parsed (counts as its probe)
+     */
+    public Entry putParsed(File file, Mp4Movie movie) throws IOException {
+        probeCount.incrementAndGet();
+        return put(describe(file, movie));
+    }
+
+    public Entry getOrProbe(File file) throws IOException {
+        Entry entry = get(file);
+        return entry != null ? entry : probe(file);
+    }
+
+    /**
+     * Record a file's hash; keeps the rest of the entry
+     */
+    public void putHash(File file, String sha256) {
+        hashCount.incrementAndGet();
+        Entry entry = get(file);
+        put(entry != null ? entry.withHash(sha256) : Entry.ofDuration(file, -1).withHash(sha256));
+    }
+
+    /**
+     * Describe a file produced from cached ones (merge, copy) without parsing it
+     */
+    public Entry putDerived(File file, long durationMs, Entry source) {
+        return put(source != null ? source.forFile(file, durationMs) : Entry.ofDuration(file, durationMs));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /** Number of container parses so far */
+    public int getProbeCount() {
+        return probeCount.get();
+    }
+
+    /** Number of hashes recorded so far */
+    public int getHashCount() {
+        return hashCount.get();
+    }
+
+    public void clear() {
+        entries.clear();
+        probeCount.set(0);
+        hashCount.set(0);
+    }
+
+    public String formatStats() {
+        return entries.size() + " files, " + probeCount.get() + " container parses, " + hashCount.get() + " hashes";
+    }
+
+    static Entry describe(File file, Mp4Movie movie) throws IOException {
+        long durationMs = movie.getDurationMs();
+        if (durationMs == 0 && Mp4Box.find(movie.topLevelBoxes, "moof") != null) {
+            durationMs = fragmentedDurationMs(file);
+        }
+
+        String videoCodec = null;
+        int width = 0;
+        int height = 0;
+        double frameRate = 0;
+        Mp4TrackTable video = movie.getTrack(Mp4TrackTable.HANDLER_VIDEO);
+        if (video != null && video.sampleEntries.length > 0) {
+            videoCodec = entryType(video.sampleEntries[0]);
+            width = video.width >>> 16;
+            height = video.height >>> 16;
+            long ticks = video.getMediaDuration();
+            frameRate = ticks > 0 ? video.getSampleCount() * (double) video.timescale / ticks : 0;
+        }
+
+        String audioCodec = null;
+        int sampleRate = 0;
+        int channels = 0;
+        Mp4TrackTable audio = movie.getTrack(Mp4TrackTable.HANDLER_SOUND);
+        if (audio != null && audio.sampleEntries.length > 0) {
+            byte[] entry = audio.sampleEntries[0];
+            audioCodec = entryType(entry);
+            // AudioSampleEntry: channelcount at 24, samplerate (16.16) at 32
+            if (entry.length >= 36) {
+                ByteBuffer buffer = ByteBuffer.wrap(entry);
+                channels = buffer.getShort(24) & 0xFFFF;
+                sampleRate = buffer.getInt(32) >>> 16;
+            }
+            if (sampleRate == 0) sampleRate = (int) audio.timescale;
+        }
+
+        return new Entry(file.getAbsolutePath(), movie.fileSize, file.lastModified(), durationMs, videoCodec,
+            width, height, frameRate, audioCodec, sampleRate, channels, null);
+    }
+
+    private static long fragmentedDurationMs(File file) throws IOException {
+        FragmentedMp4Writer.ScanResult scan = FragmentedMp4Writer.scan(file);
+        if (scan.init.tracks.isEmpty()) return 0;
+        long ticks = 0;
+        for (FragmentedMp4Writer.FragmentInfo fragment : scan.fragments) {
+            ticks += fragment.durations[0];
+        }
+        return ticks * 1000 / scan.init.tracks.get(0).timescale;
+    }
+
+    private static String entryType(byte[] sampleEntry) {
+        return Mp4Box.typeString(ByteBuffer.wrap(sampleEntry).getInt(4));
+    }
+}
@@ -0,0 +1,469 @@
+package com.soundmonitor.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary manifest of everything a session folder contains, plus a top-level
+ * index of all sessions, so browsing/exporting/verifying reads one small file instead
+ * of listing folders and guessing from file names.
+ *
+ * Features:
+ * 1. Per-file name, kind, size, duration, SHA-256 and modification time
+ * 2. Session event summary (count, peak dB, loud time)
+ * 3. Atomic updates: written to a temp file, synced, then renamed over the old one
+ * 4. CRC32 trailer so a damaged manifest is detected instead of half-read
+ * 5. Append-only journal for changes during a session, so recording the 5,000th segment costs
+ *    one small synced append instead of rewriting every entry; save() folds it back in
+ *
+ * Manifest layout (big-endian, DataOutputStream):
+ *   MAGIC, version (short), session name, mode, start/end time, event summary,
+ *   file count, per file: name, kind (byte), size, duration, sha256, modified
+ *   CRC32 of everything before it (int)
+ *
+ * Journal layout (session.manifest.journal), one record per saveIncremental():
+ *   record length (int), then: CRC32 of the manifest it extends (int), end time, event summary,
+ *   changed file count, per file as above; then CRC32 of the record (int).
+ *   Replay stops at a torn or damaged record; records for another manifest version are ignored.
+ */
+public class SessionManifest {
+    public static final String FILE_NAME = "session.manifest";
+    public static final String INDEX_FILE_NAME = "sessions.index";
+    public static final String JOURNAL_FILE_NAME = "session.manifest.journal";
+
+    private static final int MAGIC = 0x534D4D46;       // "SMMF"
+    private static final int INDEX_MAGIC = 0x534D4958; // "SMIX"
+    private static final short VERSION = 1;
+
+    public static final int KIND_OTHER = 0;
+    public static final int KIND_SEGMENT = 1;
+    public static final int KIND_FINAL = 2;
+    public static final int KIND_AUDIO = 3;
+    public static final int KIND_SUBTITLE = 4;
+    public static final int KIND_INFO = 5;
+    public static final int KIND_TIMESTAMP = 6;
+    public static final int KIND_PEAKS = 7;
+    public static final int KIND_REPORT = 8;
+
+    public static class FileEntry {
+        public final String name;
+        public final int kind;
+        public final long sizeBytes;
+        public final long durationMs; // -1 when not a media file or unknown
+        public final String sha256;   // null until hashed
+        public final long lastModified;
+
+        public FileEntry(String name, int kind, long sizeBytes, long durationMs, String sha256, long lastModified) {
+            this.name = name;
+            this.kind = kind;
+            this.sizeBytes = sizeBytes;
+            this.durationMs = durationMs;
+            this.sha256 = sha256;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * One row of the top-level sessions index
+     */
+    public static class IndexEntry {
+        public final String name;
+        public final String mode;
+        public final long startTime;
+        public final long endTime;
+        public final int fileCount;
+        public final long totalBytes;
+        public final int eventCount;
+        public final double peakDb;
+
+        public IndexEntry(String name, String mode, long startTime, long endTime, int fileCount,
+                          long totalBytes, int eventCount, double peakDb) {
+            this.name = name;
+            this.mode = mode;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.fileCount = fileCount;
+            this.totalBytes = totalBytes;
+            this.eventCount = eventCount;
+            this.peakDb = peakDb;
+        }
+    }
+
+    private final String sessionName;
+    private final String mode;
+    private final long startTime;
+    private long endTime = 0;
+    private int eventCount = 0;
+    private double peakDb = 0;
+    private long loudMs = 0;
+    private final Map<String, FileEntry> files = new LinkedHashMap<>();
+    private final Set<String> unsaved = new LinkedHashSet<>(); // changed since the last save/journal append
+    private int baseCrc = 0;                                    // trailer of the manifest file on disk
+
+    public SessionManifest(String sessionName, String mode, long startTime) {
+        this.sessionName = sessionName;
+        this.mode = mode;
+        this.startTime = startTime;
+    }
+
+    public static File manifestFileFor(File sessionFolder) {
+        return new File(sessionFolder, FILE_NAME);
+    }
+
+    public static File journalFileFor(File sessionFolder) {
+        return new File(sessionFolder, JOURNAL_FILE_NAME);
+    }
+
+    /**
+     * Kind of a session file, from the names the service gives them
+     */
+    public static int kindFor(String name) {
+        if (name.startsWith("FINAL") && name.endsWith(".mp4")) return KIND_FINAL;
+        if (name.endsWith(".mp4")) return KIND_SEGMENT;
+        if (name.endsWith(".m4a")) return KIND_AUDIO;
+        if (name.endsWith(".srt")) return KIND_SUBTITLE;
+        if (name.endsWith("_timestamp.txt")) return KIND_TIMESTAMP;
+        if (name.endsWith(PeakIndex.FILE_EXTENSION)) return KIND_PEAKS;
+        if (name.equals(NoiseReport.REPORT_FILE_NAME) || name.equals("threshold_exceedances.txt")) return KIND_REPORT;
+        if (name.endsWith(".txt")) return KIND_INFO;
+        return KIND_OTHER;
+    }
+
+    /**
+     * Add or replace the entry for a file. A known hash is kept if the file is unchanged. The
+     * size recorded is the plaintext size of a file encrypted at rest, which its hash covers.
+     */
+    public FileEntry putFile(File file, long durationMs, String sha256) {
+        FileEntry previous = files.get(file.getName());
+        long sizeBytes = EncryptedFileChannel.plaintextLength(file);
+        if (sha256 == null && previous != null && previous.sizeBytes == sizeBytes
+                && previous.lastModified == file.lastModified()) {
+            sha256 = previous.sha256;
+        }
+        if (durationMs < 0 && previous != null) {
+            durationMs = previous.durationMs;
+        }
+        FileEntry entry = new FileEntry(file.getName(), kindFor(file.getName()), sizeBytes,
+            durationMs, sha256, file.lastModified());
+        files.put(entry.name, entry);
+        unsaved.add(entry.name);
+        return entry;
+    }
+
+    public FileEntry getFile(String name) {
+        return files.get(name);
+    }
+
+    public List<FileEntry> getFiles() {
+        return new ArrayList<>(files.values());
+    }
+
+    public List<FileEntry> getFiles(int kind) {
+        List<FileEntry> result = new ArrayList<>();
+        for (FileEntry entry : files.values()) {
+            if (entry.kind == kind) result.add(entry);
+        }
+        return result;
+    }
+
+    public long getTotalBytes() {
+        long total = 0;
+        for (FileEntry entry : files.values()) {
+            total += entry.sizeBytes;
+        }
+        return total;
+    }
+
+    public void setEndTime(long endTime) {
+        this.endTime = endTime;
+    }
+
+    public void setEventSummary(int eventCount, double peakDb, long loudMs) {
+        this.eventCount = eventCount;
+        this.peakDb = peakDb;
+        this.loudMs = loudMs;
+    }
+
+    public String getSessionName() { return sessionName; }
+    public String getMode() { return mode; }
+    public long getStartTime() { return startTime; }
+    public long getEndTime() { return endTime; }
+    public int getEventCount() { return eventCount; }
+    public double getPeakDb() { return peakDb; }
+    public long getLoudMs() { return loudMs; }
+
+    public IndexEntry toIndexEntry() {
+        return new IndexEntry(sessionName, mode, startTime, endTime, files.size(), getTotalBytes(), eventCount, peakDb);
+    }
+
+    // ---- Persistence ----
+
+    public void save(File sessionFolder) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + files.size() * 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeUTF(sessionName);
+        out.writeUTF(mode);
+        out.writeLong(startTime);
+        out.writeLong(endTime);
+        out.writeInt(eventCount);
+        out.writeDouble(peakDb);
+        out.writeLong(loudMs);
+        out.writeInt(files.size());
+        for (FileEntry entry : files.values()) {
+            writeEntry(out, entry);
+        }
+        baseCrc = writeAtomically(manifestFileFor(sessionFolder), bytes.toByteArray());
+        unsaved.clear();
+        File journal = journalFileFor(sessionFolder);
+        if (journal.exists() && !journal.delete()) {
+            throw new IOException("Could not delete " + journal.getName());
+        }
+    }
+
+    /**
+     * Persist only what changed since the last save: the changed entries and the event summary
+     * are appended to the journal with one synced write. Writes a full manifest instead if
+     * there is none on disk yet.
+     */
+    public void saveIncremental(File sessionFolder) throws IOException {
+        if (!manifestFileFor(sessionFolder).exists() || baseCrc == 0) {
+            save(sessionFolder);
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + unsaved.size() * 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(baseCrc);
+        out.writeLong(endTime);
+        out.writeInt(eventCount);
+        out.writeDouble(peakDb);
+        out.writeLong(loudMs);
+        out.writeInt(unsaved.size());
+        for (String name : unsaved) {
+            writeEntry(out, files.get(name));
+        }
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+
+        try (FileOutputStream fos = new FileOutputStream(journalFileFor(sessionFolder), true)) {
+            DataOutputStream journal = new DataOutputStream(new BufferedOutputStream(fos));
+            journal.writeInt(record.length);
+            journal.write(record);
+            journal.writeInt((int) crc.getValue());
+            journal.flush();
+            fos.getFD().sync();
+        }
+        unsaved.clear();
+    }
+
+    private static void writeEntry(DataOutputStream out, FileEntry entry) throws IOException {
+        out.writeUTF(entry.name);
+        out.writeByte(entry.kind);
+        out.writeLong(entry.sizeBytes);
+        out.writeLong(entry.durationMs);
+        out.writeUTF(entry.sha256 != null ? entry.sha256 : "");
+        out.writeLong(entry.lastModified);
+    }
+
+    private static FileEntry readEntry(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        int kind = in.readByte();
+        long size = in.readLong();
+        long duration = in.readLong();
+        String sha256 = in.readUTF();
+        long modified = in.readLong();
+        return new FileEntry(name, kind, size, duration, sha256.isEmpty() ? null : sha256, modified);
+    }
+
+    /**
+     * Read a session's manifest, or null if the session has none (recorded before manifests existed)
+     */
+    public static SessionManifest load(File sessionFolder) throws IOException {
+        File file = manifestFileFor(sessionFolder);
+        if (!file.exists()) return null;
+
+        DataInputStream in = openChecked(file, MAGIC);
+        SessionManifest manifest;
+        try {
+            manifest = new SessionManifest(in.readUTF(), in.readUTF(), in.readLong());
+            manifest.endTime = in.readLong();
+            manifest.eventCount = in.readInt();
+            manifest.peakDb = in.readDouble();
+            manifest.loudMs = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                FileEntry entry = readEntry(in);
+                manifest.files.put(entry.name, entry);
+            }
+        } finally {
+            in.close();
+        }
+        manifest.baseCrc = readTrailer(file);
+        manifest.replayJournal(journalFileFor(sessionFolder));
+        return manifest;
+    }
+
+    /**
+     * Apply the journal records written against this manifest, up to the first torn or damaged one
+     */
+    private void replayJournal(File journal) throws IOException {
+        if (!journal.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal), 64 * 1024))) {
+            long remaining = journal.length();
+            while (remaining >= 8) {
+                int length = in.readInt();
+                if (length < 36 || length > remaining - 8) return;
+                byte[] record = new byte[length];
+                in.readFully(record);
+                int stored = in.readInt();
+                remaining -= 8 + length;
+                CRC32 crc = new CRC32();
+                crc.update(record, 0, length);
+                if ((int) crc.getValue() != stored) return;
+
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record));
+                if (fields.readInt() != baseCrc) continue; // left over from before the last save
+                endTime = fields.readLong();
+                eventCount = fields.readInt();
+                peakDb = fields.readDouble();
+                loudMs = fields.readLong();
+                int count = fields.readInt();
+                for (int i = 0; i < count; i++) {
+                    FileEntry entry = readEntry(fields);
+                    files.put(entry.name, entry);
+                }
+            }
+        }
+    }
+
+    private static int readTrailer(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(raf.length() - 4);
+            return raf.readInt();
+        }
+    }
+
+    /**
+     * Insert or replace this session's row in the top-level index (keyed by name and start time)
+     */
+    public static synchronized void updateIndex(File baseDir, IndexEntry entry) throws IOException {
+        List<IndexEntry> entries = readIndex(baseDir);
+        boolean replaced = false;
+        for (int i = 0; i < entries.size(); i++) {
+            IndexEntry existing = entries.get(i);
+            if (existing.name.equals(entry.name) && existing.startTime == entry.startTime) {
+                entries.set(i, entry);
+                replaced = true;
+                break;
+            }
+        }
+        if (!replaced) entries.add(entry);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + entries.size() * 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(INDEX_MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(entries.size());
+        for (IndexEntry e : entries) {
+            out.writeUTF(e.name);
+            out.writeUTF(e.mode);
+            out.writeLong(e.startTime);
+            out.writeLong(e.endTime);
+            out.writeInt(e.fileCount);
+            out.writeLong(e.totalBytes);
+            out.writeInt(e.eventCount);
+            out.writeDouble(e.peakDb);
+        }
+        writeAtomically(new File(baseDir, INDEX_FILE_NAME), bytes.toByteArray());
+    }
+
+    /**
+     * All indexed sessions in the order they were first added (oldest first)
+     */
+    public static List<IndexEntry> readIndex(File baseDir) throws IOException {
+        List<IndexEntry> entries = new ArrayList<>();
+        File file = new File(baseDir, INDEX_FILE_NAME);
+        if (!file.exists()) return entries;
+
+        DataInputStream in = openChecked(file, INDEX_MAGIC);
+        try {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                entries.add(new IndexEntry(in.readUTF(), in.readUTF(), in.readLong(), in.readLong(),
+                    in.readInt(), in.readLong(), in.readInt(), in.readDouble()));
+            }
+        } finally {
+            in.close();
+        }
+        return entries;
+    }
+
+    private static int writeAtomically(File target, byte[] content) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+
+        File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.write(content);
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            fos.getFD().sync();
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Could not replace " + target.getName());
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Verify the CRC trailer and magic, then return a stream positioned after the version
+     */
+    private static DataInputStream openChecked(File file, int magic) throws IOException {
+        long length = file.length();
+        if (length < 10 || length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid size for " + file.getName() + ": " + length);
+        }
+        byte[] content = new byte[(int) length];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            in.readFully(content);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length - 4);
+        int stored = ((content[content.length - 4] & 0xFF) << 24) | ((content[content.length - 3] & 0xFF) << 16)
+            | ((content[content.length - 2] & 0xFF) << 8) | (content[content.length - 1] & 0xFF);
+        if ((int) crc.getValue() != stored) {
+            throw new IOException("Checksum mismatch in " + file.getName());
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, 0, content.length - 4));
+        if (in.readInt() != magic) {
+            throw new IOException("Not a session manifest: " + file.getName());
+        }
+        short version = in.readShort();
+        if (version > VERSION) {
+            throw new IOException("Unsupported manifest version " + version + " in " + file.getName());
+        }
+        return in;
+    }
+}
@@ -0,0 +1,360 @@
+package com.soundmonitor.app;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Incremental merge of a session's segments into size-limited volumes: FINAL.mp4, then
+ * FINAL_002.mp4, FINAL_003.mp4, ... once a volume is full.
+ *
+ * Features:
+ * 1. A volume is closed as soon as the next segment would take it past the size limit
+ * 2. On close its index is written and its seek index (chapters as events) and SRT are
+ *    streamed next to it (FINAL_002.seek, FINAL_002_SUB.srt)
+ * 3. The closed volume's sample tables and cues are then released, so memory and the work left
+ *    for the end of the session are bounded by one volume, however long the session runs
+ * 4. Each volume is written as NAME.mp4.part and only renamed once finished
+ * 5. With an EvidenceHasher set, each volume is hashed while it is written and its digests are
+ *    memoised when it closes, so closing a volume never reads it back
+ * 6. Each closed volume is logged with its last segment (FINAL.volumes), so resume() can carry
+ *    on after a crash from the first segment not yet in a volume
+ *
+ * Usage: append(segment) per closed segment, adding its cues to getSubtitles()/getChapters() at
+ * the returned offset; finish() when the session ends. Not thread-safe: use from one thread.
+ */
+public class SessionVolumeWriter implements Closeable {
+    public static final String BASE_NAME = "FINAL";
+    public static final String PART_SUFFIX = ".part";
+    public static final String SUBTITLE_SUFFIX = "_SUB.srt";
+    /** One "volume TAB last segment" line per closed volume; a line without its newline is torn */
+    public static final String LOG_FILE_NAME = BASE_NAME + ".volumes";
+    /** Under 2 GiB, so every volume fits FAT32 cards and players with 32-bit size fields */
+    public static final long DEFAULT_VOLUME_LIMIT_BYTES = 2000L * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public interface Listener {
+        /** Called on the appending thread once a volume and its companion files are in place */
+        void onVolumeClosed(Volume volume);
+    }
+
+    public static class Volume {
+        public final int number;
+        public final File file;
+        public final int segmentCount;
+        public final long durationMs;
+        public final long sizeBytes;
+        public final int cueCount;
+        public final int chapterCount;
+        public final long closeMs;
+        public final Mp4Merger.Result result;
+        public final EvidenceHasher.Digests digests; // hashed while written, null if not
+
+        public Volume(int number, File file, int segmentCount, long durationMs, long sizeBytes, int cueCount,
+                      int chapterCount, long closeMs, Mp4Merger.Result result, EvidenceHasher.Digests digests) {
+            this.number = number;
+            this.file = file;
+            this.segmentCount = segmentCount;
+            this.durationMs = durationMs;
+            this.sizeBytes = sizeBytes;
+            this.cueCount = cueCount;
+            this.chapterCount = chapterCount;
+            this.closeMs = closeMs;
+            this.result = result;
+            this.digests = digests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "volume %d (%s): %d segments, %.1f s, %d bytes, %d cues, %d chapters, closed in %d ms",
+                number, file.getName(), segmentCount, durationMs / 1000.0, sizeBytes, cueCount, chapterCount, closeMs);
+        }
+    }
+
+    private final File folder;
+    private final long volumeLimitBytes;
+    private final Listener listener;
+    private final List<Volume> volumes = new ArrayList<>();
+    private Mp4Merger merger;
+    private TimedTextTrack subtitles;
+    private TimedTextTrack chapters;
+    private int segmentCount = 0;
+    private long closedDurationMs = 0;
+    private EvidenceHasher hasher;
+    private String[] digestSeeds = new String[0];
+    private EvidenceHasher.Running digest;
+    private int firstNumber = 1;
+    private String lastSegment;     // last segment appended to the open volume
+    private final List<File> resumedVolumes = new ArrayList<>();
+    private String resumedAfter;
+
+    public SessionVolumeWriter(File folder, long volumeLimitBytes, Listener listener) {
+        this.folder = folder;
+        this.volumeLimitBytes = volumeLimitBytes;
+        this.listener = listener;
+    }
+
+    /**
+     * Continue the merge of an interrupted session. Volumes in the log that are still there are
+     * kept and numbering carries on after them. Stale NAME.mp4.part files are deleted: a volume's
+     * index is only written when it closes, so a partial volume cannot be finished, and its
+     * segments are merged again. Segments up to getResumedAfter() are already in a volume.
+     */
+    public static SessionVolumeWriter resume(File folder, long volumeLimitBytes, Listener listener) throws IOException {
+        SessionVolumeWriter writer = new SessionVolumeWriter(folder, volumeLimitBytes, listener);
+        StringBuilder kept = new StringBuilder();
+        for (String[] entry : readLog(folder)) {
+            File volume = new File(folder, entry[0]);
+            if (!volume.equals(volumeFile(folder, writer.resumedVolumes.size() + 1)) || !volume.exists()) break;
+            writer.resumedVolumes.add(volume);
+            writer.resumedAfter = entry[1];
+            kept.append(entry[0]).append('\t').append(entry[1]).append('\n');
+        }
+        writer.firstNumber = writer.resumedVolumes.size() + 1;
+        if (logFileFor(folder).exists()) {
+            // Drop a torn or stale tail, so the next volume's line starts on a line of its own
+            writeLog(folder, kept.toString(), false);
+        }
+        File[] parts = folder.listFiles((dir, name) -> name.startsWith(BASE_NAME) && name.endsWith(".mp4" + PART_SUFFIX));
+        if (parts != null) {
+            for (File part : parts) {
+                if (!part.delete()) throw new IOException("Could not delete " + part.getName());
+            }
+        }
+        return writer;
+    }
+
+    public static File logFileFor(File folder) {
+        return new File(folder, LOG_FILE_NAME);
+    }
+
+    /** Volumes a resumed writer found closed, in order; empty for a new session */
+    public List<File> getResumedVolumes() {
+        return resumedVolumes;
+    }
+
+    /** Name of the last segment in the resumed volumes, null if none */
+    public String getResumedAfter() {
+        return resumedAfter;
+    }
+
+    /**
+     * Hash volumes while they are written (plain SHA-256 and one seeded digest per seed). Applies
+     * to volumes opened from now on; the open volume keeps the seeds it was started with.
+     */
+    public void setEvidenceHasher(EvidenceHasher hasher, String... seeds) {
+        this.hasher = hasher;
+        this.digestSeeds = seeds;
+    }
+
+    /**
+     * FINAL.mp4 for the first volume, FINAL_002.mp4 onwards for the rest
+     */
+    public static File volumeFile(File folder, int number) {
+        String name = number <= 1 ? BASE_NAME : String.format(Locale.US, "%s_%03d", BASE_NAME, number);
+        return new File(folder, name + ".mp4");
+    }
+
+    /**
+     * Companion of a volume: companionFile(FINAL_002.mp4, "_SUB.srt") is FINAL_002_SUB.srt
+     */
+    public static File companionFile(File volume, String suffix) {
+        String name = volume.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(volume.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + suffix);
+    }
+
+    /**
+     * Append a closed segment, first closing the current volume if the segment would not fit.
+     * Returns where the segment starts on its volume's timeline. A rejected segment
+     * (Mp4Merger.SegmentRejectedException) leaves the volume unchanged.
+     */
+    public long append(File segment) throws IOException {
+        if (merger != null && merger.getSegmentCount() > 0
+                && merger.getBytesWritten() + segment.length() > volumeLimitBytes) {
+            closeVolume();
+        }
+        if (merger == null) {
+            openVolume();
+        }
+        long offsetMs = merger.getDurationMs();
+        merger.append(segment);
+        segmentCount++;
+        lastSegment = segment.getName();
+        return offsetMs;
+    }
+
+    /** Subtitle cues of the open volume, on its timeline */
+    public TimedTextTrack getSubtitles() {
+        return subtitles;
+    }
+
+    /** Chapter cues of the open volume, on its timeline */
+    public TimedTextTrack getChapters() {
+        return chapters;
+    }
+
+    /** End of the open volume's timeline */
+    public long getDurationMs() {
+        return merger != null ? merger.getDurationMs() : 0;
+    }
+
+    /** Duration of the whole session so far, over all volumes */
+    public long getTotalDurationMs() {
+        return closedDurationMs + getDurationMs();
+    }
+
+    public long getBytesWritten() {
+        return merger != null ? merger.getBytesWritten() : 0;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /** Volumes closed so far, in order */
+    public List<Volume> getVolumes() {
+        return volumes;
+    }
+
+    /**
+     * Close the open volume, if it has any segment, and return all volumes of the session
+     */
+    public List<Volume> finish() throws IOException {
+        if (merger != null && merger.getSegmentCount() > 0) {
+            closeVolume();
+        } else {
+            discardOpenVolume();
+        }
+        return volumes;
+    }
+
+    /**
+     * Drop the open volume's partial file; closed volumes are kept
+     */
+    @Override
+    public void close() throws IOException {
+        discardOpenVolume();
+    }
+
+    private void openVolume() throws IOException {
+        File part = new File(folder, volumeFile(folder, firstNumber + volumes.size()).getName() + PART_SUFFIX);
+        merger = Mp4Merger.open(part);
+        if (hasher != null) {
+            digest = new EvidenceHasher.Running(digestSeeds);
+            merger.setDigest(digest);
+        }
+        subtitles = TimedTextTrack.subtitles();
+        chapters = TimedTextTrack.chapters();
+        merger.addTextTrack(subtitles);
+        merger.addTextTrack(chapters);
+    }
+
+    private void closeVolume() throws IOException {
+        long start = System.currentTimeMillis();
+        int number = firstNumber + volumes.size();
+        File file = volumeFile(folder, number);
+        Mp4Merger.Result result = merger.finish();
+        File part = merger.getOutput();
+        if ((file.exists() && !file.delete()) || !part.renameTo(file)) {
+            throw new IOException("Cannot move " + part.getName() + " to " + file.getName());
+        }
+        EvidenceHasher.Digests digests = null;
+        if (digest != null) {
+            try {
+                digests = hasher.put(digest.finish(file));
+            } catch (IOException e) {
+                // Not every byte went through the digest; the volume is hashed from the file instead
+            }
+            digest = null;
+        }
+        writeSeekIndex(merger, file, chapters);
+        writeSrt(subtitles, companionFile(file, SUBTITLE_SUFFIX));
+        logVolume(number, file.getName(), lastSegment);
+
+        Volume volume = new Volume(number, file, result.segmentCount, result.durationMs, file.length(),
+            subtitles.getCueCount(), chapters.getCueCount(), System.currentTimeMillis() - start, result, digests);
+        volumes.add(volume);
+        closedDurationMs += result.durationMs;
+        merger = null;
+        subtitles = null;
+        chapters = null;
+        if (listener != null) {
+            listener.onVolumeClosed(volume);
+        }
+    }
+
+    private void discardOpenVolume() throws IOException {
+        Mp4Merger open = merger;
+        merger = null;
+        digest = null;
+        subtitles = null;
+        chapters = null;
+        if (open == null) return;
+        open.close();
+        if (open.getOutput().exists() && !open.getOutput().delete()) {
+            throw new IOException("Could not delete " + open.getOutput().getName());
+        }
+    }
+
+    // The first volume starts the log again, so a full merge after an incremental one leaves no stale lines
+    private void logVolume(int number, String volumeName, String segmentName) throws IOException {
+        writeLog(folder, volumeName + "\t" + segmentName + "\n", number > 1);
+    }
+
+    private static void writeLog(File folder, String lines, boolean append) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(logFileFor(folder), append)) {
+            out.write(lines.getBytes(UTF_8));
+            out.getFD().sync();
+        }
+    }
+
+    private static List<String[]> readLog(File folder) throws IOException {
+        List<String[]> entries = new ArrayList<>();
+        File log = logFileFor(folder);
+        if (!log.exists()) return entries;
+        byte[] bytes;
+        try (RandomAccessFile raf = new RandomAccessFile(log, "r")) {
+            bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+        }
+        String text = new String(bytes, UTF_8);
+        for (String line : text.substring(0, text.lastIndexOf('\n') + 1).split("\n")) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 2) break;
+            entries.add(fields);
+        }
+        return entries;
+    }
+
+    /**
+     * Seek index of a merged file from the merger's tables; chapters become its events
+     */
+    static void writeSeekIndex(Mp4Merger merger, File mergedFile, TimedTextTrack chapters) throws IOException {
+        Mp4TrackTable video = merger.getTrackTable(Mp4TrackTable.HANDLER_VIDEO);
+        if (video == null) return;
+        SeekIndex index = SeekIndex.build(video);
+        if (chapters != null) {
+            for (TimedTextTrack.Cue cue : chapters.getCues()) {
+                index.addEvent(cue.startMs, cue.endMs - cue.startMs, cue.text);
+            }
+        }
+        index.save(SeekIndex.indexFileFor(mergedFile));
+    }
+
+    static void writeSrt(TimedTextTrack text, File file) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF_8), 64 * 1024)) {
+            text.writeSrt(out);
+        }
+    }
+}
@@ -18,6 +18,9 @@ import android.os.Environment;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -28,16 +31,30 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.net.Uri;
 import android.provider.MediaStore;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.KeyPair;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -52,7 +69,8 @@ import android.media.MediaMuxer;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
 import java.nio.ByteBuffer;
-import java.security.MessageDigest;
+import java.nio.channels.FileChannel;
+import javax.crypto.SecretKey;
 
 public class SoundMonitorService extends Service {
     private static final String TAG = "SoundMonitorService";
@@ -83,7 +101,10 @@ public class SoundMonitorService extends Service {
     private boolean isMonitoring = false;
     private boolean isDbMonitoring = false; // Separate flag for dB monitoring
     private boolean isRecording = false;
+    // From session start until its files are finalised; background re-verification waits meanwhile
+    private static volatile boolean sessionActive = false;
     private boolean isAudioOnlyMode = false;
+    private boolean encryptAtRest = false; // fragmented audio encrypted as written (EncryptedFileChannel)
     private int soundThreshold = 50;
     private int stopTimeoutSeconds = 5; // Default 5 seconds
     private int selectedCameraId = 0; // Default to rear camera (0), front camera is usually 1
@@ -95,13 +116,101 @@ public class SoundMonitorService extends Service {
     private HybridTimestampService.RecordingProof currentRecordingProof;
     private String sessionTimestamp = "";
     private File sessionFolder = null;
-    private List<String> recordingSegments = new ArrayList<>();
+    private int sessionSegmentCount = 0;              // the segments themselves are in the session manifest
+    private volatile String firstSegmentPath = null;  // codec parameters for the final files' metadata
     private int segmentCounter = 0;
     
     // Audio-only mode variables
     private List<Long> thresholdExceedanceTimes = new ArrayList<>();
     private long audioRecordingStartTime = 0;
     
+    // Crash-safe audio-only recording (fragmented MP4); MediaRecorder is the fallback
+    private FragmentedAudioRecorder fragmentedAudioRecorder;
+    private long fragmentDurationMs = FragmentedMp4Writer.DEFAULT_FRAGMENT_DURATION_MS;
+    private String lastFragmentStats = null;
+    
+    // Peak/level overview index written alongside the current recording
+    private volatile PeakIndex.Writer peakIndexWriter;
+    private long peakIndexStartTime = 0;
+    private String lastPeakIndexStats = null;
+    
+    // Long-term dB level history (raw frames + 1s/1min/1h rollups)
+    private volatile LevelHistoryStore levelHistory;
+    
+    // Cross-session index of sessions, segments and events
+    private EventIndexDatabase eventIndex;
+    private long sessionStartMillis = 0;
+    private long segmentStartMillis = 0;
+    private double segmentPeakDb = 0;
+    private double triggerPeakDb = 0;
+    private int sessionEventCount = 0;
+    private double sessionPeakDb = 0;
+    private long sessionLoudMs = 0;
+    
+    // Session manifest (files, sizes, durations, hashes), only touched on manifestExecutor
+    private SessionManifest sessionManifest;
+    private final ExecutorService manifestExecutor = Executors.newSingleThreadExecutor();
+    // Duration, codec parameters and hash of each closed file, captured once per session
+    private final SegmentMetadataCache segmentMetadata = new SegmentMetadataCache();
+    // Plain and seeded SHA-256 of evidence files, all from one read per file - or none, for
+    // files we write ourselves (volumes, fragmented audio), which are hashed as they are written
+    private final EvidenceHasher evidenceHasher = new EvidenceHasher();
+    // Recording proofs of this session by hash seed: a volume's timestamp file uses the proof
+    // whose seed it was hashed with while written
+    private final Map<String, HybridTimestampService.RecordingProof> recordingProofs = new ConcurrentHashMap<>();
+    // Hash chain of the session's segments, final files, clips, exports and stop (session.evidence)
+    private volatile EvidenceJournal evidenceJournal;
+    // Signs the session's digests a batch at a time with the device key (session.signatures);
+    // guarded by evidenceJournalLock like the journal
+    private BatchSigner batchSigner;
+    private BatchTimestamps batchTimestamps;
+    private final Object evidenceJournalLock = new Object();
+    // RFC 3161 tokens for signed batch roots, one round trip per batch, off manifestExecutor
+    private final TsaClient tsaClient = new TsaClient(TsaClient.DEFAULT_SERVERS, TsaClient.DEFAULT_TIMEOUT_MS);
+    // Tokens that arrive after the session's manifest was written re-save it (refreshFinishedManifest)
+    private final ExecutorService timestampExecutor = Executors.newSingleThreadExecutor();
+    
+    // Incremental merge: each closed segment is appended to the session's final file in the
+    // background, so ending a session only writes the combined index. Long sessions are split
+    // into volumes (FINAL.mp4, FINAL_002.mp4, ...) so no file or in-memory index grows unbounded.
+    private final ExecutorService mergeExecutor = Executors.newSingleThreadExecutor();
+    private SessionVolumeWriter sessionVolumes; // only touched on mergeExecutor
+    private long volumeLimitBytes = SessionVolumeWriter.DEFAULT_VOLUME_LIMIT_BYTES;
+    private volatile boolean incrementalMergeFailed = false;
+    // Downloads gets FINAL_streaming.mp4 next to FINAL.mp4: same recording, index in front
+    private static final String STREAMING_COPY_SUFFIX = "_streaming";
+    private boolean sessionFinishing = false; // capture stopped, session being saved on mergeExecutor
+    private String lastMergeStats = null;
+    
+    // Timed text embedded in each volume: per-second verified time + level, chapter per trigger
+    private volatile long networkTimeOffsetMs = 0; // verified network time minus device clock
+    private final Map<String, SegmentTiming> segmentTimings = new ConcurrentHashMap<>();
+    
+    private static class SegmentTiming {
+        final int segmentNumber;
+        final long deviceStartMs;
+        final long networkTimeOffsetMs;
+        final double peakDb;
+        
+        SegmentTiming(int segmentNumber, long deviceStartMs, long networkTimeOffsetMs, double peakDb) {
+            this.segmentNumber = segmentNumber;
+            this.deviceStartMs = deviceStartMs;
+            this.networkTimeOffsetMs = networkTimeOffsetMs;
+            this.peakDb = peakDb;
+        }
+        
+        String triggerLabel() {
+            return String.format(Locale.US, "Trigger %d - %s - peak %.1f dB", segmentNumber,
+                TimestampUtils.createUtcFormatter().format(new Date(deviceStartMs + networkTimeOffsetMs)), peakDb);
+        }
+    }
+    
+    // Audio-only exceedances closer than EVENT_GAP_MS are coalesced into one event
+    private static final long EVENT_GAP_MS = 1000;
+    private long openEventStart = 0;
+    private long openEventLast = 0;
+    private double openEventPeakDb = 0;
+    
     // Video overlay components
     private Surface overlayInputSurface;
     private Canvas overlayCanvas;
@@ -132,6 +241,882 @@ public class SoundMonitorService extends Service {
         overlayHandler = new Handler(Looper.getMainLooper());
         initializeOverlayPaint();
         createNotificationChannel();
+        openLevelHistory();
+        openDigestCache();
+        // Recordings encrypted in earlier sessions are hashed through their plaintext
+        evidenceHasher.setAtRestKey(EvidenceKeys.atRestKey(this, false));
+        eventIndex = EventIndexDatabase.getInstance(this);
+        recoverOrphanedSegments();
+        EvidenceReverifyJobService.schedule(this);
+    }
+    
+    /**
+     * True while a session is recording or being finalised
+     */
+    public static boolean isSessionActive() {
+        return sessionActive;
+    }
+    
+    private void openLevelHistory() {
+        try {
+            levelHistory = new LevelHistoryStore(new File(getFilesDir(), "level_history"));
+            Log.i(TAG, "📊 Level history store: " + levelHistory.getDirectory().getAbsolutePath());
+        } catch (IOException e) {
+            Log.w(TAG, "Level history unavailable: " + e.getMessage());
+            levelHistory = null;
+        }
+    }
+    
+    private void openDigestCache() {
+        DigestCache cache = new DigestCache(new File(getFilesDir(), DigestCache.FILE_NAME), file -> {
+            try {
+                return Os.stat(file.getAbsolutePath()).st_ino;
+            } catch (ErrnoException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        });
+        try {
+            cache.load();
+            Log.i(TAG, "#️⃣ Digest cache: " + cache.size() + " files");
+        } catch (IOException e) {
+            Log.w(TAG, "Digest cache unreadable, starting empty: " + e.getMessage());
+        }
+        evidenceHasher.setDigestCache(cache);
+        HybridTimestampService.setEvidenceHasher(evidenceHasher);
+    }
+    
+    private void saveDigestCache() {
+        DigestCache cache = evidenceHasher.getDigestCache();
+        if (cache == null) return;
+        try {
+            cache.save();
+            Log.i(TAG, "#️⃣ Digest cache: " + cache.formatStats());
+        } catch (IOException e) {
+            Log.w(TAG, "Digest cache not saved: " + e.getMessage());
+        }
+    }
+    
+    private void recordLevelHistory(long timeMs, double dbLevel) {
+        LevelHistoryStore store = levelHistory;
+        if (store == null) return;
+        try {
+            store.append(timeMs, dbLevel);
+        } catch (IOException e) {
+            Log.w(TAG, "Level history write failed: " + e.getMessage());
+        }
+    }
+    
+    private void closeLevelHistory() {
+        LevelHistoryStore store = levelHistory;
+        if (store == null) return;
+        levelHistory = null;
+        try {
+            store.close();
+            long todayBytes = store.getStorageBytesForDay(System.currentTimeMillis());
+            Log.i(TAG, "📊 Level history closed: " + todayBytes + " bytes stored for today");
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing level history: " + e.getMessage());
+        }
+    }
+    
+    private void indexSessionStart(long startMillis, String mode) {
+        sessionStartMillis = startMillis;
+        sessionEventCount = 0;
+        sessionPeakDb = 0;
+        sessionLoudMs = 0;
+        openEventStart = 0;
+        sessionActive = true;
+        startSessionManifest(mode, startMillis);
+        openEvidenceJournal(mode);
+        if (eventIndex == null || sessionFolder == null) return;
+        eventIndex.recordSessionStart(startMillis, sessionFolder.getName(), mode, sessionFolder.getAbsolutePath());
+    }
+    
+    private void indexSessionEnd(int segmentCount) {
+        if (eventIndex == null || sessionStartMillis == 0) return;
+        eventIndex.recordSessionEnd(sessionStartMillis, System.currentTimeMillis(), segmentCount, sessionEventCount);
+        Log.i(TAG, "🗂️ Session indexed: " + segmentCount + " segments, " + sessionEventCount + " events");
+    }
+    
+    private void indexVideoSegment(String segmentFile, long endMillis) {
+        sessionEventCount++;
+        sessionPeakDb = Math.max(sessionPeakDb, segmentPeakDb);
+        sessionLoudMs += endMillis - segmentStartMillis;
+        addSegmentToManifest(segmentFile);
+        if (eventIndex == null || sessionStartMillis == 0) return;
+        eventIndex.recordSegment(sessionStartMillis, segmentCounter, segmentFile, segmentStartMillis,
+            endMillis, new File(segmentFile).length());
+        // In video mode each segment is one trigger event, from start to stop
+        eventIndex.recordEvent(new EventIndexDatabase.Event(sessionStartMillis, segmentCounter,
+            EventIndexDatabase.TYPE_TRIGGER, segmentStartMillis, endMillis, segmentPeakDb, segmentFile, 0));
+    }
+    
+    private void trackExceedanceEvent(long timeMillis, double dbLevel) {
+        if (openEventStart != 0 && timeMillis - openEventLast <= EVENT_GAP_MS) {
+            openEventLast = timeMillis;
+            openEventPeakDb = Math.max(openEventPeakDb, dbLevel);
+            return;
+        }
+        closeExceedanceEvent();
+        openEventStart = timeMillis;
+        openEventLast = timeMillis;
+        openEventPeakDb = dbLevel;
+    }
+    
+    private void closeExceedanceEvent() {
+        if (openEventStart == 0) return;
+        sessionEventCount++;
+        sessionPeakDb = Math.max(sessionPeakDb, openEventPeakDb);
+        sessionLoudMs += openEventLast - openEventStart;
+        if (eventIndex != null && sessionStartMillis != 0) {
+            eventIndex.recordEvent(new EventIndexDatabase.Event(sessionStartMillis, 0,
+                EventIndexDatabase.TYPE_EXCEEDANCE, openEventStart, openEventLast, openEventPeakDb,
+                currentVideoFile, openEventStart - audioRecordingStartTime));
+        }
+        openEventStart = 0;
+    }
+    
+    private void startSessionManifest(String mode, long startMillis) {
+        final File folder = sessionFolder;
+        if (folder == null) return;
+        manifestExecutor.execute(() -> {
+            sessionManifest = new SessionManifest(folder.getName(), mode, startMillis);
+            saveSessionManifest(folder, sessionManifest);
+        });
+    }
+    
+    /**
+     * Record a closed segment and its companion files. The hash is computed here, off the
+     * main thread, once per segment; duration comes from the metadata cache.
+     */
+    private void addSegmentToManifest(String segmentPath) {
+        final File folder = sessionFolder;
+        final File segment = new File(segmentPath);
+        final int eventCount = sessionEventCount;
+        final double peakDb = sessionPeakDb;
+        final long loudMs = sessionLoudMs;
+        manifestExecutor.execute(() -> {
+            SessionManifest manifest = sessionManifest;
+            if (manifest == null || folder == null) return;
+            String hash = segmentHashFor(segment);
+            manifest.putFile(segment, segmentMetadataFor(segment).durationMs, hash);
+            appendEvidence(folder, EvidenceJournal.TYPE_SEGMENT, segment, hash, null);
+            String baseName = segment.getName().replace(".mp4", "");
+            putManifestFiles(manifest, folder, baseName + "_SUB.srt", baseName + "_META.txt",
+                baseName + PeakIndex.FILE_EXTENSION, baseName + SeekIndex.FILE_EXTENSION);
+            manifest.setEventSummary(eventCount, peakDb, loudMs);
+            saveSessionManifestIncremental(folder, manifest);
+        });
+    }
+    
+    /**
+     * Record a closed volume and its companion files as soon as it is closed, so a week-long
+     * session's finished volumes are in the manifest (and its journal) before the session ends
+     */
+    private void addVolumeToManifest(final File folder, final SessionVolumeWriter.Volume volume) {
+        manifestExecutor.execute(() -> {
+            SessionManifest manifest = sessionManifest;
+            if (manifest == null || !folder.getName().equals(manifest.getSessionName())) return;
+            SegmentMetadataCache.Entry entry = segmentMetadataFor(volume.file);
+            manifest.putFile(volume.file, volume.durationMs, entry.sha256);
+            putVolumeCompanions(manifest, folder, volume.file);
+            saveSessionManifestIncremental(folder, manifest);
+        });
+    }
+    
+    /**
+     * Record the session's main file and end-of-session files, then update the sessions index.
+     * Blocks until written, because the Downloads copy reads the manifest right after.
+     */
+    private void finishSessionManifest(File mainFile, String... companionNames) {
+        final File folder = sessionFolder;
+        if (folder == null) return;
+        final int eventCount = sessionEventCount;
+        final double peakDb = sessionPeakDb;
+        final long loudMs = sessionLoudMs;
+        final long endMillis = System.currentTimeMillis();
+        Future<?> done = manifestExecutor.submit(() -> {
+            SessionManifest manifest = sessionManifest;
+            if (manifest == null || !folder.getName().equals(manifest.getSessionName())) {
+                manifest = new SessionManifest(folder.getName(),
+                    isAudioOnlyMode ? EventIndexDatabase.MODE_AUDIO : EventIndexDatabase.MODE_VIDEO, sessionStartMillis);
+                sessionManifest = manifest;
+            }
+            SegmentMetadataCache.Entry main = segmentMetadataFor(mainFile);
+            manifest.putFile(mainFile, main.durationMs, main.sha256);
+            putManifestFiles(manifest, folder, companionNames);
+            manifest.setEndTime(endMillis);
+            manifest.setEventSummary(eventCount, peakDb, loudMs);
+            saveSessionManifest(folder, manifest);
+            try {
+                SessionManifest.updateIndex(folder.getParentFile(), manifest.toIndexEntry());
+            } catch (IOException e) {
+                Log.w(TAG, "Sessions index update failed: " + e.getMessage());
+            }
+        });
+        try {
+            done.get(60, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            Log.w(TAG, "Session manifest not finished: " + e.getMessage());
+        }
+    }
+    
+    private void openEvidenceJournal(String mode) {
+        final File folder = sessionFolder;
+        if (folder == null) return;
+        closeEvidenceJournal();
+        synchronized (evidenceJournalLock) {
+            try {
+                evidenceJournal = EvidenceJournal.open(folder);
+                evidenceJournal.append(EvidenceJournal.TYPE_START, folder.getName(), -1, null, "mode=" + mode);
+            } catch (IOException e) {
+                Log.w(TAG, "Evidence journal unavailable: " + e.getMessage());
+                evidenceJournal = null;
+            }
+            KeyPair signingKey = EvidenceKeys.signingKey();
+            if (signingKey != null) {
+                try {
+                    batchSigner = BatchSigner.open(folder, signingKey.getPrivate(), signingKey.getPublic(),
+                        BatchSigner.DEFAULT_ALGORITHM, BatchSigner.DEFAULT_INTERVAL_MS);
+                    batchTimestamps = new BatchTimestamps(folder, tsaClient);
+                    Log.i(TAG, "✍️ Signing key " + BatchSigner.fingerprint(signingKey.getPublic()));
+                } catch (IOException e) {
+                    Log.w(TAG, "Batch signatures unavailable: " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Chain a record into the journal of the file's session folder: the open journal if it is
+     * this session's, else that folder's journal is reopened for the one record (recovered
+     * sessions, clips of earlier sessions). Null if the journal cannot be written. Digests of
+     * the open session also go to its batch signer.
+     */
+    private EvidenceJournal.Record appendEvidence(File folder, String type, File file, String sha256, String detail) {
+        if (folder == null) return null;
+        String name = file != null ? file.getName() : folder.getName();
+        long size = file != null ? EncryptedFileChannel.plaintextLength(file) : -1;
+        EvidenceJournal.Record record;
+        BatchSigner signer = null;
+        BatchTimestamps timestamps = null;
+        synchronized (evidenceJournalLock) {
+            EvidenceJournal journal = evidenceJournal;
+            try {
+                if (journal != null && journal.getFile().getParentFile().equals(folder)) {
+                    signer = batchSigner;
+                    timestamps = batchTimestamps;
+                    record = journal.append(type, name, size, sha256, detail);
+                } else {
+                    try (EvidenceJournal other = EvidenceJournal.open(folder)) {
+                        record = other.append(type, name, size, sha256, detail);
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Evidence journal append failed for " + name + ": " + e.getMessage());
+                return null;
+            }
+        }
+        // A due batch is signed here, so other threads' records are not held up by the signature
+        signDigest(signer, timestamps, name, sha256);
+        return record;
+    }
+    
+    /**
+     * Last records of a session (its exports and the stop), then force and close the journal.
+     * Queued on manifestExecutor so every segment record queued before it is in the chain.
+     */
+    private void finishEvidenceJournal(final String exportRoot, final int fileCount) {
+        final File folder = sessionFolder;
+        if (folder == null) return;
+        Future<?> done = manifestExecutor.submit(() -> {
+            if (exportRoot != null) {
+                appendEvidence(folder, EvidenceJournal.TYPE_EXPORT, null, null, exportRoot + "/" + folder.getName());
+            }
+            EvidenceJournal.Record stop = appendEvidence(folder, EvidenceJournal.TYPE_STOP, null, null, "files=" + fileCount);
+            closeEvidenceJournal();
+            if (stop != null) Log.i(TAG, "⛓️ Evidence chain closed at " + stop);
+        });
+        try {
+            done.get(60, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            Log.w(TAG, "Evidence journal not finished: " + e.getMessage());
+        }
+    }
+    
+    private void signDigest(BatchSigner signer, BatchTimestamps timestamps, String name, String sha256) {
+        if (signer == null || sha256 == null) return;
+        try {
+            BatchSigner.Batch batch = signer.add(name, sha256);
+            if (batch != null) {
+                Log.i(TAG, "✍️ Signed " + batch);
+                timestampBatch(timestamps, batch);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Batch signing failed for " + name + ": " + e.getMessage());
+        }
+    }
+    
+    private void timestampBatch(final BatchTimestamps timestamps, final BatchSigner.Batch batch) {
+        if (timestamps == null || timestampExecutor.isShutdown()) return;
+        timestampExecutor.execute(() -> {
+            try {
+                TsaClient.Token token = timestamps.timestamp(batch);
+                Log.i(TAG, "🕰️ Batch " + batch.number + " timestamped: " + token + "; " + tsaClient.formatStats());
+            } catch (IOException e) {
+                Log.w(TAG, "Batch " + batch.number + " not timestamped: " + e.getMessage());
+                return;
+            }
+            final File folder = timestamps.getFile().getParentFile();
+            try {
+                manifestExecutor.execute(() -> refreshFinishedManifest(folder, BatchTimestamps.FILE_NAME));
+            } catch (RejectedExecutionException e) {
+                Log.w(TAG, "Manifest not updated for the token of batch " + batch.number);
+            }
+        });
+    }
+    
+    /**
+     * List a companion file again after it grew once its session's manifest was finished (a
+     * token that arrived after the session ended). A session still running lists it at its end.
+     * Runs on manifestExecutor.
+     */
+    private void refreshFinishedManifest(File folder, String name) {
+        SessionManifest manifest = sessionManifest;
+        if (manifest == null || !folder.getName().equals(manifest.getSessionName())) {
+            try {
+                manifest = SessionManifest.load(folder);
+            } catch (IOException e) {
+                Log.w(TAG, "Session manifest unreadable, " + name + " not listed: " + e.getMessage());
+                return;
+            }
+        }
+        if (manifest == null || manifest.getEndTime() == 0) return;
+        putManifestFiles(manifest, folder, name);
+        saveSessionManifest(folder, manifest);
+    }
+    
+    /**
+     * Get the start proof's RFC 3161 token in the background, once recording has started; the
+     * proof is replaced by the stamped one for the timestamp files written after it arrives
+     */
+    private void timestampStartProof(final HybridTimestampService.RecordingProof proof) {
+        if (proof.recordingStartProof == null || timestampExecutor.isShutdown()) return;
+        timestampExecutor.execute(() -> {
+            final HybridTimestampService.RecordingProof stamped;
+            try {
+                stamped = proof.withRfc3161Certificate(HybridTimestampService.timestampStartProof(proof, tsaClient));
+            } catch (Exception e) {
+                Log.w(TAG, "⚠️ Start proof not timestamped: " + e.getMessage());
+                return;
+            }
+            if (proof.hashSeed != null) recordingProofs.replace(proof.hashSeed, proof, stamped);
+            handler.post(() -> {
+                if (currentRecordingProof == proof) currentRecordingProof = stamped;
+            });
+        });
+    }
+    
+    /**
+     * Detach the session's journal and signer under evidenceJournalLock, then sign the last
+     * batch and close them after releasing it, so appends from other threads are not held up
+     */
+    private void closeEvidenceJournal() {
+        EvidenceJournal journal;
+        BatchSigner signer;
+        BatchTimestamps timestamps;
+        synchronized (evidenceJournalLock) {
+            journal = evidenceJournal;
+            evidenceJournal = null;
+            signer = batchSigner;
+            timestamps = batchTimestamps;
+            batchSigner = null;
+            batchTimestamps = null;
+        }
+        if (signer != null) {
+            try {
+                BatchSigner.Batch last = signer.flush();
+                signer.close();
+                if (last != null) timestampBatch(timestamps, last);
+                Log.i(TAG, "✍️ Session signatures: " + signer.formatStats());
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing batch signer: " + e.getMessage());
+            }
+        }
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing evidence journal: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Metadata of a closed recording from the session cache. The container is parsed only the
+     * first time, with our own parser; MediaMetadataRetriever only for files it cannot read.
+     */
+    private SegmentMetadataCache.Entry segmentMetadataFor(File file) {
+        SegmentMetadataCache.Entry entry = segmentMetadata.get(file);
+        if (entry != null) return entry;
+        try {
+            return segmentMetadata.probe(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Container not readable, using media retriever for " + file.getName() + ": " + e.getMessage());
+            return segmentMetadata.put(SegmentMetadataCache.Entry.ofDuration(file, getVideoDurationMs(file)));
+        }
+    }
+    
+    /**
+     * Parse a segment's index once as it closes: metadata for the reports and a seek index with
+     * its trigger event, both taken from the same in-memory sample tables
+     */
+    private void describeClosedSegment(File segment, SegmentTiming timing) {
+        try {
+            Mp4Movie movie = Mp4Movie.parse(segment);
+            SegmentMetadataCache.Entry entry = segmentMetadata.putParsed(segment, movie);
+            Mp4TrackTable video = movie.getTrack(Mp4TrackTable.HANDLER_VIDEO);
+            if (video != null) {
+                SeekIndex index = SeekIndex.build(video);
+                index.addEvent(0, entry.durationMs, timing.triggerLabel());
+                index.save(SeekIndex.indexFileFor(segment));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Segment index not readable at close: " + e.getMessage());
+            segmentMetadataFor(segment);
+        }
+    }
+    
+    private String segmentHashFor(File file) {
+        SegmentMetadataCache.Entry entry = segmentMetadata.get(file);
+        if (entry != null && entry.sha256 != null) return entry.sha256;
+        String hash = calculateFileHash(file);
+        segmentMetadata.putHash(file, hash);
+        return hash;
+    }
+    
+    private void putManifestFiles(SessionManifest manifest, File folder, String... names) {
+        for (String name : names) {
+            File file = new File(folder, name);
+            if (file.exists()) {
+                manifest.putFile(file, -1, null);
+            }
+        }
+    }
+    
+    private void saveSessionManifest(File folder, SessionManifest manifest) {
+        try {
+            manifest.save(folder);
+            Log.i(TAG, "🧾 Session manifest saved: " + manifest.getFiles().size() + " files, " + manifest.getTotalBytes() + " bytes");
+        } catch (IOException e) {
+            Log.w(TAG, "Session manifest write failed: " + e.getMessage());
+        }
+    }
+    
+    // Appends the changes to the manifest journal; the full manifest is rewritten at session end
+    private void saveSessionManifestIncremental(File folder, SessionManifest manifest) {
+        try {
+            manifest.saveIncremental(folder);
+        } catch (IOException e) {
+            Log.w(TAG, "Session manifest journal write failed: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Append a closed segment to the session's growing final file (media data copied now,
+     * index kept in memory until the session ends)
+     */
+    private void appendSegmentToMerge(String segmentPath) {
+        final File folder = sessionFolder;
+        final File segment = new File(segmentPath);
+        if (folder == null) return;
+        mergeExecutor.execute(() -> {
+            if (incrementalMergeFailed) return;
+            try {
+                if (sessionVolumes == null) {
+                    sessionVolumes = new SessionVolumeWriter(folder, volumeLimitBytes, volume -> onVolumeClosed(folder, volume));
+                }
+                sessionVolumes.setEvidenceHasher(evidenceHasher, digestSeedsFor(currentRecordingProof));
+                appendWithTimedText(sessionVolumes, segment);
+                Log.i(TAG, "🧩 Segment appended to session merge: " + segment.getName() + " (volume "
+                    + (sessionVolumes.getVolumes().size() + 1) + ", " + sessionVolumes.getBytesWritten() + " bytes so far)");
+            } catch (Mp4Merger.SegmentRejectedException e) {
+                Log.w(TAG, "Segment left out of session merge: " + e.getMessage());
+            } catch (IOException e) {
+                Log.e(TAG, "Incremental merge failed, full merge will run at session end", e);
+                incrementalMergeFailed = true;
+                discardSessionMerge();
+            }
+        });
+    }
+    
+    /**
+     * Close the last volume of the incremental merge. Earlier volumes were finished as they
+     * filled up, so this only writes one volume's index. Returns all volumes, or null if there
+     * is no usable incremental merge (caller does a full merge). Runs on mergeExecutor, after
+     * every queued append.
+     */
+    private List<SessionVolumeWriter.Volume> finishIncrementalMerge() {
+        SessionVolumeWriter volumes = sessionVolumes;
+        if (incrementalMergeFailed || volumes == null || volumes.getSegmentCount() == 0) {
+            discardSessionMerge();
+            return null;
+        }
+        try {
+            List<SessionVolumeWriter.Volume> finished = volumes.finish();
+            sessionVolumes = null;
+            lastMergeStats = formatMergeStats(finished);
+            Log.i(TAG, "🎬 Incremental merge finished: " + lastMergeStats);
+            return finished;
+        } catch (IOException e) {
+            Log.e(TAG, "Finishing incremental merge failed", e);
+            discardSessionMerge();
+            return null;
+        }
+    }
+    
+    /**
+     * A volume is complete (index, seek index and SRT written): describe it, write its
+     * timestamp file and record it in the manifest while the session carries on
+     */
+    private void onVolumeClosed(File folder, SessionVolumeWriter.Volume volume) {
+        Log.i(TAG, "📼 " + volume);
+        describeMergedFile(volume.file, volume.durationMs);
+        saveTimestampFile(volume.file, proofFor(volume));
+        addVolumeToManifest(folder, volume);
+    }
+    
+    /**
+     * Seeds to hash a file with while it is written: the seed saveTimestampFile will ask for
+     */
+    private static String[] digestSeedsFor(HybridTimestampService.RecordingProof proof) {
+        return proof != null && proof.verified && proof.hashSeed != null ? new String[] { proof.hashSeed } : new String[0];
+    }
+    
+    /**
+     * The proof a volume was hashed against while written, so its timestamp file needs no
+     * second read; the current proof if it was not hashed on write
+     */
+    private HybridTimestampService.RecordingProof proofFor(SessionVolumeWriter.Volume volume) {
+        if (volume.digests != null) {
+            for (String seed : volume.digests.getSeeds()) {
+                HybridTimestampService.RecordingProof proof = recordingProofs.get(seed);
+                if (proof != null) return proof;
+            }
+        }
+        return currentRecordingProof;
+    }
+    
+    private static String formatMergeStats(List<SessionVolumeWriter.Volume> volumes) {
+        if (volumes.size() == 1) {
+            SessionVolumeWriter.Volume only = volumes.get(0);
+            return only.result + ", " + only.cueCount + " timestamp cues, " + only.chapterCount + " chapters";
+        }
+        int segments = 0;
+        long bytes = 0;
+        long durationMs = 0;
+        long maxCloseMs = 0;
+        for (SessionVolumeWriter.Volume volume : volumes) {
+            segments += volume.segmentCount;
+            bytes += volume.sizeBytes;
+            durationMs += volume.durationMs;
+            maxCloseMs = Math.max(maxCloseMs, volume.closeMs);
+        }
+        return String.format(Locale.US, "%d volumes, %d segments, %d bytes, %.1f s, slowest volume close %d ms",
+            volumes.size(), segments, bytes, durationMs / 1000.0, maxCloseMs);
+    }
+    
+    /**
+     * Cache a final file's metadata from the merge result and the segments' codec parameters
+     */
+    private void describeMergedFile(File finalFile, long durationMs) {
+        String first = firstSegmentPath;
+        segmentMetadata.putDerived(finalFile, durationMs, first == null ? null : segmentMetadata.get(new File(first)));
+    }
+    
+    // Runs on mergeExecutor
+    private void discardSessionMerge() {
+        SessionVolumeWriter volumes = sessionVolumes;
+        sessionVolumes = null;
+        if (volumes == null) return;
+        try {
+            volumes.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error discarding session merge: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Append a segment and add its timed text at the point where it lands on its volume's timeline
+     */
+    private void appendWithTimedText(SessionVolumeWriter volumes, File segment) throws IOException {
+        long offsetMs = volumes.append(segment);
+        addSegmentTimedText(volumes.getSubtitles(), volumes.getChapters(), segment.getAbsolutePath(),
+            offsetMs, volumes.getDurationMs() - offsetMs);
+    }
+    
+    /**
+     * Per-second cues (verified wall-clock time and level) and one chapter for a segment placed
+     * at offsetMs. Wall time is the device clock corrected by the network time offset measured
+     * when the segment's start proof was created.
+     */
+    private void addSegmentTimedText(TimedTextTrack subtitles, TimedTextTrack chapters, String segmentPath,
+                                     long offsetMs, long durationMs) {
+        SegmentTiming timing = segmentTimings.get(segmentPath);
+        if (timing == null || durationMs <= 0) return;
+        SimpleDateFormat utc = TimestampUtils.createUtcFormatter();
+        long wallStart = timing.deviceStartMs + timing.networkTimeOffsetMs;
+        if (chapters != null) {
+            chapters.addCue(offsetMs, offsetMs + durationMs, timing.triggerLabel());
+        }
+        if (subtitles == null) return;
+        Map<Long, LevelHistoryStore.Rollup> levels = secondLevels(timing.deviceStartMs, durationMs);
+        for (long t = 0; t < durationMs; t += 1000) {
+            StringBuilder text = new StringBuilder(utc.format(new Date(wallStart + t)));
+            LevelHistoryStore.Rollup level = levels.get((timing.deviceStartMs + t) / 1000 * 1000);
+            if (level != null) {
+                text.append('\n').append(String.format(Locale.US, "%.1f dB (max %.1f dB)", level.leqDb, level.maxDb));
+            }
+            subtitles.addCue(offsetMs + t, offsetMs + Math.min(t + 1000, durationMs), text.toString());
+        }
+    }
+    
+    private Map<Long, LevelHistoryStore.Rollup> secondLevels(long fromMs, long durationMs) {
+        Map<Long, LevelHistoryStore.Rollup> levels = new HashMap<>();
+        LevelHistoryStore store = levelHistory;
+        if (store == null) return levels;
+        try {
+            for (LevelHistoryStore.Rollup rollup : store.queryTier(LevelHistoryStore.TIER_SECOND, fromMs - 1000, fromMs + durationMs)) {
+                levels.put(rollup.startMs, rollup);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Level history unavailable for timed text: " + e.getMessage());
+        }
+        return levels;
+    }
+    
+    /**
+     * Remember how far the device clock is from the verified network time. The authority
+     * reports whole seconds, so the offset is rounded to a second.
+     */
+    private void updateNetworkTimeOffset(String networkTimestamp) {
+        try {
+            Date networkTime = TimestampUtils.createUtcFormatter().parse(networkTimestamp);
+            if (networkTime == null) return;
+            networkTimeOffsetMs = Math.round((networkTime.getTime() - System.currentTimeMillis()) / 1000.0) * 1000;
+        } catch (java.text.ParseException e) {
+            Log.w(TAG, "Unparseable network time, keeping offset " + networkTimeOffsetMs + " ms: " + networkTimestamp);
+        }
+    }
+    
+    /**
+     * Finish sessions a crash or kill interrupted: rebuild segments that were left without an
+     * index, merge the segments not yet in a volume and close the session. Session folders are
+     * listed now, before this run creates a new one, so a segment that is being recorded is
+     * never mistaken for an orphan. Sessions the index or their manifest shows as ended
+     * (normally, or by an earlier recovery) are not scanned again.
+     */
+    private void recoverOrphanedSegments() {
+        final File baseDir = new File(getExternalFilesDir(Environment.DIRECTORY_MOVIES), "SoundTrigger");
+        final File[] sessions = baseDir.listFiles(File::isDirectory);
+        if (sessions == null) return;
+        mergeExecutor.execute(() -> {
+            long start = System.currentTimeMillis();
+            Set<String> ended = new HashSet<>();
+            try {
+                for (SessionManifest.IndexEntry entry : SessionManifest.readIndex(baseDir)) {
+                    if (entry.endTime > 0) ended.add(entry.name);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Sessions index unreadable, scanning every session: " + e.getMessage());
+            }
+            int recovered = 0;
+            int scanned = 0;
+            for (File folder : sessions) {
+                if (ended.contains(folder.getName()) || hasEnded(folder)) continue;
+                scanned++;
+                List<Mp4Recovery.Result> results = Mp4Recovery.recoverSession(folder, baseDir);
+                List<Mp4Recovery.Result> succeeded = new ArrayList<>();
+                for (Mp4Recovery.Result result : results) {
+                    if (result.isSuccess()) {
+                        Log.i(TAG, "🩹 Recovered segment: " + result);
+                        succeeded.add(result);
+                    } else {
+                        Log.w(TAG, "Segment not recovered: " + result);
+                    }
+                }
+                List<File> segments = Mp4Recovery.listSessionSegments(folder);
+                if (!succeeded.isEmpty() || !segments.isEmpty()) {
+                    finishInterruptedSession(folder, succeeded, segments);
+                    recovered += succeeded.size();
+                }
+            }
+            if (recovered > 0) {
+                Log.i(TAG, "🩹 " + recovered + " orphaned segments recovered in " + (System.currentTimeMillis() - start) + " ms");
+            }
+            Log.i(TAG, "🩹 Recovery scanned " + scanned + " of " + sessions.length + " sessions");
+        });
+    }
+    
+    private boolean hasEnded(File folder) {
+        try {
+            SessionManifest manifest = SessionManifest.load(folder);
+            return manifest != null && manifest.getEndTime() > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Cut [startMs, endMs) of a segment or final file into its own clip and hash file, without
+     * re-encoding. Runs on mergeExecutor so it never competes with a merge for the disk.
+     */
+    private void extractClip(final File source, final long startMs, final long endMs) {
+        mergeExecutor.execute(() -> {
+            try {
+                File clip = Mp4ClipExtractor.clipFileFor(source, startMs, endMs);
+                Mp4ClipExtractor.Result result = Mp4ClipExtractor.extract(source, startMs, endMs, clip);
+                Log.i(TAG, "✂️ Clip extracted: " + result);
+                appendEvidence(source.getParentFile(), EvidenceJournal.TYPE_CLIP, clip, result.sha256,
+                    "source=" + source.getName() + " " + startMs + "-" + endMs + " ms");
+            } catch (IOException e) {
+                Log.e(TAG, "Clip extraction failed for " + source.getName(), e);
+            }
+        });
+    }
+    
+    /**
+     * Clip of one indexed event (trigger) plus padding, located through the file's seek index
+     */
+    private void extractEventClip(File source, int eventNumber, long paddingMs) {
+        try {
+            SeekIndex index = SeekIndex.load(SeekIndex.indexFileFor(source));
+            if (eventNumber >= index.getEvents().size()) {
+                Log.w(TAG, "No event " + eventNumber + " in " + source.getName());
+                return;
+            }
+            SeekIndex.Event event = index.getEvents().get(eventNumber);
+            long startMs = Math.max(0, event.timeMs - paddingMs);
+            extractClip(source, startMs, event.timeMs + event.durationMs + paddingMs);
+        } catch (IOException e) {
+            Log.e(TAG, "Seek index unavailable for " + source.getName(), e);
+        }
+    }
+    
+    // Runs on mergeExecutor
+    private void finishInterruptedSession(File folder, List<Mp4Recovery.Result> results, List<File> segments) {
+        long firstStart = Long.MAX_VALUE;
+        long lastEnd = 0;
+        for (Mp4Recovery.Result result : results) {
+            long end = result.orphan.lastModified();
+            firstStart = Math.min(firstStart, end - result.durationMs);
+            lastEnd = Math.max(lastEnd, end);
+        }
+        for (File segment : segments) {
+            if (segment.getName().endsWith(Mp4Recovery.RECOVERED_SUFFIX)) continue;
+            firstStart = Math.min(firstStart, segment.lastModified());
+            lastEnd = Math.max(lastEnd, segment.lastModified());
+        }
+        
+        SessionManifest manifest = null;
+        try {
+            manifest = SessionManifest.load(folder);
+        } catch (IOException e) {
+            Log.w(TAG, "Session manifest unreadable, starting a new one: " + e.getMessage());
+        }
+        if (manifest == null) {
+            manifest = new SessionManifest(folder.getName(), EventIndexDatabase.MODE_VIDEO, firstStart);
+        }
+        
+        for (Mp4Recovery.Result result : results) {
+            File segment = result.recovered;
+            String hash = calculateFileHash(segment);
+            manifest.putFile(segment, result.durationMs, hash);
+            appendEvidence(folder, EvidenceJournal.TYPE_RECOVERED, segment, hash, "from=" + result.orphan.getName());
+            if (eventIndex != null) {
+                long end = result.orphan.lastModified();
+                eventIndex.recordSegment(manifest.getStartTime(), Mp4Recovery.segmentNumberOf(result.orphan),
+                    segment.getAbsolutePath(), end - result.durationMs, end, segment.length());
+            }
+        }
+        
+        // The session ended with the crash: merge what is not in a volume yet. A final file
+        // without a volume log predates the log and is left as it is.
+        File finalFile = SessionVolumeWriter.volumeFile(folder, 1);
+        if (!finalFile.exists() || SessionVolumeWriter.logFileFor(folder).exists()) {
+            for (SessionVolumeWriter.Volume volume : mergeRecoveredSession(folder, segments, manifest)) {
+                manifest.putFile(volume.file, volume.durationMs, calculateFileHash(volume.file));
+                putVolumeCompanions(manifest, folder, volume.file);
+            }
+        }
+        if (lastEnd > manifest.getEndTime()) {
+            manifest.setEndTime(lastEnd);
+        }
+        appendEvidence(folder, EvidenceJournal.TYPE_STOP, null, null, "recovered after crash, files=" + results.size());
+        putManifestFiles(manifest, folder, EvidenceJournal.FILE_NAME);
+        saveSessionManifest(folder, manifest);
+        try {
+            SessionManifest.updateIndex(folder.getParentFile(), manifest.toIndexEntry());
+        } catch (IOException e) {
+            Log.w(TAG, "Sessions index update failed: " + e.getMessage());
+        }
+        if (eventIndex != null) {
+            eventIndex.recordSessionEnd(manifest.getStartTime(), manifest.getEndTime(), segments.size(), manifest.getEventCount());
+        }
+        saveDigestCache();
+    }
+    
+    private void putVolumeCompanions(SessionManifest manifest, File folder, File volume) {
+        putManifestFiles(manifest, folder,
+            SessionVolumeWriter.companionFile(volume, SessionVolumeWriter.SUBTITLE_SUFFIX).getName(),
+            SessionVolumeWriter.companionFile(volume, "_timestamp.txt").getName(),
+            SeekIndex.indexFileFor(volume).getName(),
+            MerkleTree.indexFileFor(volume).getName());
+    }
+    
+    /**
+     * Merge an interrupted session's segments that are not in a volume yet, after the volumes
+     * closed before the crash. Those keep their files; any that missed its timestamp file or
+     * manifest entry gets them now. Runs on mergeExecutor.
+     */
+    private List<SessionVolumeWriter.Volume> mergeRecoveredSession(File folder, List<File> segments, SessionManifest manifest) {
+        try (SessionVolumeWriter volumes = SessionVolumeWriter.resume(folder, volumeLimitBytes, this::onRecoveredVolumeClosed)) {
+            volumes.setEvidenceHasher(evidenceHasher);
+            for (File closed : volumes.getResumedVolumes()) {
+                if (!SessionVolumeWriter.companionFile(closed, "_timestamp.txt").exists()) {
+                    saveTimestampFile(closed, null);
+                }
+                if (manifest.getFile(closed.getName()) == null) {
+                    manifest.putFile(closed, Mp4Movie.parse(closed).getDurationMs(), calculateFileHash(closed));
+                    putVolumeCompanions(manifest, folder, closed);
+                }
+            }
+            int after = volumes.getResumedAfter() != null ? Mp4Recovery.segmentNumberOf(new File(volumes.getResumedAfter())) : 0;
+            for (File segment : segments) {
+                if (Mp4Recovery.segmentNumberOf(segment) <= after) continue;
+                try {
+                    volumes.append(segment);
+                } catch (Mp4Merger.SegmentRejectedException e) {
+                    Log.w(TAG, "Segment left out of recovered session: " + e.getMessage());
+                }
+            }
+            List<SessionVolumeWriter.Volume> finished = volumes.finish();
+            if (!finished.isEmpty()) {
+                Log.i(TAG, "🎬 Recovered session merged: " + formatMergeStats(finished));
+            }
+            return finished;
+        } catch (IOException e) {
+            Log.e(TAG, "Merging recovered session failed", e);
+            return new ArrayList<>();
+        }
+    }
+    
+    /**
+     * A volume of a recovered session is complete: timestamp file, Merkle leaves and journal
+     * record as for a live volume. The crashed run's start proof is gone, so there is none.
+     */
+    private void onRecoveredVolumeClosed(SessionVolumeWriter.Volume volume) {
+        Log.i(TAG, "📼 Recovered " + volume);
+        saveTimestampFile(volume.file, null);
     }
     
     private void initializeOverlayPaint() {
@@ -208,15 +1193,38 @@ public class SoundMonitorService extends Service {
                     Log.d(TAG, "Timeout update ignored (same value: " + newTimeout + "s)");
                 }
                 return START_STICKY;
+            } else if ("EXTRACT_CLIP".equals(action)) {
+                String source = intent.getStringExtra("file");
+                long startMs = intent.getLongExtra("startMs", 0);
+                long endMs = intent.getLongExtra("endMs", 0);
+                int event = intent.getIntExtra("event", -1);
+                if (source != null && event >= 0) {
+                    extractEventClip(new File(source), event, intent.getLongExtra("paddingMs", 2000));
+                } else if (source != null) {
+                    extractClip(new File(source), startMs, endMs);
+                }
+                return START_STICKY;
+            } else if ("STOP_MONITORING".equals(action)) {
+                // Finishing a session can take minutes: stay in the foreground until it is saved
+                startForeground(NOTIFICATION_ID, createNotification("Saving session..."));
+                if (!sessionFinishing) {
+                    stopCapture();
+                    finishSessionInBackground(startId);
+                }
+                return START_NOT_STICKY;
             } else {
                 // Initial start or restart
                 soundThreshold = intent.getIntExtra("threshold", 50);
                 stopTimeoutSeconds = intent.getIntExtra("timeout", 5);
                 isAudioOnlyMode = intent.getBooleanExtra("audioOnlyMode", false);
+                encryptAtRest = intent.getBooleanExtra("encryptAtRest", false);
                 selectedCameraId = intent.getIntExtra("cameraId", 0);
+                fragmentDurationMs = intent.getLongExtra("fragmentDurationMs", FragmentedMp4Writer.DEFAULT_FRAGMENT_DURATION_MS);
+                volumeLimitBytes = intent.getLongExtra("volumeLimitMb", SessionVolumeWriter.DEFAULT_VOLUME_LIMIT_BYTES / (1024 * 1024)) * 1024 * 1024;
                 Log.i(TAG, "📊 Sound threshold set to: " + soundThreshold + " dB");
                 Log.i(TAG, "⏰ Stop timeout set to: " + stopTimeoutSeconds + " seconds");
                 Log.i(TAG, "🎵 Audio-only mode: " + isAudioOnlyMode);
+                Log.i(TAG, "🔐 Encryption at rest: " + encryptAtRest);
                 Log.i(TAG, "📷 Camera selection: " + (selectedCameraId == 0 ? "Rear" : "Front") + " (" + selectedCameraId + ")");
                 String notificationText = isAudioOnlyMode ? "Audio-only monitoring..." : "Monitoring for sounds...";
                 startForeground(NOTIFICATION_ID, createNotification(notificationText));
@@ -391,7 +1399,9 @@ public class SoundMonitorService extends Service {
             try {
                 int readSize = dbMonitorRecord.read(buffer, 0, buffer.length);
                 if (readSize > 0) {
+                    feedPeakIndex(buffer, readSize);
                     double dbLevel = calculateDecibelLevel(buffer, readSize);
+                    recordLevelHistory(System.currentTimeMillis(), dbLevel);
                     final double finalDbLevel = dbLevel;
                     handler.post(() -> broadcastDbLevel(finalDbLevel));
                 }
@@ -403,6 +1413,83 @@ public class SoundMonitorService extends Service {
         }
     }
     
+    private boolean startFragmentedAudio(File audioFile) {
+        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
+            return false;
+        }
+        lastFragmentStats = null;
+        FragmentedAudioRecorder recorder = new FragmentedAudioRecorder(audioFile, 44100, 128000, fragmentDurationMs);
+        recorder.setEvidenceHasher(evidenceHasher, digestSeedsFor(currentRecordingProof));
+        if (encryptAtRest) {
+            SecretKey key = EvidenceKeys.atRestKey(this, true);
+            if (key != null) {
+                recorder.setAtRestKey(key);
+                evidenceHasher.setAtRestKey(key);
+            } else {
+                Log.w(TAG, "🔐 No at-rest key on this device, recording unencrypted");
+            }
+        }
+        try {
+            recorder.start();
+            fragmentedAudioRecorder = recorder;
+            Log.i(TAG, "🧱 Fragmented audio recording started (" + fragmentDurationMs + " ms fragments)");
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Fragmented audio unavailable, using MediaRecorder: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    private void stopFragmentedAudio() {
+        FragmentedAudioRecorder recorder = fragmentedAudioRecorder;
+        if (recorder == null) return;
+        fragmentedAudioRecorder = null;
+        try {
+            recorder.stop();
+        } catch (IOException e) {
+            Log.e(TAG, "Error stopping fragmented audio recording", e);
+        }
+        lastFragmentStats = recorder.getStats();
+        Log.i(TAG, "🧱 Fragmented audio recording closed: " + lastFragmentStats);
+    }
+    
+    private void startPeakIndex(String mediaFilePath, long recordingStartTime) {
+        finishPeakIndex();
+        try {
+            File indexFile = PeakIndex.indexFileFor(new File(mediaFilePath));
+            peakIndexStartTime = recordingStartTime;
+            peakIndexWriter = new PeakIndex.Writer(indexFile);
+            Log.i(TAG, "📈 Peak index started: " + indexFile.getAbsolutePath());
+        } catch (IOException e) {
+            Log.w(TAG, "Peak index unavailable for " + mediaFilePath + ": " + e.getMessage());
+            peakIndexWriter = null;
+        }
+    }
+    
+    private void feedPeakIndex(short[] buffer, int readSize) {
+        PeakIndex.Writer writer = peakIndexWriter;
+        if (writer == null) return;
+        try {
+            writer.addFrame(System.currentTimeMillis() - peakIndexStartTime, buffer, readSize);
+        } catch (IOException e) {
+            Log.w(TAG, "Peak index write failed, disabling for this recording: " + e.getMessage());
+            peakIndexWriter = null;
+        }
+    }
+    
+    private void finishPeakIndex() {
+        PeakIndex.Writer writer = peakIndexWriter;
+        if (writer == null) return;
+        peakIndexWriter = null;
+        try {
+            writer.close();
+            lastPeakIndexStats = writer.formatStats();
+            Log.i(TAG, "📈 Peak index closed: " + lastPeakIndexStats);
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing peak index: " + e.getMessage());
+        }
+    }
+    
     private void broadcastDbLevel(double dbLevel) {
         // Always broadcast dB level for UI update
         Intent intent = new Intent(ACTION_DECIBEL_UPDATE);
@@ -438,6 +1525,7 @@ public class SoundMonitorService extends Service {
                 // Record this threshold exceedance
                 long exceedanceTime = System.currentTimeMillis() - audioRecordingStartTime;
                 thresholdExceedanceTimes.add(exceedanceTime);
+                trackExceedanceEvent(currentTime, dbLevel);
                 Log.i(TAG, "🔊 THRESHOLD EXCEEDED in audio-only mode: " + String.format("%.1f", dbLevel) + "dB > " + String.format("%.1f", thresholdDb) + "dB at " + exceedanceTime + "ms");
             }
         } else {
@@ -446,6 +1534,7 @@ public class SoundMonitorService extends Service {
                 // Count consecutive loud samples for sustained trigger
                 consecutiveHighSamples++;
                 consecutiveLowSamples = 0; // Reset low counter
+                triggerPeakDb = consecutiveHighSamples == 1 ? dbLevel : Math.max(triggerPeakDb, dbLevel);
                 
                 if (consecutiveHighSamples >= SAMPLES_TO_START) {
                     // Allow recording start if enough time has passed since last change
@@ -475,6 +1564,7 @@ public class SoundMonitorService extends Service {
                     Log.d(TAG, "🔸 Quiet sample " + consecutiveLowSamples + "/" + SAMPLES_TO_STOP + " before scheduling stop");
                 }
             } else if (dbLevel > thresholdDb && isRecording && !isAudioOnlyMode) {
+                segmentPeakDb = Math.max(segmentPeakDb, dbLevel);
                 // Reset counters and cancel stop if sound returns (video mode only)
                 consecutiveHighSamples = 0;
                 consecutiveLowSamples = 0;
@@ -513,10 +1603,11 @@ public class SoundMonitorService extends Service {
             
             // Set session timestamp and create session folder on first recording
             if (sessionTimestamp.isEmpty()) {
-                SimpleDateFormat sessionFormat = new SimpleDateFormat("MMdd_HHmm", Locale.US);
+                SimpleDateFormat sessionFormat = new SimpleDateFormat(TimestampUtils.FILE_TIMESTAMP_FORMAT, Locale.US);
                 sessionTimestamp = sessionFormat.format(new Date(audioRecordingStartTime));
                 currentRecordingStartTime = TimestampUtils.formatAsUtc(new Date(audioRecordingStartTime));
-                recordingSegments.clear();
+                sessionSegmentCount = 0;
+                firstSegmentPath = null;
                 segmentCounter = 0;
                 
                 File baseStorageDir = new File(getExternalFilesDir(Environment.DIRECTORY_MOVIES), "SoundTrigger");
@@ -527,6 +1618,7 @@ public class SoundMonitorService extends Service {
                     Log.i(TAG, "Audio session folder created: " + sessionCreated + " at " + sessionFolder.getAbsolutePath());
                 }
                 
+                indexSessionStart(audioRecordingStartTime, EventIndexDatabase.MODE_AUDIO);
                 Log.i(TAG, "Starting new audio-only recording session: " + sessionTimestamp);
             }
             
@@ -545,24 +1637,28 @@ public class SoundMonitorService extends Service {
                 }
             });
             
-            // Start MediaRecorder for audio-only recording
-            mediaRecorder = new MediaRecorder();
-            mediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-            mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-            mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
-            mediaRecorder.setAudioSamplingRate(44100);
-            mediaRecorder.setAudioEncodingBitRate(128000);
-            
             // Create audio file
             String audioFileName = "audio_session.m4a";
             currentVideoFile = new File(sessionFolder, audioFileName).getAbsolutePath();
-            mediaRecorder.setOutputFile(currentVideoFile);
-            
-            Log.i(TAG, "Preparing audio recorder...");
-            mediaRecorder.prepare();
             
-            Log.i(TAG, "Starting audio recording...");
-            mediaRecorder.start();
+            // Fragmented MP4 stays playable up to the last fragment if the service is killed
+            if (!startFragmentedAudio(new File(currentVideoFile))) {
+                // Start MediaRecorder for audio-only recording
+                mediaRecorder = new MediaRecorder();
+                mediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
+                mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
+                mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
+                mediaRecorder.setAudioSamplingRate(44100);
+                mediaRecorder.setAudioEncodingBitRate(128000);
+                mediaRecorder.setOutputFile(currentVideoFile);
+                
+                Log.i(TAG, "Preparing audio recorder...");
+                mediaRecorder.prepare();
+                
+                Log.i(TAG, "Starting audio recording...");
+                mediaRecorder.start();
+            }
+            startPeakIndex(currentVideoFile, audioRecordingStartTime);
             
             isRecording = true;
             updateNotification("Recording audio continuously...");
@@ -585,22 +1681,53 @@ public class SoundMonitorService extends Service {
                 mediaRecorder.release();
                 mediaRecorder = null;
             }
+            stopFragmentedAudio();
             
             isRecording = false;
-            
+            finishPeakIndex();
+            closeExceedanceEvent();
+            if (eventIndex != null && sessionStartMillis != 0) {
+                // The continuous audio file is the session's only segment
+                eventIndex.recordSegment(sessionStartMillis, 0, currentVideoFile, audioRecordingStartTime,
+                    System.currentTimeMillis(), new File(currentVideoFile).length());
+            }
+            indexSessionEnd(1);
+            mergeExecutor.execute(this::saveAudioOnlySession);
+        } catch (Exception e) {
+            Log.e(TAG, "Error stopping audio-only recording", e);
+            sessionActive = false;
+        }
+    }
+    
+    /**
+     * Summary files, timestamp file and public copies of the audio-only session. Runs on
+     * mergeExecutor, queued by stopAudioOnlyRecording.
+     */
+    private void saveAudioOnlySession() {
+        try {
             // Create timestamp exceedance file
             createThresholdExceedanceFile();
             
             // Create audio info file
             createAudioInfoFile();
+            createNoiseReportFile();
             
             // Save timestamp verification
             File audioFile = new File(currentVideoFile);
             saveTimestampFile(audioFile);
+            finishEvidenceJournal("Movies/SoundTrigger", 1);
+            finishSessionManifest(audioFile, PeakIndex.indexFileFor(audioFile).getName(),
+                MerkleTree.indexFileFor(audioFile).getName(), EvidenceJournal.FILE_NAME, BatchSigner.FILE_NAME,
+                BatchTimestamps.FILE_NAME,
+                "threshold_exceedances.txt", "audio_session_info.txt", NoiseReport.REPORT_FILE_NAME);
             
             // Copy to public storage
             copyToPublicStorage(audioFile);
             copyTimestampToPublicStorage(audioFile);
+            segmentMetadata.clear();
+            evidenceHasher.clear();
+            saveDigestCache();
+            recordingProofs.clear();
             
             updateNotification("Audio recording saved with " + thresholdExceedanceTimes.size() + " threshold exceedances");
             broadcastRecordingState(STATE_RECORDING_STOPPED);
@@ -608,8 +1735,9 @@ public class SoundMonitorService extends Service {
             Log.i(TAG, "Audio-only recording stopped and saved with " + thresholdExceedanceTimes.size() + " threshold exceedances");
             
         } catch (Exception e) {
-            Log.e(TAG, "Error stopping audio-only recording", e);
+            Log.e(TAG, "Error saving audio-only recording", e);
         }
+        sessionActive = false;
     }
     
     private void createThresholdExceedanceFile() {
@@ -688,11 +1816,23 @@ public class SoundMonitorService extends Service {
             content.append("Total Threshold Exceedances: ").append(thresholdExceedanceTimes.size()).append("\n\n");
             
             content.append("=== RECORDING SETTINGS ===\n");
-            content.append("Format: AAC in MP4 container\n");
+            content.append(lastFragmentStats != null ? "Format: AAC in fragmented MP4 container\n" : "Format: AAC in MP4 container\n");
             content.append("Sample Rate: 44.1 kHz\n");
             content.append("Bit Rate: 128 kbps\n");
             content.append("Channels: Mono\n\n");
             
+            if (lastFragmentStats != null) {
+                content.append("=== FRAGMENTED RECORDING ===\n");
+                content.append("Fragment Duration: ").append(fragmentDurationMs).append(" ms\n");
+                content.append("Write Stats: ").append(lastFragmentStats).append("\n\n");
+            }
+            
+            if (lastPeakIndexStats != null) {
+                content.append("=== PEAK OVERVIEW INDEX ===\n");
+                content.append("Index File: ").append(PeakIndex.indexFileFor(audioFile).getName()).append("\n");
+                content.append("Index Stats: ").append(lastPeakIndexStats).append("\n\n");
+            }
+            
             if (currentTimestamp != null && currentTimestamp.success) {
                 content.append("=== AUTHORITATIVE VERIFICATION ===\n");
                 content.append("Time Authority: ").append(currentTimestamp.authority).append("\n");
@@ -725,6 +1865,30 @@ public class SoundMonitorService extends Service {
         }
     }
     
+    private void createNoiseReportFile() {
+        if (eventIndex == null || sessionFolder == null) return;
+        try {
+            // Commit this session's queued events so the aggregates include them
+            eventIndex.flushBlocking();
+            long now = System.currentTimeMillis();
+            long from = EventIndexDatabase.dayStartOf(now - 6 * 24 * 60 * 60 * 1000L);
+            NoiseReport report = NoiseReport.generate(eventIndex, levelHistory, from, now);
+            
+            File reportFile = new File(sessionFolder, NoiseReport.REPORT_FILE_NAME);
+            try (FileOutputStream fos = new FileOutputStream(reportFile)) {
+                fos.write(report.render().getBytes());
+                fos.flush();
+            }
+            Log.i(TAG, "📋 Created 7-day noise report in " + report.generationMs + "ms: " + reportFile.getAbsolutePath());
+            
+            if (isAudioOnlyMode) {
+                copyFileToPublicStorage(reportFile, "Documents/SoundTrigger");
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error creating noise report", e);
+        }
+    }
+    
     private void copyFileToPublicStorage(File sourceFile, String relativePath) {
         try {
             ContentResolver contentResolver = getContentResolver();
@@ -841,11 +2005,12 @@ public class SoundMonitorService extends Service {
             
             // Set session timestamp and create session folder on first recording
             if (sessionTimestamp.isEmpty()) {
-                // Simple session naming with just date and time
-                SimpleDateFormat sessionFormat = new SimpleDateFormat("MMdd_HHmm", Locale.US); // MMDD_HHMM (e.g., 0831_1420)
+                // Full date and time to the second, so names never repeat across years or restarts
+                SimpleDateFormat sessionFormat = new SimpleDateFormat(TimestampUtils.FILE_TIMESTAMP_FORMAT, Locale.US); // e.g. 20260831_142005
                 sessionTimestamp = sessionFormat.format(recordingStartDate);
                 currentRecordingStartTime = TimestampUtils.formatAsUtc(recordingStartDate);
-                recordingSegments.clear();
+                sessionSegmentCount = 0;
+                firstSegmentPath = null;
                 segmentCounter = 0;
                 
                 // Create simple session folder
@@ -862,6 +2027,7 @@ public class SoundMonitorService extends Service {
                     }
                 }
                 
+                indexSessionStart(recordingStartDate.getTime(), EventIndexDatabase.MODE_VIDEO);
                 Log.i(TAG, "Starting new recording session: " + sessionTimestamp);
             }
             
@@ -874,10 +2040,13 @@ public class SoundMonitorService extends Service {
                 // Store the recording proof for later verification
                 currentRecordingProof = recordingProof;
                 if (recordingProof.verified) {
+                    if (recordingProof.hashSeed != null) recordingProofs.put(recordingProof.hashSeed, recordingProof);
+                    updateNetworkTimeOffset(recordingProof.networkTimestamp);
                     Log.i(TAG, "🔐 Hybrid verification proof created: " + recordingProof.timeAuthority);
                     updateNotification("Recording with verified timestamp: " + timeStamp);
                     // Proceed with recording only after network time verification succeeds
                     continueWithRecording(timeStamp);
+                    timestampStartProof(recordingProof);
                 } else {
                     Log.e(TAG, "❌ BLOCKING RECORDING: Network time verification failed: " + recordingProof.error);
                     updateNotification("Recording BLOCKED - Network time required");
@@ -1130,6 +2299,9 @@ public class SoundMonitorService extends Service {
             mediaRecorder.start();
             long recordTime = System.currentTimeMillis() - recordStart;
             long totalTime = System.currentTimeMillis() - startTime;
+            startPeakIndex(currentVideoFile, recordStart);
+            segmentStartMillis = recordStart;
+            segmentPeakDb = triggerPeakDb;
             
             Log.i(TAG, "MediaRecorder start took: " + recordTime + "ms, total setup: " + totalTime + "ms");
             
@@ -1151,6 +2323,9 @@ public class SoundMonitorService extends Service {
     }
     
     private void cleanup() {
+        finishPeakIndex();
+        stopFragmentedAudio();
+        
         if (mediaRecorder != null) {
             try {
                 mediaRecorder.stop();
@@ -1240,6 +2415,9 @@ public class SoundMonitorService extends Service {
             isRecording = false;
             
             cleanup();
+            SegmentTiming timing = new SegmentTiming(segmentCounter, segmentStartMillis, networkTimeOffsetMs, segmentPeakDb);
+            segmentTimings.put(new File(currentVideoFile).getAbsolutePath(), timing);
+            describeClosedSegment(new File(currentVideoFile), timing);
             
             updateNotification("Stopped recording. Monitoring...");
             broadcastRecordingState(STATE_RECORDING_TIMEOUT);
@@ -1253,8 +2431,10 @@ public class SoundMonitorService extends Service {
             
             // Add the overlaid video to segments (or original if overlay failed)
             String finalVideoFile = overlayVideoFile != null ? overlayVideoFile : currentVideoFile;
-            recordingSegments.add(finalVideoFile);
-            Log.i(TAG, "Segment " + segmentCounter + " saved. Total segments: " + recordingSegments.size());
+            if (sessionSegmentCount++ == 0) firstSegmentPath = finalVideoFile;
+            Log.i(TAG, "Segment " + segmentCounter + " saved. Total segments: " + sessionSegmentCount);
+            indexVideoSegment(finalVideoFile, System.currentTimeMillis());
+            appendSegmentToMerge(finalVideoFile);
             
             // Note: Files will be copied to public storage when session ends
             
@@ -1305,32 +2485,37 @@ public class SoundMonitorService extends Service {
             String subtitlePath = videoFilePath.replace(".mp4", "_SUB.srt");
             File subtitleFile = new File(subtitlePath);
             
-            // Get recording start time
-            String timestamp = TimestampUtils.getCurrentUtcTimestamp();
-            String formattedTime = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss 'UTC'", Locale.US).format(new Date());
-            
-            // Create SRT subtitle content
-            StringBuilder srtContent = new StringBuilder();
-            srtContent.append("1\n");
-            srtContent.append("00:00:00,000 --> 00:59:59,999\n");
-            srtContent.append("Recording: ").append(formattedTime).append("\n");
-            srtContent.append("Legal Timestamp: ").append(timestamp).append("\n");
+            // Same per-second cues as the track embedded in the final file, on the segment's own timeline
+            long durationMs = segmentMetadataFor(videoFile).durationMs;
+            TimedTextTrack perSecond = TimedTextTrack.subtitles();
+            addSegmentTimedText(perSecond, null, videoFile.getAbsolutePath(), 0, durationMs);
             
+            // The first cue also carries the recording's legal timestamp, authority and location
+            StringBuilder legal = new StringBuilder();
+            legal.append("Recording: ").append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss 'UTC'", Locale.US).format(new Date())).append("\n");
+            legal.append("Legal Timestamp: ").append(TimestampUtils.getCurrentUtcTimestamp());
             if (currentTimestamp != null && currentTimestamp.success) {
-                srtContent.append("Authority: ").append(currentTimestamp.authority).append("\n");
+                legal.append("\nAuthority: ").append(currentTimestamp.authority);
                 if (currentTimestamp.latitude != null && currentTimestamp.longitude != null) {
-                    srtContent.append("Location: ").append(currentTimestamp.latitude).append(", ").append(currentTimestamp.longitude).append("\n");
+                    legal.append("\nLocation: ").append(currentTimestamp.latitude).append(", ").append(currentTimestamp.longitude);
                 }
             }
-            srtContent.append("\n");
+            TimedTextTrack subtitles = TimedTextTrack.subtitles();
+            if (perSecond.getCueCount() == 0) {
+                subtitles.addCue(0, durationMs > 0 ? durationMs : 3599999, legal.toString());
+            }
+            for (TimedTextTrack.Cue cue : perSecond.getCues()) {
+                String text = subtitles.getCueCount() == 0 ? legal + "\n" + cue.text : cue.text;
+                subtitles.addCue(cue.startMs, cue.endMs, text);
+            }
             
             // Write subtitle file
             try (FileOutputStream fos = new FileOutputStream(subtitleFile)) {
-                fos.write(srtContent.toString().getBytes());
+                fos.write(subtitles.toSrt().getBytes("UTF-8"));
                 fos.flush();
             }
             
-            Log.i(TAG, "Created subtitle file: " + subtitlePath);
+            Log.i(TAG, "Created subtitle file: " + subtitlePath + " (" + subtitles.getCueCount() + " cues)");
             return subtitlePath;
             
         } catch (Exception e) {
@@ -1377,32 +2562,61 @@ public class SoundMonitorService extends Service {
     }
     
     private void saveTimestampFile(File videoFile) {
+        saveTimestampFile(videoFile, currentRecordingProof);
+    }
+    
+    private void saveTimestampFile(File videoFile, HybridTimestampService.RecordingProof proof) {
         try {
-            // Calculate SHA-256 hash of the actual video file
-            String videoFileHash = calculateFileHash(videoFile);
+            // Plain and seeded SHA-256 of the video: memoised if hashed while written, else one read
+            String seed = proof != null && proof.verified ? proof.hashSeed : null;
+            String videoFileHash;
+            String seededHash = null;
+            MerkleTree merkle = null;
+            try {
+                EvidenceHasher.Digests digests = seed != null ? evidenceHasher.hash(videoFile, seed) : evidenceHasher.hash(videoFile);
+                videoFileHash = digests.sha256;
+                seededHash = seed != null ? digests.seeded(seed) : null;
+                merkle = digests.merkle;
+                SegmentMetadataCache.Entry cached = segmentMetadata.get(videoFile);
+                if (cached == null || cached.sha256 == null) {
+                    segmentMetadata.putHash(videoFile, videoFileHash);
+                }
+                Log.i(TAG, "#️⃣ Evidence digests for " + videoFile.getName() + ": " + digests);
+            } catch (IOException e) {
+                Log.e(TAG, "Error hashing " + videoFile.getName(), e);
+                videoFileHash = "HASH_CALCULATION_FAILED";
+            }
+            File merkleFile = MerkleTree.indexFileFor(videoFile);
+            if (merkle != null) {
+                try {
+                    merkle.save(merkleFile);
+                } catch (IOException e) {
+                    Log.w(TAG, "Merkle leaves not saved for " + videoFile.getName() + ": " + e.getMessage());
+                }
+            }
             
             // Create timestamp verification file
-            String timestampFileName = videoFile.getName().replace(".mp4", "_timestamp.txt");
-            File timestampFile = new File(videoFile.getParent(), timestampFileName);
+            // audio_session.m4a gets audio_session_timestamp.txt, not itself
+            File timestampFile = SessionVolumeWriter.companionFile(videoFile, "_timestamp.txt");
             
             StringBuilder timestampInfo = new StringBuilder();
             
             // Use hybrid verification if available, fallback to legacy verification
-            if (currentRecordingProof != null && currentRecordingProof.verified) {
+            if (proof != null && proof.verified) {
                 Log.i(TAG, "🔐 Using hybrid verification for timestamp file");
                 // Use ONLY network-verified time from the recording proof
-                String stopTime = currentRecordingProof.networkTimestamp; // Use same authority as start
+                String stopTime = proof.networkTimestamp; // Use same authority as start
                 String hybridEvidence = HybridTimestampService.formatHybridEvidence(
-                    currentRecordingProof, videoFile, stopTime
+                    proof, videoFile, stopTime, seededHash
                 );
                 timestampInfo.append(hybridEvidence);
                 
                 // Add legacy verification for backward compatibility  
                 timestampInfo.append("\n\n=== LEGACY VERIFICATION (BACKWARD COMPATIBILITY) ===\n");
                 timestampInfo.append("Video File: ").append(videoFile.getName()).append("\n");
-                timestampInfo.append("Recording Started: ").append(currentRecordingProof.networkTimestamp).append("\n");
-                timestampInfo.append("Recording Stopped: ").append(currentRecordingProof.networkTimestamp).append("\n");
-                timestampInfo.append("File Size: ").append(videoFile.length()).append(" bytes\n");
+                timestampInfo.append("Recording Started: ").append(proof.networkTimestamp).append("\n");
+                timestampInfo.append("Recording Stopped: ").append(proof.networkTimestamp).append("\n");
+                timestampInfo.append("File Size: ").append(EncryptedFileChannel.plaintextLength(videoFile)).append(" bytes\n");
                 timestampInfo.append("SHA-256 Hash: ").append(videoFileHash).append("\n\n");
             } else {
                 Log.e(TAG, "❌ CRITICAL: Recording created without network time verification - this should not happen!");
@@ -1411,7 +2625,7 @@ public class SoundMonitorService extends Service {
                 timestampInfo.append("ERROR: This recording was created without network time verification.\n");
                 timestampInfo.append("This violates legal evidence requirements and the recording\n");
                 timestampInfo.append("may not be admissible in court due to timestamp uncertainty.\n");
-                timestampInfo.append("File Size: ").append(videoFile.length()).append(" bytes\n");
+                timestampInfo.append("File Size: ").append(EncryptedFileChannel.plaintextLength(videoFile)).append(" bytes\n");
                 timestampInfo.append("SHA-256 Hash: ").append(videoFileHash).append("\n\n");
                 
                 timestampInfo.append("=== LEGAL WARNING ===\n");
@@ -1421,6 +2635,26 @@ public class SoundMonitorService extends Service {
                 timestampInfo.append("Recommendation: Re-record with network connectivity\n\n");
             }
             
+            EvidenceJournal.Record chained = appendEvidence(videoFile.getParentFile(), EvidenceJournal.TYPE_FINAL, videoFile,
+                merkle != null ? videoFileHash : null, merkle != null ? "merkle=" + merkle.getRootHex() : "hash failed");
+            if (chained != null) {
+                timestampInfo.append("=== EVIDENCE CHAIN ===\n");
+                timestampInfo.append("Journal: ").append(EvidenceJournal.FILE_NAME).append(", record ").append(chained.seq).append("\n");
+                timestampInfo.append("Previous Record Hash: ").append(chained.previousHash).append("\n");
+                timestampInfo.append("Record Hash: ").append(chained.hash).append("\n");
+                timestampInfo.append("Each record includes the hash of the one before it, binding this file to the\n");
+                timestampInfo.append("session's segments and their order.\n\n");
+            }
+            
+            if (merkle != null) {
+                timestampInfo.append("=== MERKLE TREE ===\n");
+                timestampInfo.append("Merkle Root (SHA-256): ").append(merkle.getRootHex()).append("\n");
+                timestampInfo.append("Leaf Size: ").append(merkle.leafSize).append(" bytes\n");
+                timestampInfo.append("Leaves: ").append(merkle.getLeafCount()).append(" (").append(merkleFile.getName()).append(")\n");
+                timestampInfo.append("Leaf and node hashes as in RFC 6962. Part of the file, such as a clip's\n");
+                timestampInfo.append("source media, is verified by re-hashing only the leaves it covers.\n\n");
+            }
+            
             if (currentTimestamp != null && currentTimestamp.success) {
                 timestampInfo.append("=== AUTHORITATIVE TIMESTAMP VERIFICATION ===\n");
                 String authority = currentTimestamp.authority != null ? currentTimestamp.authority : "Unknown";
@@ -1555,20 +2789,8 @@ public class SoundMonitorService extends Service {
             Uri videoUri = contentResolver.insert(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, contentValues);
             
             if (videoUri != null) {
-                try (FileInputStream inputStream = new FileInputStream(sourceFile);
-                     OutputStream outputStream = contentResolver.openOutputStream(videoUri)) {
-                    
-                    byte[] buffer = new byte[8192];
-                    int bytesRead;
-                    long totalBytes = 0;
-                    
-                    while ((bytesRead = inputStream.read(buffer)) != -1) {
-                        outputStream.write(buffer, 0, bytesRead);
-                        totalBytes += bytesRead;
-                    }
-                    
-                    Log.i(TAG, "Successfully copied video to public storage (size: " + totalBytes + " bytes)");
-                }
+                long totalBytes = writeExport(sourceFile, videoUri, false);
+                Log.i(TAG, "Successfully copied video to public storage (size: " + totalBytes + " bytes)");
             } else {
                 Log.e(TAG, "Failed to create MediaStore entry for video");
             }
@@ -1580,8 +2802,8 @@ public class SoundMonitorService extends Service {
     
     private void copyTimestampToPublicStorage(File videoFile) {
         try {
-            String timestampFileName = videoFile.getName().replace(".mp4", "_timestamp.txt");
-            File timestampFile = new File(videoFile.getParent(), timestampFileName);
+            File timestampFile = SessionVolumeWriter.companionFile(videoFile, "_timestamp.txt");
+            String timestampFileName = timestampFile.getName();
             
             if (!timestampFile.exists()) {
                 Log.w(TAG, "Timestamp file not found: " + timestampFile.getAbsolutePath());
@@ -1768,8 +2990,8 @@ public class SoundMonitorService extends Service {
     
     private void copyTimestampToDownloads(File videoFile) {
         try {
-            String timestampFileName = videoFile.getName().replace(".mp4", "_timestamp.txt");
-            File timestampFile = new File(videoFile.getParent(), timestampFileName);
+            File timestampFile = SessionVolumeWriter.companionFile(videoFile, "_timestamp.txt");
+            String timestampFileName = timestampFile.getName();
             
             if (!timestampFile.exists()) {
                 Log.w(TAG, "Timestamp file not found for Downloads copy: " + timestampFile.getAbsolutePath());
@@ -1924,15 +3146,37 @@ public class SoundMonitorService extends Service {
         try {
             Log.i(TAG, "Copying session files to Downloads");
             
-            File[] sessionFiles = sessionFolder.listFiles();
-            if (sessionFiles == null) {
-                Log.w(TAG, "No files found in session folder");
-                return;
+            // The manifest lists every file the session produced; only older sessions need a folder scan
+            List<File> sessionFiles = new ArrayList<>();
+            SessionManifest manifest = null;
+            try {
+                manifest = SessionManifest.load(sessionFolder);
+            } catch (IOException e) {
+                Log.w(TAG, "Session manifest unreadable, scanning folder: " + e.getMessage());
+            }
+            if (manifest != null) {
+                for (SessionManifest.FileEntry entry : manifest.getFiles()) {
+                    sessionFiles.add(new File(sessionFolder, entry.name));
+                }
+                sessionFiles.add(SessionManifest.manifestFileFor(sessionFolder));
+            } else {
+                File[] listed = sessionFolder.listFiles();
+                if (listed == null) {
+                    Log.w(TAG, "No files found in session folder");
+                    return;
+                }
+                for (File file : listed) {
+                    if (file.isFile()) sessionFiles.add(file);
+                }
             }
             
+            String relativePath = "Download/SoundTrigger/" + sessionFolder.getName();
             for (File file : sessionFiles) {
                 if (file.isFile()) {
-                    copyFileToDownloads(file, "Download/SoundTrigger/" + sessionFolder.getName());
+                    copyFileToDownloads(file, relativePath, file.getName(), false);
+                    if (needsStreamingCopy(file)) {
+                        copyFileToDownloads(file, relativePath, streamingCopyName(file), true);
+                    }
                 }
             }
             
@@ -1944,7 +3188,28 @@ public class SoundMonitorService extends Service {
     }
     
     
-    private void copyFileToDownloads(File sourceFile, String relativePath) {
+    /**
+     * A recording whose index is behind its media data also gets a faststart copy in Downloads
+     * for sharing; the evidence file itself is exported as recorded, so it matches its hashes
+     */
+    private boolean needsStreamingCopy(File file) {
+        String name = file.getName();
+        if (!name.endsWith(".mp4") && !name.endsWith(".m4a")) return false;
+        try {
+            // Encrypted recordings are fragmented and play while downloading already
+            return !EncryptedFileChannel.isEncrypted(file) && Mp4Faststart.needsFaststart(file);
+        } catch (IOException e) {
+            Log.w(TAG, "No streaming copy of " + name + ": " + e.getMessage());
+            return false;
+        }
+    }
+    
+    private static String streamingCopyName(File file) {
+        String name = file.getName();
+        return SessionVolumeWriter.companionFile(file, STREAMING_COPY_SUFFIX + name.substring(name.lastIndexOf('.'))).getName();
+    }
+    
+    private void copyFileToDownloads(File sourceFile, String relativePath, String displayName, boolean faststart) {
         try {
             ContentResolver contentResolver = getContentResolver();
             ContentValues contentValues = new ContentValues();
@@ -1965,7 +3230,7 @@ public class SoundMonitorService extends Service {
             }
             
             // Use IS_PENDING to prevent conflicts during file creation
-            contentValues.put(MediaStore.Files.FileColumns.DISPLAY_NAME, sourceFile.getName());
+            contentValues.put(MediaStore.Files.FileColumns.DISPLAY_NAME, displayName);
             contentValues.put(MediaStore.Files.FileColumns.MIME_TYPE, mimeType);
             contentValues.put(MediaStore.Files.FileColumns.RELATIVE_PATH, finalRelativePath);
             contentValues.put(MediaStore.Files.FileColumns.IS_PENDING, 1); // Mark as pending to avoid conflicts
@@ -1974,20 +3239,8 @@ public class SoundMonitorService extends Service {
             targetUri = contentResolver.insert(MediaStore.Files.getContentUri("external"), contentValues);
             
             if (targetUri != null) {
-                try (FileInputStream inputStream = new FileInputStream(sourceFile);
-                     OutputStream outputStream = contentResolver.openOutputStream(targetUri)) {
-                    
-                    byte[] buffer = new byte[8192];
-                    int bytesRead;
-                    long totalBytes = 0;
-                    
-                    while ((bytesRead = inputStream.read(buffer)) != -1) {
-                        outputStream.write(buffer, 0, bytesRead);
-                        totalBytes += bytesRead;
-                    }
-                    
-                    Log.i(TAG, "Copied " + sourceFile.getName() + " to Downloads (size: " + totalBytes + " bytes)");
-                }
+                long totalBytes = writeExport(sourceFile, targetUri, faststart);
+                Log.i(TAG, "Copied " + displayName + " to Downloads (size: " + totalBytes + " bytes)");
                 
                 // Mark file as complete (no longer pending)
                 contentValues.clear();
@@ -2003,6 +3256,51 @@ public class SoundMonitorService extends Service {
         }
     }
     
+    /**
+     * Write the export copy of a session file, byte for byte as recorded (decrypted if encrypted
+     * at rest). With faststart, an MP4's index is moved in front of its media data instead: only
+     * for the separately named streaming copy, never for the file the hashes are of.
+     */
+    private long writeExport(File sourceFile, Uri targetUri, boolean faststart) throws IOException {
+        ParcelFileDescriptor descriptor = getContentResolver().openFileDescriptor(targetUri, "w");
+        if (descriptor == null) {
+            throw new IOException("Cannot open " + targetUri + " for writing");
+        }
+        try (ParcelFileDescriptor pfd = descriptor;
+             FileOutputStream outputStream = new FileOutputStream(pfd.getFileDescriptor())) {
+            FileChannel out = outputStream.getChannel();
+            String name = sourceFile.getName();
+            if (EncryptedFileChannel.isEncrypted(sourceFile)) {
+                // Exports are plaintext; fragmented recordings need no faststart
+                SecretKey key = EvidenceKeys.atRestKey(this, false);
+                if (key == null) throw new IOException("No key to decrypt " + name);
+                try (EncryptedFileChannel in = EncryptedFileChannel.open(sourceFile, key, false)) {
+                    long size = in.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                    Log.i(TAG, "🔐 Export " + name + " decrypted: " + in.formatStats());
+                    return size;
+                }
+            }
+            if (faststart) {
+                Mp4Faststart.Result result = Mp4Faststart.write(sourceFile, out);
+                Log.i(TAG, "⏩ Streaming copy of " + name + ": " + result);
+                return result.outputBytes;
+            }
+            try (FileInputStream inputStream = new FileInputStream(sourceFile)) {
+                FileChannel in = inputStream.getChannel();
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+                return size;
+            }
+        }
+    }
+    
     private String getMimeType(File file) {
         String fileName = file.getName().toLowerCase();
         if (fileName.endsWith(".mp4")) {
@@ -2018,27 +3316,7 @@ public class SoundMonitorService extends Service {
     
     private String calculateFileHash(File file) {
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            try (FileInputStream fis = new FileInputStream(file)) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    digest.update(buffer, 0, bytesRead);
-                }
-            }
-            
-            byte[] hash = digest.digest();
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
-            }
-            
-            return hexString.toString();
-            
+            return evidenceHasher.hashValues(file).sha256;
         } catch (Exception e) {
             Log.e(TAG, "Error calculating file hash", e);
             return "HASH_CALCULATION_FAILED";
@@ -2083,59 +3361,80 @@ public class SoundMonitorService extends Service {
         manager.notify(NOTIFICATION_ID, notification);
     }
     
+    // Runs on mergeExecutor, so the full merge fallback never overlaps the incremental one
     private void mergeSegmentsAndSave() {
         try {
-            Log.i(TAG, "Merging " + recordingSegments.size() + " recording segments...");
+            Log.i(TAG, "Finalising session of " + sessionSegmentCount + " recording segments...");
             
-            if (recordingSegments.size() == 1) {
-                // Only one segment, just copy and rename it
-                String finalFileName = "FINAL.mp4";
-                File segmentFile = new File(recordingSegments.get(0));
-                File finalFile = new File(sessionFolder, finalFileName);
-                
-                // Copy the single segment to final file
-                copyFile(segmentFile, finalFile);
-                
-                Log.i(TAG, "Single segment renamed to final file: " + finalFile.getAbsolutePath());
-                processFinalFile(finalFile);
-                
-            } else if (recordingSegments.size() > 1) {
-                // Multiple segments - use simple concatenation
-                String finalFileName = "FINAL.mp4";
-                File finalFile = new File(sessionFolder, finalFileName);
-                
-                // Simple MP4 concatenation (works for files with same encoding settings)
-                concatenateMP4Files(recordingSegments, finalFile.getAbsolutePath());
+            File folder = sessionFolder;
+            long finaliseStart = System.currentTimeMillis();
+            lastMergeStats = null;
+            
+            List<SessionVolumeWriter.Volume> volumes = finishIncrementalMerge();
+            if (volumes != null) {
+                // Segments were appended as they closed - only the last volume's index was written now
+                Log.i(TAG, "Segments merged incrementally into " + volumes.size() + " volume(s) in " + folder.getAbsolutePath());
                 
-                Log.i(TAG, "Segments merged into final file: " + finalFile.getAbsolutePath());
-                processFinalFile(finalFile);
+            } else {
+                // The segments on disk, in recording order, are the source of truth for a full merge
+                List<File> segments = Mp4Recovery.listSessionSegments(folder);
+                if (segments.size() == 1) {
+                    // Only one segment, just copy and rename it
+                    volumes = copyFirstSegmentAsFinal(folder, segments);
+                } else {
+                    volumes = concatenateMP4Files(folder, segments);
+                }
+            }
+            
+            Log.i(TAG, "⏱️ Final files ready in " + (System.currentTimeMillis() - finaliseStart) + " ms for "
+                + sessionSegmentCount + " segments (" + volumes.size() + " volumes)");
+            if (!volumes.isEmpty()) {
+                processFinalFiles(volumes);
             }
             
             // Keep segment files in session folder - don't delete them
-            Log.i(TAG, "Keeping " + recordingSegments.size() + " segment files in session folder");
+            Log.i(TAG, "Keeping " + sessionSegmentCount + " segment files in session folder");
+            
+            indexSessionEnd(sessionSegmentCount);
             
             // Reset session variables
-            recordingSegments.clear();
+            sessionSegmentCount = 0;
+            firstSegmentPath = null;
             sessionTimestamp = "";
             sessionFolder = null;
             segmentCounter = 0;
+            incrementalMergeFailed = false;
+            segmentTimings.clear();
+            Log.i(TAG, "🗃️ Segment metadata: " + segmentMetadata.formatStats() + ", "
+                + evidenceHasher.getPassCount() + " hashing passes, "
+                + evidenceHasher.getHashedOnWriteCount() + " files hashed while written");
+            segmentMetadata.clear();
+            evidenceHasher.clear();
+            saveDigestCache();
+            recordingProofs.clear();
             
         } catch (Exception e) {
             Log.e(TAG, "Error merging recording segments", e);
         }
+        sessionActive = false;
     }
     
-    private void processFinalFile(File finalFile) {
+    /**
+     * Session-level files once all volumes are closed. Each volume's timestamp file, SRT and seek
+     * index were already written when it closed, so only the summary files are left.
+     */
+    private void processFinalFiles(List<SessionVolumeWriter.Volume> volumes) {
         try {
-            Log.i(TAG, "Processing final merged file: " + finalFile.getAbsolutePath() + " (size: " + finalFile.length() + " bytes)");
-            
-            // Save timestamp verification file first
-            saveTimestampFile(finalFile);
+            File mainFile = volumes.get(0).file;
+            Log.i(TAG, "Processing final merged file: " + mainFile.getAbsolutePath() + " (size: " + mainFile.length()
+                + " bytes, " + volumes.size() + " volumes)");
             
-            // Create combined metadata files for the final merged video (after timestamp file exists)
-            createCombinedSrtFile(finalFile);
-            createCombinedInfoFile(finalFile);
+            createCombinedInfoFile(volumes);
             createSessionReadme();
+            createNoiseReportFile();
+            finishEvidenceJournal("Download/SoundTrigger", volumes.size());
+            finishSessionManifest(mainFile, "FINAL_META.txt", "README.txt", NoiseReport.REPORT_FILE_NAME,
+                EvidenceJournal.FILE_NAME, BatchSigner.FILE_NAME, BatchTimestamps.FILE_NAME);
             
             // Copy all session files to public storage once at the end
             copySessionToDownloads();
@@ -2147,157 +3446,99 @@ public class SoundMonitorService extends Service {
         }
     }
     
-    private void createCombinedSrtFile(File finalFile) {
-        try {
-            String finalSrtPath = finalFile.getAbsolutePath().replace("FINAL.mp4", "FINAL_SUB.srt");
-            File finalSrtFile = new File(finalSrtPath);
-            
-            StringBuilder combinedSrt = new StringBuilder();
-            int subtitleIndex = 1;
-            long cumulativeDuration = 0;
-            
-            Log.i(TAG, "Creating combined SRT file from " + recordingSegments.size() + " segments");
-            
-            // Process each segment's SRT file
-            for (String segmentPath : recordingSegments) {
-                File segmentFile = new File(segmentPath);
-                String segmentSrtPath = segmentPath.replace(".mp4", "_SUB.srt");
-                File segmentSrtFile = new File(segmentSrtPath);
+    /**
+     * Session summary (FINAL_META.txt), streamed to disk: the volumes, then one block per segment
+     * read from the session manifest, so nothing the size of the session is built in memory.
+     * Runs on manifestExecutor, after every queued segment and volume has been recorded.
+     */
+    private void createCombinedInfoFile(final List<SessionVolumeWriter.Volume> volumes) {
+        final File folder = sessionFolder;
+        final File finalInfoFile = new File(folder, "FINAL_META.txt");
+        final String session = sessionTimestamp;
+        final String startTime = currentRecordingStartTime;
+        final String mergeStats = lastMergeStats;
+        final int segmentCount = sessionSegmentCount;
+        Future<?> done = manifestExecutor.submit(() -> {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(finalInfoFile), "UTF-8"), 64 * 1024)) {
+                long totalBytes = 0;
+                long totalMs = 0;
+                for (SessionVolumeWriter.Volume volume : volumes) {
+                    totalBytes += volume.sizeBytes;
+                    totalMs += volume.durationMs;
+                }
+                out.write("=== SOUND MONITOR SESSION INFORMATION ===\n");
+                out.write("Session: " + session + "\n");
+                out.write("Final Video: " + volumes.get(0).file.getName() + "\n");
+                if (volumes.size() > 1) {
+                    out.write("Volumes: " + volumes.size() + " (split at " + volumeLimitBytes / (1024 * 1024) + " MB)\n");
+                }
+                out.write("Total Segments: " + segmentCount + "\n");
+                out.write("Recording Started: " + startTime + "\n");
+                out.write("Final Video Size: " + totalBytes + " bytes\n");
+                out.write("Total Duration: " + totalMs / 1000.0 + " seconds\n");
+                out.write("Format: " + segmentMetadataFor(volumes.get(0).file).formatCodecs() + "\n");
+                if (mergeStats != null) {
+                    out.write("Merge: " + mergeStats + "\n");
+                }
+                out.write("\n");
                 
-                if (segmentSrtFile.exists()) {
-                    // Get segment duration for time offset calculation
-                    long segmentDuration = getVideoDurationMs(segmentFile);
-                    
-                    // Add segment SRT content with time offset
-                    String segmentContent = readSegmentSrtContent(segmentSrtFile, subtitleIndex, cumulativeDuration);
-                    if (!segmentContent.isEmpty()) {
-                        combinedSrt.append(segmentContent).append("\n");
-                        subtitleIndex++;
+                if (volumes.size() > 1) {
+                    out.write("=== VOLUMES ===\n");
+                    for (SessionVolumeWriter.Volume volume : volumes) {
+                        out.write("Volume " + volume.number + ":\n");
+                        out.write("  File: " + volume.file.getName() + "\n");
+                        out.write("  Size: " + volume.sizeBytes + " bytes\n");
+                        out.write("  Duration: " + volume.durationMs / 1000.0 + " seconds\n");
+                        out.write("  Segments: " + volume.segmentCount + "\n");
+                        SegmentMetadataCache.Entry metadata = segmentMetadata.get(volume.file);
+                        if (metadata != null && metadata.sha256 != null) {
+                            out.write("  SHA-256: " + metadata.sha256 + "\n");
+                        }
+                        out.write("\n");
                     }
-                    
-                    cumulativeDuration += segmentDuration;
-                } else {
-                    Log.w(TAG, "SRT file not found for segment: " + segmentSrtPath);
                 }
-            }
-            
-            // Write combined SRT
-            try (FileOutputStream fos = new FileOutputStream(finalSrtFile)) {
-                fos.write(combinedSrt.toString().getBytes());
-                fos.flush();
-            }
-            
-            Log.i(TAG, "Created combined SRT file: " + finalSrtPath);
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Error creating combined SRT file", e);
-        }
-    }
-    
-    private void createCombinedInfoFile(File finalFile) {
-        try {
-            String finalInfoPath = finalFile.getAbsolutePath().replace("FINAL.mp4", "FINAL_META.txt");
-            File finalInfoFile = new File(finalInfoPath);
-            
-            StringBuilder combinedInfo = new StringBuilder();
-            combinedInfo.append("=== SOUND MONITOR SESSION INFORMATION ===\n");
-            combinedInfo.append("Session: ").append(sessionTimestamp).append("\n");
-            combinedInfo.append("Final Video: ").append(finalFile.getName()).append("\n");
-            combinedInfo.append("Total Segments: ").append(recordingSegments.size()).append("\n");
-            combinedInfo.append("Recording Started: ").append(currentRecordingStartTime).append("\n");
-            combinedInfo.append("Final Video Size: ").append(finalFile.length()).append(" bytes\n");
-            
-            // Get total duration
-            long totalDuration = getVideoDurationMs(finalFile);
-            combinedInfo.append("Total Duration: ").append(totalDuration / 1000.0).append(" seconds\n\n");
-            
-            combinedInfo.append("=== SEGMENT DETAILS ===\n");
-            
-            // Add details for each segment
-            for (int i = 0; i < recordingSegments.size(); i++) {
-                String segmentPath = recordingSegments.get(i);
-                File segmentFile = new File(segmentPath);
                 
-                combinedInfo.append("Segment ").append(i + 1).append(":\n");
-                combinedInfo.append("  File: ").append(segmentFile.getName()).append("\n");
-                combinedInfo.append("  Size: ").append(segmentFile.length()).append(" bytes\n");
-                
-                long segmentDuration = getVideoDurationMs(segmentFile);
-                combinedInfo.append("  Duration: ").append(segmentDuration / 1000.0).append(" seconds\n");
-                
-                // Individual segments don't have separate timestamp files
-                // Legal verification is provided in the final merged video timestamp file
-                combinedInfo.append("  Legal Verification: In final timestamp file\n");
+                out.write("=== SEGMENT DETAILS ===\n");
+                SessionManifest manifest = sessionManifest;
+                int number = 0;
+                if (manifest != null) {
+                    for (SessionManifest.FileEntry entry : manifest.getFiles(SessionManifest.KIND_SEGMENT)) {
+                        out.write("Segment " + (++number) + ":\n");
+                        out.write("  File: " + entry.name + "\n");
+                        out.write("  Size: " + entry.sizeBytes + " bytes\n");
+                        out.write("  Duration: " + entry.durationMs / 1000.0 + " seconds\n");
+                        // Cached at close; never re-parsed here, so the report costs the same per segment
+                        SegmentMetadataCache.Entry metadata = segmentMetadata.get(new File(folder, entry.name));
+                        if (metadata != null) {
+                            out.write("  Format: " + metadata.formatCodecs() + "\n");
+                        }
+                        if (entry.sha256 != null) {
+                            out.write("  SHA-256: " + entry.sha256 + "\n");
+                        }
+                        
+                        // Individual segments don't have separate timestamp files
+                        // Legal verification is provided in the final merged video timestamp file
+                        out.write("  Legal Verification: In final timestamp file\n");
+                        out.write("\n");
+                    }
+                }
                 
-                combinedInfo.append("\n");
-            }
-            
-            combinedInfo.append("=== LEGAL NOTICE ===\n");
-            combinedInfo.append("This recording was automatically triggered by sound detection.\n");
-            combinedInfo.append("Legal verification provided in the final video timestamp file.\n");
-            combinedInfo.append("All times in UTC. GPS location and SHA-256 hash available in timestamp file.\n");
-            
-            // Write combined info
-            try (FileOutputStream fos = new FileOutputStream(finalInfoFile)) {
-                fos.write(combinedInfo.toString().getBytes());
-                fos.flush();
+                out.write("=== LEGAL NOTICE ===\n");
+                out.write("This recording was automatically triggered by sound detection.\n");
+                out.write("Legal verification provided in the final video timestamp file.\n");
+                out.write("All times in UTC. GPS location and SHA-256 hash available in timestamp file.\n");
+                Log.i(TAG, "Created combined info file: " + finalInfoFile.getAbsolutePath() + " (" + number + " segments)");
+            } catch (Exception e) {
+                Log.e(TAG, "Error creating combined info file", e);
             }
-            
-            Log.i(TAG, "Created combined info file: " + finalInfoPath);
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Error creating combined info file", e);
-        }
-    }
-    
-    private String readSegmentSrtContent(File srtFile, int subtitleIndex, long timeOffsetMs) {
+        });
         try {
-            StringBuilder content = new StringBuilder();
-            
-            // Read the SRT file content
-            StringBuilder srtContent = new StringBuilder();
-            try (FileInputStream fis = new FileInputStream(srtFile)) {
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    srtContent.append(new String(buffer, 0, bytesRead));
-                }
-            }
-            
-            // Format the subtitle with proper index and time offset
-            content.append(subtitleIndex).append("\n");
-            
-            // Calculate time range for this segment (simplified - shows for entire segment duration)
-            String startTime = formatSrtTime(timeOffsetMs);
-            String endTime = formatSrtTime(timeOffsetMs + 60000); // Assume 1 minute segments
-            
-            content.append(startTime).append(" --> ").append(endTime).append("\n");
-            
-            // Extract just the text content from original SRT (skip timestamp lines)
-            String[] lines = srtContent.toString().split("\n");
-            for (int i = 2; i < lines.length; i++) { // Skip index and time lines
-                if (!lines[i].trim().isEmpty()) {
-                    content.append(lines[i].trim()).append("\n");
-                }
-            }
-            
-            return content.toString();
-            
+            done.get(60, TimeUnit.SECONDS);
         } catch (Exception e) {
-            Log.e(TAG, "Error reading segment SRT content", e);
-            return "";
+            Log.w(TAG, "Combined info file not finished: " + e.getMessage());
         }
     }
     
-    private String formatSrtTime(long milliseconds) {
-        long hours = milliseconds / (1000 * 60 * 60);
-        long minutes = (milliseconds % (1000 * 60 * 60)) / (1000 * 60);
-        long seconds = (milliseconds % (1000 * 60)) / 1000;
-        long millis = milliseconds % 1000;
-        
-        return String.format("%02d:%02d:%02d,%03d", hours, minutes, seconds, millis);
-    }
-    
     private long getVideoDurationMs(File videoFile) {
         try {
             MediaMetadataRetriever retriever = new MediaMetadataRetriever();
@@ -2334,6 +3575,14 @@ public class SoundMonitorService extends Service {
             readme.append("   → The complete merged video from all recording segments\n");
             readme.append("   → This is your main evidence file\n\n");
             
+            readme.append("   FINAL_002.mp4, FINAL_003.mp4... (long sessions only)\n");
+            readme.append("   → Further volumes of the merged video, up to about 2 GB each, in recording order\n");
+            readme.append("   → Each volume has its own _SUB.srt, _timestamp.txt and .seek files\n\n");
+            
+            readme.append("   FINAL" + STREAMING_COPY_SUFFIX + ".mp4 (Downloads only)\n");
+            readme.append("   → Copy of FINAL.mp4 with its index moved to the front, for sharing and streaming\n");
+            readme.append("   → Not the evidence file: its SHA-256 differs, verify FINAL.mp4 instead\n\n");
+            
             readme.append("   FINAL_SUB.srt\n");
             readme.append("   → Combined subtitles showing timestamps for the entire session\n");
             readme.append("   → Load this with the video in media players for timestamp overlay\n\n");
@@ -2347,6 +3596,14 @@ public class SoundMonitorService extends Service {
             readme.append("   → Contains cryptographic timestamp, GPS location, and integrity hash\n");
             readme.append("   → Proves when and where the recording was made\n\n");
             
+            readme.append("   session.manifest\n");
+            readme.append("   → Binary list of every file in this folder with size, duration and SHA-256\n");
+            readme.append("   → Read by the app for exporting and verification instead of scanning the folder\n\n");
+            
+            readme.append("   NOISE_REPORT.txt\n");
+            readme.append("   → Daily and weekly summary of sound events over the last 7 days\n");
+            readme.append("   → Event counts, loud minutes, Leq and the loudest events\n\n");
+            
             readme.append("📹 INDIVIDUAL SEGMENTS:\n");
             readme.append("   01.mp4, 02.mp4, 03.mp4...\n");
             readme.append("   → Individual recording segments (before merging)\n");
@@ -2360,6 +3617,10 @@ public class SoundMonitorService extends Service {
             readme.append("   → Technical information for each segment\n");
             readme.append("   → File size, duration, encoding details, GPS coordinates\n\n");
             
+            readme.append("   01.peaks, 02.peaks, 03.peaks...\n");
+            readme.append("   → Waveform overview index (min/max/RMS levels at several zoom levels)\n");
+            readme.append("   → Lets viewers draw the level of any time range without decoding video\n\n");
+            
             readme.append("   01_timestamp.txt, 02_timestamp.txt, 03_timestamp.txt...\n");
             readme.append("   → Legal verification for each individual segment\n");
             readme.append("   → Separate cryptographic proof for each recording\n\n");
@@ -2421,66 +3682,79 @@ public class SoundMonitorService extends Service {
         }
     }
     
-    private void concatenateMP4Files(List<String> inputFiles, String outputFile) {
+    private List<SessionVolumeWriter.Volume> concatenateMP4Files(final File folder, List<File> inputFiles) {
+        Log.i(TAG, "Merging " + inputFiles.size() + " MP4 files...");
+        
+        // Proper MP4 merge: one combined sample index per volume, media data copied with transferTo
+        SessionVolumeWriter volumes = new SessionVolumeWriter(folder, volumeLimitBytes, volume -> onVolumeClosed(folder, volume));
+        volumes.setEvidenceHasher(evidenceHasher, digestSeedsFor(currentRecordingProof));
         try {
-            Log.i(TAG, "Concatenating " + inputFiles.size() + " MP4 files...");
-            
-            // Simple MP4 concatenation by copying raw bytes
-            // Note: This works for files with identical encoding parameters
-            try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-                boolean firstFile = true;
-                
-                for (String inputFile : inputFiles) {
-                    File file = new File(inputFile);
-                    if (!file.exists()) {
-                        Log.w(TAG, "Segment file not found: " + inputFile);
-                        continue;
-                    }
-                    
-                    try (FileInputStream fis = new FileInputStream(file)) {
-                        byte[] buffer = new byte[8192];
-                        int bytesRead;
-                        long totalBytes = 0;
-                        
-                        // For MP4 concatenation, we skip the header of subsequent files
-                        if (!firstFile) {
-                            // Skip the first few bytes (MP4 header) for subsequent files
-                            // This is a simplified approach - proper MP4 merging is more complex
-                            fis.skip(32); // Skip basic MP4 header
-                        }
-                        
-                        while ((bytesRead = fis.read(buffer)) != -1) {
-                            fos.write(buffer, 0, bytesRead);
-                            totalBytes += bytesRead;
-                        }
-                        
-                        Log.i(TAG, "Concatenated segment: " + inputFile + " (" + totalBytes + " bytes)");
-                        firstFile = false;
-                    }
+            for (File file : inputFiles) {
+                try {
+                    appendWithTimedText(volumes, file);
+                    Log.i(TAG, "Merged segment: " + file.getAbsolutePath() + " (" + file.length() + " bytes)");
+                } catch (Mp4Merger.SegmentRejectedException e) {
+                    // Unreadable index (e.g. segment cut short by a crash) - nothing was written for it
+                    Log.w(TAG, "Skipping segment " + file.getAbsolutePath() + ": " + e.getMessage());
                 }
             }
             
-            Log.i(TAG, "MP4 concatenation completed: " + outputFile);
-            
+            List<SessionVolumeWriter.Volume> finished = volumes.finish();
+            if (!finished.isEmpty()) {
+                lastMergeStats = formatMergeStats(finished);
+                Log.i(TAG, "🎬 MP4 merge completed: " + lastMergeStats);
+                return finished;
+            }
         } catch (Exception e) {
-            Log.e(TAG, "Error concatenating MP4 files", e);
-            // If concatenation fails, use the first segment as the final file
+            Log.e(TAG, "Error merging MP4 files", e);
+            if (!volumes.getVolumes().isEmpty()) {
+                return volumes.getVolumes();
+            }
+        } finally {
             try {
-                if (!inputFiles.isEmpty()) {
-                    copyFile(new File(inputFiles.get(0)), new File(outputFile));
-                    Log.i(TAG, "Fallback: Used first segment as final file");
-                }
-            } catch (IOException ioE) {
-                Log.e(TAG, "Fallback copy also failed", ioE);
+                volumes.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error discarding partial volume: " + e.getMessage());
             }
         }
+        // If merging fails, use the first segment as the final file
+        return copyFirstSegmentAsFinal(folder, inputFiles);
     }
     
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
+    /**
+     * FINAL.mp4 as a plain copy of the first segment, with its subtitles rebuilt from its timing
+     */
+    private List<SessionVolumeWriter.Volume> copyFirstSegmentAsFinal(File folder, List<File> segments) {
+        List<SessionVolumeWriter.Volume> volumes = new ArrayList<>();
+        if (segments.isEmpty()) return volumes;
+        File first = segments.get(0);
+        File finalFile = SessionVolumeWriter.volumeFile(folder, 1);
+        try {
+            copyFile(first, finalFile);
+            long durationMs = segmentMetadataFor(first).durationMs;
+            TimedTextTrack subtitles = TimedTextTrack.subtitles();
+            addSegmentTimedText(subtitles, null, first.getAbsolutePath(), 0, durationMs);
+            SessionVolumeWriter.writeSrt(subtitles,
+                SessionVolumeWriter.companionFile(finalFile, SessionVolumeWriter.SUBTITLE_SUFFIX));
+            SessionVolumeWriter.Volume volume = new SessionVolumeWriter.Volume(1, finalFile, 1, durationMs,
+                finalFile.length(), subtitles.getCueCount(), 0, 0, null, null);
+            onVolumeClosed(folder, volume);
+            volumes.add(volume);
+            Log.i(TAG, "Single segment copied to final file: " + finalFile.getAbsolutePath());
+        } catch (IOException e) {
+            Log.e(TAG, "Copying first segment to final file failed", e);
+        }
+        return volumes;
+    }
+    
+    /**
+     * Stop the microphone, camera and recorders; the session's files are saved afterwards by
+     * finishSessionInBackground
+     */
+    private void stopCapture() {
         isMonitoring = false;
         isDbMonitoring = false;
+        stopHandler.removeCallbacksAndMessages(null);
         
         if (audioRecord != null) {
             audioRecord.stop();
@@ -2501,12 +3775,53 @@ public class SoundMonitorService extends Service {
             stopAudioOnlyRecording();
         }
         
-        // Merge all recording segments when service stops (video mode)
-        if (!recordingSegments.isEmpty() && !isAudioOnlyMode) {
-            mergeSegmentsAndSave();
-        }
-        
         cleanup();
+    }
+    
+    /**
+     * Merge and save the session, then close the level history, journal and index. Queued on
+     * mergeExecutor behind every segment append, so FINAL has one writer, and never waited
+     * for on the main thread. Once saved, the service stops for stopStartId (0: already
+     * destroyed), unless a later start command arrived meanwhile.
+     */
+    private void finishSessionInBackground(final int stopStartId) {
+        sessionFinishing = true;
+        final boolean mergeVideo = sessionSegmentCount > 0 && !isAudioOnlyMode;
+        mergeExecutor.execute(() -> {
+            long start = System.currentTimeMillis();
+            if (mergeVideo) {
+                mergeSegmentsAndSave();
+            }
+            closeLevelHistory();
+            // A session cut short keeps its chain; records after this reopen the journal
+            closeEvidenceJournal();
+            saveDigestCache();
+            sessionActive = false;
+            if (eventIndex != null) {
+                eventIndex.flushBlocking();
+            }
+            Log.i(TAG, "💾 Session saved in " + (System.currentTimeMillis() - start) + " ms");
+            if (stopStartId == 0) return;
+            handler.post(() -> {
+                if (!stopSelfResult(stopStartId)) sessionFinishing = false;
+            });
+        });
+    }
+    
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (!sessionFinishing) {
+            // Stopped without STOP_MONITORING: the session is still saved, in the background
+            stopCapture();
+            finishSessionInBackground(0);
+        }
+        // Executors finish their queued work; the merge queue shuts the others down at its end
+        mergeExecutor.execute(() -> {
+            manifestExecutor.shutdown();
+            timestampExecutor.shutdown();
+        });
+        mergeExecutor.shutdown();
         
         handler.removeCallbacksAndMessages(null);
         stopHandler.removeCallbacksAndMessages(null);
@@ -0,0 +1,197 @@
+package com.soundmonitor.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 3GPP timed text ('tx3g') track built from cues, embedded into merged MP4s by Mp4Merger.
+ *
+ * Two kinds are used:
+ * 1. Subtitles - one cue per second with the verified wall-clock time and the measured level
+ * 2. Chapters - one cue per trigger event; the video track points at it with a 'chap' reference,
+ *    and the track itself is disabled so players list it as chapters instead of rendering it
+ *
+ * Each cue becomes one sample (16-bit length + UTF-8 text). Gaps between cues and the tail up to
+ * the movie duration are filled with empty samples, as the format requires a continuous timeline.
+ * The same cues are available as SRT for players that only read sidecar files.
+ */
+public class TimedTextTrack {
+    public static final long TIMESCALE = 1000; // cue times are in milliseconds
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_TEXT_BYTES = 0xFFFF;
+
+    public static class Cue {
+        public final long startMs;
+        public final long endMs;
+        public final String text;
+
+        public Cue(long startMs, long endMs, String text) {
+            this.startMs = startMs;
+            this.endMs = endMs;
+            this.text = text;
+        }
+    }
+
+    private final boolean chapters;
+    private final List<Cue> cues = new ArrayList<>();
+
+    private TimedTextTrack(boolean chapters) {
+        this.chapters = chapters;
+    }
+
+    public static TimedTextTrack subtitles() {
+        return new TimedTextTrack(false);
+    }
+
+    public static TimedTextTrack chapters() {
+        return new TimedTextTrack(true);
+    }
+
+    public boolean isChapterTrack() {
+        return chapters;
+    }
+
+    /**
+     * Add a cue; cues must come in time order. An overlapping start is moved to the previous
+     * cue's end, and cues left without duration are dropped.
+     */
+    public void addCue(long startMs, long endMs, String text) {
+        if (!cues.isEmpty()) {
+            startMs = Math.max(startMs, cues.get(cues.size() - 1).endMs);
+        }
+        if (endMs <= startMs) return;
+        cues.add(new Cue(startMs, endMs, text));
+    }
+
+    public List<Cue> getCues() {
+        return cues;
+    }
+
+    public int getCueCount() {
+        return cues.size();
+    }
+
+    public long getEndMs() {
+        return cues.isEmpty() ? 0 : cues.get(cues.size() - 1).endMs;
+    }
+
+    // ---- MP4 ----
+
+    /**
+     * Samples of the track covering [0, durationMs): sample bytes, plus sizes and durations
+     */
+    static class Samples {
+        final byte[] data;
+        final int[] sizes;
+        final int[] durations;
+
+        Samples(byte[] data, int[] sizes, int[] durations) {
+            this.data = data;
+            this.sizes = sizes;
+            this.durations = durations;
+        }
+    }
+
+    Samples buildSamples(long durationMs) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int[] sizes = new int[cues.size() * 2 + 1];
+        int[] durations = new int[sizes.length];
+        int count = 0;
+        long time = 0;
+        for (Cue cue : cues) {
+            if (cue.startMs >= durationMs) break;
+            if (cue.startMs > time) {
+                sizes[count] = writeText(data, "");
+                durations[count++] = (int) (cue.startMs - time);
+            }
+            long end = Math.min(cue.endMs, durationMs);
+            sizes[count] = writeText(data, cue.text);
+            durations[count++] = (int) (end - cue.startMs);
+            time = end;
+        }
+        if (time < durationMs) {
+            sizes[count] = writeText(data, "");
+            durations[count++] = (int) (durationMs - time);
+        }
+        return new Samples(data.toByteArray(), Arrays.copyOf(sizes, count), Arrays.copyOf(durations, count));
+    }
+
+    private static int writeText(ByteArrayOutputStream out, String text) {
+        byte[] bytes = text.getBytes(UTF_8);
+        int length = Math.min(bytes.length, MAX_TEXT_BYTES);
+        out.write(length >> 8);
+        out.write(length & 0xFF);
+        out.write(bytes, 0, length);
+        return 2 + length;
+    }
+
+    /**
+     * 'tx3g' sample entry: centred at the bottom of a width x height text box, white on transparent
+     */
+    static byte[] sampleEntry(int width, int height) {
+        byte[] fontName = "Sans-Serif".getBytes(UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(38);
+        entry.put(new byte[6]).putShort((short) 1); // reserved, data_reference_index
+        entry.putInt(0);                             // display flags
+        entry.put((byte) 1).put((byte) -1);          // horizontal centre, vertical bottom
+        entry.putInt(0);                             // background colour (RGBA)
+        entry.putShort((short) 0).putShort((short) 0) // default text box: top, left, bottom, right
+            .putShort((short) height).putShort((short) width);
+        entry.putShort((short) 0).putShort((short) 0); // style record: start/end char
+        entry.putShort((short) 1);                   // font id
+        entry.put((byte) 0).put((byte) 18);          // face style, font size
+        entry.putInt(0xFFFFFFFF);                    // text colour (RGBA)
+        ByteBuffer fontTable = ByteBuffer.allocate(5 + fontName.length);
+        fontTable.putShort((short) 1).putShort((short) 1).put((byte) fontName.length).put(fontName);
+        return Mp4Box.build("tx3g", entry.array(), Mp4Box.build("ftab", fontTable.array()));
+    }
+
+    byte[] handlerBox() {
+        byte[] name = ((chapters ? "Chapters" : "Timestamps") + "\0").getBytes(UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(20 + name.length);
+        payload.putInt(0).putInt(Mp4Box.typeCode(Mp4TrackTable.HANDLER_TEXT)).put(new byte[12]).put(name);
+        return Mp4Box.buildFull("hdlr", 0, 0, payload.array());
+    }
+
+    // ---- SRT ----
+
+    public String toSrt() {
+        StringWriter srt = new StringWriter();
+        try {
+            writeSrt(srt);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringWriter does not throw
+        }
+        return srt.toString();
+    }
+
+    /**
+     * Stream the cues as SRT, one cue at a time, so long tracks never become one string
+     */
+    public void writeSrt(Writer out) throws IOException {
+        int index = 1;
+        for (Cue cue : cues) {
+            out.write(Integer.toString(index++));
+            out.write('\n');
+            out.write(formatSrtTime(cue.startMs));
+            out.write(" --> ");
+            out.write(formatSrtTime(cue.endMs));
+            out.write('\n');
+            out.write(cue.text);
+            out.write("\n\n");
+        }
+    }
+
+    static String formatSrtTime(long ms) {
+        return String.format(Locale.US, "%02d:%02d:%02d,%03d",
+            ms / 3600000, (ms / 60000) % 60, (ms / 1000) % 60, ms % 1000);
+    }
+}
@@ -0,0 +1,420 @@
+package com.soundmonitor.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * RFC 3161 timestamp client: asks a Time Stamping Authority to sign the time at which it saw a
+ * SHA-256 digest, and checks the token it returns. Uses no Android classes.
+ *
+ * Features:
+ * 1. DER-encoded TimeStampReq (SHA-256 imprint, random nonce, TSA certificate requested) posted
+ *    as application/timestamp-query; servers are tried in order until one grants a token
+ * 2. TimeStampResp checked before a token is accepted: status granted, imprint and nonce as
+ *    sent, CMS signed attributes (content type, message digest of the TSTInfo) and the signature
+ *    with the TSA certificate in the token, which must be for time stamping and valid at genTime
+ * 3. One token per Merkle root: callers timestamp a batch root (BatchSigner) instead of every
+ *    segment, and each segment is tied to the token by its inclusion proof
+ * 4. Request latency and tokens per hour are measured (formatStats)
+ *
+ * Trust in the TSA certificate's issuer is left to whoever checks the stored token (it carries
+ * the certificate, e.g. for openssl ts -verify).
+ */
+public class TsaClient {
+    public static final String[] DEFAULT_SERVERS = {
+        "http://timestamp.digicert.com",
+        "http://timestamp.sectigo.com",
+        "http://timestamp.globalsign.com/tsa/r6advanced1",
+        "http://tsa.starfieldtech.com"
+    };
+    public static final int DEFAULT_TIMEOUT_MS = 8000;
+    public static final String CONTENT_TYPE_QUERY = "application/timestamp-query";
+    public static final String CONTENT_TYPE_REPLY = "application/timestamp-reply";
+
+    static final String OID_SHA256 = "2.16.840.1.101.3.4.2.1";
+    static final String OID_SIGNED_DATA = "1.2.840.113549.1.7.2";
+    static final String OID_TST_INFO = "1.2.840.113549.1.9.16.1.4";
+    static final String OID_CONTENT_TYPE = "1.2.840.113549.1.9.3";
+    static final String OID_MESSAGE_DIGEST = "1.2.840.113549.1.9.4";
+    static final String OID_TIME_STAMPING = "1.3.6.1.5.5.7.3.8";
+
+    private static final int MAX_RESPONSE_BYTES = 1024 * 1024;
+    private static final int NONCE_BITS = 64;
+
+    public static class Token {
+        public final long genTimeMillis;
+        public final String serialNumber;   // hex, unique per TSA
+        public final String policy;
+        public final String imprint;        // hex SHA-256 that was timestamped
+        public final BigInteger nonce;      // null if the TSA left it out
+        public final String signer;         // subject of the TSA certificate
+        public final byte[] encoded;        // the token (CMS ContentInfo), as a .tsr token file holds it
+
+        public Token(long genTimeMillis, String serialNumber, String policy, String imprint, BigInteger nonce,
+                     String signer, byte[] encoded) {
+            this.genTimeMillis = genTimeMillis;
+            this.serialNumber = serialNumber;
+            this.policy = policy;
+            this.imprint = imprint;
+            this.nonce = nonce;
+            this.signer = signer;
+            this.encoded = encoded;
+        }
+
+        public String getGenTime() {
+            return TimestampUtils.formatAsUtc(new Date(genTimeMillis));
+        }
+
+        public String toBase64() {
+            return Base64.getEncoder().encodeToString(encoded);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "token %s at %s by %s", serialNumber, getGenTime(), signer);
+        }
+    }
+
+    private final String[] servers;
+    private final int timeoutMs;
+    private final SecureRandom random = new SecureRandom();
+
+    // Statistics
+    private int requestCount = 0;
+    private int failureCount = 0;
+    private int replyCount = 0;
+    private int tokenCount = 0;
+    private long digestsCovered = 0;
+    private long totalLatencyMs = 0;
+    private long maxLatencyMs = 0;
+    private long lastLatencyMs = 0;
+    private long firstRequestMillis = 0;
+    private long lastTokenMillis = 0;
+
+    public TsaClient(String[] servers, int timeoutMs) {
+        this.servers = servers.clone();
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Timestamp a SHA-256 digest (e.g. a Merkle root over digestsCovered files), trying each
+     * server in turn; the IOException of the last server if none grants a valid token
+     */
+    public Token timestamp(byte[] sha256, int digestsCovered) throws IOException {
+        if (sha256.length != 32) throw new IllegalArgumentException("Not a SHA-256 digest");
+        IOException last = new IOException("No timestamp servers");
+        for (String server : servers) {
+            try {
+                Token token = request(server, sha256);
+                synchronized (this) {
+                    tokenCount++;
+                    this.digestsCovered += digestsCovered;
+                    lastTokenMillis = System.currentTimeMillis();
+                }
+                return token;
+            } catch (IOException e) {
+                synchronized (this) {
+                    failureCount++;
+                }
+                last = new IOException(server + ": " + e.getMessage(), e);
+            }
+        }
+        throw last;
+    }
+
+    /**
+     * One round trip to one server
+     */
+    public Token request(String server, byte[] sha256) throws IOException {
+        BigInteger nonce = new BigInteger(NONCE_BITS, random);
+        byte[] query = encodeRequest(sha256, nonce);
+        long start = System.currentTimeMillis();
+        synchronized (this) {
+            requestCount++;
+            if (firstRequestMillis == 0) firstRequestMillis = start;
+        }
+        byte[] reply;
+        HttpURLConnection connection = (HttpURLConnection) new URL(server).openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            connection.setUseCaches(false);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(query.length);
+            connection.setRequestProperty("Content-Type", CONTENT_TYPE_QUERY);
+            connection.setRequestProperty("Accept", CONTENT_TYPE_REPLY);
+            connection.setRequestProperty("User-Agent", "SoundMonitor/1.0");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(query);
+            }
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) throw new IOException("HTTP " + code);
+            try (InputStream in = connection.getInputStream()) {
+                reply = readLimited(in);
+            }
+        } finally {
+            connection.disconnect();
+        }
+        long latency = System.currentTimeMillis() - start;
+        synchronized (this) {
+            replyCount++;
+            totalLatencyMs += latency;
+            lastLatencyMs = latency;
+            maxLatencyMs = Math.max(maxLatencyMs, latency);
+        }
+        return parseResponse(reply, sha256, nonce);
+    }
+
+    private static byte[] readLimited(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            if (out.size() > MAX_RESPONSE_BYTES) throw new IOException("Response over " + MAX_RESPONSE_BYTES + " bytes");
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * TimeStampReq v1 for a SHA-256 imprint, asking for the TSA certificate in the token
+     */
+    static byte[] encodeRequest(byte[] sha256, BigInteger nonce) {
+        return Der.sequence(
+            Der.integer(1),
+            Der.sequence(Der.sequence(Der.oid(OID_SHA256), Der.nullValue()), Der.octetString(sha256)),
+            Der.integer(nonce),
+            Der.bool(true));
+    }
+
+    /**
+     * Check a TimeStampResp against the request it answers and return its token
+     */
+    public static Token parseResponse(byte[] response, byte[] sha256, BigInteger nonce) throws IOException {
+        List<Der.Element> fields = Der.parse(response).expect(Der.SEQUENCE).children();
+        if (fields.isEmpty()) throw new IOException("Empty TimeStampResp");
+        List<Der.Element> status = fields.get(0).expect(Der.SEQUENCE).children();
+        int code = status.get(0).integer().intValue();
+        if (code != 0 && code != 1) { // granted, grantedWithMods
+            StringBuilder reason = new StringBuilder("TSA refused, status " + code);
+            for (int i = 1; i < status.size(); i++) {
+                if (status.get(i).tag != Der.SEQUENCE) continue;
+                for (Der.Element text : status.get(i).children()) reason.append(": ").append(text.string());
+            }
+            throw new IOException(reason.toString());
+        }
+        if (fields.size() < 2) throw new IOException("TSA granted no token");
+        Token token = parseToken(fields.get(1).encoded());
+        if (!token.imprint.equals(EvidenceHasher.hex(sha256))) {
+            throw new IOException("Token is for " + token.imprint + ", not the digest sent");
+        }
+        if (nonce != null && !nonce.equals(token.nonce)) throw new IOException("Token nonce does not match the request");
+        return token;
+    }
+
+    /**
+     * Parse a stored token and check its CMS signature; throws if it is not intact
+     */
+    public static Token parseToken(byte[] encoded) throws IOException {
+        List<Der.Element> contentInfo = Der.parse(encoded).expect(Der.SEQUENCE).children();
+        if (contentInfo.size() < 2 || !OID_SIGNED_DATA.equals(contentInfo.get(0).oid())) {
+            throw new IOException("Token is not CMS SignedData");
+        }
+        List<Der.Element> signedData = contentInfo.get(1).expect(Der.context(0)).inner().expect(Der.SEQUENCE).children();
+        if (signedData.size() < 4) throw new IOException("Truncated SignedData");
+        Der.Element encapsulated = signedData.get(2).expect(Der.SEQUENCE);
+        if (!OID_TST_INFO.equals(encapsulated.child(0).oid())) throw new IOException("Token content is not TSTInfo");
+        byte[] tstInfo = encapsulated.child(1).expect(Der.context(0)).inner().expect(Der.OCTET_STRING).content();
+
+        List<X509Certificate> certificates = new ArrayList<>();
+        Der.Element signerInfos = signedData.get(signedData.size() - 1).expect(Der.SET);
+        for (int i = 3; i < signedData.size() - 1; i++) {
+            if (signedData.get(i).tag != Der.context(0)) continue; // [1] is CRLs
+            for (Der.Element certificate : signedData.get(i).children()) {
+                certificates.add(parseCertificate(certificate.encoded()));
+            }
+        }
+        List<Der.Element> signers = signerInfos.children();
+        if (signers.size() != 1) throw new IOException("Token has " + signers.size() + " signers, expected 1");
+
+        // TSTInfo
+        List<Der.Element> info = Der.parse(tstInfo).expect(Der.SEQUENCE).children();
+        if (info.size() < 5) throw new IOException("Truncated TSTInfo");
+        String policy = info.get(1).oid();
+        Der.Element imprint = info.get(2).expect(Der.SEQUENCE);
+        if (!OID_SHA256.equals(imprint.child(0).child(0).oid())) throw new IOException("Token imprint is not SHA-256");
+        String imprintHex = EvidenceHasher.hex(imprint.child(1).expect(Der.OCTET_STRING).content());
+        String serial = info.get(3).integer().toString(16);
+        long genTime = info.get(4).expect(Der.GENERALIZED_TIME).time();
+        BigInteger nonce = null;
+        for (int i = 5; i < info.size(); i++) {
+            if (info.get(i).tag == Der.INTEGER) nonce = info.get(i).integer();
+        }
+
+        X509Certificate certificate = verifySigner(signers.get(0), tstInfo, certificates, genTime);
+        return new Token(genTime, serial, policy, imprintHex, nonce,
+            certificate.getSubjectX500Principal().getName(), encoded);
+    }
+
+    /**
+     * Check a SignerInfo over the TSTInfo; returns the certificate that signed it
+     */
+    private static X509Certificate verifySigner(Der.Element signerInfo, byte[] tstInfo, List<X509Certificate> certificates,
+                                                long genTime) throws IOException {
+        // version, sid, digestAlgorithm, [0] signedAttrs, signatureAlgorithm, signature, [1] unsignedAttrs
+        List<Der.Element> fields = signerInfo.expect(Der.SEQUENCE).children();
+        if (fields.size() < 6) throw new IOException("SignerInfo without signed attributes");
+        X509Certificate certificate = findCertificate(fields.get(1), certificates);
+        String digestName = digestName(fields.get(2).child(0).oid());
+        Der.Element signedAttributes = fields.get(3);
+        if (signedAttributes.tag != Der.context(0)) throw new IOException("Token has no signed attributes");
+        String signatureOid = fields.get(4).child(0).oid();
+        byte[] signature = fields.get(5).expect(Der.OCTET_STRING).content();
+
+        boolean contentTypeChecked = false;
+        boolean digestChecked = false;
+        for (Der.Element attribute : signedAttributes.children()) {
+            String type = attribute.child(0).oid();
+            Der.Element value = attribute.child(1).expect(Der.SET).child(0);
+            if (OID_CONTENT_TYPE.equals(type)) {
+                if (!OID_TST_INFO.equals(value.oid())) throw new IOException("Signed content type is not TSTInfo");
+                contentTypeChecked = true;
+            } else if (OID_MESSAGE_DIGEST.equals(type)) {
+                byte[] expected = digest(digestName, tstInfo);
+                if (!MessageDigest.isEqual(expected, value.expect(Der.OCTET_STRING).content())) {
+                    throw new IOException("Signed message digest does not match the TSTInfo");
+                }
+                digestChecked = true;
+            }
+        }
+        if (!contentTypeChecked || !digestChecked) throw new IOException("Signed attributes incomplete");
+
+        // The signature covers the attributes encoded as a SET, not with their [0] tag
+        byte[] signed = signedAttributes.encoded();
+        signed[0] = (byte) Der.SET;
+        try {
+            List<String> usages = certificate.getExtendedKeyUsage();
+            if (usages == null || !usages.contains(OID_TIME_STAMPING)) {
+                throw new IOException("TSA certificate is not for time stamping");
+            }
+            certificate.checkValidity(new Date(genTime));
+            Signature verifier = Signature.getInstance(signatureAlgorithm(signatureOid, digestName));
+            verifier.initVerify(certificate.getPublicKey());
+            verifier.update(signed);
+            if (!verifier.verify(signature)) throw new IOException("Token signature is not valid");
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Token signature not verified: " + e.getMessage(), e);
+        }
+        return certificate;
+    }
+
+    private static X509Certificate findCertificate(Der.Element signerId, List<X509Certificate> certificates)
+            throws IOException {
+        for (X509Certificate certificate : certificates) {
+            if (signerId.tag == Der.SEQUENCE) { // issuerAndSerialNumber
+                if (Arrays.equals(certificate.getIssuerX500Principal().getEncoded(), signerId.child(0).encoded())
+                        && certificate.getSerialNumber().equals(signerId.child(1).integer())) {
+                    return certificate;
+                }
+            } else if (signerId.tag == Der.contextPrimitive(0)) { // subjectKeyIdentifier
+                byte[] extension = certificate.getExtensionValue("2.5.29.14");
+                if (extension != null && Arrays.equals(Der.parse(Der.parse(extension).content()).content(),
+                        signerId.content())) {
+                    return certificate;
+                }
+            }
+        }
+        throw new IOException("TSA certificate not in the token");
+    }
+
+    private static X509Certificate parseCertificate(byte[] encoded) throws IOException {
+        try {
+            return (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(encoded));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unreadable certificate in token: " + e.getMessage(), e);
+        }
+    }
+
+    private static String digestName(String oid) throws IOException {
+        switch (oid) {
+            case OID_SHA256: return "SHA-256";
+            case "2.16.840.1.101.3.4.2.2": return "SHA-384";
+            case "2.16.840.1.101.3.4.2.3": return "SHA-512";
+            case "1.3.14.3.2.26": return "SHA-1";
+            default: throw new IOException("Unsupported digest " + oid);
+        }
+    }
+
+    private static String signatureAlgorithm(String oid, String digestName) throws IOException {
+        String digest = digestName.replace("-", "");
+        switch (oid) {
+            case "1.2.840.113549.1.1.1": return digest + "withRSA";   // rsaEncryption, digest from SignerInfo
+            case "1.2.840.113549.1.1.5": return "SHA1withRSA";
+            case "1.2.840.113549.1.1.11": return "SHA256withRSA";
+            case "1.2.840.113549.1.1.12": return "SHA384withRSA";
+            case "1.2.840.113549.1.1.13": return "SHA512withRSA";
+            case "1.2.840.10045.4.3.2": return "SHA256withECDSA";
+            case "1.2.840.10045.4.3.3": return "SHA384withECDSA";
+            case "1.2.840.10045.4.3.4": return "SHA512withECDSA";
+            default: throw new IOException("Unsupported signature algorithm " + oid);
+        }
+    }
+
+    private static byte[] digest(String name, byte[] data) throws IOException {
+        try {
+            return MessageDigest.getInstance(name).digest(data);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(name + " not available", e);
+        }
+    }
+
+    // ---- Statistics ----
+
+    public synchronized int getTokenCount() {
+        return tokenCount;
+    }
+
+    public synchronized long getMeanLatencyMs() {
+        return replyCount > 0 ? totalLatencyMs / replyCount : 0;
+    }
+
+    public synchronized long getLastLatencyMs() {
+        return lastLatencyMs;
+    }
+
+    /**
+     * Tokens granted per hour from the first request to the last token, counting at least a
+     * minute so a single quick token does not read as thousands per hour
+     */
+    public synchronized double getTokensPerHour() {
+        if (tokenCount == 0) return 0;
+        return tokenCount * 3600000.0 / Math.max(60000, lastTokenMillis - firstRequestMillis);
+    }
+
+    public synchronized String formatStats() {
+        return String.format(Locale.US,
+            "%d tokens from %d requests (%d failed), latency mean %d / max %d ms, %.1f tokens/h, %.1f digests per token",
+            tokenCount, requestCount, failureCount, getMeanLatencyMs(), maxLatencyMs, getTokensPerHour(),
+            tokenCount > 0 ? (double) digestsCovered / tokenCount : 0.0);
+    }
+}
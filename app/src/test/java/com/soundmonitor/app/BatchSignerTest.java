@@ -0,0 +1,175 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Locale;
+
+/**
+ * Tests for batched signatures over session digests: a few signatures cover many digests, each
+ * digest's inclusion proof checks against its signed root, and edits, dropped proofs or a batch
+ * moved to another session are detected.
+ */
+public class BatchSignerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static KeyPair keys;
+
+    @BeforeClass
+    public static void createKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        keys = generator.generateKeyPair();
+    }
+
+    private static String digestOf(int i) {
+        return String.format(Locale.US, "%064x", i * 7919L);
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(java.nio.file.Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static void write(File file, String text) throws Exception {
+        java.nio.file.Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testManyDigestsFewSignatures() throws Exception {
+        File folder = tempFolder.newFolder("20260101_120000");
+        try (BatchSigner signer = BatchSigner.open(folder, keys.getPrivate(), keys.getPublic(),
+                BatchSigner.DEFAULT_ALGORITHM, BatchSigner.DEFAULT_INTERVAL_MS)) {
+            for (int i = 1; i <= 120; i++) {
+                assertNull(signer.add(String.format(Locale.US, "%02d.mp4", i), digestOf(i)));
+                if (i == 50) {
+                    BatchSigner.Batch batch = signer.flush();
+                    assertEquals(1, batch.number);
+                    assertEquals(50, batch.leafCount);
+                }
+            }
+            signer.add("FINAL.mp4", digestOf(999));
+            signer.flush();
+            assertEquals(2, signer.getSignatureCount());
+            assertEquals(121, signer.getDigestCount());
+            assertTrue(signer.formatStats(), signer.formatStats().contains("2 signed batches"));
+        }
+
+        BatchSigner.Verification verification = BatchSigner.verify(BatchSigner.signaturesFileFor(folder), folder.getName(),
+            BatchSigner.fingerprint(keys.getPublic()));
+        assertTrue(verification.toString(), verification.isIntact());
+        assertTrue(verification.keyPinned);
+        assertEquals(2, verification.batches);
+        assertEquals(121, verification.proofs);
+        assertEquals(digestOf(7), verification.signedDigests.get("07.mp4"));
+        assertEquals(digestOf(999), verification.signedDigests.get("FINAL.mp4"));
+        assertEquals(1, verification.keyFingerprints.size());
+        assertEquals(BatchSigner.fingerprint(keys.getPublic()), verification.keyFingerprints.get(0));
+
+        // A zero interval signs every digest on its own
+        File single = tempFolder.newFolder("20260101_130000");
+        try (BatchSigner signer = BatchSigner.open(single, keys.getPrivate(), keys.getPublic(),
+                BatchSigner.DEFAULT_ALGORITHM, 0)) {
+            assertEquals(1, signer.add("01.mp4", digestOf(1)).leafCount);
+            assertNull(signer.flush());
+        }
+    }
+
+    @Test
+    public void testEditedDroppedOrMovedEntriesFail() throws Exception {
+        File folder = tempFolder.newFolder("20260101_120000");
+        try (BatchSigner signer = BatchSigner.open(folder, keys.getPrivate(), keys.getPublic(),
+                BatchSigner.DEFAULT_ALGORITHM, BatchSigner.DEFAULT_INTERVAL_MS)) {
+            for (int i = 1; i <= 5; i++) {
+                signer.add(String.format(Locale.US, "%02d.mp4", i), digestOf(i));
+            }
+        }
+        File file = BatchSigner.signaturesFileFor(folder);
+        String original = read(file);
+
+        // Another digest for a signed segment
+        write(file, original.replace("03.mp4\t" + digestOf(3), "03.mp4\t" + digestOf(33)));
+        BatchSigner.Verification verification = BatchSigner.verify(file, folder.getName(), null);
+        assertFalse(verification.isIntact());
+        assertTrue(verification.problem, verification.problem.contains("03.mp4 is not in batch 1"));
+
+        // A proof line removed
+        StringBuilder dropped = new StringBuilder();
+        for (String line : original.split("\n")) {
+            if (!line.contains("\t04.mp4\t")) dropped.append(line).append('\n');
+        }
+        write(file, dropped.toString());
+        verification = BatchSigner.verify(file, folder.getName(), null);
+        assertTrue(verification.problem, verification.problem.contains("4 of its 5 proofs"));
+
+        // The root changed to match a different set of leaves: the signature no longer holds
+        String[] batch = original.split("\n")[1].split("\t");
+        write(file, original.replace(batch[4], digestOf(42)));
+        verification = BatchSigner.verify(file, folder.getName(), null);
+        assertTrue(verification.problem, verification.problem.contains("signature of batch 1 is not valid"));
+
+        // The intact file does not verify for another session
+        write(file, original);
+        assertTrue(BatchSigner.verify(file, folder.getName(), null).isIntact());
+        assertFalse(BatchSigner.verify(file, "20260101_130000", null).isIntact());
+    }
+
+    @Test
+    public void testReopenDropsBatchCutShortAndPinsKeys() throws Exception {
+        File folder = tempFolder.newFolder("20260101_120000");
+        try (BatchSigner signer = BatchSigner.open(folder, keys.getPrivate(), keys.getPublic(),
+                BatchSigner.DEFAULT_ALGORITHM, BatchSigner.DEFAULT_INTERVAL_MS)) {
+            signer.add("01.mp4", digestOf(1));
+            signer.flush();
+            signer.add("02.mp4", digestOf(2));
+            signer.flush();
+            signer.add("03.mp4", digestOf(3));
+            signer.add("04.mp4", digestOf(4));
+        }
+        // Killed while batch 3 was written: its first proof is there, the second half written
+        File file = BatchSigner.signaturesFileFor(folder);
+        String text = read(file);
+        int cut = text.lastIndexOf('\n', text.indexOf("\t04.mp4\t")) + 10;
+        write(file, text.substring(0, cut));
+
+        BatchSigner.Verification torn = BatchSigner.verify(file, folder.getName(), null);
+        assertTrue(torn.toString(), torn.isIntact());
+        assertTrue(torn.tornTail);
+        assertFalse(torn.keyPinned);
+        assertEquals(2, torn.batches);
+        assertEquals(2, torn.proofs);
+        assertNull(torn.signedDigests.get("03.mp4"));
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair newKeys = generator.generateKeyPair();
+        try (BatchSigner signer = BatchSigner.open(folder, newKeys.getPrivate(), newKeys.getPublic(),
+                BatchSigner.DEFAULT_ALGORITHM, BatchSigner.DEFAULT_INTERVAL_MS)) {
+            signer.add("CLIP_01.mp4", digestOf(5));
+            assertEquals(3, signer.flush().number);
+        }
+        BatchSigner.Verification verification = BatchSigner.verify(file, folder.getName(), null);
+        assertTrue(verification.toString(), verification.isIntact());
+        assertFalse(verification.tornTail);
+        assertEquals(3, verification.batches);
+        assertEquals(2, verification.keyFingerprints.size());
+        assertEquals(digestOf(5), verification.signedDigests.get("CLIP_01.mp4"));
+
+        // A key written into the file is only trusted if it is the pinned one
+        String newFingerprint = BatchSigner.fingerprint(newKeys.getPublic());
+        BatchSigner.Verification pinned = BatchSigner.verify(file, folder.getName(), BatchSigner.fingerprint(keys.getPublic()));
+        assertFalse(pinned.isIntact());
+        assertTrue(pinned.problem, pinned.problem.contains("key " + newFingerprint + " is not the expected key"));
+    }
+}
@@ -0,0 +1,127 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Tests for the persistent digest cache: digests survive a restart, are served only while the
+ * file keeps its path, size, modification time and inode, and hits are counted.
+ */
+public class DigestCacheTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String SEED = Base64.getEncoder().encodeToString(new byte[] { 1, 2, 3, 4 });
+    private static final String OTHER_SEED = Base64.getEncoder().encodeToString(new byte[] { 5, 6, 7 });
+
+    private static final DigestCache.InodeReader INODES = file ->
+        ((Number) java.nio.file.Files.getAttribute(file.toPath(), "unix:ino")).longValue();
+
+    private File writeFile(File file, int size, long randomSeed) throws Exception {
+        byte[] content = new byte[size];
+        new Random(randomSeed).nextBytes(content);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+
+    private EvidenceHasher reopen(File cacheFile) throws Exception {
+        DigestCache cache = new DigestCache(cacheFile, INODES);
+        cache.load();
+        EvidenceHasher hasher = new EvidenceHasher();
+        hasher.setDigestCache(cache);
+        return hasher;
+    }
+
+    @Test
+    public void testDigestsSurviveRestart() throws Exception {
+        File cacheFile = new File(tempFolder.getRoot(), DigestCache.FILE_NAME);
+        File video = writeFile(tempFolder.newFile("FINAL.mp4"), 2 * 1024 * 1024 + 99, 3);
+        File segment = writeFile(tempFolder.newFile("01.mp4"), 300000, 4);
+
+        EvidenceHasher first = reopen(cacheFile);
+        EvidenceHasher.Digests original = first.hash(video, SEED);
+        original.merkle.save(MerkleTree.indexFileFor(video));
+        first.hashValues(segment);
+        assertEquals(2, first.getPassCount());
+        first.getDigestCache().save();
+
+        EvidenceHasher second = reopen(cacheFile);
+        EvidenceHasher.Digests restored = second.hash(video, SEED);
+        assertEquals(original.sha256, restored.sha256);
+        assertEquals(original.seeded(SEED), restored.seeded(SEED));
+        assertEquals(original.merkle.getRootHex(), restored.merkle.getRootHex());
+        // A segment has no saved leaves: enough for its SHA-256, not for a full hash()
+        assertEquals(first.hashValues(segment).sha256, second.hashValues(segment).sha256);
+        assertNull(second.hashValues(segment).merkle);
+        assertEquals(0, second.getPassCount());
+
+        DigestCache cache = second.getDigestCache();
+        assertEquals(2, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+        assertEquals(video.length() + segment.length(), cache.getBytesAvoided());
+
+        // A new seed needs a pass; the entry then covers both
+        assertNotNull(second.hash(video, OTHER_SEED).seeded(SEED));
+        assertEquals(1, second.getPassCount());
+        assertEquals(1, cache.getMissCount());
+        assertTrue(cache.formatStats(), cache.formatStats().contains("2/3 hits"));
+    }
+
+    @Test
+    public void testChangedOrReplacedFileIsHashedAgain() throws Exception {
+        File cacheFile = new File(tempFolder.getRoot(), DigestCache.FILE_NAME);
+        File file = writeFile(tempFolder.newFile("02.mp4"), 100000, 5);
+        EvidenceHasher hasher = reopen(cacheFile);
+        String before = hasher.hashValues(file).sha256;
+        hasher.getDigestCache().save();
+
+        // Same bytes and modification time, but a new file (new inode)
+        long modified = file.lastModified();
+        File copy = writeFile(new File(tempFolder.getRoot(), "02.tmp"), 100000, 5);
+        assertTrue(file.delete());
+        assertTrue(copy.renameTo(file));
+        assertTrue(file.setLastModified(modified));
+        EvidenceHasher afterReplace = reopen(cacheFile);
+        assertEquals(before, afterReplace.hashValues(file).sha256);
+        assertEquals(1, afterReplace.getPassCount());
+        assertEquals(0, afterReplace.getDigestCache().getHitCount());
+        afterReplace.getDigestCache().save();
+
+        // Rewritten in place with other content
+        writeFile(file, 100000, 6);
+        assertTrue(file.setLastModified(modified + 2000));
+        EvidenceHasher afterEdit = reopen(cacheFile);
+        assertNotEquals(before, afterEdit.hashValues(file).sha256);
+        assertEquals(1, afterEdit.getPassCount());
+    }
+
+    @Test
+    public void testHashedOnWriteIsRemembered() throws Exception {
+        File cacheFile = new File(tempFolder.getRoot(), DigestCache.FILE_NAME);
+        File file = tempFolder.newFile("FINAL_002.mp4");
+        byte[] content = new byte[50000];
+        new Random(8).nextBytes(content);
+        EvidenceHasher.Running running = new EvidenceHasher.Running(SEED);
+        try (java.io.OutputStream out = running.wrap(new FileOutputStream(file))) {
+            out.write(content);
+        }
+        EvidenceHasher writer = reopen(cacheFile);
+        writer.put(running.finish(file));
+        writer.getDigestCache().save();
+
+        EvidenceHasher reader = reopen(cacheFile);
+        assertEquals(EvidenceHasher.sha256(file), reader.hashValues(file, SEED).sha256);
+        assertEquals(0, reader.getPassCount());
+    }
+}
@@ -0,0 +1,259 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Tests for chunked AES-GCM encryption at rest: random-access reads and writes match a plain
+ * file, a changed or moved chunk fails authentication on its own, a file cut at a chunk
+ * boundary fails to open, and a fragmented recording written through the channel is hashed on
+ * write over its plaintext.
+ */
+public class EncryptedFileChannelTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final SecretKey KEY = new SecretKeySpec(new byte[] {
+        1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16,
+        17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32 }, "AES");
+
+    private static final int CHUNK = 4096;
+
+    private static byte[] read(EncryptedFileChannel channel, long position, int length) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        Mp4Box.readFully(channel, buffer, position);
+        return buffer.array();
+    }
+
+    @Test
+    public void testRandomAccessMatchesPlainContent() throws Exception {
+        File file = tempFolder.newFile("data.enc");
+        Random random = new Random(1);
+        byte[] expected = new byte[100000];
+        random.nextBytes(expected);
+
+        try (EncryptedFileChannel channel = EncryptedFileChannel.create(file, KEY, CHUNK)) {
+            // Appends in odd sizes, then overwrites across chunk boundaries
+            for (int offset = 0; offset < 90000; offset += 3001) {
+                channel.write(ByteBuffer.wrap(expected, offset, Math.min(3001, 90000 - offset)));
+            }
+            channel.force(false);
+            for (int i = 0; i < 20; i++) {
+                int at = random.nextInt(90000 - 5000);
+                byte[] patch = new byte[1 + random.nextInt(5000)];
+                random.nextBytes(patch);
+                System.arraycopy(patch, 0, expected, at, patch.length);
+                channel.write(ByteBuffer.wrap(patch), at);
+            }
+            // A gap past the end reads back as zeros
+            Arrays.fill(expected, 90000, 95000, (byte) 0);
+            channel.write(ByteBuffer.wrap(expected, 95000, 5000), 95000);
+            assertEquals(100000, channel.size());
+        }
+        assertTrue(EncryptedFileChannel.isEncrypted(file));
+        long chunks = (100000 + CHUNK - 1) / CHUNK;
+        assertEquals(EncryptedFileChannel.HEADER_SIZE + 100000
+            + chunks * (EncryptedFileChannel.NONCE_SIZE + EncryptedFileChannel.TAG_SIZE), file.length());
+
+        try (EncryptedFileChannel channel = EncryptedFileChannel.open(file, KEY, false)) {
+            assertEquals(100000, channel.size());
+            assertArrayEquals(expected, read(channel, 0, 100000));
+            for (int i = 0; i < 50; i++) {
+                int at = random.nextInt(100000 - 7000);
+                int length = 1 + random.nextInt(7000);
+                assertArrayEquals(Arrays.copyOfRange(expected, at, at + length), read(channel, at, length));
+            }
+            assertEquals(-1, channel.read(ByteBuffer.allocate(10), 100000));
+        }
+
+        // Truncated inside a chunk, then appended to again
+        try (EncryptedFileChannel channel = EncryptedFileChannel.open(file, KEY, true)) {
+            channel.truncate(50001);
+            channel.position(50001);
+            channel.write(ByteBuffer.wrap(expected, 50001, 999));
+        }
+        try (EncryptedFileChannel channel = EncryptedFileChannel.open(file, KEY, false)) {
+            assertEquals(51000, channel.size());
+            assertArrayEquals(Arrays.copyOf(expected, 51000), read(channel, 0, 51000));
+        }
+    }
+
+    @Test
+    public void testChangedOrMovedChunkFailsAuthentication() throws Exception {
+        File file = tempFolder.newFile("data.enc");
+        byte[] content = new byte[10 * CHUNK];
+        new Random(2).nextBytes(content);
+        try (EncryptedFileChannel channel = EncryptedFileChannel.create(file, KEY, CHUNK)) {
+            channel.write(ByteBuffer.wrap(content));
+        }
+        String raw = new String(java.nio.file.Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+        assertFalse(raw.contains(new String(content, 0, 64, StandardCharsets.ISO_8859_1)));
+
+        int slot = EncryptedFileChannel.NONCE_SIZE + CHUNK + EncryptedFileChannel.TAG_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(EncryptedFileChannel.HEADER_SIZE + 3L * slot + 100);
+            raf.write(raf.read() ^ 0x01);
+        }
+        try (EncryptedFileChannel channel = EncryptedFileChannel.open(file, KEY, false)) {
+            assertArrayEquals(Arrays.copyOfRange(content, 2 * CHUNK, 3 * CHUNK), read(channel, 2 * CHUNK, CHUNK));
+            try {
+                read(channel, 3 * CHUNK + 10, 10);
+                fail("Changed chunk was decrypted");
+            } catch (java.io.IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Chunk 3"));
+            }
+            assertArrayEquals(Arrays.copyOfRange(content, 4 * CHUNK, 5 * CHUNK), read(channel, 4 * CHUNK, CHUNK));
+        }
+
+        // Chunk 6 copied over chunk 5: intact on its own, but not at that index
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            byte[] six = new byte[slot];
+            raf.seek(EncryptedFileChannel.HEADER_SIZE + 6L * slot);
+            raf.readFully(six);
+            raf.seek(EncryptedFileChannel.HEADER_SIZE + 5L * slot);
+            raf.write(six);
+        }
+        try (EncryptedFileChannel channel = EncryptedFileChannel.open(file, KEY, false)) {
+            try {
+                read(channel, 5 * CHUNK, 1);
+                fail("Moved chunk was decrypted");
+            } catch (java.io.IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("authentication"));
+            }
+        }
+        try (EncryptedFileChannel wrongKey = EncryptedFileChannel.open(file, new SecretKeySpec(new byte[32], "AES"), false)) {
+            wrongKey.read(ByteBuffer.allocate(1));
+            fail("Wrong key decrypted a chunk");
+        } catch (java.io.IOException expected) {
+        }
+    }
+
+    @Test
+    public void testTruncationAtChunkBoundaryIsDetected() throws Exception {
+        File file = tempFolder.newFile("data.enc");
+        byte[] content = new byte[8 * CHUNK];
+        new Random(4).nextBytes(content);
+        try (EncryptedFileChannel channel = EncryptedFileChannel.create(file, KEY, CHUNK)) {
+            channel.write(ByteBuffer.wrap(content));
+        }
+        int slot = EncryptedFileChannel.NONCE_SIZE + CHUNK + EncryptedFileChannel.TAG_SIZE;
+        int emptyChunk = EncryptedFileChannel.NONCE_SIZE + EncryptedFileChannel.TAG_SIZE;
+        // A file ending on a chunk boundary ends in an empty last chunk
+        assertEquals(EncryptedFileChannel.HEADER_SIZE + 8L * slot + emptyChunk, file.length());
+        assertEquals(8 * CHUNK, EncryptedFileChannel.plaintextLength(file));
+
+        // Appending after the boundary replaces the empty last chunk
+        try (EncryptedFileChannel channel = EncryptedFileChannel.open(file, KEY, true)) {
+            channel.position(channel.size());
+            channel.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+        }
+        try (EncryptedFileChannel channel = EncryptedFileChannel.open(file, KEY, false)) {
+            assertEquals(8 * CHUNK + 3, channel.size());
+            assertArrayEquals(content, read(channel, 0, 8 * CHUNK));
+        }
+
+        // Whole chunks cut off the end
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(EncryptedFileChannel.HEADER_SIZE + 5L * slot);
+        }
+        try {
+            EncryptedFileChannel.open(file, KEY, false).close();
+            fail("Truncated file opened");
+        } catch (java.io.IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("truncated"));
+        }
+
+        // An empty last chunk made from the start of a full one does not authenticate
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            byte[] start = new byte[emptyChunk];
+            raf.seek(EncryptedFileChannel.HEADER_SIZE + 4L * slot);
+            raf.readFully(start);
+            raf.seek(EncryptedFileChannel.HEADER_SIZE + 5L * slot);
+            raf.write(start);
+        }
+        try {
+            EncryptedFileChannel.open(file, KEY, false).close();
+            fail("Forged last chunk authenticated");
+        } catch (java.io.IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Last chunk"));
+        }
+
+        // Nor can a full chunk: the short last chunk cut off
+        try (EncryptedFileChannel channel = EncryptedFileChannel.open(file, KEY, true)) {
+            channel.truncate(5 * CHUNK);
+            channel.position(5 * CHUNK);
+            channel.write(ByteBuffer.wrap(new byte[] { 9 }));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(EncryptedFileChannel.HEADER_SIZE + 5L * slot);
+        }
+        try {
+            EncryptedFileChannel.open(file, KEY, false).close();
+            fail("File without its short last chunk opened");
+        } catch (java.io.IOException expected) {
+        }
+
+        // Opened for writing (recovery after a crash), the file is sealed again when closed
+        EncryptedFileChannel.open(file, KEY, true).close();
+        try (EncryptedFileChannel channel = EncryptedFileChannel.open(file, KEY, false)) {
+            assertEquals(5 * CHUNK, channel.size());
+            assertArrayEquals(Arrays.copyOf(content, 5 * CHUNK), read(channel, 0, 5 * CHUNK));
+        }
+    }
+
+    @Test
+    public void testFragmentedRecordingHashedOverPlaintext() throws Exception {
+        File file = tempFolder.newFile("audio.m4a");
+        EvidenceHasher.Running digest = new EvidenceHasher.Running();
+        EncryptedFileChannel channel = EncryptedFileChannel.create(file, KEY, EncryptedFileChannel.DEFAULT_CHUNK_SIZE);
+        FragmentedMp4Writer writer = FragmentedMp4Writer.create(file, channel, 1000,
+            FragmentedMp4Writer.TrackFormat.aac(44100, 1, new byte[] { 0x12, 0x08 }, 128000));
+        writer.setDigest(digest);
+        Random random = new Random(3);
+        for (int i = 0; i < 431; i++) {
+            byte[] frame = new byte[372];
+            random.nextBytes(frame);
+            writer.writeSample(0, frame, 1024, true);
+        }
+        writer.close();
+        assertTrue(channel.getEncryptThroughputMBps() > 0);
+        assertTrue(channel.formatStats(), channel.formatStats().contains("encrypted at"));
+
+        EvidenceHasher.Digests written = digest.finish(file, writer.getPosition());
+        // Recorded sizes are plaintext sizes, like the digests
+        assertEquals(writer.getPosition(), written.sizeBytes);
+        assertEquals(file.length(), written.storedBytes);
+        assertEquals(writer.getPosition(), EncryptedFileChannel.plaintextLength(file));
+        try (EncryptedFileChannel reader = EncryptedFileChannel.open(file, KEY, false)) {
+            assertEquals(writer.getPosition(), reader.size());
+            List<Mp4Box> boxes = Mp4Box.readBoxes(reader, 0, reader.size());
+            assertEquals("ftyp", boxes.get(0).type);
+            assertEquals("moov", boxes.get(1).type);
+            assertEquals("moof", boxes.get(2).type);
+            assertEquals(2 + 2 * writer.getFragmentCount(), boxes.size());
+        }
+
+        // Hashing from disk reads the plaintext given the key
+        EvidenceHasher hasher = new EvidenceHasher();
+        hasher.setAtRestKey(KEY);
+        EvidenceHasher.Digests fromDisk = hasher.hash(file);
+        assertEquals(written.sha256, fromDisk.sha256);
+        assertEquals(written.merkle.getRootHex(), fromDisk.merkle.getRootHex());
+        assertNotEquals(written.sha256, EvidenceHasher.sha256(file));
+    }
+}
@@ -0,0 +1,164 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Tests for the cross-session event index: batched writes, session lookup
+ * and level/time-of-day event queries.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class EventIndexDatabaseTest {
+
+    private EventIndexDatabase database;
+
+    @Before
+    public void setUp() {
+        // In-memory database, separate from the app singleton
+        database = new EventIndexDatabase(RuntimeEnvironment.getApplication(), null);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    private long localTime(int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2025, Calendar.SEPTEMBER, day, hour, minute, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private void addEvent(long sessionId, long startTime, double peakDb) {
+        database.recordEvent(new EventIndexDatabase.Event(sessionId, 1, EventIndexDatabase.TYPE_TRIGGER,
+            startTime, startTime + 5000, peakDb, "01.mp4", 0));
+    }
+
+    @Test
+    public void testWritesVisibleAfterFlush() {
+        long sessionId = localTime(2, 14, 20);
+        database.recordSessionStart(sessionId, "0902_1420", EventIndexDatabase.MODE_VIDEO, "/movies/SoundTrigger/0902_1420");
+        database.recordSegment(sessionId, 1, "/movies/SoundTrigger/0902_1420/01.mp4", sessionId, sessionId + 5000, 1024);
+        addEvent(sessionId, sessionId, 72.5);
+        database.flushBlocking();
+
+        List<EventIndexDatabase.Event> events = database.queryEvents(sessionId, sessionId + 1, 0, false, 10);
+        assertEquals(1, events.size());
+        assertEquals(72.5, events.get(0).peakDb, 0.001);
+        assertEquals(EventIndexDatabase.TYPE_TRIGGER, events.get(0).type);
+    }
+
+    @Test
+    public void testLastSessionIsMostRecentlyStarted() {
+        assertNull("Empty index has no last session", database.getLastSession());
+
+        long older = localTime(1, 9, 0);
+        long newer = localTime(3, 21, 45);
+        database.recordSessionStart(newer, "0903_2145_AUDIO", EventIndexDatabase.MODE_AUDIO, "/a");
+        database.recordSessionStart(older, "0901_0900", EventIndexDatabase.MODE_VIDEO, "/b");
+        database.recordSessionEnd(newer, newer + 60000, 1, 4);
+        database.flushBlocking();
+
+        EventIndexDatabase.Session last = database.getLastSession();
+        assertEquals("0903_2145_AUDIO", last.name);
+        assertEquals(EventIndexDatabase.MODE_AUDIO, last.mode);
+        assertEquals(newer + 60000, last.endTime);
+        assertEquals(4, last.eventCount);
+    }
+
+    @Test
+    public void testQueryByLevelAndNight() {
+        long sessionId = localTime(1, 0, 0);
+        addEvent(sessionId, localTime(5, 23, 10), 75);   // night, loud
+        addEvent(sessionId, localTime(6, 3, 30), 82);    // night, loud
+        addEvent(sessionId, localTime(6, 3, 40), 60);    // night, quiet
+        addEvent(sessionId, localTime(6, 14, 0), 90);    // day, loud
+        addEvent(sessionId, localTime(20, 22, 0), 71);   // night, loud, outside range
+        database.flushBlocking();
+
+        List<EventIndexDatabase.Event> nightLoud = database.queryEvents(
+            localTime(1, 0, 0), localTime(15, 0, 0), 70, true, 100);
+        assertEquals(2, nightLoud.size());
+        assertEquals("Newest first", 82, nightLoud.get(0).peakDb, 0.001);
+
+        List<EventIndexDatabase.Event> allLoud = database.queryEvents(
+            localTime(1, 0, 0), localTime(30, 0, 0), 70, false, 100);
+        assertEquals(4, allLoud.size());
+
+        assertEquals(1, database.queryEvents(localTime(1, 0, 0), localTime(30, 0, 0), 0, false, 1).size());
+    }
+
+    @Test
+    public void testLargeBatchCommittedInOneFlush() {
+        long sessionId = localTime(1, 0, 0);
+        for (int i = 0; i < 1000; i++) {
+            addEvent(sessionId, sessionId + i * 1000L, 50 + i % 40);
+        }
+        database.flushBlocking();
+
+        assertEquals(1000, database.queryEvents(sessionId, sessionId + 1000000L, 0, false, 5000).size());
+        assertEquals(250, database.queryEvents(sessionId, sessionId + 1000000L, 80, false, 5000).size());
+    }
+
+    @Test
+    public void testFailedWriteDoesNotDropItsBatch() {
+        long sessionId = localTime(1, 0, 0);
+        addEvent(sessionId, localTime(2, 10, 0), 75);
+        // type is NOT NULL: this insert fails
+        database.recordEvent(new EventIndexDatabase.Event(sessionId, 1, null,
+            localTime(2, 11, 0), localTime(2, 11, 1), 95, "01.mp4", 0));
+        addEvent(sessionId, localTime(2, 12, 0), 80);
+        database.flushBlocking();
+
+        List<EventIndexDatabase.Event> events = database.queryEvents(localTime(1, 0, 0), localTime(3, 0, 0), 0, false, 10);
+        assertEquals(2, events.size());
+        assertEquals(80, events.get(0).peakDb, 0.001);
+        assertEquals(75, events.get(1).peakDb, 0.001);
+
+        // Aggregates only count the events that were stored
+        List<EventIndexDatabase.PeriodStats> days = database.getDailyStats(localTime(1, 0, 0), localTime(3, 0, 0));
+        assertEquals(2, days.get(0).eventCount);
+        assertEquals(80, days.get(0).maxDb, 0.001);
+    }
+
+    @Test
+    public void testHourlyAndDailyAggregatesMaintainedOnInsert() {
+        long sessionId = localTime(1, 0, 0);
+        database.recordEvent(new EventIndexDatabase.Event(sessionId, 1, EventIndexDatabase.TYPE_TRIGGER,
+            localTime(4, 23, 10), localTime(4, 23, 12), 75, "01.mp4", 0));
+        database.recordEvent(new EventIndexDatabase.Event(sessionId, 2, EventIndexDatabase.TYPE_TRIGGER,
+            localTime(4, 23, 40), localTime(4, 23, 41), 88, "02.mp4", 0));
+        database.recordEvent(new EventIndexDatabase.Event(sessionId, 3, EventIndexDatabase.TYPE_TRIGGER,
+            localTime(4, 8, 0), localTime(4, 8, 3), 70, "03.mp4", 0));
+        database.flushBlocking();
+
+        List<EventIndexDatabase.PeriodStats> days = database.getDailyStats(localTime(1, 0, 0), localTime(10, 0, 0));
+        assertEquals(1, days.size());
+        assertEquals(localTime(4, 0, 0), days.get(0).startTime);
+        assertEquals(3, days.get(0).eventCount);
+        assertEquals(6 * 60000, days.get(0).loudMs);
+        assertEquals(88, days.get(0).maxDb, 0.001);
+        assertEquals(localTime(4, 23, 40), days.get(0).worstEventTime);
+
+        List<EventIndexDatabase.PeriodStats> hours = database.getHourlyStats(localTime(4, 0, 0), localTime(5, 0, 0));
+        assertEquals(2, hours.size());
+        assertEquals(localTime(4, 8, 0), hours.get(0).startTime);
+        assertEquals(2, hours.get(1).eventCount);
+
+        List<EventIndexDatabase.Event> worst = database.getWorstEvents(localTime(1, 0, 0), localTime(10, 0, 0), 2);
+        assertEquals(88, worst.get(0).peakDb, 0.001);
+        assertEquals(75, worst.get(1).peakDb, 0.001);
+    }
+}
@@ -0,0 +1,95 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Tests for single-pass evidence hashing: plain and seeded SHA-256 from one read, matching
+ * separate digests, and memoised per unchanged file.
+ */
+public class EvidenceHasherTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String SEED = Base64.getEncoder().encodeToString(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+    private static final String OTHER_SEED = Base64.getEncoder().encodeToString(new byte[] { 9, 9, 9 });
+
+    private File writeFile(String name, int size, long randomSeed) throws Exception {
+        byte[] content = new byte[size];
+        new Random(randomSeed).nextBytes(content);
+        File file = tempFolder.newFile(name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+
+    private static String reference(File file, String seed) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        if (seed != null) digest.update(Base64.getDecoder().decode(seed));
+        digest.update(java.nio.file.Files.readAllBytes(file.toPath()));
+        return EvidenceHasher.hex(digest.digest());
+    }
+
+    @Test
+    public void testOnePassMatchesSeparateDigests() throws Exception {
+        // Larger than the read buffer, not a multiple of it
+        File file = writeFile("FINAL.mp4", 3 * 1024 * 1024 + 12345, 7);
+        EvidenceHasher hasher = new EvidenceHasher();
+
+        EvidenceHasher.Digests digests = hasher.hash(file, SEED, OTHER_SEED);
+        assertEquals(reference(file, null), digests.sha256);
+        assertEquals(reference(file, SEED), digests.seeded(SEED));
+        assertEquals(reference(file, OTHER_SEED), digests.seeded(OTHER_SEED));
+        assertEquals(file.length(), digests.sizeBytes);
+        assertEquals(1, hasher.getPassCount());
+        assertEquals(file.length(), hasher.getBytesRead());
+        assertEquals(reference(file, null), EvidenceHasher.sha256(file));
+    }
+
+    @Test
+    public void testMemoisedUntilFileChanges() throws Exception {
+        File file = writeFile("01.mp4", 100000, 1);
+        EvidenceHasher hasher = new EvidenceHasher();
+
+        EvidenceHasher.Digests first = hasher.hash(file, SEED);
+        assertSame(first, hasher.hash(file));          // plain hash already there
+        assertSame(first, hasher.hash(file, SEED));    // as is the seeded one
+        assertEquals(1, hasher.getPassCount());
+
+        // A new seed costs one more pass; the entry keeps the earlier seed
+        EvidenceHasher.Digests second = hasher.hash(file, OTHER_SEED);
+        assertEquals(2, hasher.getPassCount());
+        assertEquals(first.seeded(SEED), second.seeded(SEED));
+        assertEquals(reference(file, OTHER_SEED), second.seeded(OTHER_SEED));
+
+        // Rewritten file is hashed again
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[] { 42 });
+        }
+        assertTrue(file.setLastModified(file.lastModified() + 2000));
+        assertNull(hasher.getCached(file));
+        EvidenceHasher.Digests third = hasher.hash(file);
+        assertEquals(3, hasher.getPassCount());
+        assertEquals(reference(file, null), third.sha256);
+        assertNull(third.seeded(SEED));
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        File file = tempFolder.newFile("empty.mp4");
+        EvidenceHasher.Digests digests = new EvidenceHasher().hash(file, SEED);
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", digests.sha256);
+        assertEquals(reference(file, SEED), digests.seeded(SEED));
+    }
+}
@@ -0,0 +1,137 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for the session evidence journal: records chained by hash, edits detected at the right
+ * record, torn tails cut on reopen, incremental verification and batched fsync.
+ */
+public class EvidenceJournalTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @Test
+    public void testRecordsChainAndEditIsDetected() throws Exception {
+        File folder = tempFolder.newFolder("20260101_120000");
+        EvidenceJournal.Record first;
+        EvidenceJournal.Record second;
+        try (EvidenceJournal journal = EvidenceJournal.open(folder)) {
+            first = journal.append(EvidenceJournal.TYPE_START, folder.getName(), -1, null, "mode=video");
+            second = journal.append(EvidenceJournal.TYPE_SEGMENT, "01.mp4", 12345, HASH, "tab\there");
+            journal.append(EvidenceJournal.TYPE_STOP, null, -1, null, "files=1");
+        }
+        assertEquals(1, first.seq);
+        assertEquals(EvidenceJournal.GENESIS_HASH, first.previousHash);
+        assertEquals(first.hash, second.previousHash);
+
+        File file = EvidenceJournal.journalFileFor(folder);
+        EvidenceJournal.Verification verification = EvidenceJournal.verify(file);
+        assertTrue(verification.toString(), verification.isIntact());
+        assertEquals(3, verification.recordsChecked);
+        assertEquals(3, verification.head.seq);
+
+        // Change the recorded size of segment 01 (record 2)
+        String text = new String(java.nio.file.Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        java.nio.file.Files.write(file.toPath(), text.replace("\t12345\t", "\t12346\t").getBytes(StandardCharsets.UTF_8));
+        verification = EvidenceJournal.verify(file);
+        assertFalse(verification.isIntact());
+        assertEquals(2, verification.brokenAtSeq);
+        assertEquals(1, verification.recordsChecked);
+
+        // Dropping record 2 breaks the link of record 3
+        String[] lines = text.split("\n");
+        java.nio.file.Files.write(file.toPath(), (lines[0] + "\n" + lines[2] + "\n").getBytes(StandardCharsets.UTF_8));
+        verification = EvidenceJournal.verify(file);
+        assertEquals(2, verification.brokenAtSeq);
+    }
+
+    @Test
+    public void testTornTailCutOnReopen() throws Exception {
+        File folder = tempFolder.newFolder("session");
+        String head;
+        try (EvidenceJournal journal = EvidenceJournal.open(folder)) {
+            journal.append(EvidenceJournal.TYPE_START, "session", -1, null, null);
+            head = journal.append(EvidenceJournal.TYPE_SEGMENT, "01.mp4", 10, HASH, null).hash;
+        }
+        File file = EvidenceJournal.journalFileFor(folder);
+        long intactLength = file.length();
+        // Crash in the middle of writing record 3
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write("3\t1700000000000\tSEGMENT\t02.mp4\t".getBytes(StandardCharsets.UTF_8));
+        }
+        EvidenceJournal.Verification torn = EvidenceJournal.verify(file);
+        assertTrue(torn.isIntact());
+        assertEquals(2, torn.recordsChecked);
+        assertEquals(file.length() - intactLength, torn.tornBytes);
+
+        try (EvidenceJournal journal = EvidenceJournal.open(folder)) {
+            assertEquals(intactLength, file.length());
+            assertEquals(2, journal.getSeq());
+            assertEquals(head, journal.getHeadHash());
+            EvidenceJournal.Record next = journal.append(EvidenceJournal.TYPE_SEGMENT, "02.mp4", 20, HASH, null);
+            assertEquals(3, next.seq);
+            assertEquals(head, next.previousHash);
+        }
+        EvidenceJournal.Verification verification = EvidenceJournal.verify(file);
+        assertTrue(verification.isIntact());
+        assertEquals(3, verification.recordsChecked);
+        assertEquals(0, verification.tornBytes);
+    }
+
+    @Test
+    public void testIncrementalVerificationFromCheckpoint() throws Exception {
+        File folder = tempFolder.newFolder("session");
+        File file = EvidenceJournal.journalFileFor(folder);
+        try (EvidenceJournal journal = EvidenceJournal.open(folder)) {
+            for (int i = 1; i <= 100; i++) {
+                journal.append(EvidenceJournal.TYPE_SEGMENT, String.format("%02d.mp4", i), i, HASH, null);
+            }
+        }
+        EvidenceJournal.Verification first = EvidenceJournal.verify(file);
+        assertTrue(first.isIntact());
+        assertEquals(file.length(), first.head.offset);
+
+        try (EvidenceJournal journal = EvidenceJournal.open(folder)) {
+            journal.append(EvidenceJournal.TYPE_STOP, null, -1, null, "files=100");
+        }
+        // Records before the checkpoint are not read again: damage there goes unnoticed
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(0);
+            raf.write('X');
+        }
+        EvidenceJournal.Verification next = EvidenceJournal.verify(file, first.head);
+        assertTrue(next.toString(), next.isIntact());
+        assertEquals(1, next.recordsChecked);
+        assertEquals(101, next.head.seq);
+        assertFalse(EvidenceJournal.verify(file).isIntact());
+    }
+
+    @Test
+    public void testFsyncIsBatched() throws Exception {
+        File folder = tempFolder.newFolder("session");
+        EvidenceJournal journal = EvidenceJournal.open(folder);
+        for (int i = 0; i < EvidenceJournal.SYNC_EVERY_RECORDS * 3 + 5; i++) {
+            journal.append(EvidenceJournal.TYPE_SEGMENT, "01.mp4", i, HASH, null);
+        }
+        int batches = journal.getSyncCount();
+        assertTrue("syncs: " + batches, batches >= 3 && batches < EvidenceJournal.SYNC_EVERY_RECORDS);
+        journal.sync();
+        assertEquals(batches + 1, journal.getSyncCount());
+        journal.sync(); // nothing pending
+        assertEquals(batches + 1, journal.getSyncCount());
+        journal.close();
+        assertEquals(EvidenceJournal.SYNC_EVERY_RECORDS * 3 + 5, EvidenceJournal.verify(journal.getFile()).recordsChecked);
+    }
+}
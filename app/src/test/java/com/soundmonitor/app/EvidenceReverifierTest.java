@@ -0,0 +1,203 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Tests for background re-verification: intact sessions complete a pass, a damaged MiB is
+ * reported by leaf and kept in the state file, and a run cut short by its budget or by the
+ * service resumes where it stopped at the configured byte rate. Leaves are trusted only with
+ * the root recorded in the timestamp file, and large files without leaves still finish.
+ */
+public class EvidenceReverifierTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final EvidenceReverifier.Control NEVER_STOP = () -> false;
+
+    private static File write(File file, int size, long randomSeed) throws Exception {
+        byte[] content = new byte[size];
+        new Random(randomSeed).nextBytes(content);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+
+    /**
+     * Session with two segments and a final file whose Merkle leaves are saved and whose root
+     * is recorded in its timestamp file
+     */
+    private File createSession(File base, String name, int finalSize, long randomSeed) throws Exception {
+        File folder = new File(base, name);
+        assertTrue(folder.mkdirs());
+        SessionManifest manifest = new SessionManifest(name, EventIndexDatabase.MODE_VIDEO, 1700000000000L);
+        for (int i = 1; i <= 2; i++) {
+            File segment = write(new File(folder, String.format("%02d.mp4", i)), 300000 + i, randomSeed + i);
+            manifest.putFile(segment, 10000, EvidenceHasher.sha256(segment));
+        }
+        File finalFile = write(new File(folder, "FINAL.mp4"), finalSize, randomSeed);
+        EvidenceHasher.Digests digests = EvidenceHasher.compute(finalFile, Collections.<String>emptyList());
+        digests.merkle.save(MerkleTree.indexFileFor(finalFile));
+        try (FileOutputStream out = new FileOutputStream(new File(folder, "FINAL_timestamp.txt"))) {
+            out.write(("=== MERKLE TREE ===\nMerkle Root (SHA-256): " + digests.merkle.getRootHex() + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        }
+        manifest.putFile(finalFile, 20000, digests.sha256);
+        manifest.save(folder);
+        return folder;
+    }
+
+    private EvidenceReverifier open(File base, File state, long bytesPerSecond) throws Exception {
+        EvidenceReverifier reverifier = new EvidenceReverifier(base, state, bytesPerSecond);
+        reverifier.loadState();
+        return reverifier;
+    }
+
+    @Test
+    public void testDamagedLeafIsReportedAndPersisted() throws Exception {
+        File base = tempFolder.newFolder("SoundTrigger");
+        File state = new File(tempFolder.getRoot(), EvidenceReverifier.STATE_FILE_NAME);
+        createSession(base, "20260101_120000", 3 * 1024 * 1024 + 5, 1);
+        File damaged = createSession(base, "20260102_120000", 4 * 1024 * 1024, 2);
+
+        EvidenceReverifier first = open(base, state, 0);
+        EvidenceReverifier.RunResult clean = first.run(Long.MAX_VALUE, NEVER_STOP);
+        assertTrue(clean.toString(), clean.passCompleted);
+        assertEquals(6, clean.filesCompleted);
+        assertTrue(clean.newMismatches.isEmpty());
+
+        try (RandomAccessFile raf = new RandomAccessFile(new File(damaged, "FINAL.mp4"), "rw")) {
+            raf.seek(2 * 1024 * 1024 + 77);
+            raf.write(raf.read() ^ 0x01);
+        }
+        EvidenceReverifier.RunResult dirty = open(base, state, 0).run(Long.MAX_VALUE, NEVER_STOP);
+        assertTrue(dirty.passCompleted);
+        assertEquals(2, dirty.newMismatches.size());
+        assertEquals(2, dirty.newMismatches.get(0).leaf);
+        assertEquals(-1, dirty.newMismatches.get(1).leaf);
+        assertEquals("FINAL.mp4", dirty.newMismatches.get(0).file);
+
+        // Persisted, and not reported again by the next pass
+        EvidenceReverifier reloaded = open(base, state, 0);
+        assertEquals(2, reloaded.getPassCount());
+        assertEquals(2, reloaded.getMismatches().size());
+        assertEquals("20260102_120000", reloaded.getMismatches().get(0).session);
+        assertTrue(reloaded.run(Long.MAX_VALUE, NEVER_STOP).newMismatches.isEmpty());
+
+        // A file missing from disk
+        assertTrue(new File(damaged, "01.mp4").delete());
+        EvidenceReverifier.RunResult missing = open(base, state, 0).run(Long.MAX_VALUE, NEVER_STOP);
+        assertEquals(1, missing.newMismatches.size());
+        assertEquals("missing", missing.newMismatches.get(0).actual);
+    }
+
+    @Test
+    public void testBudgetedRunsResumeInsideFile() throws Exception {
+        File base = tempFolder.newFolder("SoundTrigger");
+        File state = new File(tempFolder.getRoot(), EvidenceReverifier.STATE_FILE_NAME);
+        createSession(base, "20260201_080000", 5 * 1024 * 1024 + 11, 3);
+        long total = 300001 + 300002 + 5 * 1024 * 1024 + 11;
+
+        long verified = 0;
+        int runs = 0;
+        EvidenceReverifier.RunResult result;
+        do {
+            result = open(base, state, 0).run(1536 * 1024, NEVER_STOP);
+            verified += result.bytesVerified;
+            runs++;
+            assertTrue(result.newMismatches.isEmpty());
+        } while (!result.passCompleted && runs < 20);
+        assertTrue(result.passCompleted);
+        assertTrue("runs: " + runs, runs >= 4);
+        // Each leaf of the final file was read once across the runs; only segments restart
+        assertEquals(total, verified);
+        assertEquals(total, open(base, state, 0).getTotalBytesVerified());
+        assertEquals("", open(base, state, 0).getCursor());
+    }
+
+    @Test
+    public void testUntrustedOrMissingLeavesStillFinish() throws Exception {
+        File base = tempFolder.newFolder("SoundTrigger");
+        File state = new File(tempFolder.getRoot(), EvidenceReverifier.STATE_FILE_NAME);
+        File folder = createSession(base, "20260401_080000", 5 * 1024 * 1024 + 11, 5);
+        File finalFile = new File(folder, "FINAL.mp4");
+        File leaves = MerkleTree.indexFileFor(finalFile);
+
+        // Leaves of other content: reported, not trusted, and the file is checked by collecting its leaves
+        File other = write(new File(tempFolder.getRoot(), "other.mp4"), (int) finalFile.length(), 99);
+        MerkleTree.build(other).save(leaves);
+        EvidenceReverifier.RunResult untrusted = runToEnd(base, state, 1536 * 1024);
+        assertEquals(untrusted.newMismatches.toString(), 1, untrusted.newMismatches.size());
+        assertEquals("FINAL.merkle", untrusted.newMismatches.get(0).file);
+
+        // No leaves at all: collected across budgeted runs and compared with the recorded root
+        assertTrue(leaves.delete());
+        assertTrue(runToEnd(base, state, 1536 * 1024).newMismatches.isEmpty());
+        try (RandomAccessFile raf = new RandomAccessFile(finalFile, "rw")) {
+            raf.seek(4 * 1024 * 1024 + 3);
+            raf.write(raf.read() ^ 0x01);
+        }
+        EvidenceReverifier.RunResult damaged = runToEnd(base, state, 1536 * 1024);
+        assertEquals(damaged.newMismatches.toString(), 1, damaged.newMismatches.size());
+        assertTrue(damaged.newMismatches.get(0).expected.startsWith("Merkle root"));
+
+        // No recorded root either: read whole in one run, past the budget
+        assertTrue(new File(folder, "FINAL_timestamp.txt").delete());
+        EvidenceReverifier reverifier = new EvidenceReverifier(base, new File(tempFolder.getRoot(), "fresh.state"), 0);
+        EvidenceReverifier.RunResult plain = reverifier.run(1024 * 1024, NEVER_STOP);
+        assertTrue(plain.toString(), plain.passCompleted);
+        assertTrue(plain.bytesVerified > finalFile.length());
+        assertEquals(1, plain.newMismatches.size());
+        assertEquals(-1, plain.newMismatches.get(0).leaf);
+    }
+
+    /**
+     * Budgeted runs, each from the saved state, until a pass completes; the last run's result
+     * with the mismatches of all of them
+     */
+    private EvidenceReverifier.RunResult runToEnd(File base, File state, long budget) throws Exception {
+        java.util.List<EvidenceReverifier.Mismatch> found = new java.util.ArrayList<>();
+        EvidenceReverifier.RunResult result;
+        int runs = 0;
+        do {
+            result = open(base, state, 0).run(budget, NEVER_STOP);
+            found.addAll(result.newMismatches);
+            runs++;
+        } while (!result.passCompleted && runs < 20);
+        assertTrue(result.passCompleted);
+        return new EvidenceReverifier.RunResult(result.bytesVerified, result.filesCompleted, found, false, false, true, 0);
+    }
+
+    @Test
+    public void testStopsWhenAskedAndPacesReads() throws Exception {
+        File base = tempFolder.newFolder("SoundTrigger");
+        File state = new File(tempFolder.getRoot(), EvidenceReverifier.STATE_FILE_NAME);
+        createSession(base, "20260301_080000", 3 * 1024 * 1024, 4);
+
+        final int[] checks = { 0 };
+        EvidenceReverifier.RunResult stopped = open(base, state, 0).run(Long.MAX_VALUE, () -> ++checks[0] > 6);
+        assertTrue(stopped.stopped);
+        assertFalse(stopped.passCompleted);
+        assertTrue(open(base, state, 0).getCursor(), open(base, state, 0).getCursor().startsWith("20260301_080000/FINAL.mp4#"));
+
+        // 4 MiB/s: the remaining ~2 MiB take about half a second
+        long start = System.nanoTime();
+        EvidenceReverifier.RunResult paced = open(base, state, 4L * 1024 * 1024).run(Long.MAX_VALUE, NEVER_STOP);
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        assertTrue(paced.passCompleted);
+        long expectedMs = paced.bytesVerified * 1000 / (4L * 1024 * 1024);
+        assertTrue(elapsedMs + " ms for " + paced.bytesVerified + " bytes", elapsedMs >= expectedMs - 50);
+    }
+}
@@ -0,0 +1,296 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Tests for the standalone session verifier: an intact session passes every check, and a
+ * changed segment, a wrong timestamp file, a reordered journal or bad subtitles are reported
+ * as failures in the JSON report. A session encrypted at rest passes with its key and as a
+ * decrypted export, and is reported as not checked without the key.
+ */
+public class EvidenceVerifierTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String SEED = Base64.getEncoder().encodeToString("recording-seed-0123456789abcdef".getBytes(StandardCharsets.UTF_8));
+
+    private static KeyPair deviceKeys;
+
+    @BeforeClass
+    public static void createDeviceKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        deviceKeys = generator.generateKeyPair();
+    }
+
+    private static void write(File file, byte[] content) throws Exception {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+    }
+
+    private static byte[] random(int size, long seed) {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    /**
+     * Session as the service leaves it: two segments, a final file with its timestamp file,
+     * Merkle leaves and subtitles, a manifest, an evidence journal and batch signatures
+     */
+    private File createSession(String name, long randomSeed) throws Exception {
+        File folder = tempFolder.newFolder(name);
+        SessionManifest manifest = new SessionManifest(name, EventIndexDatabase.MODE_VIDEO, 1700000000000L);
+        BatchSigner signer = BatchSigner.open(folder, deviceKeys.getPrivate(), deviceKeys.getPublic(),
+            BatchSigner.DEFAULT_ALGORITHM, BatchSigner.DEFAULT_INTERVAL_MS);
+        EvidenceJournal journal = EvidenceJournal.open(folder);
+        journal.append(EvidenceJournal.TYPE_START, name, -1, null, "mode=video");
+        for (int i = 1; i <= 2; i++) {
+            File segment = new File(folder, String.format("%02d.mp4", i));
+            write(segment, random(200000 + i, randomSeed + i));
+            String hash = EvidenceHasher.sha256(segment);
+            manifest.putFile(segment, 10000, hash);
+            journal.append(EvidenceJournal.TYPE_SEGMENT, segment.getName(), segment.length(), hash, null);
+            signer.add(segment.getName(), hash);
+        }
+
+        File finalFile = new File(folder, "FINAL.mp4");
+        write(finalFile, random(1500000, randomSeed));
+        EvidenceHasher.Digests digests = EvidenceHasher.compute(finalFile, Collections.singletonList(SEED));
+        digests.merkle.save(MerkleTree.indexFileFor(finalFile));
+        EvidenceJournal.Record record = journal.append(EvidenceJournal.TYPE_FINAL, finalFile.getName(),
+            finalFile.length(), digests.sha256, "merkle=" + digests.merkle.getRootHex());
+        signer.add(finalFile.getName(), digests.sha256);
+        String timestamp = "=== RECORDING START PROOF (CREATED BEFORE VIDEO) ===\n"
+            + "Cryptographic Seed: " + SEED.substring(0, 16) + "...\n\n"
+            + "=== VIDEO FILE VERIFICATION ===\n"
+            + "File Size: " + finalFile.length() + " bytes\n"
+            + "Seeded Video Hash: " + digests.seeded(SEED).substring(0, 32) + "...\n\n"
+            + "=== LEGACY VERIFICATION (BACKWARD COMPATIBILITY) ===\n"
+            + "File Size: " + finalFile.length() + " bytes\n"
+            + "SHA-256 Hash: " + digests.sha256 + "\n\n"
+            + "=== EVIDENCE CHAIN ===\n"
+            + "Record Hash: " + record.hash + "\n\n"
+            + "=== MERKLE TREE ===\n"
+            + "Merkle Root (SHA-256): " + digests.merkle.getRootHex() + "\n";
+        write(new File(folder, "FINAL_timestamp.txt"), timestamp.getBytes(StandardCharsets.UTF_8));
+        manifest.putFile(finalFile, 20000, digests.sha256);
+
+        TimedTextTrack subtitles = TimedTextTrack.subtitles();
+        subtitles.addCue(0, 1000, "first");
+        subtitles.addCue(1000, 2000, "second");
+        write(new File(folder, "FINAL_SUB.srt"), subtitles.toSrt().getBytes(StandardCharsets.UTF_8));
+
+        journal.append(EvidenceJournal.TYPE_STOP, null, -1, null, "files=1");
+        journal.close();
+        signer.close();
+        manifest.putFile(new File(folder, "FINAL_timestamp.txt"), -1, null);
+        manifest.putFile(EvidenceJournal.journalFileFor(folder), -1, null);
+        manifest.putFile(BatchSigner.signaturesFileFor(folder), -1, null);
+        manifest.save(folder);
+        return folder;
+    }
+
+    /**
+     * Audio session recorded encrypted at rest: sizes and digests in the manifest, journal,
+     * signatures and timestamp file are those of the plaintext
+     */
+    private File createEncryptedSession(String name, SecretKey key) throws Exception {
+        File folder = tempFolder.newFolder(name);
+        File audio = new File(folder, "audio_session.m4a");
+        try (EncryptedFileChannel channel = EncryptedFileChannel.create(audio, key, 4096)) {
+            channel.write(ByteBuffer.wrap(random(50000, 11)));
+        }
+        EvidenceHasher.Digests digests = EvidenceHasher.compute(audio, Collections.<String>emptyList(), key);
+        assertEquals(50000, digests.sizeBytes);
+
+        BatchSigner signer = BatchSigner.open(folder, deviceKeys.getPrivate(), deviceKeys.getPublic(),
+            BatchSigner.DEFAULT_ALGORITHM, BatchSigner.DEFAULT_INTERVAL_MS);
+        signer.add(audio.getName(), digests.sha256);
+        signer.close();
+        try (EvidenceJournal journal = EvidenceJournal.open(folder)) {
+            journal.append(EvidenceJournal.TYPE_START, name, -1, null, "mode=audio");
+            journal.append(EvidenceJournal.TYPE_FINAL, audio.getName(), EncryptedFileChannel.plaintextLength(audio),
+                digests.sha256, null);
+            journal.append(EvidenceJournal.TYPE_STOP, null, -1, null, "files=1");
+        }
+        write(new File(folder, "audio_session_timestamp.txt"), ("File Size: " + EncryptedFileChannel.plaintextLength(audio)
+            + " bytes\nSHA-256 Hash: " + digests.sha256 + "\n").getBytes(StandardCharsets.UTF_8));
+
+        SessionManifest manifest = new SessionManifest(name, EventIndexDatabase.MODE_AUDIO, 1700000000000L);
+        manifest.putFile(audio, 3000, digests.sha256);
+        assertEquals(50000, manifest.getFile(audio.getName()).sizeBytes);
+        manifest.putFile(new File(folder, "audio_session_timestamp.txt"), -1, null);
+        manifest.putFile(EvidenceJournal.journalFileFor(folder), -1, null);
+        manifest.putFile(BatchSigner.signaturesFileFor(folder), -1, null);
+        manifest.save(folder);
+        return folder;
+    }
+
+    private static EvidenceVerifier.Report verify(int threads, List<File> sessions, String... seeds) throws Exception {
+        EvidenceVerifier verifier = new EvidenceVerifier(threads);
+        for (String seed : seeds) verifier.addSeed(seed);
+        verifier.setSigningKeyFingerprint(BatchSigner.fingerprint(deviceKeys.getPublic()));
+        return verifier.verify(sessions);
+    }
+
+    @Test
+    public void testIntactSessionsPassInParallel() throws Exception {
+        File parent = tempFolder.getRoot();
+        for (int i = 0; i < 4; i++) {
+            createSession("2026010" + (i + 1) + "_120000", 100 + i);
+        }
+        List<File> sessions = EvidenceVerifier.findSessions(parent);
+        assertEquals(4, sessions.size());
+
+        EvidenceVerifier.Report report = verify(4, sessions, SEED);
+        for (EvidenceVerifier.SessionReport session : report.sessions) {
+            assertEquals(session.checks.toString(), EvidenceVerifier.PASS, session.getStatus());
+            assertTrue(session.getChecks(EvidenceVerifier.SKIPPED).isEmpty());
+        }
+        assertTrue(report.isPassed());
+        assertTrue(report.bytesHashed > 4 * 1500000L);
+
+        EvidenceVerifier.SessionReport first = report.sessions.get(0);
+        boolean timestampChecked = false;
+        for (EvidenceVerifier.Check check : first.checks) {
+            if (check.name.equals("timestamp")) {
+                timestampChecked = true;
+                assertTrue(check.detail, check.detail.contains("seeded SHA-256") && check.detail.contains("journal record"));
+            }
+        }
+        assertTrue(timestampChecked);
+
+        // Without the seed, the seeded hash is reported as not checked
+        EvidenceVerifier.Report unseeded = verify(2, Collections.singletonList(sessions.get(0)));
+        assertTrue(unseeded.isPassed());
+        assertEquals(1, unseeded.sessions.get(0).getChecks(EvidenceVerifier.SKIPPED).size());
+
+        // Signatures pass only against the device's key: unpinned they warn, another key fails
+        EvidenceVerifier unpinned = new EvidenceVerifier(2);
+        unpinned.addSeed(SEED);
+        EvidenceVerifier.SessionReport trustingFile = unpinned.verify(Collections.singletonList(sessions.get(0))).sessions.get(0);
+        assertEquals(EvidenceVerifier.WARN, trustingFile.getStatus());
+        assertEquals("signatures", trustingFile.getChecks(EvidenceVerifier.WARN).get(0).name);
+        unpinned.setSigningKeyFingerprint(String.format("%064d", 0));
+        assertFalse(unpinned.verify(Collections.singletonList(sessions.get(0))).isPassed());
+    }
+
+    @Test
+    public void testChangedSegmentAndTimestampFail() throws Exception {
+        File folder = createSession("20260201_080000", 7);
+        try (RandomAccessFile raf = new RandomAccessFile(new File(folder, "02.mp4"), "rw")) {
+            raf.seek(1000);
+            raf.write(raf.read() ^ 0xFF);
+        }
+        File timestamp = new File(folder, "FINAL_timestamp.txt");
+        String text = new String(java.nio.file.Files.readAllBytes(timestamp.toPath()), StandardCharsets.UTF_8);
+        write(timestamp, text.replace("File Size: 1500000 bytes", "File Size: 1499999 bytes").getBytes(StandardCharsets.UTF_8));
+
+        EvidenceVerifier.Report report = verify(2, Collections.singletonList(folder), SEED);
+        assertFalse(report.isPassed());
+        EvidenceVerifier.SessionReport session = report.sessions.get(0);
+        StringBuilder failures = new StringBuilder();
+        for (EvidenceVerifier.Check check : session.getChecks(EvidenceVerifier.FAIL)) {
+            failures.append(check.name).append(' ').append(check.file).append('\n');
+        }
+        assertTrue(failures.toString(), failures.toString().contains("manifest 02.mp4"));
+        assertTrue(failures.toString(), failures.toString().contains("journal 02.mp4"));
+        assertTrue(failures.toString(), failures.toString().contains("signatures 02.mp4"));
+        assertTrue(failures.toString(), failures.toString().contains("timestamp FINAL_timestamp.txt"));
+        assertEquals(4, session.getChecks(EvidenceVerifier.FAIL).size());
+
+        StringWriter json = new StringWriter();
+        report.writeJson(json);
+        assertTrue(json.toString(), json.toString().contains("\"status\": \"FAIL\""));
+        assertTrue(json.toString().contains("\"file\": \"02.mp4\""));
+        assertFalse("seeds stay out of the report", json.toString().contains(SEED));
+    }
+
+    @Test
+    public void testEncryptedSessionVerifiesWithKeyOrAsExport() throws Exception {
+        byte[] raw = random(32, 5);
+        SecretKey key = new SecretKeySpec(raw, "AES");
+        File folder = createEncryptedSession("20260401_080000", key);
+
+        EvidenceVerifier keyed = new EvidenceVerifier(2);
+        File keyFile = tempFolder.newFile("at_rest.key");
+        write(keyFile, raw);
+        keyed.setAtRestKey(EvidenceVerifier.readKey(keyFile));
+        keyed.setSigningKeyFingerprint(BatchSigner.fingerprint(deviceKeys.getPublic()));
+        EvidenceVerifier.SessionReport withKey = keyed.verify(Collections.singletonList(folder)).sessions.get(0);
+        assertEquals(withKey.checks.toString(), EvidenceVerifier.PASS, withKey.getStatus());
+
+        // Without the key nothing fails, the encrypted file is reported as not checked
+        EvidenceVerifier.SessionReport withoutKey = verify(2, Collections.singletonList(folder)).sessions.get(0);
+        assertEquals(withoutKey.checks.toString(), EvidenceVerifier.WARN, withoutKey.getStatus());
+        assertEquals("encryption", withoutKey.getChecks(EvidenceVerifier.WARN).get(0).name);
+
+        // The export decrypts the recording and copies the rest as it is
+        File export = tempFolder.newFolder("export", folder.getName());
+        for (File file : folder.listFiles()) {
+            File copy = new File(export, file.getName());
+            if (EncryptedFileChannel.isEncrypted(file)) {
+                try (EncryptedFileChannel in = EncryptedFileChannel.open(file, key, false);
+                     FileOutputStream out = new FileOutputStream(copy)) {
+                    in.transferTo(0, in.size(), out.getChannel());
+                }
+            } else {
+                java.nio.file.Files.copy(file.toPath(), copy.toPath());
+            }
+        }
+        EvidenceVerifier.SessionReport exported = verify(2, Collections.singletonList(export)).sessions.get(0);
+        assertEquals(exported.checks.toString(), EvidenceVerifier.PASS, exported.getStatus());
+
+        // A changed chunk fails with the key
+        try (RandomAccessFile raf = new RandomAccessFile(new File(folder, "audio_session.m4a"), "rw")) {
+            raf.seek(EncryptedFileChannel.HEADER_SIZE + 100);
+            raf.write(raf.read() ^ 0xFF);
+        }
+        assertFalse(keyed.verify(Collections.singletonList(folder)).isPassed());
+    }
+
+    @Test
+    public void testBadSubtitlesAndJournalOrderFail() throws Exception {
+        File folder = createSession("20260301_080000", 9);
+        write(new File(folder, "01_SUB.srt"), ("1\n00:00:02,000 --> 00:00:03,000\nlate\n\n"
+            + "2\n00:00:01,000 --> 00:00:02,000\nearly\n\n").getBytes(StandardCharsets.UTF_8));
+        // Segment 01 closed again after segment 02, chained correctly
+        try (EvidenceJournal journal = EvidenceJournal.open(folder)) {
+            File first = new File(folder, "01.mp4");
+            journal.append(EvidenceJournal.TYPE_SEGMENT, first.getName(), first.length(), EvidenceHasher.sha256(first), null);
+        }
+
+        EvidenceVerifier.Report report = verify(1, Collections.singletonList(folder));
+        StringBuilder failures = new StringBuilder();
+        for (EvidenceVerifier.Check check : report.sessions.get(0).getChecks(EvidenceVerifier.FAIL)) {
+            failures.append(check).append('\n');
+        }
+        assertTrue(failures.toString(), failures.toString().contains("subtitles 01_SUB.srt: cue 2 starts before cue 1"));
+        assertTrue(failures.toString(), failures.toString().contains("segments 01.mp4"));
+    }
+}
@@ -0,0 +1,159 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/**
+ * Tests for the fragmented MP4 writer used for crash-safe audio recordings:
+ * fragment layout, configurable fragment duration and scanning a recording
+ * cut off mid-write.
+ */
+public class FragmentedMp4WriterTest {
+
+    private static final byte[] ASC_44100_MONO = { 0x12, 0x08 };
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static FragmentedMp4Writer.TrackFormat aac() {
+        return FragmentedMp4Writer.TrackFormat.aac(44100, 1, ASC_44100_MONO, 128000);
+    }
+
+    /** Write count AAC-sized frames (1024 samples each, ~23 ms) filled with a marker byte */
+    private static void writeFrames(FragmentedMp4Writer writer, int count, int size) throws Exception {
+        for (int i = 0; i < count; i++) {
+            byte[] frame = new byte[size];
+            frame[0] = (byte) i;
+            writer.writeSample(0, frame, 1024, true);
+        }
+    }
+
+    @Test
+    public void testFragmentsCutAtConfiguredDuration() throws Exception {
+        File file = tempFolder.newFile("audio.m4a");
+        FragmentedMp4Writer writer = FragmentedMp4Writer.create(file, 1000, aac());
+        writer.setSyncEachFragment(false);
+        writeFrames(writer, 431, 300); // 10.0 s
+        writer.close();
+
+        FragmentedMp4Writer.ScanResult scan = FragmentedMp4Writer.scan(file);
+        assertEquals(file.length(), scan.validEnd);
+        assertEquals(0, scan.getTruncatedBytes());
+        assertEquals(1, scan.init.tracks.size());
+        assertEquals(44100, scan.init.tracks.get(0).timescale);
+        assertEquals("mp4a", Mp4Box.typeString(java.nio.ByteBuffer.wrap(scan.init.tracks.get(0).sampleEntries[0]).getInt(4)));
+
+        // 1 s = 43.07 frames -> fragments of 44 frames, last one shorter
+        assertEquals(10, scan.fragments.size());
+        long expectedBase = 0;
+        int totalSamples = 0;
+        for (int i = 0; i < scan.fragments.size(); i++) {
+            FragmentedMp4Writer.FragmentInfo fragment = scan.fragments.get(i);
+            assertEquals(i + 1, fragment.sequenceNumber);
+            assertEquals(expectedBase, fragment.baseDecodeTimes[0]);
+            expectedBase += fragment.durations[0];
+            totalSamples += fragment.sampleCounts[0];
+        }
+        assertEquals(44, scan.fragments.get(0).sampleCounts[0]);
+        assertEquals(431, totalSamples);
+        assertEquals(431L * 1024, expectedBase);
+    }
+
+    @Test
+    public void testOverheadIsSmallAndReported() throws Exception {
+        File file = tempFolder.newFile("audio.m4a");
+        FragmentedMp4Writer writer = FragmentedMp4Writer.create(file, 2000, aac());
+        writer.setSyncEachFragment(false);
+        writeFrames(writer, 431 * 6, 372); // one minute at ~128 kbps
+        writer.close();
+
+        assertEquals(file.length(), writer.getMediaBytes() + writer.getIndexBytes());
+        double overhead = writer.getIndexBytes() / (double) writer.getMediaBytes();
+        assertTrue("Index overhead " + overhead, overhead < 0.02);
+        assertTrue(writer.formatStats().startsWith(writer.getFragmentCount() + " fragments"));
+    }
+
+    @Test
+    public void testCutOffFragmentFoundByScan() throws Exception {
+        File file = tempFolder.newFile("audio.m4a");
+        FragmentedMp4Writer writer = FragmentedMp4Writer.create(file, 1000, aac());
+        writeFrames(writer, 200, 300);
+        writer.close();
+        FragmentedMp4Writer.ScanResult before = FragmentedMp4Writer.scan(file);
+        FragmentedMp4Writer.FragmentInfo last = before.fragments.get(before.fragments.size() - 1);
+
+        // Simulate a crash in the middle of the last fragment's mdat
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(last.offset + last.size - 100);
+        }
+        FragmentedMp4Writer.ScanResult damaged = FragmentedMp4Writer.scan(file);
+        assertEquals(before.fragments.size() - 1, damaged.fragments.size());
+        assertEquals(last.offset, damaged.validEnd);
+        assertEquals(last.size - 100, damaged.getTruncatedBytes());
+        for (int i = 0; i < damaged.fragments.size(); i++) {
+            assertEquals(before.fragments.get(i).offset, damaged.fragments.get(i).offset);
+        }
+    }
+
+    @Test
+    public void testDigestFedWhileWritingMatchesFile() throws Exception {
+        String seed = java.util.Base64.getEncoder().encodeToString(new byte[] { 7, 7, 7, 7 });
+        File file = tempFolder.newFile("hashed.m4a");
+        FragmentedMp4Writer writer = FragmentedMp4Writer.create(file, 1000, aac());
+        writer.setSyncEachFragment(false);
+        EvidenceHasher.Running digest = new EvidenceHasher.Running(seed);
+        writer.setDigest(digest); // after the init segment: read back once
+        writeFrames(writer, 200, 300);
+        writer.close();
+
+        EvidenceHasher.Digests written = digest.finish(file);
+        EvidenceHasher.Digests read = EvidenceHasher.compute(file, java.util.Collections.singletonList(seed));
+        assertEquals(read.sha256, written.sha256);
+        assertEquals(read.seeded(seed), written.seeded(seed));
+        assertEquals(file.length(), written.sizeBytes);
+
+        // Bytes written behind the digest's back are caught
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length());
+            raf.write(new byte[16]);
+        }
+        try {
+            digest.finish(file);
+            fail("Digest of the recording accepted for the extended file");
+        } catch (java.io.IOException expected) {
+            // length differs
+        }
+    }
+
+    @Test
+    public void testVideoFragmentsStartOnSyncSamples() throws Exception {
+        Mp4TestFiles.Track template = Mp4TestFiles.Track.video((byte) 1);
+        File source = Mp4TestFiles.write(tempFolder.newFile("seg.mp4"), 0, template);
+        FragmentedMp4Writer.TrackFormat video = FragmentedMp4Writer.TrackFormat.fromTrack(
+            Mp4Movie.parse(source).getTrack(Mp4TrackTable.HANDLER_VIDEO));
+
+        File file = tempFolder.newFile("video.mp4");
+        FragmentedMp4Writer writer = FragmentedMp4Writer.create(file, 100, video, aac());
+        writer.setSyncEachFragment(false);
+        for (int i = 0; i < 90; i++) {
+            // GOP of 30 frames at 30 fps; audio interleaved
+            writer.writeSample(0, new byte[500], 0, 500, 3000, i % 30 == 0, 0);
+            writer.writeSample(1, new byte[300], 1024, true);
+        }
+        writer.close();
+
+        FragmentedMp4Writer.ScanResult scan = FragmentedMp4Writer.scan(file);
+        assertEquals(3, scan.fragments.size());
+        for (FragmentedMp4Writer.FragmentInfo fragment : scan.fragments) {
+            assertEquals(2, fragment.trackIds.length);
+            assertEquals(30, fragment.sampleCounts[0]);
+        }
+        assertEquals(1280 << 16, scan.init.tracks.get(0).width);
+    }
+}
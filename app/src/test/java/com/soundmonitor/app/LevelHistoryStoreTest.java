@@ -0,0 +1,150 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Tests for the long-term level history store: delta/varint raw blocks,
+ * incremental 1s/1min/1h rollups and range queries.
+ */
+public class LevelHistoryStoreTest {
+
+    // 2025-09-02 00:00:00 UTC
+    private static final long DAY_START = 1756771200000L;
+    private static final long HOUR = LevelHistoryStore.TIER_HOUR;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private LevelHistoryStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new LevelHistoryStore(tempFolder.newFolder("level_history"));
+    }
+
+    private void recordConstant(long fromMs, long toMs, long stepMs, double db) throws Exception {
+        for (long t = fromMs; t < toMs; t += stepMs) {
+            store.append(t, db);
+        }
+    }
+
+    @Test
+    public void testRawFramesRoundTrip() throws Exception {
+        for (int i = 0; i < 10000; i++) {
+            store.append(DAY_START + i * 123L, 40 + (i % 50) * 0.5);
+        }
+        store.close();
+
+        List<LevelHistoryStore.Frame> frames = store.queryFrames(DAY_START + 123L * 100, DAY_START + 123L * 200);
+        assertEquals(100, frames.size());
+        assertEquals(DAY_START + 123L * 100, frames.get(0).timeMs);
+        assertEquals(40 + 0 * 0.5, frames.get(0).db, 0.05);
+        assertEquals(40 + 49 * 0.5, frames.get(49).db, 0.05);
+    }
+
+    @Test
+    public void testTierRollupsMinMaxMeanLeq() throws Exception {
+        // One minute at 40 dB then one minute at 60 dB
+        recordConstant(DAY_START, DAY_START + 60000, 100, 40.0);
+        recordConstant(DAY_START + 60000, DAY_START + 120000, 100, 60.0);
+
+        List<LevelHistoryStore.Rollup> minutes = store.queryTier(LevelHistoryStore.TIER_MINUTE, DAY_START, DAY_START + HOUR);
+        assertEquals(2, minutes.size());
+        assertEquals(40.0, minutes.get(0).leqDb, 0.05);
+        assertEquals(600, minutes.get(0).count);
+
+        List<LevelHistoryStore.Rollup> hours = store.queryTier(LevelHistoryStore.TIER_HOUR, DAY_START, DAY_START + HOUR);
+        assertEquals(1, hours.size());
+        LevelHistoryStore.Rollup hour = hours.get(0);
+        assertEquals(40.0, hour.minDb, 0.05);
+        assertEquals(60.0, hour.maxDb, 0.05);
+        assertEquals(50.0, hour.meanDb, 0.05);
+        // Energy average of 40 dB and 60 dB is dominated by the louder minute
+        assertEquals(57.0, hour.leqDb, 0.1);
+    }
+
+    @Test
+    public void testSummarizeArbitraryRange() throws Exception {
+        // 02:00-04:00 loud, rest of the morning quiet
+        recordConstant(DAY_START, DAY_START + 2 * HOUR, 1000, 35.0);
+        recordConstant(DAY_START + 2 * HOUR, DAY_START + 4 * HOUR, 1000, 70.0);
+        recordConstant(DAY_START + 4 * HOUR, DAY_START + 5 * HOUR, 1000, 35.0);
+
+        LevelHistoryStore.Rollup night = store.summarize(DAY_START + 2 * HOUR, DAY_START + 4 * HOUR);
+        assertEquals(7200, night.count);
+        assertEquals(70.0, night.leqDb, 0.05);
+
+        // Unaligned range spanning hour, minute and second tiers
+        LevelHistoryStore.Rollup unaligned = store.summarize(DAY_START + 2 * HOUR - 90500, DAY_START + 4 * HOUR + 30500);
+        assertEquals(35.0, unaligned.minDb, 0.05);
+        assertEquals(70.0, unaligned.maxDb, 0.05);
+        assertEquals(7200 + 91 + 31, unaligned.count);
+    }
+
+    @Test
+    public void testQueriesWhileRecordingSeeOpenBlockWithoutWritingIt() throws Exception {
+        File directory = store.getDirectory();
+        File raw = new File(directory, "raw_" + (DAY_START / (24 * HOUR)) + ".idx");
+
+        // Query after every second, as timed text does at each segment close
+        for (int second = 0; second < 30; second++) {
+            recordConstant(DAY_START + second * 1000L, DAY_START + (second + 1) * 1000L, 100, 45.0);
+            List<LevelHistoryStore.Rollup> seconds = store.queryTier(LevelHistoryStore.TIER_SECOND,
+                DAY_START, DAY_START + 60000);
+            assertEquals(second + 1, seconds.size());
+            assertEquals(10, seconds.get(second).count);
+            assertEquals((second + 1) * 10, store.queryFrames(DAY_START, DAY_START + 60000).size());
+        }
+        assertFalse("Partial block must stay in memory", raw.exists());
+
+        store.close();
+        assertEquals(16, raw.length());
+        List<LevelHistoryStore.Rollup> seconds = store.queryTier(LevelHistoryStore.TIER_SECOND, DAY_START, DAY_START + 60000);
+        assertEquals(30, seconds.size());
+        for (LevelHistoryStore.Rollup rollup : seconds) {
+            assertEquals("No second may be written twice", 10, rollup.count);
+        }
+        assertEquals(300, store.queryFrames(DAY_START, DAY_START + 60000).size());
+    }
+
+    @Test
+    public void testRestartInsideBucketMergesRecords() throws Exception {
+        recordConstant(DAY_START, DAY_START + 30000, 1000, 50.0);
+        store.close();
+
+        LevelHistoryStore reopened = new LevelHistoryStore(store.getDirectory());
+        for (long t = DAY_START + 30000; t < DAY_START + 60000; t += 1000) {
+            reopened.append(t, 50.0);
+        }
+        reopened.close();
+
+        List<LevelHistoryStore.Rollup> minutes = reopened.queryTier(LevelHistoryStore.TIER_MINUTE, DAY_START, DAY_START + 60000);
+        assertEquals("Split bucket must be merged into one minute", 1, minutes.size());
+        assertEquals(60, minutes.get(0).count);
+        assertEquals(60, reopened.queryFrames(DAY_START, DAY_START + 60000).size());
+    }
+
+    @Test
+    public void testDailyStorageStaysInLowMegabytes() throws Exception {
+        // A full day of monitoring at ~8 frames per second
+        long t = DAY_START;
+        int i = 0;
+        while (t < DAY_START + 24 * HOUR) {
+            store.append(t, 45 + (i++ % 20) * 0.3);
+            t += 123;
+        }
+        store.close();
+
+        long bytes = store.getStorageBytesForDay(DAY_START);
+        assertTrue("Daily storage should be under 5 MB, was " + bytes, bytes < 5 * 1024 * 1024);
+        assertEquals(24, store.queryTier(LevelHistoryStore.TIER_HOUR, DAY_START, DAY_START + 24 * HOUR).size());
+    }
+}
@@ -0,0 +1,143 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests for the chunked Merkle tree over evidence files: RFC 6962 tree shape, parallel build
+ * matching the streaming builder, saved leaves, and verifying part of a file.
+ */
+public class MerkleTreeTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File writeFile(String name, int size) throws Exception {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        File file = tempFolder.newFile(name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+
+    private static byte[] sha256(int prefix, byte[]... parts) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update((byte) prefix);
+        for (byte[] part : parts) digest.update(part);
+        return digest.digest();
+    }
+
+    @Test
+    public void testRootFollowsRfc6962Shape() throws Exception {
+        // Three 4-byte leaves: root = H(1 || H(1 || l0 || l1) || l2)
+        File file = tempFolder.newFile("small.bin");
+        byte[] content = "aaaabbbbcc".getBytes("US-ASCII");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        byte[] l0 = sha256(0, Arrays.copyOfRange(content, 0, 4));
+        byte[] l1 = sha256(0, Arrays.copyOfRange(content, 4, 8));
+        byte[] l2 = sha256(0, Arrays.copyOfRange(content, 8, 10));
+        byte[] expected = sha256(1, sha256(1, l0, l1), l2);
+
+        MerkleTree tree = MerkleTree.build(file, 4, ForkJoinPool.commonPool());
+        assertEquals(3, tree.getLeafCount());
+        assertArrayEquals(expected, tree.getRoot());
+
+        // Empty file: hash of nothing
+        MerkleTree empty = MerkleTree.build(tempFolder.newFile("empty.bin"));
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", empty.getRootHex());
+    }
+
+    @Test
+    public void testParallelBuildMatchesStreamingBuilder() throws Exception {
+        File file = writeFile("FINAL.mp4", 9 * MerkleTree.DEFAULT_LEAF_SIZE + 777);
+        MerkleTree parallel = MerkleTree.build(file, MerkleTree.DEFAULT_LEAF_SIZE, new ForkJoinPool(4));
+        assertEquals(10, parallel.getLeafCount());
+
+        // Fed in pieces that do not line up with the leaves
+        byte[] content = java.nio.file.Files.readAllBytes(file.toPath());
+        MerkleTree.Builder builder = new MerkleTree.Builder();
+        int offset = 0;
+        int piece = 1;
+        while (offset < content.length) {
+            int count = Math.min(content.length - offset, piece);
+            if (piece % 2 == 0) {
+                builder.update(java.nio.ByteBuffer.wrap(content, offset, count));
+            } else {
+                builder.update(content, offset, count);
+            }
+            offset += count;
+            piece = piece * 3 + 1;
+        }
+        assertEquals(parallel.getRootHex(), builder.finish().getRootHex());
+
+        // The single-pass evidence hash builds the same tree
+        assertEquals(parallel.getRootHex(), new EvidenceHasher().hash(file).merkle.getRootHex());
+    }
+
+    @Test
+    public void testSavedLeavesLocateChangedBytes() throws Exception {
+        File file = writeFile("FINAL.mp4", 6 * MerkleTree.DEFAULT_LEAF_SIZE);
+        MerkleTree tree = MerkleTree.build(file);
+        File treeFile = MerkleTree.indexFileFor(file);
+        assertEquals("FINAL.merkle", treeFile.getName());
+        tree.save(treeFile);
+        MerkleTree loaded = MerkleTree.load(treeFile);
+        assertEquals(tree.getRootHex(), loaded.getRootHex());
+        assertEquals(file.length(), loaded.fileSize);
+        assertTrue(loaded.verify(file, ForkJoinPool.commonPool()).isEmpty());
+
+        long changed = 4L * MerkleTree.DEFAULT_LEAF_SIZE + 12345;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(changed);
+            int value = raf.read();
+            raf.seek(changed);
+            raf.write(value ^ 1);
+        }
+        assertEquals(Collections.singletonList(4), loaded.verify(file, ForkJoinPool.commonPool()));
+        // A range away from the change still verifies, reading only its own leaves
+        assertArrayEquals(new int[] { 1, 3 }, loaded.leafRange(MerkleTree.DEFAULT_LEAF_SIZE + 5, MerkleTree.DEFAULT_LEAF_SIZE));
+        assertTrue(loaded.verifyRange(file, MerkleTree.DEFAULT_LEAF_SIZE + 5, MerkleTree.DEFAULT_LEAF_SIZE,
+            ForkJoinPool.commonPool()).isEmpty());
+        assertEquals(Collections.singletonList(4), loaded.verifyRange(file, changed, 1, ForkJoinPool.commonPool()));
+    }
+
+    @Test
+    public void testInclusionProofsOfEntryTrees() throws Exception {
+        for (int count = 1; count <= 17; count++) {
+            byte[][] leaves = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                leaves[i] = MerkleTree.leafHash(("entry " + i).getBytes("UTF-8"));
+            }
+            byte[] root = MerkleTree.rootOf(leaves);
+            for (int i = 0; i < count; i++) {
+                java.util.List<byte[]> path = MerkleTree.inclusionProof(leaves, i);
+                assertTrue(count + "/" + i, MerkleTree.verifyInclusion(leaves[i], i, count, path, root));
+                if (count > 1) {
+                    assertFalse(MerkleTree.verifyInclusion(leaves[i], (i + 1) % count, count, path, root));
+                    assertFalse(MerkleTree.verifyInclusion(leaves[(i + 1) % count], i, count, path, root));
+                    assertFalse(MerkleTree.verifyInclusion(leaves[i], i, count, path, leaves[i]));
+                }
+            }
+        }
+        // Same shape as the file tree: three leaves
+        byte[][] three = { sha256(0, new byte[] { 1 }), sha256(0, new byte[] { 2 }), sha256(0, new byte[] { 3 }) };
+        assertArrayEquals(sha256(1, sha256(1, three[0], three[1]), three[2]), MerkleTree.rootOf(three));
+        assertArrayEquals(sha256(0, new byte[] { 1 }), MerkleTree.leafHash(new byte[] { 1 }));
+    }
+}
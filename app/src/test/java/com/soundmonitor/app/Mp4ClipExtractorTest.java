@@ -0,0 +1,221 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for cutting event clips out of segments and final files without re-encoding:
+ * key frame alignment, samples taken from the right place, chapter track dropped,
+ * hash file, and copy size growing with the clip rather than the source.
+ */
+public class Mp4ClipExtractorTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /** 3 s of 30 fps video with a key frame every second */
+    private static Mp4TestFiles.Track video(byte marker, int sampleSize) {
+        Mp4TestFiles.Track video = Mp4TestFiles.Track.video(marker);
+        video.sampleCount = 90;
+        video.sampleSize = sampleSize;
+        video.syncSamples = new int[] { 1, 31, 61 };
+        return video;
+    }
+
+    private static Mp4TestFiles.Track audio(byte marker) {
+        Mp4TestFiles.Track audio = Mp4TestFiles.Track.audio(marker);
+        audio.sampleCount = 140; // 2.99 s
+        return audio;
+    }
+
+    /** FINAL.mp4 of three 3 s segments; segment n has video marker n and audio marker 10 + n */
+    private File finalFile(int videoSampleSize, TimedTextTrack... textTracks) throws Exception {
+        File output = tempFolder.newFile("FINAL.mp4");
+        try (Mp4Merger merger = Mp4Merger.open(output)) {
+            for (TimedTextTrack text : textTracks) merger.addTextTrack(text);
+            for (int n = 1; n <= 3; n++) {
+                File segment = Mp4TestFiles.write(tempFolder.newFile(n + ".mp4"), 3_700_000_000L,
+                    video((byte) n, videoSampleSize), audio((byte) (10 + n)));
+                long offset = merger.getDurationMs();
+                merger.append(segment);
+                for (TimedTextTrack text : textTracks) {
+                    text.addCue(offset, merger.getDurationMs(), "segment " + n);
+                }
+            }
+            merger.finish();
+        }
+        return output;
+    }
+
+    private static List<Byte> chunkMarkers(File file, Mp4TrackTable track) throws IOException {
+        List<Byte> markers = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (long offset : track.chunkOffsets) {
+                raf.seek(offset);
+                markers.add(raf.readByte());
+            }
+        }
+        return markers;
+    }
+
+    @Test
+    public void testClipStartsAtPreviousKeyFrame() throws Exception {
+        File source = finalFile(100);
+        File clipFile = new File(tempFolder.getRoot(), "clip.mp4");
+        Mp4ClipExtractor.Result result = Mp4ClipExtractor.extract(source, 4500, 5500, clipFile);
+
+        assertEquals(4000, result.startMs);
+        Mp4Movie clip = Mp4Movie.parse(clipFile);
+        Mp4TrackTable video = clip.getTrack(Mp4TrackTable.HANDLER_VIDEO);
+        Mp4TrackTable audio = clip.getTrack(Mp4TrackTable.HANDLER_SOUND);
+        assertEquals(45, video.getSampleCount()); // 4.000 s up to the last frame before 5.5 s
+        assertArrayEquals(new int[] { 1, 31 }, video.syncSamples);
+        assertTrue(audio.getSampleCount() > 60);
+        assertEquals(result.sampleCount, video.getSampleCount() + audio.getSampleCount());
+        assertEquals(1500, video.getMediaDuration() * 1000 / video.timescale, 20);
+
+        // Every chunk comes from the second segment
+        for (byte marker : chunkMarkers(clipFile, video)) assertEquals(2, marker);
+        for (byte marker : chunkMarkers(clipFile, audio)) assertEquals(12, marker);
+        assertEquals(3_700_000_004L, clip.creationTime);
+    }
+
+    @Test
+    public void testRangeAcrossSegmentsAndFromSegmentFile() throws Exception {
+        File source = finalFile(100);
+        File clipFile = new File(tempFolder.getRoot(), "clip.mp4");
+        Mp4ClipExtractor.extract(source, 2500, 3500, clipFile);
+        Mp4TrackTable video = Mp4Movie.parse(clipFile).getTrack(Mp4TrackTable.HANDLER_VIDEO);
+        assertEquals(45, video.getSampleCount()); // from the key frame at 2.0 s
+        List<Byte> markers = chunkMarkers(clipFile, video);
+        assertEquals(Byte.valueOf((byte) 1), markers.get(0));
+        assertEquals(Byte.valueOf((byte) 2), markers.get(markers.size() - 1));
+
+        // A single segment works the same way
+        File segment = new File(tempFolder.getRoot(), "3.mp4");
+        File segmentClip = Mp4ClipExtractor.clipFileFor(segment, 1200, 2000);
+        assertEquals("3_clip_00-00-01_00-00-02.mp4", segmentClip.getName());
+        Mp4ClipExtractor.Result result = Mp4ClipExtractor.extract(segment, 1200, 2000, segmentClip);
+        assertEquals(1000, result.startMs);
+        assertEquals(30, Mp4Movie.parse(segmentClip).getTrack(Mp4TrackTable.HANDLER_VIDEO).getSampleCount());
+    }
+
+    @Test
+    public void testChapterTrackDroppedSubtitlesKept() throws Exception {
+        File source = finalFile(100, TimedTextTrack.subtitles(), TimedTextTrack.chapters());
+        assertEquals(4, Mp4Movie.parse(source).tracks.size());
+        assertFalse(Mp4Movie.parse(source).tracks.get(3).isEnabled());
+
+        File clipFile = new File(tempFolder.getRoot(), "clip.mp4");
+        Mp4ClipExtractor.extract(source, 4500, 5500, clipFile);
+        Mp4Movie clip = Mp4Movie.parse(clipFile);
+        assertEquals(3, clip.tracks.size());
+        Mp4TrackTable subtitles = clip.getTrack(Mp4TrackTable.HANDLER_TEXT);
+        assertEquals(1, subtitles.getSampleCount());
+        assertEquals(1500, subtitles.getMediaDuration(), 20); // cue cut to the clip, padded to the audio
+        try (RandomAccessFile raf = new RandomAccessFile(clipFile, "r")) {
+            raf.seek(subtitles.chunkOffsets[0] + 2);
+            byte[] text = new byte[subtitles.sampleSizes[0] - 2];
+            raf.readFully(text);
+            assertEquals("segment 2", new String(text, "UTF-8"));
+        }
+    }
+
+    @Test
+    public void testHashFileWritten() throws Exception {
+        File source = finalFile(100);
+        File clipFile = Mp4ClipExtractor.clipFileFor(source, 4500, 5500);
+        Mp4ClipExtractor.Result result = Mp4ClipExtractor.extract(source, 4500, 5500, clipFile);
+
+        assertEquals(new File(tempFolder.getRoot(), "FINAL_clip_00-00-04_00-00-05_hash.txt"), result.hashFile);
+        String text = new String(Files.readAllBytes(result.hashFile.toPath()), "UTF-8");
+        assertEquals(Mp4ClipExtractor.sha256(clipFile), result.sha256);
+        assertTrue(text.contains("SHA-256: " + result.sha256));
+        assertTrue(text.contains("Source range: 00:00:04.000 - "));
+        assertTrue(text.contains("Requested range: 00:00:04.500 - 00:00:05.500"));
+        assertFalse(new File(tempFolder.getRoot(), clipFile.getName() + ".part").exists());
+    }
+
+    @Test
+    public void testClipSourceCheckedAgainstMerkleLeaves() throws Exception {
+        File source = finalFile(20_000); // about 5 leaves
+        MerkleTree tree = MerkleTree.build(source);
+        tree.save(MerkleTree.indexFileFor(source));
+        File timestamp = SessionVolumeWriter.companionFile(source, "_timestamp.txt");
+        Files.write(timestamp.toPath(), ("Merkle Root (SHA-256): " + tree.getRootHex() + "\n").getBytes("UTF-8"));
+
+        Mp4ClipExtractor.Result result = Mp4ClipExtractor.extract(source, 4000, 5000,
+            new File(tempFolder.getRoot(), "clip.mp4"));
+        assertNotNull(result.sourceCheck);
+        assertTrue(result.sourceCheck.toString(), result.sourceCheck.isIntact());
+        assertEquals(tree.getRootHex(), result.sourceCheck.merkleRoot);
+        assertTrue(result.sourceCheck.leavesChecked > 0);
+        assertTrue(result.sourceCheck.leavesChecked < tree.getLeafCount());
+        String text = new String(Files.readAllBytes(result.hashFile.toPath()), "UTF-8");
+        assertTrue(text.contains("Source Merkle Root: " + tree.getRootHex()));
+        assertTrue(text.contains("Result: INTACT"));
+
+        // A changed byte inside the clip's source media is found in the leaf holding it
+        long tampered = Mp4ClipExtractor.trim(Mp4Movie.parse(source), 4000, 5000).mediaDataBoxes.get(0).offset + 10;
+        try (RandomAccessFile raf = new RandomAccessFile(source, "rw")) {
+            raf.seek(tampered);
+            int value = raf.read();
+            raf.seek(tampered);
+            raf.write(value ^ 0xFF);
+        }
+        result = Mp4ClipExtractor.extract(source, 4000, 5000, new File(tempFolder.getRoot(), "clip2.mp4"));
+        assertFalse(result.sourceCheck.isIntact());
+        assertEquals(java.util.Collections.singletonList((int) (tampered / tree.leafSize)),
+            result.sourceCheck.mismatchedLeaves);
+        text = new String(Files.readAllBytes(result.hashFile.toPath()), "UTF-8");
+        assertTrue(text, text.contains("Result: FAILED"));
+
+        // Leaves rebuilt from the changed file no longer have the recorded root, and leaves
+        // without a recorded root are not trusted either
+        MerkleTree.build(source).save(MerkleTree.indexFileFor(source));
+        result = Mp4ClipExtractor.extract(source, 4000, 5000, new File(tempFolder.getRoot(), "clip4.mp4"));
+        assertFalse(result.sourceCheck.isIntact());
+        assertTrue(result.sourceCheck.error, result.sourceCheck.error.contains("recorded root is " + tree.getRootHex()));
+        assertTrue(timestamp.delete());
+        result = Mp4ClipExtractor.extract(source, 4000, 5000, new File(tempFolder.getRoot(), "clip5.mp4"));
+        assertFalse(result.sourceCheck.isIntact());
+        assertTrue(result.sourceCheck.error, result.sourceCheck.error.startsWith("no Merkle root recorded"));
+
+        // Without a tree there is nothing to check against
+        assertTrue(MerkleTree.indexFileFor(source).delete());
+        assertNull(Mp4ClipExtractor.extract(source, 4000, 5000, new File(tempFolder.getRoot(), "clip3.mp4")).sourceCheck);
+    }
+
+    @Test
+    public void testRangeOutsideSourceRejected() throws Exception {
+        File source = finalFile(100);
+        try {
+            Mp4ClipExtractor.extract(source, 20000, 25000, new File(tempFolder.getRoot(), "clip.mp4"));
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("outside"));
+        }
+    }
+
+    @Test
+    public void testCopiesOnlyTheClipBytes() throws Exception {
+        File source = finalFile(200_000); // 54 MB of video
+        File clipFile = new File(tempFolder.getRoot(), "clip.mp4");
+        Mp4ClipExtractor.Result result = Mp4ClipExtractor.extract(source, 4000, 5000, clipFile);
+
+        assertEquals(30, Mp4Movie.parse(clipFile).getTrack(Mp4TrackTable.HANDLER_VIDEO).getSampleCount());
+        assertTrue(result.copiedBytes < 30 * 200_000 + 100_000);
+        assertTrue(clipFile.length() < source.length() / 8);
+        assertTrue("Extraction took " + result.elapsedMs + " ms", result.elapsedMs < 2000);
+    }
+}
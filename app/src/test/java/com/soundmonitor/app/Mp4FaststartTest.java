@@ -0,0 +1,209 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for moving 'moov' in front of the media data: chunk offsets still point at the same
+ * samples (also behind the old 'moov' when tables are widened), files that are already faststart
+ * or fragmented are copied unchanged, non-file target channels, and throughput on a large merged file.
+ */
+public class Mp4FaststartTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File merged(String name, int segments, Mp4TestFiles.Track... tracks) throws Exception {
+        File[] inputs = new File[segments];
+        for (int i = 0; i < segments; i++) {
+            inputs[i] = Mp4TestFiles.write(tempFolder.newFile(name + "_" + i + ".mp4"), 0, tracks);
+        }
+        File output = tempFolder.newFile(name + ".mp4");
+        Mp4Merger.merge(Arrays.asList(inputs), output);
+        return output;
+    }
+
+    private static List<String> topLevelTypes(File file) throws Exception {
+        StringBuilder types = new StringBuilder();
+        for (Mp4Box box : Mp4Movie.parse(file).topLevelBoxes) types.append(box.type).append(' ');
+        return Arrays.asList(types.toString().trim().split(" "));
+    }
+
+    /** First byte of every chunk of every track */
+    private static byte[][] chunkMarkers(File file) throws Exception {
+        Mp4Movie movie = Mp4Movie.parse(file);
+        byte[][] markers = new byte[movie.tracks.size()][];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (int t = 0; t < markers.length; t++) {
+                long[] offsets = movie.tracks.get(t).chunkOffsets;
+                markers[t] = new byte[offsets.length];
+                for (int c = 0; c < offsets.length; c++) {
+                    raf.seek(offsets[c]);
+                    markers[t][c] = raf.readByte();
+                }
+            }
+        }
+        return markers;
+    }
+
+    @Test
+    public void testMoovMovedInFrontAndOffsetsPatched() throws Exception {
+        File input = merged("FINAL", 3, Mp4TestFiles.Track.video((byte) 5), Mp4TestFiles.Track.audio((byte) 6));
+        assertEquals("moov", topLevelTypes(input).get(topLevelTypes(input).size() - 1));
+        assertTrue(Mp4Faststart.needsFaststart(input));
+
+        File output = new File(tempFolder.getRoot(), "export.mp4");
+        Mp4Faststart.Result result = Mp4Faststart.relocate(input, output);
+        assertTrue(result.toString(), result.relocated);
+        assertEquals(input.length(), output.length());
+        assertEquals(output.length(), result.outputBytes);
+        assertEquals(Arrays.asList("ftyp", "moov", "mdat", "mdat", "mdat"), topLevelTypes(output));
+        assertFalse(Mp4Faststart.needsFaststart(output));
+
+        byte[][] expected = chunkMarkers(input);
+        byte[][] actual = chunkMarkers(output);
+        assertEquals(2, actual.length);
+        for (int t = 0; t < expected.length; t++) {
+            assertArrayEquals(expected[t], actual[t]);
+        }
+        Mp4Movie before = Mp4Movie.parse(input);
+        Mp4Movie after = Mp4Movie.parse(output);
+        assertEquals(before.movieDuration, after.movieDuration);
+        assertEquals(before.tracks.get(0).chunkOffsets[0] + result.moovBytes, after.tracks.get(0).chunkOffsets[0]);
+        assertEquals(before.tracks.get(0).getChunkCount() + before.tracks.get(1).getChunkCount(), result.patchedOffsets);
+    }
+
+    /**
+     * ftyp, mdat, moov, mdat: the last track's samples moved into an mdat after moov
+     */
+    private File withMdatAfterMoov(String name) throws Exception {
+        Mp4TestFiles.Track audio = Mp4TestFiles.Track.audio((byte) 7);
+        File single = Mp4TestFiles.write(tempFolder.newFile(name + "_single.mp4"), 0,
+            Mp4TestFiles.Track.video((byte) 5), audio);
+        byte[] bytes = Files.readAllBytes(single.toPath());
+
+        // Point the audio 'stco' (the second one) at the new mdat's payload
+        int stco = -1;
+        for (int i = 0, found = 0; i < bytes.length - 4 && found < 2; i++) {
+            if (bytes[i] == 's' && bytes[i + 1] == 't' && bytes[i + 2] == 'c' && bytes[i + 3] == 'o') {
+                stco = i;
+                found++;
+            }
+        }
+        ByteBuffer.wrap(bytes).putInt(stco + 12, bytes.length + 8);
+        byte[] tail = new byte[(int) audio.mediaBytes()];
+        Arrays.fill(tail, (byte) 8);
+        File file = tempFolder.newFile(name + ".mp4");
+        Files.write(file.toPath(), Mp4TestFiles.concat(bytes, Mp4TestFiles.box("mdat", tail)));
+        return file;
+    }
+
+    @Test
+    public void testOffsetsBehindMoovFollowWidenedMoov() throws Exception {
+        File input = withMdatAfterMoov("FINAL");
+        assertEquals(Arrays.asList("ftyp", "mdat", "moov", "mdat"), topLevelTypes(input));
+        assertEquals(8, chunkMarkers(input)[1][0]);
+
+        // Every offset above 16 bytes widens its table to co64, so moov grows
+        File output = new File(tempFolder.getRoot(), "export.mp4");
+        Mp4Faststart.Result result;
+        try (RandomAccessFile raf = new RandomAccessFile(output, "rw")) {
+            result = Mp4Faststart.write(input, raf.getChannel(), 16);
+        }
+        long moovBefore = Mp4Movie.parse(input).topLevelBoxes.get(2).size;
+        assertTrue(result.toString(), result.moovBytes > moovBefore);
+        assertEquals(input.length() + result.moovBytes - moovBefore, output.length());
+        assertEquals(Arrays.asList("ftyp", "moov", "mdat", "mdat"), topLevelTypes(output));
+
+        byte[][] expected = chunkMarkers(input);
+        byte[][] actual = chunkMarkers(output);
+        for (int t = 0; t < expected.length; t++) {
+            assertArrayEquals(expected[t], actual[t]);
+        }
+        Mp4Movie before = Mp4Movie.parse(input);
+        Mp4Movie after = Mp4Movie.parse(output);
+        assertEquals(before.tracks.get(1).chunkOffsets[0] + result.moovBytes - moovBefore,
+            after.tracks.get(1).chunkOffsets[0]);
+    }
+
+    @Test
+    public void testFaststartFileCopiedUnchanged() throws Exception {
+        File input = merged("FINAL", 2, Mp4TestFiles.Track.video((byte) 5));
+        File once = new File(tempFolder.getRoot(), "once.mp4");
+        Mp4Faststart.relocate(input, once);
+
+        File twice = new File(tempFolder.getRoot(), "twice.mp4");
+        Mp4Faststart.Result result = Mp4Faststart.relocate(once, twice);
+        assertFalse(result.relocated);
+        assertArrayEquals(Files.readAllBytes(once.toPath()), Files.readAllBytes(twice.toPath()));
+    }
+
+    @Test
+    public void testFragmentedFileCopiedUnchanged() throws Exception {
+        File input = tempFolder.newFile("audio.m4a");
+        FragmentedMp4Writer writer = FragmentedMp4Writer.create(input, 1000,
+            FragmentedMp4Writer.TrackFormat.aac(44100, 1, new byte[] { 0x12, 0x08 }, 128000));
+        writer.setSyncEachFragment(false);
+        for (int i = 0; i < 100; i++) {
+            writer.writeSample(0, new byte[200], 1024, true);
+        }
+        writer.close();
+
+        assertFalse(Mp4Faststart.needsFaststart(input));
+        ByteArrayOutputStream export = new ByteArrayOutputStream();
+        Mp4Faststart.Result result = Mp4Faststart.write(input, Channels.newChannel(export));
+        assertFalse(result.relocated);
+        assertArrayEquals(Files.readAllBytes(input.toPath()), export.toByteArray());
+    }
+
+    @Test
+    public void testStreamsIntoNonFileChannel() throws Exception {
+        File input = merged("FINAL", 2, Mp4TestFiles.Track.video((byte) 5), Mp4TestFiles.Track.audio((byte) 6));
+        File reference = new File(tempFolder.getRoot(), "reference.mp4");
+        Mp4Faststart.relocate(input, reference);
+
+        ByteArrayOutputStream export = new ByteArrayOutputStream();
+        Mp4Faststart.Result result = Mp4Faststart.write(input, Channels.newChannel(export));
+        assertTrue(result.relocated);
+        assertArrayEquals(Files.readAllBytes(reference.toPath()), export.toByteArray());
+    }
+
+    @Test
+    public void testUnfinalisedFileRejected() throws Exception {
+        File cut = Mp4TestFiles.writeUnfinalised(tempFolder.newFile("cut.mp4"), 5000);
+        try {
+            Mp4Faststart.write(cut, Channels.newChannel(new ByteArrayOutputStream()));
+            fail("Expected IOException");
+        } catch (java.io.IOException expected) {
+            assertTrue(expected.getMessage().contains("moov"));
+        }
+    }
+
+    @Test
+    public void testLargeFileRelocatedAtDiskSpeed() throws Exception {
+        Mp4TestFiles.Track video = Mp4TestFiles.Track.video((byte) 9);
+        video.sampleCount = 300;
+        video.sampleSize = 100_000;
+        video.samplesPerChunk = 30;
+        File input = merged("FINAL", 4, video); // 120 MB
+
+        File output = new File(tempFolder.getRoot(), "export.mp4");
+        Mp4Faststart.Result result = Mp4Faststart.relocate(input, output);
+        assertTrue(result.relocated);
+        assertEquals(input.length(), output.length());
+        assertTrue("Relocation took " + result.elapsedMs + " ms", result.elapsedMs < 5000);
+        assertArrayEquals(chunkMarkers(input)[0], chunkMarkers(output)[0]);
+    }
+}
@@ -0,0 +1,206 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Tests for the MP4 segment merger that replaced raw byte concatenation:
+ * combined sample tables, remapped chunk offsets and track alignment.
+ */
+public class Mp4MergerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File segment(String name, Mp4TestFiles.Track... tracks) throws Exception {
+        return Mp4TestFiles.write(tempFolder.newFile(name), 3_700_000_000L, tracks);
+    }
+
+    private static byte byteAt(File file, long offset) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(offset);
+            return raf.readByte();
+        }
+    }
+
+    @Test
+    public void testMergeCombinesSampleTables() throws Exception {
+        File first = segment("seg1.mp4", Mp4TestFiles.Track.video((byte) 11), Mp4TestFiles.Track.audio((byte) 12));
+        File second = segment("seg2.mp4", Mp4TestFiles.Track.video((byte) 21), Mp4TestFiles.Track.audio((byte) 22));
+        File output = new File(tempFolder.getRoot(), "FINAL.mp4");
+
+        Mp4Merger.Result result = Mp4Merger.merge(Arrays.asList(first, second), output);
+        assertEquals(2, result.segmentCount);
+        assertEquals(output.length(), result.outputBytes);
+
+        Mp4Movie merged = Mp4Movie.parse(output);
+        assertEquals(2, merged.tracks.size());
+        assertEquals(3_700_000_000L, merged.creationTime);
+
+        Mp4TrackTable video = merged.getTrack(Mp4TrackTable.HANDLER_VIDEO);
+        assertEquals(20, video.getSampleCount());
+        assertEquals(4, video.getChunkCount());
+        assertEquals(60000, video.getMediaDuration());
+        assertArrayEquals(new int[] { 1, 11 }, video.syncSamples);
+        assertEquals(1, video.sampleEntries.length);
+        assertEquals(1280 << 16, video.width);
+
+        Mp4TrackTable audio = merged.getTrack(Mp4TrackTable.HANDLER_SOUND);
+        assertEquals(30, audio.getSampleCount());
+        assertNull("Audio had no stss, so none should be written", audio.syncSamples);
+
+        // Chunk offsets point at the media data of the right segment
+        assertEquals(11, byteAt(output, video.chunkOffsets[0]));
+        assertEquals(11, byteAt(output, video.chunkOffsets[1]));
+        assertEquals(21, byteAt(output, video.chunkOffsets[2]));
+        assertEquals(12, byteAt(output, audio.chunkOffsets[0]));
+        assertEquals(22, byteAt(output, audio.chunkOffsets[1]));
+        assertEquals(22, byteAt(output, audio.chunkOffsets[1] + 15 * 40 - 1));
+    }
+
+    @Test
+    public void testTracksAlignedAtSegmentBoundaries() throws Exception {
+        // Video 10 x 3000/90000 = 333 ms, audio 15 x 1024/48000 = 320 ms per segment
+        File first = segment("seg1.mp4", Mp4TestFiles.Track.video((byte) 1), Mp4TestFiles.Track.audio((byte) 2));
+        File second = segment("seg2.mp4", Mp4TestFiles.Track.video((byte) 1), Mp4TestFiles.Track.audio((byte) 2));
+        File output = new File(tempFolder.getRoot(), "FINAL.mp4");
+        Mp4Merger.merge(Arrays.asList(first, second), output);
+
+        Mp4TrackTable audio = Mp4Movie.parse(output).getTrack(Mp4TrackTable.HANDLER_SOUND);
+        assertEquals(32000, audio.getMediaDuration());
+        // Last audio sample of the first segment absorbs the 640-tick gap
+        assertArrayEquals(new int[] { 14, 1, 14, 1 }, audio.sttsCounts);
+        assertArrayEquals(new int[] { 1024, 1664, 1024, 1664 }, audio.sttsDeltas);
+        assertEquals(666, Mp4Movie.parse(output).getDurationMs());
+    }
+
+    @Test
+    public void testDifferingSampleDescriptionsKeptAsSeparateEntries() throws Exception {
+        Mp4TestFiles.Track changed = Mp4TestFiles.Track.video((byte) 2);
+        changed.entryPayload = new byte[] { 0, 0, 0, 0, 0, 0, 0, 2 };
+        File first = segment("seg1.mp4", Mp4TestFiles.Track.video((byte) 1));
+        File second = segment("seg2.mp4", changed);
+        File third = segment("seg3.mp4", Mp4TestFiles.Track.video((byte) 3));
+        File output = new File(tempFolder.getRoot(), "FINAL.mp4");
+        Mp4Merger.merge(Arrays.asList(first, second, third), output);
+
+        Mp4TrackTable video = Mp4Movie.parse(output).getTrack(Mp4TrackTable.HANDLER_VIDEO);
+        assertEquals(2, video.sampleEntries.length);
+        assertArrayEquals(new int[] { 1, 3, 5 }, video.stscFirstChunk);
+        assertArrayEquals(new int[] { 1, 2, 1 }, video.stscDescriptionIndex);
+    }
+
+    @Test
+    public void testMixedSyncAndCompositionTablesBackfilled() throws Exception {
+        Mp4TestFiles.Track plain = Mp4TestFiles.Track.video((byte) 1);
+        plain.syncSamples = null;
+        Mp4TestFiles.Track reordered = Mp4TestFiles.Track.video((byte) 2);
+        reordered.syncSamples = new int[] { 1, 6 };
+        reordered.cttsOffset = 6000;
+        File output = new File(tempFolder.getRoot(), "FINAL.mp4");
+        Mp4Merger.merge(Arrays.asList(segment("seg1.mp4", plain), segment("seg2.mp4", reordered)), output);
+
+        Mp4TrackTable video = Mp4Movie.parse(output).getTrack(Mp4TrackTable.HANDLER_VIDEO);
+        assertArrayEquals(new int[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 16 }, video.syncSamples);
+        assertArrayEquals(new int[] { 10, 10 }, video.cttsCounts);
+        assertArrayEquals(new int[] { 0, 6000 }, video.cttsOffsets);
+    }
+
+    @Test
+    public void testUnfinalisedSegmentRejectedWithoutDamagingOutput() throws Exception {
+        File good = segment("seg1.mp4", Mp4TestFiles.Track.video((byte) 7));
+        File cut = Mp4TestFiles.writeUnfinalised(tempFolder.newFile("seg2.mp4"), 5000);
+        File output = new File(tempFolder.getRoot(), "FINAL.mp4");
+
+        try (Mp4Merger merger = Mp4Merger.open(output)) {
+            merger.append(good);
+            try {
+                merger.append(cut);
+                fail("Segment without moov must be rejected");
+            } catch (Mp4Merger.SegmentRejectedException expected) {
+                // skipped
+            }
+            merger.finish();
+        }
+
+        Mp4TrackTable video = Mp4Movie.parse(output).getTrack(Mp4TrackTable.HANDLER_VIDEO);
+        assertEquals(10, video.getSampleCount());
+        assertEquals(7, byteAt(output, video.chunkOffsets[1]));
+    }
+
+    @Test
+    public void testBrokenTablesRejectedBeforeMediaIsWritten() throws Exception {
+        File good = segment("seg1.mp4", Mp4TestFiles.Track.video((byte) 7), Mp4TestFiles.Track.audio((byte) 8));
+        Mp4Movie broken = Mp4Movie.parse(segment("seg2.mp4", Mp4TestFiles.Track.video((byte) 9), Mp4TestFiles.Track.audio((byte) 10)));
+        // The video track is fine, the audio track names a sample description it does not have
+        broken.getTrack(Mp4TrackTable.HANDLER_SOUND).stscDescriptionIndex[0] = 2;
+        File output = new File(tempFolder.getRoot(), "FINAL.mp4");
+
+        try (Mp4Merger merger = Mp4Merger.open(output)) {
+            merger.append(good);
+            long written = merger.getBytesWritten();
+            try {
+                merger.append(broken);
+                fail("Track with a missing sample description must be rejected");
+            } catch (Mp4Merger.SegmentRejectedException expected) {
+                assertTrue(expected.getMessage(), expected.getMessage().contains("sample description 2 of 1"));
+            }
+            assertEquals(written, merger.getBytesWritten());
+            assertEquals(1, merger.getSegmentCount());
+            merger.finish();
+        }
+
+        Mp4Movie merged = Mp4Movie.parse(output);
+        assertEquals(10, merged.getTrack(Mp4TrackTable.HANDLER_VIDEO).getSampleCount());
+        assertEquals(merged.getTrack(Mp4TrackTable.HANDLER_SOUND).getSampleCount(),
+            Mp4Movie.parse(good).getTrack(Mp4TrackTable.HANDLER_SOUND).getSampleCount());
+        assertEquals(7, byteAt(output, merged.getTrack(Mp4TrackTable.HANDLER_VIDEO).chunkOffsets[1]));
+    }
+
+    private long indexBytesWrittenByFinish(String name, int sampleSize, int segments) throws Exception {
+        File output = new File(tempFolder.getRoot(), name + ".mp4");
+        try (Mp4Merger merger = Mp4Merger.open(output)) {
+            for (int i = 0; i < segments; i++) {
+                Mp4TestFiles.Track video = Mp4TestFiles.Track.video((byte) i);
+                video.sampleSize = sampleSize;
+                merger.append(segment(name + "_" + i + ".mp4", video));
+            }
+            long beforeFinish = merger.getBytesWritten();
+            assertEquals("Media data is copied during append", segments * (16 + 10L * sampleSize) + 32, beforeFinish);
+            return merger.finish().outputBytes - beforeFinish;
+        }
+    }
+
+    @Test
+    public void testFinishWritesOnlyIndexRegardlessOfMediaSize() throws Exception {
+        long smallMedia = indexBytesWrittenByFinish("small", 100, 20);
+        long largeMedia = indexBytesWrittenByFinish("large", 50_000, 20);
+        assertEquals("Finalising cost depends on sample count, not on media bytes", smallMedia, largeMedia);
+        assertTrue(smallMedia < 2000);
+    }
+
+    @Test
+    public void testManySegmentsKeepSmallRunLengthTables() throws Exception {
+        File[] inputs = new File[200];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = segment("seg" + i + ".mp4", Mp4TestFiles.Track.video((byte) i));
+        }
+        File output = new File(tempFolder.getRoot(), "FINAL.mp4");
+        Mp4Merger.Result result = Mp4Merger.merge(Arrays.asList(inputs), output);
+
+        Mp4TrackTable video = Mp4Movie.parse(output).getTrack(Mp4TrackTable.HANDLER_VIDEO);
+        assertEquals(2000, video.getSampleCount());
+        assertEquals(1, video.sttsCounts.length);
+        assertEquals(1, video.stscFirstChunk.length);
+        assertEquals(200, video.syncSamples.length);
+        assertEquals((byte) 199, byteAt(output, video.chunkOffsets[399]));
+        assertEquals(66666, result.durationMs);
+    }
+}
@@ -0,0 +1,195 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for rebuilding the index of a segment that was cut off before its moov was written:
+ * H.264 sample boundaries, key frames and chunks recovered from mdat, audio chunks skipped,
+ * recovery of a session folder and throughput on a large orphan.
+ */
+public class Mp4RecoveryTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /** Orphan layout written by writeOrphan, for comparing against the recovered tables */
+    private static class Orphan {
+        final List<Integer> frameSizes = new ArrayList<>();
+        final List<Integer> keyFrames = new ArrayList<>(); // 1-based
+        final List<Long> chunkOffsets = new ArrayList<>();
+    }
+
+    /**
+     * ftyp + mdat (size never filled in) with chunks of length-prefixed H.264 frames, each chunk
+     * followed by an AAC-like chunk of random bytes; frames of two slices every third frame
+     */
+    private static Orphan writeOrphan(File file, int frames, int frameSize, int framesPerChunk, int gop, long seed)
+            throws IOException {
+        Orphan orphan = new Orphan();
+        Random random = new Random(seed);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            byte[] ftyp = Mp4TestFiles.box("ftyp", Mp4TestFiles.fourcc("isom"), Mp4TestFiles.int32(0x200));
+            out.write(ftyp);
+            out.write(Mp4TestFiles.int32(0));
+            out.write(Mp4TestFiles.fourcc("mdat"));
+            long position = ftyp.length + 8;
+            for (int f = 0; f < frames; f++) {
+                if (f % framesPerChunk == 0) orphan.chunkOffsets.add(position);
+                boolean key = f % gop == 0;
+                int written = 0;
+                if (key) {
+                    written += writeNal(out, random, new byte[] { 0x65, (byte) 0x88, (byte) 0x80 }, frameSize);
+                    orphan.keyFrames.add(f + 1);
+                } else if (f % 3 == 0) {
+                    written += writeNal(out, random, new byte[] { 0x41, (byte) 0x9A }, frameSize / 2);
+                    written += writeNal(out, random, new byte[] { 0x41, 0x58 }, frameSize / 2);
+                } else {
+                    written += writeNal(out, random, new byte[] { 0x41, (byte) 0x9A }, frameSize);
+                }
+                orphan.frameSizes.add(written);
+                position += written;
+                if (f % framesPerChunk == framesPerChunk - 1) {
+                    // Raw AAC frames start with a zero-ish byte, which looks like a NAL length prefix
+                    byte[] audio = new byte[300 + random.nextInt(600)];
+                    random.nextBytes(audio);
+                    audio[0] = 0;
+                    out.write(audio);
+                    position += audio.length;
+                }
+            }
+        }
+        return orphan;
+    }
+
+    private static int writeNal(OutputStream out, Random random, byte[] header, int size) throws IOException {
+        byte[] nal = new byte[size];
+        random.nextBytes(nal);
+        System.arraycopy(header, 0, nal, 0, header.length);
+        out.write(Mp4TestFiles.int32(size));
+        out.write(nal);
+        return 4 + size;
+    }
+
+    private static Mp4TestFiles.Track avcTrack() throws IOException {
+        Mp4TestFiles.Track track = Mp4TestFiles.Track.video((byte) 1);
+        track.entryPayload = Mp4TestFiles.avcEntryPayload();
+        return track;
+    }
+
+    private Mp4TrackTable reference() throws IOException {
+        File segment = Mp4TestFiles.write(tempFolder.newFile("reference.mp4"), 0, avcTrack());
+        return Mp4Movie.parse(segment).getTrack(Mp4TrackTable.HANDLER_VIDEO);
+    }
+
+    @Test
+    public void testRebuildsSamplesKeyFramesAndChunks() throws Exception {
+        File file = tempFolder.newFile("2.mp4");
+        Orphan orphan = writeOrphan(file, 95, 2000, 10, 30, 1);
+        assertTrue(Mp4Recovery.isOrphan(file));
+
+        File output = new File(tempFolder.getRoot(), "2_recovered.mp4");
+        Mp4Recovery.Result result = Mp4Recovery.recover(file, reference(), output);
+        assertTrue(result.toString(), result.isSuccess());
+        assertEquals(95, result.sampleCount);
+        assertEquals(4, result.syncSampleCount);
+        assertEquals(95 * 3000 * 1000L / 90000, result.durationMs);
+
+        Mp4Movie recovered = Mp4Movie.parse(output);
+        assertFalse(Mp4Recovery.isOrphan(output));
+        Mp4TrackTable video = recovered.getTrack(Mp4TrackTable.HANDLER_VIDEO);
+        assertEquals(95, video.getSampleCount());
+        for (int i = 0; i < 95; i++) {
+            assertEquals("frame " + i, (int) orphan.frameSizes.get(i), video.sampleSizes[i]);
+        }
+        assertEquals(orphan.keyFrames.size(), video.syncSamples.length);
+        for (int i = 0; i < video.syncSamples.length; i++) {
+            assertEquals((int) orphan.keyFrames.get(i), video.syncSamples[i]);
+        }
+        assertEquals(orphan.chunkOffsets.size(), video.getChunkCount());
+        assertEquals("avc1", Mp4Box.typeString(java.nio.ByteBuffer.wrap(video.sampleEntries[0]).getInt(4)));
+
+        // Every chunk of the rewritten file still starts with a NAL length prefix + slice header
+        try (RandomAccessFile raf = new RandomAccessFile(output, "r")) {
+            for (int c = 0; c < video.chunkOffsets.length; c++) {
+                raf.seek(video.chunkOffsets[c] + 4);
+                int header = raf.read();
+                assertTrue("chunk " + c, header == 0x65 || header == 0x41);
+            }
+        }
+        // The orphan itself is kept, audio bytes included
+        assertTrue(file.exists());
+        assertTrue(result.skippedBytes > 0);
+    }
+
+    @Test
+    public void testCutOffTailIsDropped() throws Exception {
+        File file = tempFolder.newFile("3.mp4");
+        Orphan orphan = writeOrphan(file, 40, 1000, 40, 30, 2);
+        long lastFrame = orphan.chunkOffsets.get(0);
+        for (int i = 0; i < 39; i++) lastFrame += orphan.frameSizes.get(i);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(lastFrame + 500); // killed while writing the last frame
+        }
+        Mp4Recovery.Result result = Mp4Recovery.recover(file, reference(),
+            new File(tempFolder.getRoot(), "3_recovered.mp4"));
+        assertTrue(result.toString(), result.isSuccess());
+        assertEquals(39, result.sampleCount);
+        assertEquals(2, result.syncSampleCount);
+    }
+
+    @Test
+    public void testRecoverAllRegistersRecoveredSegmentInSession() throws Exception {
+        File baseDir = tempFolder.newFolder("SoundTrigger");
+        File session = new File(baseDir, "2026-10-18_03-00-00");
+        assertTrue(session.mkdir());
+        Mp4TestFiles.write(new File(session, "1.mp4"), 0, avcTrack());
+        writeOrphan(new File(session, "2.mp4"), 60, 1500, 15, 30, 3);
+        File emptySession = new File(baseDir, "2026-10-18_04-00-00");
+        assertTrue(emptySession.mkdir());
+        writeOrphan(new File(emptySession, "1.mp4"), 30, 1500, 15, 30, 4);
+
+        List<Mp4Recovery.Result> results = Mp4Recovery.recoverAll(baseDir);
+        assertEquals(2, results.size());
+        for (Mp4Recovery.Result result : results) {
+            // The second session has no finalised segment and borrows the first one's codec config
+            assertTrue(result.toString(), result.isSuccess());
+        }
+        assertTrue(Mp4Recovery.findOrphans(session).isEmpty());
+        List<File> segments = Mp4Recovery.listSessionSegments(session);
+        assertEquals(2, segments.size());
+        assertEquals("1.mp4", segments.get(0).getName());
+        assertEquals("2" + Mp4Recovery.RECOVERED_SUFFIX, segments.get(1).getName());
+
+        // Recovered segments merge with the finalised ones
+        File merged = new File(session, "FINAL.mp4");
+        Mp4Merger.merge(segments, merged);
+        assertEquals(10 + 60, Mp4Movie.parse(merged).getTrack(Mp4TrackTable.HANDLER_VIDEO).getSampleCount());
+
+        assertTrue(Mp4Recovery.recoverAll(baseDir).isEmpty());
+    }
+
+    @Test
+    public void testLargeOrphanRecoveredInSeconds() throws Exception {
+        File file = tempFolder.newFile("4.mp4");
+        writeOrphan(file, 2000, 50000, 30, 60, 5); // ~100 MB, 12 Mbps for 67 s
+        Mp4Recovery.Result result = Mp4Recovery.recover(file, reference(),
+            new File(tempFolder.getRoot(), "4_recovered.mp4"));
+        assertTrue(result.toString(), result.isSuccess());
+        assertEquals(2000, result.sampleCount);
+        assertTrue("Recovery took " + result.elapsedMs + " ms", result.elapsedMs < 5000);
+    }
+}
@@ -0,0 +1,210 @@
+package com.soundmonitor.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds small synthetic MP4 files (ftyp, mdat, moov) for the MP4 tests.
+ *
+ * Every sample is filled with a marker byte so tests can check that chunk offsets
+ * in a rewritten file still point at the right media data.
+ */
+class Mp4TestFiles {
+
+    static class Track {
+        String handler = "vide";
+        long timescale = 90000;
+        int sampleCount = 10;
+        int delta = 3000;
+        int sampleSize = 100;
+        int samplesPerChunk = 5;
+        int[] syncSamples;     // null = no stss
+        int cttsOffset = -1;   // -1 = no ctts, otherwise one offset for all samples
+        byte marker = 1;
+        byte[] entryPayload = { 0, 0, 0, 0, 0, 0, 0, 1 };
+
+        static Track video(byte marker) {
+            Track track = new Track();
+            track.marker = marker;
+            track.syncSamples = new int[] { 1 };
+            return track;
+        }
+
+        static Track audio(byte marker) {
+            Track track = new Track();
+            track.handler = "soun";
+            track.timescale = 48000;
+            track.sampleCount = 15;
+            track.delta = 1024;
+            track.sampleSize = 40;
+            track.samplesPerChunk = 15;
+            track.marker = marker;
+            return track;
+        }
+
+        long mediaBytes() {
+            return (long) sampleCount * sampleSize;
+        }
+
+        int chunkCount() {
+            return (sampleCount + samplesPerChunk - 1) / samplesPerChunk;
+        }
+    }
+
+    /**
+     * avc1 sample entry payload: VisualSampleEntry fields (1280x720) and an avcC with 4-byte NAL lengths
+     */
+    static byte[] avcEntryPayload() throws IOException {
+        byte[] visual = concat(new byte[6], int16(1), new byte[16], int16(1280), int16(720),
+            int32(0x00480000), int32(0x00480000), int32(0), int16(1), new byte[32], int16(0x18), int16(-1));
+        byte[] sps = { 0x67, 0x42, (byte) 0xC0, 0x1F, (byte) 0xDA, 0x01, 0x40, 0x16 };
+        byte[] pps = { 0x68, (byte) 0xCE, 0x3C, (byte) 0x80 };
+        byte[] avcC = box("avcC", concat(new byte[] { 1, 0x42, (byte) 0xC0, 0x1F, (byte) 0xFF, (byte) 0xE1 },
+            int16(sps.length), sps, new byte[] { 1 }, int16(pps.length), pps));
+        return concat(visual, avcC);
+    }
+
+    /**
+     * Write ftyp + mdat + moov with the given tracks; creation time in seconds since 1904
+     */
+    static File write(File file, long creationTime, Track... tracks) throws IOException {
+        byte[] ftyp = box("ftyp", concat(fourcc("isom"), int32(0x200), fourcc("isom"), fourcc("mp41")));
+
+        ByteArrayOutputStream media = new ByteArrayOutputStream();
+        long[][] chunkOffsets = new long[tracks.length][];
+        long mdatPayloadStart = ftyp.length + 8;
+        for (int t = 0; t < tracks.length; t++) {
+            Track track = tracks[t];
+            chunkOffsets[t] = new long[track.chunkCount()];
+            for (int s = 0; s < track.sampleCount; s++) {
+                if (s % track.samplesPerChunk == 0) {
+                    chunkOffsets[t][s / track.samplesPerChunk] = mdatPayloadStart + media.size();
+                }
+                for (int b = 0; b < track.sampleSize; b++) media.write(track.marker);
+            }
+        }
+        byte[] mdat = box("mdat", media.toByteArray());
+
+        long longest = 0;
+        for (Track track : tracks) {
+            longest = Math.max(longest, (long) track.sampleCount * track.delta * 1000 / track.timescale);
+        }
+        List<byte[]> moovChildren = new ArrayList<>();
+        moovChildren.add(fullBox("mvhd", 0, 0, concat(int32(creationTime), int32(creationTime), int32(1000),
+            int32(longest), int32(0x00010000), int16(0x0100), new byte[10], matrix(), new byte[24],
+            int32(tracks.length + 1))));
+        for (int t = 0; t < tracks.length; t++) {
+            moovChildren.add(trak(tracks[t], t + 1, chunkOffsets[t]));
+        }
+        byte[] moov = box("moov", moovChildren.toArray(new byte[0][]));
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(ftyp);
+            out.write(mdat);
+            out.write(moov);
+        }
+        return file;
+    }
+
+    /**
+     * Write only ftyp + mdat, like a recording cut off before its moov was written
+     */
+    static File writeUnfinalised(File file, int mediaBytes) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(box("ftyp", concat(fourcc("isom"), int32(0x200))));
+            out.write(box("mdat", new byte[mediaBytes]));
+        }
+        return file;
+    }
+
+    private static byte[] trak(Track track, int trackId, long[] chunkOffsets) throws IOException {
+        long duration = (long) track.sampleCount * track.delta;
+        byte[] tkhd = fullBox("tkhd", 0, 7, concat(int32(0), int32(0), int32(trackId), int32(0),
+            int32(duration * 1000 / track.timescale), new byte[8], int16(0), int16(0),
+            int16(track.handler.equals("soun") ? 0x0100 : 0), int16(0), matrix(),
+            int32(track.handler.equals("vide") ? 1280 << 16 : 0), int32(track.handler.equals("vide") ? 720 << 16 : 0)));
+        byte[] mdhd = fullBox("mdhd", 0, 0, concat(int32(0), int32(0), int32(track.timescale), int32(duration),
+            int16(0x55C4), int16(0)));
+        byte[] hdlr = fullBox("hdlr", 0, 0, concat(int32(0), fourcc(track.handler), new byte[12], new byte[] { 0 }));
+        byte[] mediaHeader = track.handler.equals("vide")
+            ? fullBox("vmhd", 0, 1, new byte[8])
+            : fullBox("smhd", 0, 0, new byte[4]);
+
+        List<byte[]> stbl = new ArrayList<>();
+        String entryType = track.handler.equals("vide") ? "avc1" : "mp4a";
+        stbl.add(fullBox("stsd", 0, 0, concat(int32(1), box(entryType, track.entryPayload))));
+        stbl.add(fullBox("stts", 0, 0, concat(int32(1), int32(track.sampleCount), int32(track.delta))));
+        if (track.cttsOffset >= 0) {
+            stbl.add(fullBox("ctts", 0, 0, concat(int32(1), int32(track.sampleCount), int32(track.cttsOffset))));
+        }
+        if (track.syncSamples != null) {
+            ByteArrayOutputStream sync = new ByteArrayOutputStream();
+            sync.write(int32(track.syncSamples.length));
+            for (int sample : track.syncSamples) sync.write(int32(sample));
+            stbl.add(fullBox("stss", 0, 0, sync.toByteArray()));
+        }
+        ByteArrayOutputStream stsc = new ByteArrayOutputStream();
+        int lastChunkSamples = track.sampleCount - (track.chunkCount() - 1) * track.samplesPerChunk;
+        if (lastChunkSamples == track.samplesPerChunk || track.chunkCount() == 1) {
+            stsc.write(int32(1));
+            stsc.write(concat(int32(1), int32(track.chunkCount() == 1 ? track.sampleCount : track.samplesPerChunk), int32(1)));
+        } else {
+            stsc.write(int32(2));
+            stsc.write(concat(int32(1), int32(track.samplesPerChunk), int32(1)));
+            stsc.write(concat(int32(track.chunkCount()), int32(lastChunkSamples), int32(1)));
+        }
+        stbl.add(fullBox("stsc", 0, 0, stsc.toByteArray()));
+        stbl.add(fullBox("stsz", 0, 0, concat(int32(track.sampleSize), int32(track.sampleCount))));
+        ByteArrayOutputStream stco = new ByteArrayOutputStream();
+        stco.write(int32(chunkOffsets.length));
+        for (long offset : chunkOffsets) stco.write(int32(offset));
+        stbl.add(fullBox("stco", 0, 0, stco.toByteArray()));
+
+        byte[] minf = box("minf", mediaHeader, box("stbl", stbl.toArray(new byte[0][])));
+        byte[] mdia = box("mdia", mdhd, hdlr, minf);
+        return box("trak", tkhd, mdia);
+    }
+
+    // ---- Byte helpers ----
+
+    static byte[] box(String type, byte[]... payloads) throws IOException {
+        byte[] payload = concat(payloads);
+        return concat(int32(payload.length + 8), fourcc(type), payload);
+    }
+
+    static byte[] fullBox(String type, int version, int flags, byte[] payload) throws IOException {
+        return box(type, int32(((long) version << 24) | flags), payload);
+    }
+
+    static byte[] concat(byte[]... parts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) out.write(part);
+        return out.toByteArray();
+    }
+
+    static byte[] int32(long value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeInt((int) value);
+        return bytes.toByteArray();
+    }
+
+    static byte[] int16(int value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeShort(value);
+        return bytes.toByteArray();
+    }
+
+    static byte[] fourcc(String type) {
+        return new byte[] { (byte) type.charAt(0), (byte) type.charAt(1), (byte) type.charAt(2), (byte) type.charAt(3) };
+    }
+
+    private static byte[] matrix() throws IOException {
+        return concat(int32(0x00010000), int32(0), int32(0), int32(0), int32(0x00010000), int32(0),
+            int32(0), int32(0), int32(0x40000000));
+    }
+}
@@ -0,0 +1,114 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Calendar;
+
+/**
+ * Tests for the noise report built from event index aggregates and level history rollups.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class NoiseReportTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private EventIndexDatabase database;
+
+    @Before
+    public void setUp() {
+        database = new EventIndexDatabase(RuntimeEnvironment.getApplication(), null);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    private long localTime(int month, int day, int hour) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2025, month, day, hour, 0, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private void addEvent(long startTime, long durationMs, double peakDb) {
+        database.recordEvent(new EventIndexDatabase.Event(localTime(0, 1, 0), 1, EventIndexDatabase.TYPE_EXCEEDANCE,
+            startTime, startTime + durationMs, peakDb, "/s/audio_session.m4a", 60000));
+    }
+
+    @Test
+    public void testDailyAndWeeklyTotals() {
+        addEvent(localTime(Calendar.SEPTEMBER, 1, 23), 60000, 72);
+        addEvent(localTime(Calendar.SEPTEMBER, 2, 2), 120000, 81);
+        addEvent(localTime(Calendar.SEPTEMBER, 9, 14), 30000, 66);
+        database.flushBlocking();
+
+        NoiseReport report = NoiseReport.generate(database, null,
+            localTime(Calendar.SEPTEMBER, 1, 0), localTime(Calendar.SEPTEMBER, 15, 0));
+
+        assertEquals(3, report.totalEvents);
+        assertEquals(210000, report.totalLoudMs);
+        assertEquals("Only days with data get rows", 3, report.days.size());
+        assertEquals(2, report.getWeeks().size());
+        assertEquals(2, report.getWeeks().get(0).eventCount);
+        assertEquals(81, report.worstEvents.get(0).peakDb, 0.001);
+        assertNull("No level history supplied", report.totalLevels);
+
+        String text = report.render();
+        assertTrue(text.contains("Sound events: 3"));
+        assertTrue(text.contains("Total loud time: 3.5 min"));
+        assertTrue(text.contains("LOUDEST EVENTS"));
+        assertTrue(text.contains("audio_session.m4a (+00:01:00)"));
+    }
+
+    @Test
+    public void testLeqFromLevelHistory() throws Exception {
+        LevelHistoryStore levels = new LevelHistoryStore(tempFolder.newFolder("level_history"));
+        long start = localTime(Calendar.SEPTEMBER, 3, 10);
+        for (long t = start; t <= start + 2 * LevelHistoryStore.TIER_HOUR; t += 1000) {
+            levels.append(t, 60);
+        }
+        levels.close();
+        addEvent(start + 60000, 5000, 70);
+        database.flushBlocking();
+
+        NoiseReport report = NoiseReport.generate(database, levels,
+            localTime(Calendar.SEPTEMBER, 1, 0), localTime(Calendar.SEPTEMBER, 8, 0));
+
+        assertNotNull(report.totalLevels);
+        assertEquals(60, report.totalLevels.leqDb, 0.1);
+        assertEquals(1, report.days.size());
+        assertNotNull(report.days.get(0).levels);
+        assertTrue(report.render().contains("Leq 60.0 dB"));
+    }
+
+    @Test
+    public void testYearReportUsesAggregatesOnly() {
+        for (int day = 0; day < 365; day++) {
+            long dayStart = localTime(Calendar.JANUARY, 1 + day, 0);
+            addEvent(dayStart + 2 * LevelHistoryStore.TIER_HOUR, 60000, 60 + day % 30);
+            addEvent(dayStart + 23 * LevelHistoryStore.TIER_HOUR, 30000, 70 + day % 20);
+        }
+        database.flushBlocking();
+
+        NoiseReport report = NoiseReport.generate(database, null,
+            localTime(Calendar.JANUARY, 1, 0), localTime(Calendar.JANUARY, 366, 0));
+
+        assertEquals(730, report.totalEvents);
+        assertEquals(365, report.days.size());
+        assertTrue("Year report took " + report.generationMs + "ms", report.generationMs < 1000);
+        assertEquals(10, report.worstEvents.size());
+    }
+}
@@ -0,0 +1,111 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+/**
+ * Tests for the multi-resolution peak index written alongside recordings.
+ * Ensures waveform ranges can be read back without decoding audio.
+ */
+public class PeakIndexTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File writeIndex(int frames, long frameMs) throws Exception {
+        File indexFile = PeakIndex.indexFileFor(new File(tempFolder.getRoot(), "audio_session.m4a"));
+        short[] samples = new short[1024];
+        try (PeakIndex.Writer writer = new PeakIndex.Writer(indexFile)) {
+            for (int frame = 0; frame < frames; frame++) {
+                short amplitude = (short) (frame % 100 * 100);
+                for (int i = 0; i < samples.length; i++) {
+                    samples[i] = (short) (i % 2 == 0 ? amplitude : -amplitude);
+                }
+                writer.addFrame(frame * frameMs, samples, samples.length);
+            }
+        }
+        return indexFile;
+    }
+
+    @Test
+    public void testIndexFileNaming() {
+        assertEquals("audio_session.peaks", PeakIndex.indexFileFor(new File("/s/audio_session.m4a")).getName());
+        assertEquals("01.peaks", PeakIndex.indexFileFor(new File("/s/01.mp4")).getName());
+    }
+
+    @Test
+    public void testAllLevelsWrittenAndAggregated() throws Exception {
+        File indexFile = writeIndex(5000, 100);
+        PeakIndex index = PeakIndex.load(indexFile);
+
+        assertEquals("Index must have four zoom levels", 4, index.getLevelCount());
+        assertEquals(5000, index.getEntryCount(0));
+        assertEquals("Level 1 aggregates 16 frames", (5000 + 15) / 16, index.getEntryCount(1));
+        assertTrue("Coarser levels must be smaller", index.getEntryCount(3) < index.getEntryCount(2));
+    }
+
+    @Test
+    public void testQueryPicksLevelWithinPointBudget() throws Exception {
+        File indexFile = writeIndex(5000, 100);
+        PeakIndex index = PeakIndex.load(indexFile);
+
+        // Full 500 s range at most 100 points must come from a coarse level
+        List<PeakIndex.Peak> overview = index.query(0, 500000, 100);
+        assertTrue("Overview must respect point budget", overview.size() <= 100);
+        assertFalse("Overview must not be empty", overview.isEmpty());
+
+        // 2 second window can be served from level 0
+        List<PeakIndex.Peak> detail = index.query(10000, 12000, 100);
+        assertTrue("Detail query should use level 0 frames", detail.size() >= 20 && detail.size() <= 22);
+        for (PeakIndex.Peak peak : detail) {
+            assertTrue("Min must not exceed max", peak.min <= peak.max);
+            assertTrue("RMS must be non-negative", peak.rms >= 0);
+        }
+    }
+
+    @Test
+    public void testPeaksReflectSamples() throws Exception {
+        File indexFile = writeIndex(200, 100);
+        PeakIndex index = PeakIndex.load(indexFile);
+
+        List<PeakIndex.Peak> peaks = index.query(5000, 5001, 10);
+        PeakIndex.Peak frame50 = peaks.get(peaks.size() - 1);
+        assertEquals(5000, frame50.startMs);
+        assertEquals(5000, frame50.max);
+        assertEquals(-5000, frame50.min);
+        assertEquals(5000, frame50.rms);
+    }
+
+    @Test
+    public void testInterruptedIndexStillReadable() throws Exception {
+        File indexFile = writeIndex(100, 100);
+        PeakIndex complete = PeakIndex.load(indexFile);
+        int levelZeroBytes = 8 + complete.getEntryCount(0) * 10;
+
+        // Simulate a crash: trailer and upper levels never written
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+            raf.setLength(levelZeroBytes);
+        }
+
+        PeakIndex truncated = PeakIndex.load(indexFile);
+        assertEquals("Only level 0 survives a crash", 1, truncated.getLevelCount());
+        assertEquals(100, truncated.getEntryCount(0));
+        assertEquals(10, truncated.query(0, 1000, 100).size());
+
+        // Level 0 alone has 100 entries in range: merged down to the budget
+        List<PeakIndex.Peak> overview = truncated.query(0, 10000, 8);
+        assertEquals(8, overview.size());
+        assertEquals(0, overview.get(0).startMs);
+        assertEquals(1300, overview.get(1).startMs);
+        assertEquals(-1200, overview.get(0).min);
+        assertEquals(1200, overview.get(0).max);
+        assertEquals(9900, overview.get(7).max);
+    }
+}
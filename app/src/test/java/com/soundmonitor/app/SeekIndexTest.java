@@ -0,0 +1,140 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Tests for the key frame/event seek index: key frame offsets and presentation times taken
+ * from sample tables, index of a merged file built from the merger's tables, event lookup,
+ * file round trip and build cost for an hour of video.
+ */
+public class SeekIndexTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /** 3 s of 30 fps video, key frame every second, 5 frames per chunk */
+    private static Mp4TestFiles.Track video(byte marker) {
+        Mp4TestFiles.Track video = Mp4TestFiles.Track.video(marker);
+        video.sampleCount = 90;
+        video.syncSamples = new int[] { 1, 31, 61 };
+        return video;
+    }
+
+    @Test
+    public void testKeyFramesFromSampleTables() throws Exception {
+        File file = Mp4TestFiles.write(tempFolder.newFile("1.mp4"), 0, video((byte) 7), Mp4TestFiles.Track.audio((byte) 8));
+        Mp4TrackTable table = Mp4Movie.parse(file).getTrack(Mp4TrackTable.HANDLER_VIDEO);
+        SeekIndex index = SeekIndex.build(table);
+
+        assertEquals(3, index.getKeyFrames().size());
+        for (int i = 0; i < 3; i++) {
+            SeekIndex.KeyFrame keyFrame = index.getKeyFrames().get(i);
+            assertEquals(i * 1000L, keyFrame.timeMs);
+            assertEquals(i * 30 + 1, keyFrame.sampleNumber);
+            assertEquals(table.chunkOffsets[i * 6], keyFrame.offset); // 30 frames = 6 chunks
+            assertEquals(100, keyFrame.size);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(index.seek(2500).offset);
+            assertEquals(7, raf.readByte());
+        }
+        assertEquals(2000, index.seek(2500).timeMs);
+        assertEquals(0, index.seek(-5).timeMs);
+    }
+
+    @Test
+    public void testCompositionOffsetShiftsPresentationTime() throws Exception {
+        Mp4TestFiles.Track reordered = video((byte) 1);
+        reordered.cttsOffset = 6000; // two frames at 90 kHz
+        File file = Mp4TestFiles.write(tempFolder.newFile("1.mp4"), 0, reordered);
+        SeekIndex index = SeekIndex.build(Mp4Movie.parse(file).getTrack(Mp4TrackTable.HANDLER_VIDEO));
+        assertEquals(66, index.getKeyFrames().get(0).timeMs);
+        assertEquals(1066, index.getKeyFrames().get(1).timeMs);
+    }
+
+    @Test
+    public void testMergedIndexMatchesParsedFile() throws Exception {
+        File[] segments = new File[3];
+        for (int i = 0; i < 3; i++) {
+            segments[i] = Mp4TestFiles.write(tempFolder.newFile((i + 1) + ".mp4"), 0,
+                video((byte) (i + 1)), Mp4TestFiles.Track.audio((byte) 9));
+        }
+        File output = tempFolder.newFile("FINAL.mp4");
+        SeekIndex fromMerger;
+        try (Mp4Merger merger = Mp4Merger.open(output)) {
+            for (File segment : segments) merger.append(segment);
+            merger.finish();
+            fromMerger = SeekIndex.build(merger.getTrackTable(Mp4TrackTable.HANDLER_VIDEO));
+        }
+        SeekIndex parsed = SeekIndex.build(Mp4Movie.parse(output).getTrack(Mp4TrackTable.HANDLER_VIDEO));
+
+        assertEquals(9, fromMerger.getKeyFrames().size());
+        assertEquals(parsed.getKeyFrames().size(), fromMerger.getKeyFrames().size());
+        for (int i = 0; i < 9; i++) {
+            assertEquals(parsed.getKeyFrames().get(i).offset, fromMerger.getKeyFrames().get(i).offset);
+            assertEquals(parsed.getKeyFrames().get(i).timeMs, fromMerger.getKeyFrames().get(i).timeMs);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(output, "r")) {
+            raf.seek(fromMerger.seek(7000).offset);
+            assertEquals(3, raf.readByte());
+        }
+    }
+
+    @Test
+    public void testEventsSavedAndLoaded() throws Exception {
+        File file = Mp4TestFiles.write(tempFolder.newFile("FINAL.mp4"), 0, video((byte) 1));
+        SeekIndex index = SeekIndex.build(Mp4Movie.parse(file).getTrack(Mp4TrackTable.HANDLER_VIDEO));
+        index.addEvent(0, 1200, "Trigger 1 - peak 71.0 dB");
+        index.addEvent(2400, 600, "Trigger 2 - peak 80.5 dB");
+
+        File indexFile = SeekIndex.indexFileFor(file);
+        assertEquals("FINAL.seek", indexFile.getName());
+        index.save(indexFile);
+
+        SeekIndex loaded = SeekIndex.load(indexFile);
+        assertEquals(3, loaded.getKeyFrames().size());
+        assertEquals(2, loaded.getEvents().size());
+        SeekIndex.Event second = loaded.getEvents().get(1);
+        assertEquals(2400, second.timeMs);
+        assertEquals(600, second.durationMs);
+        assertEquals("Trigger 2 - peak 80.5 dB", second.label);
+        assertEquals(2000, loaded.keyFrameOf(second).timeMs);
+        assertEquals(index.getKeyFrames().get(2).offset, loaded.keyFrameOf(second).offset);
+    }
+
+    @Test
+    public void testHourOfVideoIndexedInMilliseconds() {
+        // 1 h at 30 fps, key frame every second, 15 frames per chunk
+        int samples = 3600 * 30;
+        Mp4TrackTable table = new Mp4TrackTable();
+        table.timescale = 90000;
+        table.sampleSizes = new int[samples];
+        Arrays.fill(table.sampleSizes, 20000);
+        table.sttsCounts = new int[] { samples };
+        table.sttsDeltas = new int[] { 3000 };
+        table.syncSamples = new int[3600];
+        for (int i = 0; i < 3600; i++) table.syncSamples[i] = i * 30 + 1;
+        table.stscFirstChunk = new int[] { 1 };
+        table.stscSamplesPerChunk = new int[] { 15 };
+        table.stscDescriptionIndex = new int[] { 1 };
+        table.chunkOffsets = new long[samples / 15];
+        for (int i = 0; i < table.chunkOffsets.length; i++) table.chunkOffsets[i] = 40 + i * 15 * 20000L;
+
+        long start = System.nanoTime();
+        SeekIndex index = SeekIndex.build(table);
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(3600, index.getKeyFrames().size());
+        assertEquals(3599000, index.getKeyFrames().get(3599).timeMs);
+        assertEquals(40 + 3599 * 30 * 20000L, index.getKeyFrames().get(3599).offset);
+        assertTrue("Build took " + elapsedMs + " ms", elapsedMs < 200);
+    }
+}
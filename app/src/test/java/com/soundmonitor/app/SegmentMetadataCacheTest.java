@@ -0,0 +1,142 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the per-session segment metadata cache: codec parameters read from the index,
+ * stale entries after a file changes, derived entries for merged files, and a 200-segment
+ * session finalised without parsing any container twice.
+ */
+public class SegmentMetadataCacheTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static Mp4TestFiles.Track avcVideo(int frames) throws Exception {
+        Mp4TestFiles.Track video = Mp4TestFiles.Track.video((byte) 1);
+        video.entryPayload = Mp4TestFiles.avcEntryPayload();
+        video.sampleCount = frames;
+        return video;
+    }
+
+    private static Mp4TestFiles.Track stereoAac() throws Exception {
+        Mp4TestFiles.Track audio = Mp4TestFiles.Track.audio((byte) 2);
+        // AudioSampleEntry: reserved, data_reference_index, reserved, channelcount, samplesize, ..., samplerate
+        audio.entryPayload = Mp4TestFiles.concat(new byte[6], Mp4TestFiles.int16(1), new byte[8],
+            Mp4TestFiles.int16(2), Mp4TestFiles.int16(16), new byte[4], Mp4TestFiles.int32(48000L << 16));
+        return audio;
+    }
+
+    @Test
+    public void testProbeReadsDurationAndCodecs() throws Exception {
+        File file = Mp4TestFiles.write(tempFolder.newFile("1.mp4"), 0, avcVideo(30), stereoAac());
+        SegmentMetadataCache cache = new SegmentMetadataCache();
+        SegmentMetadataCache.Entry entry = cache.probe(file);
+
+        assertEquals(1000, entry.durationMs);
+        assertEquals(file.length(), entry.sizeBytes);
+        assertEquals("avc1", entry.videoCodec);
+        assertEquals(1280, entry.width);
+        assertEquals(720, entry.height);
+        assertEquals(30.0, entry.frameRate, 0.01);
+        assertEquals("mp4a", entry.audioCodec);
+        assertEquals(48000, entry.sampleRate);
+        assertEquals(2, entry.channels);
+        assertEquals("avc1 1280x720 @ 30.0 fps, mp4a 48000 Hz x2", entry.formatCodecs());
+        assertNull(entry.sha256);
+        assertSame(entry, cache.get(file));
+    }
+
+    @Test
+    public void testChangedFileIsNotServedFromCache() throws Exception {
+        File file = Mp4TestFiles.write(tempFolder.newFile("1.mp4"), 0, avcVideo(10));
+        SegmentMetadataCache cache = new SegmentMetadataCache();
+        cache.probe(file);
+        cache.putHash(file, "abc");
+        assertEquals("abc", cache.get(file).sha256);
+        assertEquals(333, cache.get(file).durationMs);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() + 1);
+        }
+        assertNull(cache.get(file));
+        cache.getOrProbe(file);
+        assertEquals(2, cache.getProbeCount());
+    }
+
+    @Test
+    public void testHashWithoutProbeKeepsUnknownDuration() throws Exception {
+        File file = tempFolder.newFile("audio.m4a");
+        SegmentMetadataCache cache = new SegmentMetadataCache();
+        cache.putHash(file, "abc");
+        assertEquals(-1, cache.get(file).durationMs);
+        assertEquals("unknown", cache.get(file).formatCodecs());
+        assertEquals(0, cache.getProbeCount());
+        assertEquals(1, cache.getHashCount());
+    }
+
+    @Test
+    public void testFragmentedDurationFromFragments() throws Exception {
+        File file = tempFolder.newFile("audio.m4a");
+        FragmentedMp4Writer writer = FragmentedMp4Writer.create(file, 1000,
+            FragmentedMp4Writer.TrackFormat.aac(44100, 1, new byte[] { 0x12, 0x08 }, 128000));
+        writer.setSyncEachFragment(false);
+        for (int i = 0; i < 431; i++) {
+            writer.writeSample(0, new byte[200], 1024, true);
+        }
+        writer.close();
+
+        SegmentMetadataCache.Entry entry = new SegmentMetadataCache().probe(file);
+        assertEquals(431 * 1024 * 1000L / 44100, entry.durationMs);
+        assertEquals("mp4a", entry.audioCodec);
+        assertNull(entry.videoCodec);
+    }
+
+    @Test
+    public void testSessionFinalisedWithoutReparsing() throws Exception {
+        File session = tempFolder.newFolder("session");
+        SegmentMetadataCache cache = new SegmentMetadataCache();
+        List<File> segments = new ArrayList<>();
+        for (int i = 1; i <= 200; i++) {
+            File segment = Mp4TestFiles.write(new File(session, i + ".mp4"), 0, avcVideo(30), stereoAac());
+            segments.add(segment);
+            cache.probe(segment);        // at segment close
+            cache.putHash(segment, "h" + i);
+        }
+
+        // Finalisation: merge, then manifest, info file and subtitles all look segments up again
+        File merged = new File(session, "FINAL.mp4");
+        Mp4Merger.Result result = Mp4Merger.merge(segments, merged);
+        SegmentMetadataCache.Entry finalEntry = cache.putDerived(merged, result.durationMs, cache.get(segments.get(0)));
+        long total = 0;
+        for (int pass = 0; pass < 3; pass++) {
+            total = 0;
+            for (File segment : segments) {
+                SegmentMetadataCache.Entry entry = cache.getOrProbe(segment);
+                assertNotNull(entry.sha256);
+                total += entry.durationMs;
+            }
+        }
+        assertSame(finalEntry, cache.getOrProbe(merged));
+
+        assertEquals(200, cache.getProbeCount());
+        assertEquals(201, cache.size());
+        assertEquals(200 * 1000L, total);
+        assertEquals(result.durationMs, finalEntry.durationMs);
+        assertEquals("avc1 1280x720 @ 30.0 fps, mp4a 48000 Hz x2", finalEntry.formatCodecs());
+        assertNull(finalEntry.sha256);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getProbeCount());
+    }
+}
@@ -0,0 +1,186 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+/**
+ * Tests for the per-session manifest and the top-level sessions index
+ * that replace folder scans when browsing, exporting and verifying.
+ */
+public class SessionManifestTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File baseDir;
+    private File sessionFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        baseDir = tempFolder.newFolder("SoundTrigger");
+        sessionFolder = new File(baseDir, "0902_1420");
+        assertTrue(sessionFolder.mkdirs());
+    }
+
+    private File writeFile(String name, int size) throws IOException {
+        File file = new File(sessionFolder, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[size]);
+        }
+        return file;
+    }
+
+    @Test
+    public void testKindsFromServiceFileNames() {
+        assertEquals(SessionManifest.KIND_SEGMENT, SessionManifest.kindFor("01.mp4"));
+        assertEquals(SessionManifest.KIND_FINAL, SessionManifest.kindFor("FINAL.mp4"));
+        assertEquals(SessionManifest.KIND_AUDIO, SessionManifest.kindFor("audio_session.m4a"));
+        assertEquals(SessionManifest.KIND_SUBTITLE, SessionManifest.kindFor("01_SUB.srt"));
+        assertEquals(SessionManifest.KIND_INFO, SessionManifest.kindFor("01_META.txt"));
+        assertEquals(SessionManifest.KIND_TIMESTAMP, SessionManifest.kindFor("FINAL_timestamp.txt"));
+        assertEquals(SessionManifest.KIND_PEAKS, SessionManifest.kindFor("01.peaks"));
+        assertEquals(SessionManifest.KIND_REPORT, SessionManifest.kindFor("NOISE_REPORT.txt"));
+    }
+
+    @Test
+    public void testSaveAndLoadRoundTrip() throws Exception {
+        SessionManifest manifest = new SessionManifest("0902_1420", EventIndexDatabase.MODE_VIDEO, 1756822800000L);
+        manifest.putFile(writeFile("01.mp4", 4096), 61000, "ab12");
+        manifest.putFile(writeFile("01_SUB.srt", 100), -1, null);
+        manifest.putFile(writeFile("02.mp4", 2048), 30500, "cd34");
+        manifest.setEndTime(1756822900000L);
+        manifest.setEventSummary(2, 83.5, 91500);
+        manifest.save(sessionFolder);
+
+        SessionManifest loaded = SessionManifest.load(sessionFolder);
+        assertEquals("0902_1420", loaded.getSessionName());
+        assertEquals(EventIndexDatabase.MODE_VIDEO, loaded.getMode());
+        assertEquals(1756822900000L, loaded.getEndTime());
+        assertEquals(2, loaded.getEventCount());
+        assertEquals(83.5, loaded.getPeakDb(), 0.001);
+        assertEquals(3, loaded.getFiles().size());
+        assertEquals(2, loaded.getFiles(SessionManifest.KIND_SEGMENT).size());
+        assertEquals(61000, loaded.getFile("01.mp4").durationMs);
+        assertEquals("ab12", loaded.getFile("01.mp4").sha256);
+        assertNull(loaded.getFile("01_SUB.srt").sha256);
+        assertEquals(4096 + 100 + 2048, loaded.getTotalBytes());
+        assertFalse("Temp file must not be left behind", new File(sessionFolder, SessionManifest.FILE_NAME + ".tmp").exists());
+    }
+
+    @Test
+    public void testMissingManifestReturnsNull() throws Exception {
+        assertNull(SessionManifest.load(sessionFolder));
+    }
+
+    @Test
+    public void testUnchangedFileKeepsHash() throws Exception {
+        SessionManifest manifest = new SessionManifest("0902_1420", EventIndexDatabase.MODE_VIDEO, 1L);
+        File segment = writeFile("01.mp4", 512);
+        manifest.putFile(segment, 1000, "hash");
+        manifest.putFile(segment, -1, null);
+        assertEquals("hash", manifest.getFile("01.mp4").sha256);
+        assertEquals(1000, manifest.getFile("01.mp4").durationMs);
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptManifestDetected() throws Exception {
+        SessionManifest manifest = new SessionManifest("0902_1420", EventIndexDatabase.MODE_VIDEO, 1L);
+        manifest.putFile(writeFile("01.mp4", 10), 1000, "hash");
+        manifest.save(sessionFolder);
+
+        try (RandomAccessFile raf = new RandomAccessFile(SessionManifest.manifestFileFor(sessionFolder), "rw")) {
+            raf.seek(12);
+            raf.write(0x7F);
+        }
+        SessionManifest.load(sessionFolder);
+    }
+
+    @Test
+    public void testJournalAppendsOnlyChangesAndReplaysOnLoad() throws Exception {
+        SessionManifest manifest = new SessionManifest("0902_1420", EventIndexDatabase.MODE_VIDEO, 1L);
+        manifest.putFile(writeFile("01.mp4", 100), 1000, "aa");
+        manifest.saveIncremental(sessionFolder); // no manifest on disk yet: full save
+        long baseLength = SessionManifest.manifestFileFor(sessionFolder).length();
+        assertFalse(SessionManifest.journalFileFor(sessionFolder).exists());
+
+        manifest.putFile(writeFile("02.mp4", 200), 2000, "bb");
+        manifest.setEventSummary(2, 80, 3000);
+        manifest.saveIncremental(sessionFolder);
+        manifest.putFile(writeFile("01.mp4", 150), 1500, "cc"); // replaced entry
+        manifest.saveIncremental(sessionFolder);
+
+        assertEquals("Base manifest untouched by incremental saves",
+            baseLength, SessionManifest.manifestFileFor(sessionFolder).length());
+        SessionManifest loaded = SessionManifest.load(sessionFolder);
+        assertEquals(2, loaded.getFiles().size());
+        assertEquals("cc", loaded.getFile("01.mp4").sha256);
+        assertEquals(1500, loaded.getFile("01.mp4").durationMs);
+        assertEquals(2000, loaded.getFile("02.mp4").durationMs);
+        assertEquals(2, loaded.getEventCount());
+
+        // A full save folds the journal in and removes it
+        loaded.save(sessionFolder);
+        assertFalse(SessionManifest.journalFileFor(sessionFolder).exists());
+        assertEquals(2, SessionManifest.load(sessionFolder).getFiles().size());
+    }
+
+    @Test
+    public void testTornJournalTailAndStaleRecordsIgnored() throws Exception {
+        SessionManifest manifest = new SessionManifest("0902_1420", EventIndexDatabase.MODE_VIDEO, 1L);
+        manifest.putFile(writeFile("01.mp4", 100), 1000, "aa");
+        manifest.save(sessionFolder);
+        manifest.putFile(writeFile("02.mp4", 200), 2000, "bb");
+        manifest.saveIncremental(sessionFolder);
+        manifest.putFile(writeFile("03.mp4", 300), 3000, "cc");
+        manifest.saveIncremental(sessionFolder);
+
+        // Crash in the middle of the last append
+        File journal = SessionManifest.journalFileFor(sessionFolder);
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        SessionManifest loaded = SessionManifest.load(sessionFolder);
+        assertNotNull(loaded.getFile("02.mp4"));
+        assertNull(loaded.getFile("03.mp4"));
+
+        // Journal left behind by a crash right after a full save belongs to the older manifest
+        byte[] stale = java.nio.file.Files.readAllBytes(journal.toPath());
+        SessionManifest other = new SessionManifest("0902_1420", EventIndexDatabase.MODE_VIDEO, 1L);
+        other.putFile(new File(sessionFolder, "01.mp4"), 1000, "aa");
+        other.setEventSummary(1, 70, 500);
+        other.save(sessionFolder);
+        java.nio.file.Files.write(journal.toPath(), stale);
+        assertNull(SessionManifest.load(sessionFolder).getFile("02.mp4"));
+    }
+
+    @Test
+    public void testSessionsIndexReplacesByNameAndStart() throws Exception {
+        SessionManifest first = new SessionManifest("0902_1420", EventIndexDatabase.MODE_VIDEO, 1000L);
+        SessionManifest second = new SessionManifest("0903_0800_AUDIO", EventIndexDatabase.MODE_AUDIO, 2000L);
+        SessionManifest.updateIndex(baseDir, first.toIndexEntry());
+        SessionManifest.updateIndex(baseDir, second.toIndexEntry());
+
+        first.setEventSummary(5, 90, 1000);
+        SessionManifest.updateIndex(baseDir, first.toIndexEntry());
+
+        // Same folder name a year later is a different session
+        SessionManifest nextYear = new SessionManifest("0902_1420", EventIndexDatabase.MODE_VIDEO, 3000L);
+        SessionManifest.updateIndex(baseDir, nextYear.toIndexEntry());
+
+        List<SessionManifest.IndexEntry> entries = SessionManifest.readIndex(baseDir);
+        assertEquals(3, entries.size());
+        assertEquals(5, entries.get(0).eventCount);
+        assertEquals("0903_0800_AUDIO", entries.get(1).name);
+        assertEquals(3000L, entries.get(2).startTime);
+    }
+}
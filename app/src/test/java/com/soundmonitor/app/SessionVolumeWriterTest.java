@@ -0,0 +1,270 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for splitting a session's incremental merge into size-limited volumes, with a soak
+ * test over 5,000 segments showing memory and finalisation time stay flat as a session grows.
+ */
+public class SessionVolumeWriterTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File segment(File folder, String name, byte marker) throws Exception {
+        return Mp4TestFiles.write(new File(folder, name), 0,
+            Mp4TestFiles.Track.video(marker), Mp4TestFiles.Track.audio(marker));
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void testVolumeAndCompanionNames() {
+        File folder = new File("session");
+        assertEquals("FINAL.mp4", SessionVolumeWriter.volumeFile(folder, 1).getName());
+        assertEquals("FINAL_002.mp4", SessionVolumeWriter.volumeFile(folder, 2).getName());
+        assertEquals("FINAL_123.mp4", SessionVolumeWriter.volumeFile(folder, 123).getName());
+        assertEquals("FINAL_002_SUB.srt", SessionVolumeWriter.companionFile(
+            SessionVolumeWriter.volumeFile(folder, 2), SessionVolumeWriter.SUBTITLE_SUFFIX).getName());
+        assertEquals(SessionManifest.KIND_FINAL, SessionManifest.kindFor("FINAL_002.mp4"));
+    }
+
+    @Test
+    public void testSplitsAtLimitWithCompanionFiles() throws Exception {
+        File sources = tempFolder.newFolder("segments");
+        File folder = tempFolder.newFolder("20261018_030000");
+        List<File> segments = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            segments.add(segment(sources, String.format("%02d.mp4", i), (byte) i));
+        }
+
+        // Room for two segments' media per volume, not three
+        List<SessionVolumeWriter.Volume> closed = new ArrayList<>();
+        SessionVolumeWriter writer = new SessionVolumeWriter(folder, 2 * segments.get(0).length(), closed::add);
+        for (int i = 0; i < segments.size(); i++) {
+            long offset = writer.append(segments.get(i));
+            writer.getChapters().addCue(offset, writer.getDurationMs(), "Trigger " + (i + 1));
+            writer.getSubtitles().addCue(offset, offset + 200, "t" + (i + 1));
+        }
+        assertEquals(2, closed.size());
+        assertTrue(new File(folder, "FINAL_003.mp4" + SessionVolumeWriter.PART_SUFFIX).exists());
+        List<SessionVolumeWriter.Volume> volumes = writer.finish();
+
+        assertEquals(3, volumes.size());
+        assertEquals(volumes, closed);
+        assertEquals(2, volumes.get(0).segmentCount);
+        assertEquals(2, volumes.get(1).segmentCount);
+        assertEquals(1, volumes.get(2).segmentCount);
+        assertEquals(5, writer.getSegmentCount());
+        assertFalse(new File(folder, "FINAL_003.mp4" + SessionVolumeWriter.PART_SUFFIX).exists());
+
+        long totalMs = 0;
+        for (SessionVolumeWriter.Volume volume : volumes) {
+            assertEquals(SessionVolumeWriter.volumeFile(folder, volume.number), volume.file);
+            Mp4Movie movie = Mp4Movie.parse(volume.file);
+            assertEquals(4, movie.tracks.size()); // video, audio, timestamps, chapters
+            assertEquals(volume.durationMs, movie.getDurationMs());
+            totalMs += volume.durationMs;
+        }
+        assertEquals(totalMs, writer.getTotalDurationMs());
+
+        // Each volume's cues and events start again on its own timeline
+        String srt = new String(Files.readAllBytes(new File(folder, "FINAL_002_SUB.srt").toPath()), "UTF-8");
+        assertTrue(srt, srt.startsWith("1\n00:00:00,000 --> 00:00:00,200\nt3\n\n2\n"));
+        SeekIndex index = SeekIndex.load(new File(folder, "FINAL_002" + SeekIndex.FILE_EXTENSION));
+        assertEquals(2, index.getEvents().size());
+        assertEquals("Trigger 3", index.getEvents().get(0).label);
+        assertEquals(0, index.getEvents().get(0).timeMs);
+        assertEquals("Trigger 4", index.getEvents().get(1).label);
+    }
+
+    @Test
+    public void testVolumesHashedWhileWritten() throws Exception {
+        String seed = java.util.Base64.getEncoder().encodeToString(new byte[] { 1, 2, 3 });
+        File sources = tempFolder.newFolder("segments");
+        File folder = tempFolder.newFolder("20261018_030000");
+        List<File> segments = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            segments.add(segment(sources, String.format("%02d.mp4", i), (byte) i));
+        }
+
+        EvidenceHasher hasher = new EvidenceHasher();
+        SessionVolumeWriter writer = new SessionVolumeWriter(folder, 2 * segments.get(0).length(), null);
+        writer.setEvidenceHasher(hasher, seed);
+        for (File segment : segments) {
+            long offset = writer.append(segment);
+            writer.getChapters().addCue(offset, writer.getDurationMs(), segment.getName());
+            writer.getSubtitles().addCue(offset, writer.getDurationMs(), segment.getName());
+        }
+        List<SessionVolumeWriter.Volume> volumes = writer.finish();
+        assertEquals(2, volumes.size());
+
+        for (SessionVolumeWriter.Volume volume : volumes) {
+            assertNotNull(volume.digests);
+            EvidenceHasher.Digests read = EvidenceHasher.compute(volume.file, java.util.Collections.singletonList(seed));
+            assertEquals(read.sha256, volume.digests.sha256);
+            assertEquals(read.seeded(seed), volume.digests.seeded(seed));
+            // Memoised under the volume's final name: asking again reads nothing
+            assertSame(volume.digests, hasher.hash(volume.file, seed));
+        }
+        assertEquals(0, hasher.getPassCount());
+        assertEquals(2, hasher.getHashedOnWriteCount());
+    }
+
+    @Test
+    public void testResumeAfterCrashKeepsClosedVolumesAndDropsPart() throws Exception {
+        File sources = tempFolder.newFolder("segments");
+        File folder = tempFolder.newFolder("20261018_030000");
+        List<File> segments = new ArrayList<>();
+        for (int i = 1; i <= 6; i++) {
+            segments.add(segment(sources, String.format("%02d.mp4", i), (byte) i));
+        }
+        long limit = 2 * segments.get(0).length();
+
+        // Killed with two volumes closed and the third one open
+        SessionVolumeWriter crashed = new SessionVolumeWriter(folder, limit, null);
+        for (File segment : segments.subList(0, 5)) {
+            crashed.append(segment);
+        }
+        File part = new File(folder, "FINAL_003.mp4" + SessionVolumeWriter.PART_SUFFIX);
+        assertTrue(part.exists());
+        try (FileOutputStream torn = new FileOutputStream(SessionVolumeWriter.logFileFor(folder), true)) {
+            torn.write("FINAL_003.mp4\t0".getBytes("UTF-8"));
+        }
+        long firstLength = SessionVolumeWriter.volumeFile(folder, 1).length();
+
+        List<SessionVolumeWriter.Volume> closed = new ArrayList<>();
+        SessionVolumeWriter resumed = SessionVolumeWriter.resume(folder, limit, closed::add);
+        assertFalse(part.exists());
+        assertEquals(2, resumed.getResumedVolumes().size());
+        assertEquals(SessionVolumeWriter.volumeFile(folder, 2), resumed.getResumedVolumes().get(1));
+        assertEquals("04.mp4", resumed.getResumedAfter());
+        for (File segment : segments.subList(4, 6)) {
+            resumed.append(segment);
+        }
+        List<SessionVolumeWriter.Volume> volumes = resumed.finish();
+
+        assertEquals(1, volumes.size());
+        assertEquals(volumes, closed);
+        assertEquals(3, volumes.get(0).number);
+        assertEquals(SessionVolumeWriter.volumeFile(folder, 3), volumes.get(0).file);
+        assertEquals(2, volumes.get(0).segmentCount);
+        assertEquals(firstLength, SessionVolumeWriter.volumeFile(folder, 1).length());
+
+        // The log now covers all three volumes, so a second resume has nothing left to merge
+        SessionVolumeWriter again = SessionVolumeWriter.resume(folder, limit, null);
+        assertEquals(3, again.getResumedVolumes().size());
+        assertEquals("06.mp4", again.getResumedAfter());
+        assertTrue(again.finish().isEmpty());
+    }
+
+    @Test
+    public void testRejectedSegmentLeavesNoVolume() throws Exception {
+        File folder = tempFolder.newFolder("20261018_030000");
+        File broken = new File(folder, "01.mp4");
+        try (FileOutputStream out = new FileOutputStream(broken)) {
+            out.write(new byte[64]);
+        }
+
+        SessionVolumeWriter writer = new SessionVolumeWriter(folder, SessionVolumeWriter.DEFAULT_VOLUME_LIMIT_BYTES, null);
+        try {
+            writer.append(broken);
+            fail("Unreadable segment accepted");
+        } catch (Mp4Merger.SegmentRejectedException expected) {
+            // nothing written for it
+        }
+        assertTrue(writer.finish().isEmpty());
+        assertFalse(SessionVolumeWriter.volumeFile(folder, 1).exists());
+        assertFalse(new File(folder, "FINAL.mp4" + SessionVolumeWriter.PART_SUFFIX).exists());
+    }
+
+    @Test
+    public void testSoakFiveThousandSegmentsMemoryAndFinishStayFlat() throws Exception {
+        final int segmentCount = 5000;
+        final int segmentsPerVolume = 16;
+        File folder = tempFolder.newFolder("20261018_030000");
+        byte[] template = Files.readAllBytes(segment(tempFolder.newFolder("template"), "01.mp4", (byte) 1).toPath());
+
+        SessionManifest manifest = new SessionManifest(folder.getName(), EventIndexDatabase.MODE_VIDEO, 1L);
+        manifest.save(folder);
+        List<SessionVolumeWriter.Volume> closed = new ArrayList<>();
+        SessionVolumeWriter writer = new SessionVolumeWriter(folder, segmentsPerVolume * (long) template.length, closed::add);
+
+        long[] blockMs = new long[segmentCount / 1000];
+        long heapAt1000 = 0;
+        int maxOpenCues = 0;
+        long blockStart = System.nanoTime();
+        for (int i = 1; i <= segmentCount; i++) {
+            // A segment closes: it is recorded in the manifest and appended with its timed text
+            File segment = new File(folder, String.format("%04d.mp4", i));
+            Files.write(segment.toPath(), template);
+            manifest.putFile(segment, 333, "hash" + i);
+            manifest.saveIncremental(folder);
+
+            long offset = writer.append(segment);
+            writer.getChapters().addCue(offset, writer.getDurationMs(), "Trigger " + i + " - 2026-10-18 03:00:00 UTC - peak 71.5 dB");
+            writer.getSubtitles().addCue(offset, writer.getDurationMs(), "2026-10-18 03:00:00 UTC\n54.2 dB (max 61.0 dB)");
+            maxOpenCues = Math.max(maxOpenCues, writer.getSubtitles().getCueCount());
+
+            if (i % 1000 == 0) {
+                blockMs[i / 1000 - 1] = (System.nanoTime() - blockStart) / 1000000;
+                if (i == 1000) heapAt1000 = usedHeap();
+                blockStart = System.nanoTime();
+            }
+        }
+        long heapAt5000 = usedHeap();
+
+        long finishStart = System.nanoTime();
+        List<SessionVolumeWriter.Volume> volumes = writer.finish();
+        long finishMs = (System.nanoTime() - finishStart) / 1000000;
+        long manifestStart = System.nanoTime();
+        manifest.save(folder);
+        SessionManifest loaded = SessionManifest.load(folder);
+        long manifestMs = (System.nanoTime() - manifestStart) / 1000000;
+
+        // Every segment landed in exactly one volume; the open volume never held more than one volume of cues
+        int perVolume = volumes.get(0).segmentCount;
+        assertTrue(perVolume >= segmentsPerVolume && perVolume < 3 * segmentsPerVolume);
+        int merged = 0;
+        for (SessionVolumeWriter.Volume volume : volumes) {
+            merged += volume.segmentCount;
+            assertTrue(volume.segmentCount <= perVolume);
+        }
+        assertEquals(segmentCount, merged);
+        assertTrue("Open volume cues: " + maxOpenCues, maxOpenCues <= perVolume);
+        assertEquals(segmentCount, loaded.getFiles(SessionManifest.KIND_SEGMENT).size());
+
+        // Memory: 4,000 more segments cost about their manifest entries, not a growing index
+        long growth = heapAt5000 - heapAt1000;
+        assertTrue("Heap grew by " + growth + " bytes", growth < 8L * 1024 * 1024);
+
+        // Time: the last 1,000 segments cost about the same as the first 1,000
+        assertTrue("Blocks: " + java.util.Arrays.toString(blockMs), blockMs[blockMs.length - 1] <= 3 * blockMs[0] + 1000);
+
+        // Finalisation closes one volume, no slower than the volumes closed early in the session
+        long earlyCloseMs = 0;
+        for (int v = 0; v < 50; v++) {
+            earlyCloseMs = Math.max(earlyCloseMs, closed.get(v).closeMs);
+        }
+        assertTrue("Finish took " + finishMs + " ms, early volumes up to " + earlyCloseMs + " ms",
+            finishMs <= 3 * earlyCloseMs + 100);
+        assertTrue("Manifest compaction took " + manifestMs + " ms", manifestMs < 2000);
+    }
+}
@@ -0,0 +1,104 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Tests for the timed text tracks embedded in merged files: sample layout with gaps,
+ * SRT output, and subtitle/chapter tracks written by Mp4Merger on the merged timeline.
+ */
+public class TimedTextTrackTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testGapsAndTailFilledWithEmptySamples() {
+        TimedTextTrack text = TimedTextTrack.subtitles();
+        text.addCue(500, 1500, "a");
+        text.addCue(1200, 2000, "bc");   // overlap: moved to start at 1500
+        text.addCue(3000, 3000, "gone"); // no duration
+        text.addCue(3000, 4000, "d");
+
+        TimedTextTrack.Samples samples = text.buildSamples(5000);
+        assertArrayEquals(new int[] { 500, 1000, 500, 1000, 1000, 1000 }, samples.durations);
+        assertArrayEquals(new int[] { 2, 3, 4, 2, 3, 2 }, samples.sizes);
+        assertEquals(16, samples.data.length);
+        assertEquals(1, samples.data[3]);
+        assertEquals('a', samples.data[4]);
+
+        // Cues past the movie end are cut
+        assertArrayEquals(new int[] { 500, 1000, 200 }, text.buildSamples(1700).durations);
+    }
+
+    @Test
+    public void testSrtOutput() {
+        TimedTextTrack text = TimedTextTrack.subtitles();
+        text.addCue(0, 1000, "2026-10-18 03:00:00 UTC\n54.2 dB (max 61.0 dB)");
+        text.addCue(3661000, 3662500, "later");
+        assertEquals("1\n00:00:00,000 --> 00:00:01,000\n2026-10-18 03:00:00 UTC\n54.2 dB (max 61.0 dB)\n\n"
+            + "2\n01:01:01,000 --> 01:01:02,500\nlater\n\n", text.toSrt());
+    }
+
+    @Test
+    public void testMergerEmbedsSubtitleAndChapterTracks() throws Exception {
+        File first = Mp4TestFiles.write(tempFolder.newFile("1.mp4"), 0, Mp4TestFiles.Track.video((byte) 1));
+        File second = Mp4TestFiles.write(tempFolder.newFile("2.mp4"), 0, Mp4TestFiles.Track.video((byte) 2));
+        File output = tempFolder.newFile("FINAL.mp4");
+
+        TimedTextTrack subtitles = TimedTextTrack.subtitles();
+        TimedTextTrack chapters = TimedTextTrack.chapters();
+        try (Mp4Merger merger = Mp4Merger.open(output)) {
+            merger.addTextTrack(subtitles);
+            merger.addTextTrack(chapters);
+            for (File segment : Arrays.asList(first, second)) {
+                long offset = merger.getDurationMs();
+                merger.append(segment);
+                chapters.addCue(offset, merger.getDurationMs(), "Trigger " + segment.getName());
+                subtitles.addCue(offset, offset + 200, "t" + offset);
+            }
+            merger.finish();
+        }
+
+        Mp4Movie movie = Mp4Movie.parse(output);
+        assertEquals(3, movie.tracks.size());
+        Mp4TrackTable timestamps = movie.tracks.get(1);
+        Mp4TrackTable chapterTrack = movie.tracks.get(2);
+        assertEquals(Mp4TrackTable.HANDLER_TEXT, timestamps.handlerType);
+        assertEquals(Mp4TrackTable.HANDLER_TEXT, chapterTrack.handlerType);
+        assertEquals("tx3g", Mp4Box.typeString(ByteBuffer.wrap(timestamps.sampleEntries[0]).getInt(4)));
+        assertEquals(1280 << 16, timestamps.width);
+
+        // Both segments are 333 ms: cue, gap, cue, tail
+        assertEquals(666, timestamps.getMediaDuration());
+        assertEquals(4, timestamps.getSampleCount());
+        assertEquals(2, chapterTrack.getSampleCount());
+        assertEquals(666, chapterTrack.getMediaDuration());
+
+        // Chapter text sits where the chunk offset says
+        try (RandomAccessFile raf = new RandomAccessFile(output, "r")) {
+            raf.seek(chapterTrack.chunkOffsets[0]);
+            byte[] sample = new byte[chapterTrack.sampleSizes[0]];
+            raf.readFully(sample);
+            assertEquals("Trigger 1.mp4", new String(sample, 2, sample.length - 2, "UTF-8"));
+        }
+
+        // Video track references the chapter track; the chapter track is disabled
+        byte[] bytes = java.nio.file.Files.readAllBytes(output.toPath());
+        String layout = new String(bytes, "ISO-8859-1");
+        int tref = layout.indexOf("tref");
+        assertTrue(tref > 0);
+        assertEquals("chap", layout.substring(tref + 8, tref + 12));
+        assertEquals(3, ByteBuffer.wrap(bytes, tref + 12, 4).getInt());
+        int lastTkhd = layout.lastIndexOf("tkhd");
+        assertEquals(0, ByteBuffer.wrap(bytes, lastTkhd + 4, 4).getInt() & 0xFFFFFF);
+    }
+}
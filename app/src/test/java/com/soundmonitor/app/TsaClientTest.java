@@ -0,0 +1,286 @@
+package com.soundmonitor.app;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Tests for the RFC 3161 client against a stand-in TSA on localhost: one token per signed batch
+ * root, tokens checked before they are accepted (status, imprint, nonce, signed attributes,
+ * signature, certificate usage), fallback to the next server, and stored tokens verified.
+ */
+public class TsaClientTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static KeyPair signingKeys;
+    private static KeyPair tsaKeys;
+
+    private HttpServer server;
+
+    @BeforeClass
+    public static void createKeys() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        signingKeys = generator.generateKeyPair();
+        tsaKeys = generator.generateKeyPair();
+    }
+
+    @After
+    public void stopServer() {
+        if (server != null) server.stop(0);
+    }
+
+    /**
+     * A TSA reduced to what RFC 3161 asks of it, with switches for the ways a reply can be wrong
+     */
+    static class StandInTsa {
+        static final String POLICY = "1.3.6.1.4.1.99999.1";
+        static final String OID_ECDSA_SHA256 = "1.2.840.10045.4.3.2";
+        static final String OID_COMMON_NAME = "2.5.4.3";
+        static final String OID_EXTENDED_KEY_USAGE = "2.5.29.37";
+
+        final KeyPair keys;
+        final byte[] certificate;
+        final byte[] name = Der.sequence(Der.set(Der.sequence(Der.oid(OID_COMMON_NAME), Der.utf8String("Stand-in TSA"))));
+        final BigInteger certificateSerial = BigInteger.valueOf(4242);
+        int status = 0;
+        boolean wrongNonce;
+        boolean wrongImprint;
+        boolean alterTstInfo;
+        long serial = 1;
+
+        StandInTsa(KeyPair keys, boolean forTimeStamping) throws Exception {
+            this.keys = keys;
+            String usage = forTimeStamping ? TsaClient.OID_TIME_STAMPING : "1.3.6.1.5.5.7.3.1"; // serverAuth
+            byte[] extensions = Der.explicit(3, Der.sequence(Der.sequence(Der.oid(OID_EXTENDED_KEY_USAGE), Der.bool(true),
+                Der.octetString(Der.sequence(Der.oid(usage))))));
+            long now = System.currentTimeMillis();
+            byte[] tbs = Der.sequence(
+                Der.explicit(0, Der.integer(2)),
+                Der.integer(certificateSerial),
+                Der.sequence(Der.oid(OID_ECDSA_SHA256)),
+                name,
+                Der.sequence(Der.generalizedTime(now - 86400000L), Der.generalizedTime(now + 86400000L)),
+                name,
+                keys.getPublic().getEncoded(),
+                extensions);
+            certificate = Der.sequence(tbs, Der.sequence(Der.oid(OID_ECDSA_SHA256)), Der.bitString(sign(tbs)));
+        }
+
+        byte[] sign(byte[] data) throws Exception {
+            Signature signer = Signature.getInstance("SHA256withECDSA");
+            signer.initSign(keys.getPrivate());
+            signer.update(data);
+            return signer.sign();
+        }
+
+        byte[] respond(byte[] query) throws Exception {
+            if (status != 0) {
+                return Der.sequence(Der.sequence(Der.integer(status), Der.sequence(Der.utf8String("policy not accepted"))));
+            }
+            List<Der.Element> request = Der.parse(query).children();
+            byte[] imprint = request.get(1).encoded();
+            if (wrongImprint) {
+                imprint = Der.sequence(Der.sequence(Der.oid(TsaClient.OID_SHA256), Der.nullValue()), Der.octetString(new byte[32]));
+            }
+            BigInteger nonce = request.get(2).integer();
+            if (wrongNonce) nonce = nonce.add(BigInteger.ONE);
+            byte[] tstInfo = Der.sequence(Der.integer(1), Der.oid(POLICY), imprint, Der.integer(serial++),
+                Der.generalizedTime(System.currentTimeMillis()), Der.integer(nonce));
+
+            byte[] attributes = Der.encode(Der.context(0),
+                Der.sequence(Der.oid(TsaClient.OID_CONTENT_TYPE), Der.set(Der.oid(TsaClient.OID_TST_INFO))),
+                Der.sequence(Der.oid(TsaClient.OID_MESSAGE_DIGEST),
+                    Der.set(Der.octetString(MessageDigest.getInstance("SHA-256").digest(tstInfo)))));
+            byte[] signed = attributes.clone();
+            signed[0] = (byte) Der.SET;
+            byte[] signerInfo = Der.sequence(Der.integer(1), Der.sequence(name, Der.integer(certificateSerial)),
+                Der.sequence(Der.oid(TsaClient.OID_SHA256)), attributes, Der.sequence(Der.oid(OID_ECDSA_SHA256)),
+                Der.octetString(sign(signed)));
+            if (alterTstInfo) tstInfo[tstInfo.length - 1] ^= 1;
+            byte[] signedData = Der.sequence(Der.integer(3), Der.set(Der.sequence(Der.oid(TsaClient.OID_SHA256))),
+                Der.sequence(Der.oid(TsaClient.OID_TST_INFO), Der.explicit(0, Der.octetString(tstInfo))),
+                Der.encode(Der.context(0), certificate), Der.set(signerInfo));
+            byte[] token = Der.sequence(Der.oid(TsaClient.OID_SIGNED_DATA), Der.explicit(0, signedData));
+            return Der.sequence(Der.sequence(Der.integer(0)), token);
+        }
+    }
+
+    private String serve(final StandInTsa tsa) throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/tsa", exchange -> {
+            byte[] reply;
+            int code = 200;
+            try (InputStream in = exchange.getRequestBody()) {
+                ByteArrayOutputStream query = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) query.write(buffer, 0, read);
+                boolean typed = TsaClient.CONTENT_TYPE_QUERY.equals(exchange.getRequestHeaders().getFirst("Content-Type"));
+                reply = typed ? tsa.respond(query.toByteArray()) : new byte[0];
+                if (!typed) code = 415;
+            } catch (Exception e) {
+                reply = new byte[0];
+                code = 500;
+            }
+            exchange.getResponseHeaders().set("Content-Type", TsaClient.CONTENT_TYPE_REPLY);
+            exchange.sendResponseHeaders(code, reply.length == 0 ? -1 : reply.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(reply);
+            }
+        });
+        server.createContext("/down", exchange -> {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        server.start();
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @Test
+    public void testOneTokenCoversASignedBatch() throws Exception {
+        String base = serve(new StandInTsa(tsaKeys, true));
+        TsaClient client = new TsaClient(new String[] { base + "/tsa" }, 5000);
+        File folder = tempFolder.newFolder("20260101_120000");
+        BatchTimestamps timestamps = new BatchTimestamps(folder, client);
+
+        try (BatchSigner signer = BatchSigner.open(folder, signingKeys.getPrivate(), signingKeys.getPublic(),
+                BatchSigner.DEFAULT_ALGORITHM, BatchSigner.DEFAULT_INTERVAL_MS)) {
+            for (int batch = 0; batch < 2; batch++) {
+                for (int i = 1; i <= 40; i++) {
+                    signer.add(String.format(Locale.US, "%02d.mp4", batch * 40 + i), String.format(Locale.US, "%064x", batch * 40 + i));
+                }
+                BatchSigner.Batch signed = signer.flush();
+                TsaClient.Token token = timestamps.timestamp(signed);
+                assertEquals(signed.root, token.imprint);
+                assertEquals(StandInTsa.POLICY, token.policy);
+                assertTrue(token.signer, token.signer.contains("Stand-in TSA"));
+                assertTrue(Math.abs(System.currentTimeMillis() - token.genTimeMillis) < 60000);
+            }
+        }
+        assertEquals(2, client.getTokenCount());
+        assertTrue(client.getTokensPerHour() > 0);
+        assertTrue(client.formatStats(), client.formatStats().contains("2 tokens from 2 requests (0 failed)"));
+        assertTrue(client.formatStats(), client.formatStats().contains("40.0 digests per token"));
+
+        // Segment 57 -> its proof -> batch 2's signed root -> that root's token
+        BatchSigner.Verification signatures = BatchSigner.verify(BatchSigner.signaturesFileFor(folder), folder.getName(), null);
+        assertTrue(signatures.toString(), signatures.isIntact());
+        assertEquals(String.format(Locale.US, "%064x", 57), signatures.signedDigests.get("57.mp4"));
+        BatchTimestamps.Verification tokens = BatchTimestamps.verify(timestamps.getFile(), signatures.roots);
+        assertTrue(tokens.toString(), tokens.isIntact());
+        assertEquals(2, tokens.tokens);
+        assertEquals(signatures.roots.get(2), tokens.byBatch.get(2).imprint);
+
+        // A stored token edited, or filed under the other batch, fails
+        String text = new String(java.nio.file.Files.readAllBytes(timestamps.getFile().toPath()), StandardCharsets.UTF_8);
+        String[] lines = text.split("\n");
+        String[] first = lines[0].split("\t");
+        byte[] token = java.util.Base64.getDecoder().decode(first[4]);
+        token[token.length / 2] ^= 1;
+        first[4] = java.util.Base64.getEncoder().encodeToString(token);
+        java.nio.file.Files.write(timestamps.getFile().toPath(),
+            (String.join("\t", first) + "\n" + lines[1] + "\n").getBytes(StandardCharsets.UTF_8));
+        assertFalse(BatchTimestamps.verify(timestamps.getFile(), signatures.roots).isIntact());
+        java.nio.file.Files.write(timestamps.getFile().toPath(),
+            (lines[1].replaceFirst("^TOKEN\t2\t", "TOKEN\t1\t") + "\n").getBytes(StandardCharsets.UTF_8));
+        BatchTimestamps.Verification moved = BatchTimestamps.verify(timestamps.getFile(), signatures.roots);
+        assertTrue(moved.problem, moved.problem.contains("batch 1 has root"));
+    }
+
+    @Test
+    public void testInvalidRepliesAreRejected() throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest("root".getBytes(StandardCharsets.UTF_8));
+        BigInteger nonce = BigInteger.valueOf(123456789);
+        byte[] query = TsaClient.encodeRequest(digest, nonce);
+        List<Der.Element> request = Der.parse(query).children();
+        assertEquals(BigInteger.ONE, request.get(0).integer());
+        assertEquals(TsaClient.OID_SHA256, request.get(1).child(0).child(0).oid());
+        assertArrayEquals(digest, request.get(1).child(1).content());
+        assertEquals(nonce, request.get(2).integer());
+        assertTrue(request.get(3).bool());
+
+        StandInTsa tsa = new StandInTsa(tsaKeys, true);
+        TsaClient.Token token = TsaClient.parseResponse(tsa.respond(query), digest, nonce);
+        assertEquals(nonce, token.nonce);
+        assertArrayEquals(token.encoded, TsaClient.parseToken(token.encoded).encoded);
+
+        tsa.wrongNonce = true;
+        assertRejected(tsa.respond(query), digest, nonce, "nonce");
+        tsa.wrongNonce = false;
+        tsa.wrongImprint = true;
+        assertRejected(tsa.respond(query), digest, nonce, "not the digest sent");
+        tsa.wrongImprint = false;
+        tsa.alterTstInfo = true;
+        assertRejected(tsa.respond(query), digest, nonce, "message digest does not match");
+        tsa.alterTstInfo = false;
+        tsa.status = 2;
+        assertRejected(tsa.respond(query), digest, nonce, "status 2: policy not accepted");
+        assertRejected(new StandInTsa(tsaKeys, false).respond(query), digest, nonce, "not for time stamping");
+
+        // Signed by another key than the certificate's
+        StandInTsa impostor = new StandInTsa(tsaKeys, true) {
+            @Override
+            byte[] sign(byte[] data) throws Exception {
+                Signature signer = Signature.getInstance("SHA256withECDSA");
+                signer.initSign(signingKeys.getPrivate());
+                signer.update(data);
+                return signer.sign();
+            }
+        };
+        assertRejected(impostor.respond(query), digest, nonce, "not valid");
+    }
+
+    private static void assertRejected(byte[] reply, byte[] digest, BigInteger nonce, String reason) {
+        try {
+            TsaClient.parseResponse(reply, digest, nonce);
+            fail("Accepted a reply that should fail with: " + reason);
+        } catch (java.io.IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(reason));
+        }
+    }
+
+    @Test
+    public void testFallsBackToNextServer() throws Exception {
+        String base = serve(new StandInTsa(tsaKeys, true));
+        TsaClient client = new TsaClient(new String[] { base + "/down", base + "/tsa" }, 5000);
+        byte[] digest = new byte[32];
+        Arrays.fill(digest, (byte) 7);
+        TsaClient.Token token = client.timestamp(digest, 1);
+        assertEquals(EvidenceHasher.hex(digest), token.imprint);
+        assertTrue(client.formatStats(), client.formatStats().contains("1 tokens from 2 requests (1 failed)"));
+
+        TsaClient down = new TsaClient(new String[] { base + "/down" }, 5000);
+        try {
+            down.timestamp(digest, 1);
+            fail("No server granted a token");
+        } catch (java.io.IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("HTTP 503"));
+        }
+        assertEquals(0, down.getTokenCount());
+    }
+}